@@ -0,0 +1,33 @@
+package amazon.client;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * This class auto-configures a shared {@link AmazonClientFactory} bean and, when the actuator is present, publishes
+ * the utilization of its connection pools.
+ */
+@Configuration
+@EnableConfigurationProperties(AmazonClientProperties.class)
+public class AmazonClientAutoConfiguration {
+
+    @Bean
+    @ConditionalOnMissingBean(AmazonClientFactory.class)
+    public AmazonClientFactory amazonClientFactory(AmazonClientProperties amazonClientProperties) {
+        return new AmazonClientFactory(amazonClientProperties);
+    }
+
+    @Configuration
+    @ConditionalOnClass(PublicMetrics.class)
+    static class AmazonClientMetricsConfiguration {
+
+        @Bean
+        public AmazonClientMetrics amazonClientMetrics(AmazonClientFactory amazonClientFactory) {
+            return new AmazonClientMetrics(amazonClientFactory);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package amazon.client;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.identitymanagement.AmazonIdentityManagement;
+import com.amazonaws.services.identitymanagement.AmazonIdentityManagementClient;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3Client;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates AWS clients that share one tuned {@link ClientConfiguration}. Every client created by the factory reports
+ * its in-flight requests, so that the utilization of the connection pools can be monitored and sized for bursts.
+ */
+public class AmazonClientFactory {
+
+    private final AmazonClientProperties properties;
+    private final AtomicInteger inFlightRequests = new AtomicInteger();
+    private final AtomicInteger peakInFlightRequests = new AtomicInteger();
+    private final AtomicInteger clients = new AtomicInteger();
+
+    public AmazonClientFactory(AmazonClientProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * Create an Amazon S3 client using the configured connection pool, timeouts and retry policy
+     *
+     * @param credentialsProvider provides the credentials used to sign requests
+     * @return a new Amazon S3 client
+     */
+    public AmazonS3 createS3(AWSCredentialsProvider credentialsProvider) {
+        AmazonS3Client client = new AmazonS3Client(credentialsProvider, createClientConfiguration());
+        client.addRequestHandler(new InFlightRequestHandler());
+        clients.incrementAndGet();
+        return client;
+    }
+
+    /**
+     * Create an AWS IAM client using the configured connection pool, timeouts and retry policy
+     *
+     * @param credentialsProvider provides the credentials used to sign requests
+     * @return a new AWS IAM client
+     */
+    public AmazonIdentityManagement createIdentityManagement(AWSCredentialsProvider credentialsProvider) {
+        return createIdentityManagement(credentialsProvider, ThrottlingListener.NONE);
+    }
+
+    /**
+     * Create an AWS IAM client using the configured connection pool, timeouts and retry policy, that reports each
+     * throttled attempt to a listener before it is retried
+     *
+     * @param credentialsProvider provides the credentials used to sign requests
+     * @param throttlingListener  receives the throttled attempts that are retried
+     * @return a new AWS IAM client
+     */
+    public AmazonIdentityManagement createIdentityManagement(AWSCredentialsProvider credentialsProvider,
+                                                             ThrottlingListener throttlingListener) {
+        AmazonIdentityManagementClient client =
+                new AmazonIdentityManagementClient(credentialsProvider, createClientConfiguration(throttlingListener));
+        client.addRequestHandler(new InFlightRequestHandler());
+        clients.incrementAndGet();
+        return client;
+    }
+
+    /**
+     * Create the client configuration shared by every client of this factory
+     *
+     * @return a new client configuration built from the {@link AmazonClientProperties}
+     */
+    public ClientConfiguration createClientConfiguration() {
+        return createClientConfiguration(ThrottlingListener.NONE);
+    }
+
+    /**
+     * Create a client configuration whose retry policy reports each throttled attempt to a listener
+     *
+     * @param throttlingListener receives the throttled attempts that are retried
+     * @return a new client configuration built from the {@link AmazonClientProperties}
+     */
+    public ClientConfiguration createClientConfiguration(ThrottlingListener throttlingListener) {
+        ClientConfiguration configuration = new ClientConfiguration();
+        configuration.setMaxConnections(properties.getMaxConnections());
+        configuration.setConnectionTTL(properties.getConnectionTtl());
+        configuration.setUseReaper(properties.isUseReaper());
+        configuration.setConnectionMaxIdleMillis(properties.getConnectionMaxIdle());
+        configuration.setUseTcpKeepAlive(properties.isTcpKeepAlive());
+        configuration.setConnectionTimeout(properties.getConnectionTimeout());
+        configuration.setSocketTimeout(properties.getSocketTimeout());
+        configuration.setRequestTimeout(properties.getRequestTimeout());
+        configuration.setRetryPolicy(createRetryPolicy(throttlingListener));
+        return configuration;
+    }
+
+    /**
+     * Create the retry policy of the clients, which backs off throttled requests on their own schedule
+     *
+     * @return a new retry policy built from the {@link AmazonClientProperties}
+     */
+    public RetryPolicy createRetryPolicy() {
+        return createRetryPolicy(ThrottlingListener.NONE);
+    }
+
+    /**
+     * Create a retry policy that reports each throttled attempt to a listener before backing it off
+     *
+     * @param throttlingListener receives the throttled attempts that are retried
+     * @return a new retry policy built from the {@link AmazonClientProperties}
+     */
+    public RetryPolicy createRetryPolicy(ThrottlingListener throttlingListener) {
+        return new RetryPolicy(PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION,
+                new ThrottlingAwareBackoffStrategy(properties.getThrottledBaseDelay(),
+                        properties.getThrottledMaxBackoff(), throttlingListener),
+                properties.getMaxErrorRetry(), false);
+    }
+
+    public AmazonClientProperties getProperties() {
+        return properties;
+    }
+
+    /**
+     * @return the number of requests currently executing across every client of this factory
+     */
+    public int getInFlightRequests() {
+        return inFlightRequests.get();
+    }
+
+    /**
+     * @return the highest number of concurrently executing requests observed since the last call
+     */
+    public int getAndResetPeakInFlightRequests() {
+        return peakInFlightRequests.getAndSet(inFlightRequests.get());
+    }
+
+    /**
+     * Estimate how busy the connection pools are. The requests are counted across every client while each client
+     * has a pool of its own, so a busy client with a full pool shows as a low ratio when other clients are idle. An
+     * in-flight request may also still be waiting for its connection.
+     *
+     * @return the ratio of in-flight requests to the connections of every client of this factory together
+     */
+    public double getEstimatedPoolUtilization() {
+        int capacity = clients.get() * properties.getMaxConnections();
+        return capacity == 0 ? 0 : (double) inFlightRequests.get() / capacity;
+    }
+
+    /**
+     * Tracks the requests that hold, or are waiting for, a pooled connection
+     */
+    class InFlightRequestHandler extends RequestHandler2 {
+
+        @Override
+        public void beforeRequest(Request<?> request) {
+            int inFlight = inFlightRequests.incrementAndGet();
+            peakInFlightRequests.accumulateAndGet(inFlight, Math::max);
+        }
+
+        @Override
+        public void afterResponse(Request<?> request, Response<?> response) {
+            inFlightRequests.decrementAndGet();
+        }
+
+        @Override
+        public void afterError(Request<?> request, Response<?> response, Exception e) {
+            inFlightRequests.decrementAndGet();
+        }
+    }
+
+    /**
+     * Applies exponential backoff with full jitter to throttled requests and the SDK's default backoff to any
+     * other retryable error. Throttled attempts are reported to the listener before they are backed off.
+     */
+    static class ThrottlingAwareBackoffStrategy implements RetryPolicy.BackoffStrategy {
+
+        private final int baseDelay;
+        private final int maxBackoff;
+        private final ThrottlingListener throttlingListener;
+
+        ThrottlingAwareBackoffStrategy(int baseDelay, int maxBackoff, ThrottlingListener throttlingListener) {
+            this.baseDelay = baseDelay;
+            this.maxBackoff = maxBackoff;
+            this.throttlingListener = throttlingListener;
+        }
+
+        @Override
+        public long delayBeforeNextRetry(AmazonWebServiceRequest originalRequest, AmazonClientException exception,
+                                         int retriesAttempted) {
+            if (exception instanceof AmazonServiceException
+                    && RetryUtils.isThrottlingException((AmazonServiceException) exception)) {
+                throttlingListener.throttled((AmazonServiceException) exception);
+                long ceiling = Math.min(maxBackoff, (long) baseDelay << Math.min(retriesAttempted, 20));
+                return ThreadLocalRandom.current().nextLong(ceiling + 1);
+            }
+            return PredefinedRetryPolicies.DEFAULT_BACKOFF_STRATEGY
+                    .delayBeforeNextRetry(originalRequest, exception, retriesAttempted);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package amazon.client;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Publishes the connection pool usage of the clients created by an {@link AmazonClientFactory}
+ */
+public class AmazonClientMetrics implements PublicMetrics {
+
+    private final AmazonClientFactory amazonClientFactory;
+
+    public AmazonClientMetrics(AmazonClientFactory amazonClientFactory) {
+        this.amazonClientFactory = amazonClientFactory;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        return Arrays.asList(
+                new Metric<>("aws.client.in-flight", amazonClientFactory.getInFlightRequests()),
+                new Metric<>("aws.client.in-flight.peak", amazonClientFactory.getAndResetPeakInFlightRequests()),
+                new Metric<>("aws.client.pool.max-connections",
+                        amazonClientFactory.getProperties().getMaxConnections()),
+                new Metric<>("aws.client.pool.estimated-utilization",
+                        amazonClientFactory.getEstimatedPoolUtilization()));
+    }
+}
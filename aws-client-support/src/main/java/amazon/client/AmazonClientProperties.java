@@ -0,0 +1,184 @@
+package amazon.client;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Configuration property group for the connection pool, timeouts and retry behaviour of the AWS clients
+ */
+@ConfigurationProperties(prefix = "aws.client")
+public class AmazonClientProperties {
+
+    private int maxConnections = 100;
+    private long connectionTtl = 60000;
+    private boolean useReaper = true;
+    private long connectionMaxIdle = 30000;
+    private boolean tcpKeepAlive = true;
+    private int connectionTimeout = 10000;
+    private int socketTimeout = 30000;
+    private int requestTimeout = 0;
+    private int maxErrorRetry = 3;
+    private int throttledBaseDelay = 500;
+    private int throttledMaxBackoff = 20000;
+
+    /**
+     * The maximum number of open HTTP connections per client.
+     *
+     * @return the maximum number of open HTTP connections
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * The time to live of a pooled connection in milliseconds, after which it is no longer reused. A value of -1
+     * keeps connections for as long as they are valid.
+     *
+     * @return the pooled connection time to live in milliseconds
+     */
+    public long getConnectionTtl() {
+        return connectionTtl;
+    }
+
+    public void setConnectionTtl(long connectionTtl) {
+        this.connectionTtl = connectionTtl;
+    }
+
+    /**
+     * Whether a background thread closes pooled connections that have been idle for longer than
+     * {@link #getConnectionMaxIdle()}.
+     *
+     * @return true if idle connections are reaped
+     */
+    public boolean isUseReaper() {
+        return useReaper;
+    }
+
+    public void setUseReaper(boolean useReaper) {
+        this.useReaper = useReaper;
+    }
+
+    /**
+     * The time in milliseconds a pooled connection may stay idle before it is closed.
+     *
+     * @return the maximum idle time of a pooled connection in milliseconds
+     */
+    public long getConnectionMaxIdle() {
+        return connectionMaxIdle;
+    }
+
+    public void setConnectionMaxIdle(long connectionMaxIdle) {
+        this.connectionMaxIdle = connectionMaxIdle;
+    }
+
+    /**
+     * Whether TCP keep-alive is enabled on pooled connections.
+     *
+     * @return true if TCP keep-alive is enabled
+     */
+    public boolean isTcpKeepAlive() {
+        return tcpKeepAlive;
+    }
+
+    public void setTcpKeepAlive(boolean tcpKeepAlive) {
+        this.tcpKeepAlive = tcpKeepAlive;
+    }
+
+    /**
+     * The time in milliseconds to wait when establishing a connection.
+     *
+     * @return the connection timeout in milliseconds
+     */
+    public int getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    public void setConnectionTimeout(int connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+    }
+
+    /**
+     * The time in milliseconds to wait for data on an open connection.
+     *
+     * @return the socket timeout in milliseconds
+     */
+    public int getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    public void setSocketTimeout(int socketTimeout) {
+        this.socketTimeout = socketTimeout;
+    }
+
+    /**
+     * The time in milliseconds a single HTTP request may take before it is aborted, or 0 to disable the limit.
+     *
+     * @return the request timeout in milliseconds
+     */
+    public int getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    public void setRequestTimeout(int requestTimeout) {
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * The maximum number of times a failed request is retried.
+     *
+     * @return the maximum number of retries
+     */
+    public int getMaxErrorRetry() {
+        return maxErrorRetry;
+    }
+
+    public void setMaxErrorRetry(int maxErrorRetry) {
+        this.maxErrorRetry = maxErrorRetry;
+    }
+
+    /**
+     * The base delay in milliseconds of the exponential backoff applied when AWS throttles a request.
+     *
+     * @return the base delay for throttled retries in milliseconds
+     */
+    public int getThrottledBaseDelay() {
+        return throttledBaseDelay;
+    }
+
+    public void setThrottledBaseDelay(int throttledBaseDelay) {
+        this.throttledBaseDelay = throttledBaseDelay;
+    }
+
+    /**
+     * The upper bound in milliseconds of the backoff applied when AWS throttles a request.
+     *
+     * @return the maximum delay for throttled retries in milliseconds
+     */
+    public int getThrottledMaxBackoff() {
+        return throttledMaxBackoff;
+    }
+
+    public void setThrottledMaxBackoff(int throttledMaxBackoff) {
+        this.throttledMaxBackoff = throttledMaxBackoff;
+    }
+
+    @Override
+    public String toString() {
+        return "AmazonClientProperties{" +
+                "maxConnections=" + maxConnections +
+                ", connectionTtl=" + connectionTtl +
+                ", useReaper=" + useReaper +
+                ", connectionMaxIdle=" + connectionMaxIdle +
+                ", tcpKeepAlive=" + tcpKeepAlive +
+                ", connectionTimeout=" + connectionTimeout +
+                ", socketTimeout=" + socketTimeout +
+                ", requestTimeout=" + requestTimeout +
+                ", maxErrorRetry=" + maxErrorRetry +
+                ", throttledBaseDelay=" + throttledBaseDelay +
+                ", throttledMaxBackoff=" + throttledMaxBackoff +
+                '}';
+    }
+}
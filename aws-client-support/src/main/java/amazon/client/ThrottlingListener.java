@@ -0,0 +1,20 @@
+package amazon.client;
+
+import com.amazonaws.AmazonServiceException;
+
+/**
+ * Receives every throttled attempt of a request, including the attempts that the SDK retries on its own and that
+ * the caller of the client never sees
+ */
+public interface ThrottlingListener {
+
+    ThrottlingListener NONE = exception -> {
+    };
+
+    /**
+     * Called when an attempt of a request was rejected with a throttling error
+     *
+     * @param exception is the throttling error returned by the service
+     */
+    void throttled(AmazonServiceException exception);
+}
@@ -0,0 +1,131 @@
+package amazon.client;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.auth.StaticCredentialsProvider;
+import com.amazonaws.services.identitymanagement.AmazonIdentityManagement;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AmazonClientFactoryTest {
+
+	private AmazonClientProperties properties;
+
+	private AmazonClientFactory factory;
+
+	@Before
+	public void setup() {
+		properties = new AmazonClientProperties();
+		properties.setMaxConnections(10);
+		properties.setMaxErrorRetry(0);
+		properties.setConnectionTimeout(1000);
+		factory = new AmazonClientFactory(properties);
+	}
+
+	@Test
+	public void throttledAttemptsBackOffWithinTheCeilingAndAreReported() {
+		List<AmazonServiceException> throttled = new ArrayList<>();
+		AmazonClientFactory.ThrottlingAwareBackoffStrategy strategy =
+				new AmazonClientFactory.ThrottlingAwareBackoffStrategy(100, 1000, throttled::add);
+
+		for (String code : new String[]{"Throttling", "SlowDown"}) {
+			AmazonServiceException exception = serviceException(code, 400);
+			for (int retries = 0; retries < 8; retries++) {
+				long delay = strategy.delayBeforeNextRetry(null, exception, retries);
+				assertTrue(delay >= 0);
+				assertTrue(delay <= Math.min(1000, 100L << retries));
+			}
+		}
+
+		assertEquals(16, throttled.size());
+		assertEquals("Throttling", throttled.get(0).getErrorCode());
+		assertEquals("SlowDown", throttled.get(15).getErrorCode());
+	}
+
+	@Test
+	public void otherErrorsAreNotReportedAsThrottled() {
+		List<AmazonServiceException> throttled = new ArrayList<>();
+		AmazonClientFactory.ThrottlingAwareBackoffStrategy strategy =
+				new AmazonClientFactory.ThrottlingAwareBackoffStrategy(100, 1000, throttled::add);
+
+		strategy.delayBeforeNextRetry(null, serviceException("InternalError", 500), 1);
+		strategy.delayBeforeNextRetry(null, new AmazonClientException("Connection reset"), 1);
+
+		assertTrue(throttled.isEmpty());
+	}
+
+	@Test
+	public void failedRequestsLeaveNothingInFlight() {
+		AmazonIdentityManagement iam = factory.createIdentityManagement(
+				new StaticCredentialsProvider(new BasicAWSCredentials("key", "secret")));
+		iam.setEndpoint("http://localhost:1");
+
+		try {
+			iam.getUser();
+			fail();
+		} catch (AmazonClientException ex) {
+			// Nothing listens on the endpoint
+		}
+
+		assertEquals(0, factory.getInFlightRequests());
+		assertEquals(1, factory.getAndResetPeakInFlightRequests());
+		assertEquals(0, factory.getAndResetPeakInFlightRequests());
+	}
+
+	@Test
+	public void inFlightRequestsAreCountedUntilTheyCompleteOrFail() {
+		AmazonClientFactory.InFlightRequestHandler first = factory.new InFlightRequestHandler();
+		AmazonClientFactory.InFlightRequestHandler second = factory.new InFlightRequestHandler();
+
+		first.beforeRequest(null);
+		second.beforeRequest(null);
+		assertEquals(2, factory.getInFlightRequests());
+
+		first.afterError(null, null, new AmazonClientException("Connection reset"));
+		assertEquals(1, factory.getInFlightRequests());
+
+		second.afterResponse(null, null);
+		assertEquals(0, factory.getInFlightRequests());
+		assertEquals(2, factory.getAndResetPeakInFlightRequests());
+	}
+
+	@Test
+	public void metricsReportTheInFlightRequestsAndTheEstimatedUtilization() {
+		StaticCredentialsProvider credentials = new StaticCredentialsProvider(new BasicAWSCredentials("key", "secret"));
+		factory.createS3(credentials);
+		factory.createIdentityManagement(credentials);
+
+		AmazonClientFactory.InFlightRequestHandler handler = factory.new InFlightRequestHandler();
+		for (int i = 0; i < 5; i++) {
+			handler.beforeRequest(null);
+		}
+
+		AmazonClientMetrics metrics = new AmazonClientMetrics(factory);
+
+		assertEquals(5, metric(metrics, "aws.client.in-flight").intValue());
+		assertEquals(5, metric(metrics, "aws.client.in-flight.peak").intValue());
+		assertEquals(10, metric(metrics, "aws.client.pool.max-connections").intValue());
+		assertEquals(0.25, metric(metrics, "aws.client.pool.estimated-utilization").doubleValue(), 0.001);
+	}
+
+	private static Number metric(AmazonClientMetrics metrics, String name) {
+		return metrics.metrics().stream()
+				.filter(metric -> metric.getName().equals(name))
+				.map(Metric::getValue)
+				.findFirst().get();
+	}
+
+	private static AmazonServiceException serviceException(String code, int status) {
+		AmazonServiceException exception = new AmazonServiceException(code);
+		exception.setErrorCode(code);
+		exception.setStatusCode(status);
+		return exception;
+	}
+}
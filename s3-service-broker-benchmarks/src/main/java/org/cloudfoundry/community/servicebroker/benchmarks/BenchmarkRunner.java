@@ -0,0 +1,37 @@
+package org.cloudfoundry.community.servicebroker.benchmarks;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the broker benchmarks with the usual JMH command line, writing the results as JSON to jmh-result.json
+ * unless another result file or format is given, so that the results of two releases can be compared
+ */
+public class BenchmarkRunner {
+
+    static final String RESULT_FILE = "jmh-result.json";
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions options = new CommandLineOptions(args);
+
+        if (options.shouldHelp() || options.shouldList() || options.shouldListProfilers()
+                || options.shouldListResultFormats()) {
+            Main.main(args);
+            return;
+        }
+
+        ChainedOptionsBuilder builder = new OptionsBuilder().parent(options);
+
+        if (!options.getResultFormat().hasValue())
+            builder.resultFormat(ResultFormatType.JSON);
+
+        if (!options.getResult().hasValue())
+            builder.result(RESULT_FILE);
+
+        new Runner(builder.build()).run();
+    }
+}
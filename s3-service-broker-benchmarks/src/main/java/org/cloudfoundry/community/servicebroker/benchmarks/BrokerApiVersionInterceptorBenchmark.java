@@ -0,0 +1,41 @@
+package org.cloudfoundry.community.servicebroker.benchmarks;
+
+import org.cloudfoundry.community.servicebroker.exception.ServiceBrokerApiVersionException;
+import org.cloudfoundry.community.servicebroker.interceptor.BrokerApiVersionInterceptor;
+import org.cloudfoundry.community.servicebroker.model.BrokerApiVersion;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The API version check that runs before every broker API call
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BrokerApiVersionInterceptorBenchmark {
+
+    private BrokerApiVersionInterceptor interceptor;
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+
+    @Setup
+    public void setup() {
+        BrokerApiVersion version = new BrokerApiVersion("2.9");
+        interceptor = new BrokerApiVersionInterceptor(version);
+
+        request = new MockHttpServletRequest("GET", "/v2/catalog");
+        request.addHeader(version.getBrokerApiVersionHeader(), "2.9");
+        response = new MockHttpServletResponse();
+    }
+
+    @Benchmark
+    public boolean preHandle() throws ServiceBrokerApiVersionException {
+        return interceptor.preHandle(request, response, null);
+    }
+}
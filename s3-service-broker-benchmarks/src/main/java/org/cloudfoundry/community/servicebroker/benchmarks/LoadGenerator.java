@@ -0,0 +1,573 @@
+package org.cloudfoundry.community.servicebroker.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.cloudfoundry.community.servicebroker.ServiceBrokerApplication;
+import org.cloudfoundry.community.servicebroker.catalog.Plan;
+import org.cloudfoundry.community.servicebroker.catalog.ServiceDefinition;
+import org.cloudfoundry.community.servicebroker.config.BrokerProperties;
+import org.cloudfoundry.community.servicebroker.controller.CatalogController;
+import org.cloudfoundry.community.servicebroker.controller.ServiceInstanceBindingController;
+import org.cloudfoundry.community.servicebroker.controller.ServiceInstanceController;
+import org.cloudfoundry.community.servicebroker.repositories.ServiceDefinitionRepository;
+import org.cloudfoundry.community.servicebroker.service.CatalogService;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.util.Base64Utils;
+import org.springframework.web.client.ResponseErrorHandler;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Replays Cloud Controller traffic against the broker's service instance and binding endpoints to find how many
+ * concurrent calls it sustains before latency degrades. Each virtual user provisions, updates, binds, unbinds and
+ * deprovisions its own instances in the proportions of the mix, always in an order Cloud Controller could send
+ * them. Users are started evenly over the ramp-up, and only calls that start after the ramp-up are recorded, in
+ * one HdrHistogram per endpoint. The report is written as JSON with sorted keys and no timestamps, so the reports
+ * of two builds can be diffed.
+ *
+ * Options are given as {@code --name=value}:
+ *
+ * <pre>
+ * --target       base URL of a running broker, by default a broker is started in this process on the AWS stand-in
+ * --concurrency  number of virtual users, 16 by default
+ * --ramp-up      seconds over which the virtual users are started, 10 by default
+ * --duration     seconds of recorded load after the ramp-up, 60 by default
+ * --mix          relative weights of the calls, provision=30,update=10,bind=25,unbind=15,deprovision=20 by default
+ * --async        whether provisioning accepts incomplete operations, false by default
+ * --poll-interval milliseconds between polls of the last operation of an instance being provisioned, 1000 by default
+ * --report       file the report is written to, load-report.json by default
+ * --username     broker user, admin by default
+ * --password     broker password, admin by default
+ * </pre>
+ *
+ * When the broker is started in this process, the stand-in is configured with the {@code aws.standin.*} system
+ * properties. Virtual users wait for each response before sending their next call, so a slow broker also slows the
+ * load down; compare the throughput of two reports as well as their latencies. An instance whose provisioning was
+ * accepted asynchronously is polled on its last_operation endpoint, recorded as an endpoint of its own, until it
+ * has succeeded before it is updated, bound or deprovisioned, as Cloud Controller would. An instance whose
+ * provisioning failed is deprovisioned without being recorded, and replaced by later provisions.
+ */
+public class LoadGenerator {
+
+    static final String INSTANCE_PATH = ServiceInstanceController.BASE_PATH + "/{instanceId}";
+    static final String BINDING_PATH = ServiceInstanceBindingController.BASE_PATH + "/{bindingId}";
+
+    private static final String DEFAULT_MIX = "provision=30,update=10,bind=25,unbind=15,deprovision=20";
+
+    private static final String API_VERSION_HEADER = "X-Broker-API-Version";
+    private static final String API_VERSION = "2.9";
+
+    enum Call {
+
+        PROVISION(HttpMethod.PUT, INSTANCE_PATH),
+        UPDATE(HttpMethod.PATCH, INSTANCE_PATH),
+        BIND(HttpMethod.PUT, BINDING_PATH),
+        UNBIND(HttpMethod.DELETE, BINDING_PATH),
+        DEPROVISION(HttpMethod.DELETE, INSTANCE_PATH),
+        LAST_OPERATION(HttpMethod.GET, INSTANCE_PATH + "/last_operation");
+
+        private final HttpMethod method;
+        private final String path;
+
+        Call(HttpMethod method, String path) {
+            this.method = method;
+            this.path = path;
+        }
+
+        String endpoint() {
+            return method + " " + path;
+        }
+    }
+
+    private final Map<String, String> options;
+    private final int concurrency;
+    private final long rampUpMillis;
+    private final long durationMillis;
+    private final NavigableMap<Integer, Call> mix = new TreeMap<>();
+    private final int totalWeight;
+    private final boolean async;
+    private final long pollIntervalMillis;
+
+    private final Map<Call, EndpointRecorder> recorders = new EnumMap<>(Call.class);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private RestTemplate restTemplate;
+    private String target;
+    private String serviceId;
+    private String planId;
+
+    LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        this.concurrency = Integer.parseInt(options.getOrDefault("concurrency", "16"));
+        this.rampUpMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(options.getOrDefault("ramp-up", "10")));
+        this.durationMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(options.getOrDefault("duration", "60")));
+        this.async = Boolean.parseBoolean(options.getOrDefault("async", "false"));
+        this.pollIntervalMillis = Long.parseLong(options.getOrDefault("poll-interval", "1000"));
+
+        int weight = 0;
+        for (String entry : options.getOrDefault("mix", DEFAULT_MIX).split(",")) {
+            String[] call = entry.split("=");
+            int callWeight = Integer.parseInt(call[1].trim());
+            if (callWeight > 0) {
+                Call weighted = Call.valueOf(call[0].trim().toUpperCase());
+                if (weighted == Call.LAST_OPERATION)
+                    throw new IllegalArgumentException(
+                            "The last operation is only polled after an asynchronous provision");
+                weight += callWeight;
+                mix.put(weight, weighted);
+            }
+        }
+        this.totalWeight = weight;
+
+        for (Call call : Call.values())
+            recorders.put(call, new EndpointRecorder());
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("="))
+                throw new IllegalArgumentException("Options are given as --name=value, not " + arg);
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+
+        new LoadGenerator(options).run();
+    }
+
+    void run() throws Exception {
+        ConfigurableApplicationContext broker = null;
+        target = options.get("target");
+
+        if (target == null) {
+            broker = startBroker();
+            target = "http://localhost:" + broker.getEnvironment().getProperty("local.server.port");
+        }
+
+        try {
+            restTemplate = restTemplate();
+            readCatalog();
+
+            long start = System.currentTimeMillis();
+            long recordFrom = start + rampUpMillis;
+            long deadline = recordFrom + durationMillis;
+
+            ExecutorService users = Executors.newFixedThreadPool(concurrency);
+            for (int i = 0; i < concurrency; i++) {
+                long startAt = start + rampUpMillis * i / concurrency;
+                users.execute(new VirtualUser(startAt, recordFrom, deadline));
+            }
+
+            users.shutdown();
+            users.awaitTermination(deadline - start + TimeUnit.MINUTES.toMillis(10), TimeUnit.MILLISECONDS);
+
+            Map<String, Object> report = report();
+            File file = new File(options.getOrDefault("report", "load-report.json"));
+            objectMapper.writer()
+                    .with(SerializationFeature.INDENT_OUTPUT)
+                    .with(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+                    .writeValue(file, report);
+
+            System.out.println(summary());
+            System.out.println("Report written to " + file.getAbsolutePath());
+        } finally {
+            if (broker != null)
+                broker.close();
+        }
+    }
+
+    /**
+     * Start the broker on a random port with an in-memory database and the AWS stand-in, and add the service
+     * definition that the cloud profile would otherwise create
+     */
+    private ConfigurableApplicationContext startBroker() {
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(ServiceBrokerApplication.class)
+                .profiles("test", "aws-standin")
+                .properties("server.port=0",
+                        "spring.jpa.properties.hibernate.generate_statistics=false",
+                        "logging.level.org.cloudfoundry=WARN")
+                .run();
+
+        BrokerProperties properties = context.getBean(BrokerProperties.class);
+        Plan plan = new Plan(properties.getBasicPlan().getId(), properties.getBasicPlan().getName(),
+                properties.getBasicPlan().getDescription());
+        context.getBean(ServiceDefinitionRepository.class).save(new ServiceDefinition(
+                properties.getDefinition().getId(), properties.getDefinition().getName(),
+                properties.getDefinition().getDescription(), true, Collections.singleton(plan)));
+        context.getBean(CatalogService.class).reload();
+
+        return context;
+    }
+
+    private RestTemplate restTemplate() {
+        RestTemplate restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(
+                HttpClientBuilder.create()
+                        .setMaxConnTotal(concurrency)
+                        .setMaxConnPerRoute(concurrency)
+                        .build()));
+
+        // Failed calls are recorded by status rather than thrown
+        restTemplate.setErrorHandler(new ResponseErrorHandler() {
+
+            @Override
+            public boolean hasError(ClientHttpResponse response) {
+                return false;
+            }
+
+            @Override
+            public void handleError(ClientHttpResponse response) {
+            }
+        });
+
+        return restTemplate;
+    }
+
+    /**
+     * Provision instances of the first plan of the first service in the broker's catalog
+     */
+    private void readCatalog() throws Exception {
+        ResponseEntity<String> catalog = restTemplate.exchange(target + CatalogController.BASE_PATH, HttpMethod.GET,
+                new HttpEntity<>(headers()), String.class);
+
+        if (!catalog.getStatusCode().is2xxSuccessful())
+            throw new IllegalStateException("Could not read the catalog: " + catalog.getStatusCode());
+
+        JsonNode service = objectMapper.readTree(catalog.getBody()).path("services").path(0);
+        if (service.isMissingNode())
+            throw new IllegalStateException("The broker's catalog is empty");
+
+        serviceId = service.path("id").asText();
+        planId = service.path("plans").path(0).path("id").asText();
+    }
+
+    private HttpHeaders headers() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set(API_VERSION_HEADER, API_VERSION);
+        headers.set(HttpHeaders.AUTHORIZATION, "Basic " + Base64Utils.encodeToString(
+                (options.getOrDefault("username", "admin") + ":" + options.getOrDefault("password", "admin"))
+                        .getBytes(StandardCharsets.UTF_8)));
+        return headers;
+    }
+
+    private Map<String, Object> report() {
+        Map<String, Object> settings = new TreeMap<>();
+        settings.put("concurrency", concurrency);
+        settings.put("rampUpSeconds", TimeUnit.MILLISECONDS.toSeconds(rampUpMillis));
+        settings.put("durationSeconds", TimeUnit.MILLISECONDS.toSeconds(durationMillis));
+        settings.put("mix", options.getOrDefault("mix", DEFAULT_MIX));
+        settings.put("async", async);
+        settings.put("pollIntervalMillis", pollIntervalMillis);
+        settings.put("target", options.containsKey("target") ? target : "in-process");
+
+        Map<String, Object> endpoints = new TreeMap<>();
+        recorders.forEach((call, recorder) -> endpoints.put(call.endpoint(), recorder.report(durationMillis)));
+
+        Map<String, Object> report = new TreeMap<>();
+        report.put("settings", settings);
+        report.put("endpoints", endpoints);
+        return report;
+    }
+
+    private String summary() {
+        StringBuilder summary = new StringBuilder(String.format("%-70s %9s %7s %9s %9s %9s %9s%n",
+                "endpoint", "requests", "errors", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+        recorders.forEach((call, recorder) -> summary.append(recorder.summary(call.endpoint())));
+        return summary.toString();
+    }
+
+    /**
+     * One Cloud Controller user of the broker, who only sends calls that are valid for the instances and bindings
+     * it has created
+     */
+    private final class VirtualUser implements Runnable {
+
+        private final long startAt;
+        private final long recordFrom;
+        private final long deadline;
+
+        private final Map<String, List<String>> bindingsByInstance = new LinkedHashMap<>();
+        private final Set<String> provisioning = new HashSet<>();
+
+        private VirtualUser(long startAt, long recordFrom, long deadline) {
+            this.startAt = startAt;
+            this.recordFrom = recordFrom;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Thread.sleep(Math.max(0, startAt - System.currentTimeMillis()));
+
+                while (System.currentTimeMillis() < deadline)
+                    send(nextCall(), System.currentTimeMillis() >= recordFrom);
+
+                // Leave nothing behind on the broker, without recording the clean up
+                for (String instanceId : new ArrayList<>(bindingsByInstance.keySet())) {
+                    if (!provisioned(instanceId, false))
+                        continue;
+                    for (String bindingId : new ArrayList<>(bindingsByInstance.get(instanceId)))
+                        unbind(instanceId, bindingId, false);
+                    deprovision(instanceId, false);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Pick a call by weight, falling back to the call that makes it possible when there is nothing to act on
+         */
+        private Call nextCall() {
+            Call call = mix.higherEntry(ThreadLocalRandom.current().nextInt(totalWeight)).getValue();
+
+            if (bindingsByInstance.isEmpty())
+                return Call.PROVISION;
+
+            if (call == Call.UNBIND && bindingsByInstance.values().stream().allMatch(List::isEmpty))
+                return Call.BIND;
+
+            // Cloud Controller unbinds every application before it deprovisions an instance
+            if (call == Call.DEPROVISION && bindingsByInstance.values().stream().noneMatch(List::isEmpty))
+                return Call.UNBIND;
+
+            return call;
+        }
+
+        private void send(Call call, boolean record) throws InterruptedException {
+            String instanceId;
+
+            switch (call) {
+                case PROVISION:
+                    provision(record);
+                    break;
+                case UPDATE:
+                    instanceId = any(bindingsByInstance.keySet());
+                    if (!provisioned(instanceId, record))
+                        break;
+                    Map<String, Object> update = new HashMap<>();
+                    update.put("plan_id", planId);
+                    exchange(call, record, update, instanceId);
+                    break;
+                case BIND:
+                    instanceId = any(bindingsByInstance.keySet());
+                    if (!provisioned(instanceId, record))
+                        break;
+                    String bindingId = UUID.randomUUID().toString();
+                    Map<String, Object> binding = new HashMap<>();
+                    binding.put("service_id", serviceId);
+                    binding.put("plan_id", planId);
+                    binding.put("app_guid", UUID.randomUUID().toString());
+                    if (exchange(call, record, binding, instanceId, bindingId))
+                        bindingsByInstance.get(instanceId).add(bindingId);
+                    break;
+                case UNBIND:
+                    instanceId = any(bindingsByInstance.entrySet().stream()
+                            .filter(entry -> !entry.getValue().isEmpty())
+                            .map(Map.Entry::getKey)
+                            .collect(Collectors.toList()));
+                    unbind(instanceId, any(bindingsByInstance.get(instanceId)), record);
+                    break;
+                case DEPROVISION:
+                    instanceId = any(bindingsByInstance.entrySet().stream()
+                            .filter(entry -> entry.getValue().isEmpty())
+                            .map(Map.Entry::getKey)
+                            .collect(Collectors.toList()));
+                    if (provisioned(instanceId, record))
+                        deprovision(instanceId, record);
+                    break;
+            }
+        }
+
+        private void provision(boolean record) {
+            String instanceId = UUID.randomUUID().toString();
+            Map<String, Object> request = new HashMap<>();
+            request.put("service_id", serviceId);
+            request.put("plan_id", planId);
+            request.put("organization_guid", UUID.randomUUID().toString());
+            request.put("space_guid", UUID.randomUUID().toString());
+
+            ResponseEntity<String> response = exchangeForResponse(Call.PROVISION, record, request, instanceId);
+            if (response != null && response.getStatusCode().is2xxSuccessful()) {
+                bindingsByInstance.put(instanceId, new ArrayList<>());
+                if (response.getStatusCode() == HttpStatus.ACCEPTED)
+                    provisioning.add(instanceId);
+            }
+        }
+
+        /**
+         * Poll the last operation of an instance whose provisioning was accepted asynchronously until it has
+         * completed. An instance that failed to provision, or whose operation can no longer be read, is deprovisioned
+         * without recording it and forgotten.
+         *
+         * @return whether the instance was provisioned and can be used
+         */
+        private boolean provisioned(String instanceId, boolean record) throws InterruptedException {
+            while (provisioning.contains(instanceId)) {
+                ResponseEntity<String> response = exchangeForResponse(Call.LAST_OPERATION, record, null, instanceId);
+                String state = null;
+                if (response != null && response.getStatusCode().is2xxSuccessful())
+                    state = state(response.getBody());
+
+                if ("in progress".equals(state)) {
+                    Thread.sleep(pollIntervalMillis);
+                } else if ("succeeded".equals(state)) {
+                    provisioning.remove(instanceId);
+                } else {
+                    provisioning.remove(instanceId);
+                    deprovision(instanceId, false);
+                    bindingsByInstance.remove(instanceId);
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private String state(String body) {
+            try {
+                return objectMapper.readTree(body).path("state").asText(null);
+            } catch (Exception ex) {
+                return null;
+            }
+        }
+
+        private void unbind(String instanceId, String bindingId, boolean record) {
+            if (exchange(Call.UNBIND, record, null, instanceId, bindingId))
+                bindingsByInstance.get(instanceId).remove(bindingId);
+        }
+
+        private void deprovision(String instanceId, boolean record) {
+            if (exchange(Call.DEPROVISION, record, null, instanceId))
+                bindingsByInstance.remove(instanceId);
+        }
+
+        /**
+         * Send a call and record its latency and status
+         *
+         * @return whether the call succeeded
+         */
+        private boolean exchange(Call call, boolean record, Map<String, Object> body, String... pathVariables) {
+            ResponseEntity<String> response = exchangeForResponse(call, record, body, pathVariables);
+            return response != null && response.getStatusCode().is2xxSuccessful();
+        }
+
+        /**
+         * Send a call and record its latency and status, keeping the response for the calls whose body is read
+         *
+         * @return the response, or null if the call got none
+         */
+        private ResponseEntity<String> exchangeForResponse(Call call, boolean record, Map<String, Object> body,
+                                                           String... pathVariables) {
+            String url = target + call.path;
+            if (call == Call.PROVISION)
+                url += "?accepts_incomplete=" + async;
+            if (call.method == HttpMethod.DELETE)
+                url += "?service_id=" + serviceId + "&plan_id=" + planId;
+
+            long start = System.nanoTime();
+            ResponseEntity<String> response;
+
+            try {
+                response = restTemplate.exchange(url, call.method, new HttpEntity<>(body, headers()), String.class,
+                        (Object[]) pathVariables);
+            } catch (Exception ex) {
+                response = null;
+            }
+
+            if (record)
+                recorders.get(call).record(System.nanoTime() - start,
+                        response == null ? 0 : response.getStatusCode().value());
+
+            return response;
+        }
+
+        private <T> T any(Collection<T> values) {
+            int index = ThreadLocalRandom.current().nextInt(values.size());
+            Iterator<T> iterator = values.iterator();
+            for (int i = 0; i < index; i++)
+                iterator.next();
+            return iterator.next();
+        }
+    }
+
+    /**
+     * The latencies and statuses of the recorded calls to one endpoint. A status of 0 is a call that got no
+     * response.
+     */
+    static final class EndpointRecorder {
+
+        private final ConcurrentHistogram histogram = new ConcurrentHistogram(TimeUnit.MINUTES.toMicros(10), 3);
+        private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+        void record(long nanos, int status) {
+            histogram.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(nanos), histogram.getHighestTrackableValue()));
+            statuses.computeIfAbsent(status, key -> new LongAdder()).increment();
+        }
+
+        long errors() {
+            return statuses.entrySet().stream()
+                    .filter(entry -> entry.getKey() < 200 || entry.getKey() >= 300)
+                    .mapToLong(entry -> entry.getValue().sum())
+                    .sum();
+        }
+
+        Map<String, Object> report(long durationMillis) {
+            Map<String, Object> latency = new TreeMap<>();
+            latency.put("mean", round(histogram.getMean()));
+            latency.put("p50", millis(histogram.getValueAtPercentile(50)));
+            latency.put("p90", millis(histogram.getValueAtPercentile(90)));
+            latency.put("p99", millis(histogram.getValueAtPercentile(99)));
+            latency.put("p99.9", millis(histogram.getValueAtPercentile(99.9)));
+            latency.put("max", millis(histogram.getMaxValue()));
+
+            Map<String, Long> byStatus = new TreeMap<>();
+            statuses.forEach((status, count) -> byStatus.put(String.valueOf(status), count.sum()));
+
+            Map<String, Object> report = new TreeMap<>();
+            report.put("requests", histogram.getTotalCount());
+            report.put("errors", errors());
+            report.put("throughputPerSecond", Math.round(histogram.getTotalCount() * 10_000.0 / durationMillis) / 10.0);
+            report.put("latencyMillis", latency);
+            report.put("statuses", byStatus);
+            return report;
+        }
+
+        String summary(String endpoint) {
+            return String.format("%-70s %9d %7d %9.1f %9.1f %9.1f %9.1f%n", endpoint, histogram.getTotalCount(),
+                    errors(), millis(histogram.getValueAtPercentile(50)),
+                    millis(histogram.getValueAtPercentile(99)), millis(histogram.getValueAtPercentile(99.9)),
+                    millis(histogram.getMaxValue()));
+        }
+
+        private static double millis(long micros) {
+            return round(micros);
+        }
+
+        private static double round(double micros) {
+            return Math.round(micros) / 1000.0;
+        }
+    }
+}
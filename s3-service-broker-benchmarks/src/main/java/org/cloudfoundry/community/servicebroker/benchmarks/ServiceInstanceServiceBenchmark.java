@@ -0,0 +1,90 @@
+package org.cloudfoundry.community.servicebroker.benchmarks;
+
+import org.cloudfoundry.community.servicebroker.ServiceBrokerApplication;
+import org.cloudfoundry.community.servicebroker.catalog.ServiceInstance;
+import org.cloudfoundry.community.servicebroker.catalog.ServiceInstanceBinding;
+import org.cloudfoundry.community.servicebroker.model.CreateServiceInstanceBindingRequest;
+import org.cloudfoundry.community.servicebroker.model.CreateServiceInstanceRequest;
+import org.cloudfoundry.community.servicebroker.model.DeleteServiceInstanceBindingRequest;
+import org.cloudfoundry.community.servicebroker.model.DeleteServiceInstanceRequest;
+import org.cloudfoundry.community.servicebroker.service.ServiceInstanceBindingService;
+import org.cloudfoundry.community.servicebroker.service.ServiceInstanceService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The service instance and binding lifecycles through the broker's services, backed by an in-memory H2 database
+ * and an S3 service that does not call AWS. This measures the broker's own work on each call: the repository
+ * round trips, the outbox and the caches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServiceInstanceServiceBenchmark {
+
+    private static final String SERVICE_ID = "s3-service-id";
+    private static final String PLAN_ID = "s3-basic-id";
+
+    private ConfigurableApplicationContext context;
+    private ServiceInstanceService serviceInstanceService;
+    private ServiceInstanceBindingService serviceInstanceBindingService;
+
+    private ServiceInstance boundInstance;
+
+    @Setup
+    public void setup() throws Exception {
+        context = new SpringApplicationBuilder(ServiceBrokerApplication.class, StubS3ServiceConfiguration.class)
+                .profiles("test")
+                .properties("server.port=0",
+                        "spring.jpa.properties.hibernate.generate_statistics=false",
+                        "logging.level.org.cloudfoundry=WARN")
+                .run();
+
+        serviceInstanceService = context.getBean(ServiceInstanceService.class);
+        serviceInstanceBindingService = context.getBean(ServiceInstanceBindingService.class);
+
+        boundInstance = serviceInstanceService.createServiceInstance(createRequest());
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public ServiceInstance createAndDeleteServiceInstance() throws Exception {
+        ServiceInstance serviceInstance = serviceInstanceService.createServiceInstance(createRequest());
+        return serviceInstanceService.deleteServiceInstance(new DeleteServiceInstanceRequest(
+                serviceInstance.getServiceInstanceId(), SERVICE_ID, PLAN_ID));
+    }
+
+    @Benchmark
+    public ServiceInstance getServiceInstance() throws Exception {
+        return serviceInstanceService.getServiceInstance(boundInstance.getServiceInstanceId());
+    }
+
+    @Benchmark
+    public ServiceInstanceBinding createAndDeleteServiceInstanceBinding() throws Exception {
+        String bindingId = UUID.randomUUID().toString();
+
+        serviceInstanceBindingService.createServiceInstanceBinding(
+                new CreateServiceInstanceBindingRequest(SERVICE_ID, PLAN_ID, "app-guid")
+                        .withServiceInstanceId(boundInstance.getServiceInstanceId())
+                        .and().withBindingId(bindingId));
+
+        return serviceInstanceBindingService.deleteServiceInstanceBinding(
+                new DeleteServiceInstanceBindingRequest(bindingId, boundInstance, SERVICE_ID, PLAN_ID));
+    }
+
+    private static CreateServiceInstanceRequest createRequest() {
+        return new CreateServiceInstanceRequest(SERVICE_ID, PLAN_ID, "org-guid", "space-guid")
+                .withServiceInstanceId(UUID.randomUUID().toString());
+    }
+}
@@ -0,0 +1,174 @@
+package org.cloudfoundry.community.servicebroker.catalog;
+
+import org.cloudfoundry.community.servicebroker.model.OperationState;
+import org.cloudfoundry.community.servicebroker.model.OperationType;
+
+import javax.persistence.*;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A durable record of a change to a service instance. An operation is claimed by one worker at a time through a
+ * lease, and records each completed step and the values those steps produced, so that an operation interrupted by
+ * a restart can be resumed by any broker instance from its last checkpoint. Every claim and lease renewal changes
+ * the version, so a worker whose lease was taken over cannot save the operation.
+ */
+@Entity
+public class BrokerOperation {
+
+    @Id
+    private String id;
+
+    @Version
+    private Long version;
+
+    private String serviceInstanceId;
+
+    @Enumerated(EnumType.STRING)
+    private OperationType type;
+
+    @Enumerated(EnumType.STRING)
+    private OperationState state;
+
+    private String description;
+    private String owner;
+    private long leaseExpiresAt;
+    private int attempts;
+    private long createdAt;
+
+    @ElementCollection(fetch = FetchType.EAGER)
+    @CollectionTable(name = "broker_operation_step", joinColumns = @JoinColumn(name = "operation_id"))
+    @Column(name = "step")
+    private Set<String> completedSteps = new HashSet<>();
+
+    @ElementCollection(fetch = FetchType.EAGER)
+    @MapKeyColumn(name = "name")
+    @Column(name = "value")
+    @CollectionTable(name = "broker_operation_context", joinColumns = @JoinColumn(name = "operation_id"))
+    private Map<String, String> context = new HashMap<>();
+
+    private BrokerOperation() {
+    }
+
+    public BrokerOperation(OperationType type, String serviceInstanceId, long createdAt) {
+        this.id = UUID.randomUUID().toString();
+        this.type = type;
+        this.serviceInstanceId = serviceInstanceId;
+        this.state = OperationState.IN_PROGRESS;
+        this.createdAt = createdAt;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the version of the operation, or null if it has never been saved
+     */
+    public Long getVersion() {
+        return version;
+    }
+
+    /**
+     * Mirror the version of a save, which the repository makes to a copy of the operation
+     */
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public String getServiceInstanceId() {
+        return serviceInstanceId;
+    }
+
+    public OperationType getType() {
+        return type;
+    }
+
+    public OperationState getState() {
+        return state;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public void setState(OperationState state, String description) {
+        this.state = state;
+        this.description = description;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * @return the time until which the owner holds the operation, in milliseconds since the epoch
+     */
+    public long getLeaseExpiresAt() {
+        return leaseExpiresAt;
+    }
+
+    /**
+     * Record that a worker claimed the operation, mirroring the conditional update that claimed it. A new operation
+     * is claimed before it is first saved and has no version yet.
+     */
+    public void claimed(String owner, long leaseExpiresAt) {
+        this.owner = owner;
+        this.leaseExpiresAt = leaseExpiresAt;
+        this.attempts++;
+        if (version != null)
+            this.version++;
+    }
+
+    /**
+     * Give up the operation, leaving it to be claimed again once the given time has passed
+     */
+    public void release(long retryAt) {
+        this.owner = null;
+        this.leaseExpiresAt = retryAt;
+    }
+
+    public void renewLease(long leaseExpiresAt) {
+        this.leaseExpiresAt = leaseExpiresAt;
+    }
+
+    /**
+     * Record that the owner renewed its lease, mirroring the conditional update that renewed it
+     */
+    public void leaseRenewed(long leaseExpiresAt) {
+        this.leaseExpiresAt = leaseExpiresAt;
+        this.version++;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public Set<String> getCompletedSteps() {
+        return completedSteps;
+    }
+
+    public Map<String, String> getContext() {
+        return context;
+    }
+
+    @Override
+    public String toString() {
+        return "BrokerOperation{" +
+                "id='" + id + '\'' +
+                ", serviceInstanceId='" + serviceInstanceId + '\'' +
+                ", type=" + type +
+                ", state=" + state +
+                ", owner='" + owner + '\'' +
+                ", attempts=" + attempts +
+                ", version=" + version +
+                '}';
+    }
+}
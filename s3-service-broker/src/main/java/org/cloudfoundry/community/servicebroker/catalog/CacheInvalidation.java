@@ -0,0 +1,67 @@
+package org.cloudfoundry.community.servicebroker.catalog;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+
+/**
+ * An eviction from a local cache, published so that the other broker instances evict the same entry
+ */
+@Entity
+public class CacheInvalidation {
+
+    @Id
+    @GeneratedValue
+    private Long id;
+
+    private String cacheName;
+    private String cacheKey;
+    private String origin;
+    private long createdAt;
+
+    private CacheInvalidation() {
+    }
+
+    public CacheInvalidation(String cacheName, String cacheKey, String origin, long createdAt) {
+        this.cacheName = cacheName;
+        this.cacheKey = cacheKey;
+        this.origin = origin;
+        this.createdAt = createdAt;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    /**
+     * @return the evicted key, or null if the whole cache was cleared
+     */
+    public String getCacheKey() {
+        return cacheKey;
+    }
+
+    /**
+     * @return the broker instance that published the invalidation
+     */
+    public String getOrigin() {
+        return origin;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheInvalidation{" +
+                "id=" + id +
+                ", cacheName='" + cacheName + '\'' +
+                ", cacheKey='" + cacheKey + '\'' +
+                ", origin='" + origin + '\'' +
+                '}';
+    }
+}
@@ -1,48 +1,55 @@
 package org.cloudfoundry.community.servicebroker.catalog;
 
-import org.cloudfoundry.community.servicebroker.repositories.ServiceDefinitionRepository;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.stereotype.Service;
-
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
- * The catalog of services offered by this broker.
+ * The catalog of services offered by this broker. A catalog is an immutable snapshot of the service definitions,
+ * with the services and their plans indexed by id, so it can be shared by every request thread without locking.
  *
  * @author sgreenberg@gopivotal.com
  * @author kbastani
  */
-@Service
 public class Catalog implements Serializable {
 
-    private List<ServiceDefinition> services = new ArrayList<>();
-
-    @Autowired
-    ServiceDefinitionRepository serviceDefinitionRepository;
+    private final List<ServiceDefinition> services;
 
-    public Catalog() {
-    }
+    private final Map<String, ServiceDefinition> servicesById = new HashMap<>();
+    private final Map<String, Plan> plansById = new HashMap<>();
 
     public Catalog(List<ServiceDefinition> services) {
-        this.setServices(services);
+        this.services = Collections.unmodifiableList(new ArrayList<>(services));
+
+        for (ServiceDefinition service : services) {
+            servicesById.put(service.getId(), service);
+            for (Plan plan : service.getPlans()) {
+                plansById.put(plan.getId(), plan);
+            }
+        }
     }
 
     public List<ServiceDefinition> getServices() {
-        if (services.size() == 0) {
-            services = new ArrayList<>((Collection<ServiceDefinition>) serviceDefinitionRepository.findAll());
-        }
         return services;
     }
 
-    private void setServices(List<ServiceDefinition> services) {
-        if (services == null) {
-            this.services = new ArrayList<>((Collection<ServiceDefinition>) serviceDefinitionRepository.findAll());
-        } else {
-            this.services = services;
-        }
+    /**
+     * @param serviceId is the id of a service in the catalog
+     * @return the service definition or null if it is not in the catalog
+     */
+    public ServiceDefinition getServiceDefinition(String serviceId) {
+        return servicesById.get(serviceId);
+    }
+
+    /**
+     * @param planId is the id of a plan of any service in the catalog
+     * @return the plan or null if it is not in the catalog
+     */
+    public Plan getPlan(String planId) {
+        return plansById.get(planId);
     }
 
     @Override
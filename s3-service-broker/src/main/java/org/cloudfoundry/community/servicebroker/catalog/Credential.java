@@ -24,6 +24,15 @@ public class Credential {
         this.secretAccessKey = secretAccessKey;
     }
 
+    /**
+     * @return a copy of the credential with the same id
+     */
+    public Credential copy() {
+        Credential copy = new Credential(userName, accessKeyId, secretAccessKey);
+        copy.id = id;
+        return copy;
+    }
+
     public String getId() {
         return id;
     }
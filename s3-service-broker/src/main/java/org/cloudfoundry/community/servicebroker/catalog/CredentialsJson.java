@@ -0,0 +1,47 @@
+package org.cloudfoundry.community.servicebroker.catalog;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Converts the credentials of a binding to and from the compact JSON object stored in its credentials column
+ */
+public final class CredentialsJson {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final TypeReference<LinkedHashMap<String, String>> MAP_TYPE =
+            new TypeReference<LinkedHashMap<String, String>>() {
+            };
+
+    private CredentialsJson() {
+    }
+
+    public static String write(Map<String, String> credentials) {
+        if (credentials == null)
+            return null;
+
+        try {
+            return MAPPER.writeValueAsString(credentials);
+        } catch (JsonProcessingException ex) {
+            throw new IllegalArgumentException("Could not serialize binding credentials", ex);
+        }
+    }
+
+    public static Map<String, String> read(String json) {
+        if (json == null)
+            return Collections.emptyMap();
+
+        try {
+            return MAPPER.readValue(json, MAP_TYPE);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Could not read binding credentials", ex);
+        }
+    }
+}
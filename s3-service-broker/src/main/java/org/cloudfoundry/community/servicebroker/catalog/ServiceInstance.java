@@ -3,6 +3,7 @@ package org.cloudfoundry.community.servicebroker.catalog;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.cloudfoundry.community.servicebroker.model.CreateServiceInstanceRequest;
 import org.cloudfoundry.community.servicebroker.model.DeleteServiceInstanceRequest;
+import org.cloudfoundry.community.servicebroker.model.OperationState;
 import org.cloudfoundry.community.servicebroker.model.UpdateServiceInstanceRequest;
 import org.springframework.cloud.cloudfoundry.com.fasterxml.jackson.annotation.JsonIgnore;
 
@@ -41,6 +42,13 @@ public class ServiceInstance {
     @OneToOne(cascade = CascadeType.ALL, fetch = FetchType.EAGER)
     private Credential credential;
 
+    @JsonProperty("last_operation_state")
+    @Enumerated(EnumType.STRING)
+    private OperationState lastOperationState;
+
+    @JsonProperty("last_operation_description")
+    private String lastOperationDescription;
+
     private ServiceInstance() {
     }
 
@@ -73,15 +81,15 @@ public class ServiceInstance {
     }
 
     /**
-     * Create a service instance from a delete request. If fields
+     * Create a service instance from an update request. If fields
      * are not present in the request they will remain null in the
      * ServiceInstance.
      *
      * @param request containing details of ServiceInstance
      */
     public ServiceInstance(UpdateServiceInstanceRequest request) {
-        request.getPlanId();
-        request.getServiceInstanceId();
+        this.serviceInstanceId = request.getServiceInstanceId();
+        this.planId = request.getPlanId();
     }
 
     public String getServiceInstanceId() {
@@ -125,4 +133,39 @@ public class ServiceInstance {
         this.credential = credential;
     }
 
+    /**
+     * Instances persisted before operation state was tracked have no state and are reported as succeeded.
+     *
+     * @return the state of the last create or delete operation performed on this instance
+     */
+    public OperationState getLastOperationState() {
+        return lastOperationState != null ? lastOperationState : OperationState.SUCCEEDED;
+    }
+
+    public String getLastOperationDescription() {
+        return lastOperationDescription;
+    }
+
+    public void setLastOperation(OperationState state, String description) {
+        this.lastOperationState = state;
+        this.lastOperationDescription = description;
+    }
+
+    /**
+     * @return a copy of the instance and of its credential, which can be changed without changing this instance
+     */
+    public ServiceInstance copy() {
+        ServiceInstance copy = new ServiceInstance();
+        copy.serviceInstanceId = serviceInstanceId;
+        copy.serviceDefinitionId = serviceDefinitionId;
+        copy.planId = planId;
+        copy.organizationGuid = organizationGuid;
+        copy.spaceGuid = spaceGuid;
+        copy.dashboardUrl = dashboardUrl;
+        copy.credential = credential != null ? credential.copy() : null;
+        copy.lastOperationState = lastOperationState;
+        copy.lastOperationDescription = lastOperationDescription;
+        return copy;
+    }
+
 }
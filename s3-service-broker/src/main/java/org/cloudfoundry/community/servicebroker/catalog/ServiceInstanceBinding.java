@@ -1,7 +1,11 @@
 package org.cloudfoundry.community.servicebroker.catalog;
 
-import javax.persistence.*;
-import java.util.HashMap;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Transient;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.UUID;
 
@@ -17,11 +21,13 @@ public class ServiceInstanceBinding {
     private String id;
     private String serviceInstanceId;
 
-    @ElementCollection
-    @MapKeyColumn(name="name")
-    @Column(name="value")
-    @CollectionTable(name="example_attributes", joinColumns=@JoinColumn(name="example_id"))
-    private Map<String, String> credentials = new HashMap<String, String>();
+    // Stored as a JSON object in one column, so that a binding is read and written with a single statement
+    @Column(name = "credentials", length = 2048)
+    private String credentialsJson;
+
+    @Transient
+    private Map<String, String> credentials;
+
     private String syslogDrainUrl;
     private String appGuid;
 
@@ -35,7 +41,7 @@ public class ServiceInstanceBinding {
                                   String syslogDrainUrl, String appGuid) {
         this.id = id;
         this.serviceInstanceId = serviceInstanceId;
-        this.credentials = credentials;
+        setCredentials(credentials);
         this.syslogDrainUrl = syslogDrainUrl;
         this.appGuid = appGuid;
     }
@@ -48,12 +54,18 @@ public class ServiceInstanceBinding {
         return serviceInstanceId;
     }
 
+    /**
+     * @return the credentials, which cannot be changed as bindings are cached and shared by every caller
+     */
     public Map<String, String> getCredentials() {
+        if (credentials == null)
+            credentials = Collections.unmodifiableMap(CredentialsJson.read(credentialsJson));
         return credentials;
     }
 
     private void setCredentials(Map<String, String> credentials) {
-        this.credentials = credentials;
+        this.credentials = credentials != null ? Collections.unmodifiableMap(new LinkedHashMap<>(credentials)) : null;
+        this.credentialsJson = CredentialsJson.write(credentials);
     }
 
     public String getSyslogDrainUrl() {
@@ -0,0 +1,63 @@
+package org.cloudfoundry.community.servicebroker.catalog;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * A pre-provisioned bucket and IAM user, with an access key, that is waiting in the warm pool to be claimed by a new
+ * service instance. The bucket and the user share the entry's name, which is what the manage bucket policy expects.
+ */
+@Entity
+public class WarmPoolEntry {
+
+    /**
+     * The creation time of an expired entry whose resources are being deleted. It is older than any real entry, so a
+     * retiring entry is never claimed and is retired again by the next refill until its resources are gone.
+     */
+    public static final long RETIRING = Long.MIN_VALUE;
+
+    @Id
+    private String name;
+
+    private String accessKeyId;
+    private String secretAccessKey;
+    private long createdAt;
+
+    private WarmPoolEntry() {
+    }
+
+    public WarmPoolEntry(String name, String accessKeyId, String secretAccessKey, long createdAt) {
+        this.name = name;
+        this.accessKeyId = accessKeyId;
+        this.secretAccessKey = secretAccessKey;
+        this.createdAt = createdAt;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getAccessKeyId() {
+        return accessKeyId;
+    }
+
+    public String getSecretAccessKey() {
+        return secretAccessKey;
+    }
+
+    /**
+     * @return the time the entry's resources were created, in milliseconds since the epoch, or {@link #RETIRING}
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    @Override
+    public String toString() {
+        return "WarmPoolEntry{" +
+                "name='" + name + '\'' +
+                ", accessKeyId='" + accessKeyId + '\'' +
+                ", createdAt=" + createdAt +
+                '}';
+    }
+}
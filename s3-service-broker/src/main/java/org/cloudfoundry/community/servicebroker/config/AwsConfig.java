@@ -0,0 +1,65 @@
+package org.cloudfoundry.community.servicebroker.config;
+
+import amazon.client.AmazonClientFactory;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.auth.StaticCredentialsProvider;
+import com.amazonaws.services.identitymanagement.AmazonIdentityManagement;
+import com.amazonaws.services.s3.AmazonS3;
+import org.cloudfoundry.community.servicebroker.service.AdaptiveConcurrencyLimiter;
+import org.cloudfoundry.community.servicebroker.service.AwsCallMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * The AWS clients used by the broker. Each client is thread safe and is shared by every component that talks to
+ * AWS on behalf of the broker's own account. Connection pooling, timeouts and retries are configured through the
+ * {@code aws.client.*} properties of the {@link AmazonClientFactory}. Every remote call of each client is timed by
+ * the {@link AwsCallMetrics}.
+ */
+@Configuration
+public class AwsConfig {
+
+    @Value("${aws.access-key-id}")
+    private String awsAccessKeyId;
+
+    @Value("${aws.secret-access-key}")
+    private String awsSecretAccessKey;
+
+    /**
+     * IAM enforces low, account-wide request rates, so every IAM call made by the broker goes through an adaptive
+     * limiter that backs off as soon as IAM throttles and probes for more concurrency while it does not
+     */
+    @Bean
+    public AmazonIdentityManagement amazonIdentityManagement(AmazonClientFactory amazonClientFactory,
+                                                             AdaptiveConcurrencyLimiter iamConcurrencyLimiter,
+                                                             AwsCallMetrics awsCallMetrics) {
+        return iamConcurrencyLimiter.limit(AmazonIdentityManagement.class,
+                awsCallMetrics.instrument("iam", AmazonIdentityManagement.class,
+                        amazonClientFactory.createIdentityManagement(awsCredentialsProvider(), iamConcurrencyLimiter)));
+    }
+
+    @Bean
+    public AdaptiveConcurrencyLimiter iamConcurrencyLimiter(
+            @Value("${aws.iam-limiter.initial-limit:4}") int initialLimit,
+            @Value("${aws.iam-limiter.min-limit:1}") int minLimit,
+            @Value("${aws.iam-limiter.max-limit:16}") int maxLimit,
+            @Value("${aws.iam-limiter.max-wait:10000}") long maxWait) {
+        return new AdaptiveConcurrencyLimiter("iam", initialLimit, minLimit, maxLimit, maxWait);
+    }
+
+    @Bean
+    public AmazonS3 amazonS3(AmazonClientFactory amazonClientFactory, AwsCallMetrics awsCallMetrics) {
+        return awsCallMetrics.instrument("s3", AmazonS3.class, amazonClientFactory.createS3(awsCredentialsProvider()));
+    }
+
+    @Bean
+    public AwsCallMetrics awsCallMetrics() {
+        return new AwsCallMetrics();
+    }
+
+    private AWSCredentialsProvider awsCredentialsProvider() {
+        return new StaticCredentialsProvider(new BasicAWSCredentials(awsAccessKeyId, awsSecretAccessKey));
+    }
+}
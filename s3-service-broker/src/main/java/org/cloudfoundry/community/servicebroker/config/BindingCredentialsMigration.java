@@ -0,0 +1,95 @@
+package org.cloudfoundry.community.servicebroker.config;
+
+import org.cloudfoundry.community.servicebroker.catalog.CredentialsJson;
+import org.cloudfoundry.community.servicebroker.repositories.ServiceInstanceBindingRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Moves binding credentials from the example_attributes table, where they were stored one row per credential,
+ * into the JSON credentials column of their binding. Bindings that already have credentials in the column are
+ * left alone, and migrated rows are deleted, so the migration runs on every start and only does work once. The
+ * table itself is left for the operator to drop once every broker instance has been upgraded.
+ * <p>
+ * The migration runs once every singleton has been created, which is before the embedded container starts, so no
+ * request can read a binding that has not been migrated yet. The migrated bindings are also evicted from the
+ * binding cache of every broker instance, in case one of them read a binding before its credentials were moved.
+ */
+@Component
+public class BindingCredentialsMigration implements SmartInitializingSingleton {
+
+    private final Logger log = LoggerFactory.getLogger(BindingCredentialsMigration.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final CacheManager cacheManager;
+
+    @Autowired
+    public BindingCredentialsMigration(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                                       CacheManager cacheManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.cacheManager = cacheManager;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        migrate();
+    }
+
+    /**
+     * Migrate the credentials of every binding that still has them in the old table
+     */
+    public void migrate() {
+        Collection<String> migrated = transactionTemplate.execute(status -> moveCredentials());
+
+        Cache cache = cacheManager.getCache(ServiceInstanceBindingRepository.CACHE);
+        if (cache != null)
+            migrated.forEach(cache::evict);
+
+        if (!migrated.isEmpty())
+            log.info("Migrated the credentials of {} bindings to the credentials column", migrated.size());
+    }
+
+    /**
+     * @return the ids of the bindings whose credentials were moved
+     */
+    private Collection<String> moveCredentials() {
+        Map<String, Map<String, String>> credentialsByBinding = new LinkedHashMap<>();
+
+        try {
+            jdbcTemplate.query("select a.example_id, a.name, a.value from example_attributes a " +
+                            "join service_instance_binding b on b.id = a.example_id where b.credentials is null",
+                    resultSet -> {
+                        credentialsByBinding
+                                .computeIfAbsent(resultSet.getString(1), id -> new LinkedHashMap<>())
+                                .put(resultSet.getString(2), resultSet.getString(3));
+                    });
+        } catch (BadSqlGrammarException ex) {
+            // The broker was never run with the old credentials table
+            return Collections.emptyList();
+        }
+
+        for (Map.Entry<String, Map<String, String>> binding : credentialsByBinding.entrySet()) {
+            jdbcTemplate.update("update service_instance_binding set credentials = ? where id = ? " +
+                    "and credentials is null", CredentialsJson.write(binding.getValue()), binding.getKey());
+            jdbcTemplate.update("delete from example_attributes where example_id = ?", binding.getKey());
+        }
+
+        return credentialsByBinding.keySet();
+    }
+}
@@ -2,9 +2,16 @@ package org.cloudfoundry.community.servicebroker.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.cloudfoundry.community.servicebroker.interceptor.BrokerApiVersionInterceptor;
+import org.cloudfoundry.community.servicebroker.interceptor.RepositoryTimingPostProcessor;
+import org.cloudfoundry.community.servicebroker.interceptor.ServerTimingFilter;
+import org.cloudfoundry.community.servicebroker.interceptor.ServerTimingInterceptor;
 import org.cloudfoundry.community.servicebroker.model.BrokerApiVersion;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.embedded.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.http.converter.ByteArrayHttpMessageConverter;
 import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
@@ -23,13 +30,35 @@ public class BrokerApiVersionConfig extends WebMvcConfigurerAdapter {
     @Autowired
     private ObjectMapper objectMapper;
 
+    /**
+     * Time broker API calls from before authentication, so that the {@code Server-Timing} header covers it
+     */
+    @Bean
+    public FilterRegistrationBean serverTimingFilter() {
+        FilterRegistrationBean registration = new FilterRegistrationBean(new ServerTimingFilter());
+        registration.addUrlPatterns("/v2/*");
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return registration;
+    }
+
+    @Bean
+    public static RepositoryTimingPostProcessor repositoryTimingPostProcessor() {
+        return new RepositoryTimingPostProcessor();
+    }
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new ServerTimingInterceptor()).addPathPatterns("/v2/**");
         registry.addInterceptor(new BrokerApiVersionInterceptor(brokerApiVersion)).addPathPatterns("/v2/**");
     }
 
+    /**
+     * Adding converters replaces the defaults, so the byte array converter is added ahead of Jackson for the
+     * pre-rendered catalog, which Jackson would otherwise write as a base64 string
+     */
     @Override
     public void configureMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(new ByteArrayHttpMessageConverter());
         converters.add(new MappingJackson2HttpMessageConverter(objectMapper));
         super.configureMessageConverters(converters);
     }
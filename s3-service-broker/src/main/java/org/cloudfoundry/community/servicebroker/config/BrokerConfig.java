@@ -4,15 +4,25 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.cloudfoundry.community.servicebroker.catalog.Plan;
 import org.cloudfoundry.community.servicebroker.catalog.ServiceDefinition;
+import org.cloudfoundry.community.servicebroker.catalog.ServiceInstance;
+import org.cloudfoundry.community.servicebroker.repositories.CacheInvalidationRepository;
 import org.cloudfoundry.community.servicebroker.repositories.ServiceDefinitionRepository;
+import org.cloudfoundry.community.servicebroker.repositories.ServiceInstanceBindingRepository;
+import org.cloudfoundry.community.servicebroker.repositories.ServiceInstanceRepository;
+import org.cloudfoundry.community.servicebroker.service.CatalogService;
+import org.cloudfoundry.community.servicebroker.service.ClusterCacheManager;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
 import org.springframework.core.env.Environment;
 import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
 import java.util.Arrays;
 import java.util.Collections;
@@ -20,15 +30,22 @@ import java.util.HashMap;
 import java.util.Map;
 
 @Configuration
+@EnableCaching
+@EnableScheduling
 @EnableConfigurationProperties(BrokerProperties.class)
 public class BrokerConfig {
 
+    /**
+     * The outbox poll, the lease renewal of running operations, the cache invalidation poll and the warm pool refill
+     */
+    private static final int SCHEDULED_TASKS = 4;
+
     @Autowired
     private BrokerProperties brokerProperties;
 
     @Bean
     CommandLineRunner commandLineRunner(ServiceDefinitionRepository serviceDefinitionRepository,
-                                        Environment environment) {
+                                        Environment environment, CatalogService catalogService) {
         return args -> {
             // Initialize the service broker definition when running in cloud profile
             if (Arrays.asList(environment.getActiveProfiles()).contains("cloud")) {
@@ -53,6 +70,7 @@ public class BrokerConfig {
 
                 // Update plan
                 serviceDefinitionRepository.save(serviceDefinition);
+                catalogService.reload();
             }
         };
     }
@@ -68,6 +86,51 @@ public class BrokerConfig {
                 .build();
     }
 
+    /**
+     * A bounded executor that works the broker operations claimed from the outbox, and tags buckets claimed from
+     * the warm pool. Tasks beyond the queue capacity are rejected rather than pinning request threads while AWS
+     * resources are created.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor provisioningExecutor() {
+        BrokerProperties.Provisioning provisioning = brokerProperties.getProvisioning();
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("provisioning-");
+        executor.setCorePoolSize(provisioning.getPoolSize());
+        executor.setMaxPoolSize(provisioning.getPoolSize());
+        executor.setQueueCapacity(provisioning.getQueueCapacity());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        return executor;
+    }
+
+    /**
+     * The scheduler of the broker's scheduled tasks, with a thread for each of them. Spring's default scheduler has
+     * a single thread, on which a warm pool refill that provisions IAM users and purges expired buckets would hold
+     * up the outbox poll, the lease renewals and the cache invalidation poll for as long as it runs.
+     */
+    @Bean
+    public ThreadPoolTaskScheduler taskScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setThreadNamePrefix("scheduler-");
+        scheduler.setPoolSize(SCHEDULED_TASKS);
+        return scheduler;
+    }
+
+    /**
+     * Local caches for the service instance and binding lookups that every broker API call makes, kept coherent
+     * across broker instances through published invalidations
+     */
+    @Bean
+    public ClusterCacheManager cacheManager(CacheInvalidationRepository cacheInvalidationRepository) {
+        ClusterCacheManager cacheManager = new ClusterCacheManager(cacheInvalidationRepository,
+                brokerProperties.getCache(), ServiceInstanceRepository.CACHE, ServiceInstanceBindingRepository.CACHE);
+
+        // Callers change the instance they looked up before saving it, while bindings cannot be changed
+        cacheManager.copyValues(ServiceInstanceRepository.CACHE, ServiceInstance.class, ServiceInstance::copy);
+        return cacheManager;
+    }
+
     public Map<String, Object> getServiceDefinitionMetaData() {
         Map<String, Object> sdMetadata = new HashMap<>();
 
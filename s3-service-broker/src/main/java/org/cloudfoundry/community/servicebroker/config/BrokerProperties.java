@@ -21,6 +21,15 @@ public class BrokerProperties {
     @NestedConfigurationProperty
     private Definition definition;
 
+    @NestedConfigurationProperty
+    private Provisioning provisioning = new Provisioning();
+
+    @NestedConfigurationProperty
+    private WarmPool warmPool = new WarmPool();
+
+    @NestedConfigurationProperty
+    private Cache cache = new Cache();
+
     public static class BasicPlan {
         private String id;
         private String name;
@@ -119,6 +128,204 @@ public class BrokerProperties {
         }
     }
 
+    public static class Provisioning {
+        private int poolSize = 8;
+        private int queueCapacity = 200;
+        private long pollInterval = 1000;
+        private long leaseDuration = 300000;
+        private long leaseRenewalInterval = 60000;
+        private int maxAttempts = 5;
+
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        public void setPoolSize(int poolSize) {
+            this.poolSize = poolSize;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        /**
+         * @return the delay in milliseconds between the end of one poll for unclaimed operations and the next
+         */
+        public long getPollInterval() {
+            return pollInterval;
+        }
+
+        public void setPollInterval(long pollInterval) {
+            this.pollInterval = pollInterval;
+        }
+
+        /**
+         * @return how long in milliseconds a worker holds an operation without renewing its lease before another
+         * worker may take it over
+         */
+        public long getLeaseDuration() {
+            return leaseDuration;
+        }
+
+        public void setLeaseDuration(long leaseDuration) {
+            this.leaseDuration = leaseDuration;
+        }
+
+        /**
+         * @return the delay in milliseconds between renewals of the leases of running operations, which must be well
+         * under the lease duration
+         */
+        public long getLeaseRenewalInterval() {
+            return leaseRenewalInterval;
+        }
+
+        public void setLeaseRenewalInterval(long leaseRenewalInterval) {
+            this.leaseRenewalInterval = leaseRenewalInterval;
+        }
+
+        public int getMaxAttempts() {
+            return maxAttempts;
+        }
+
+        public void setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+        }
+
+        @Override
+        public String toString() {
+            return "Provisioning{" +
+                    "poolSize=" + poolSize +
+                    ", queueCapacity=" + queueCapacity +
+                    ", pollInterval=" + pollInterval +
+                    ", leaseDuration=" + leaseDuration +
+                    ", leaseRenewalInterval=" + leaseRenewalInterval +
+                    ", maxAttempts=" + maxAttempts +
+                    '}';
+        }
+    }
+
+    public static class WarmPool {
+        private boolean enabled = false;
+        private int size = 10;
+        private int refillRate = 2;
+        private long refillInterval = 30000;
+        private long maxAge = 86400000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public void setSize(int size) {
+            this.size = size;
+        }
+
+        /**
+         * @return the maximum number of entries created in one refill
+         */
+        public int getRefillRate() {
+            return refillRate;
+        }
+
+        public void setRefillRate(int refillRate) {
+            this.refillRate = refillRate;
+        }
+
+        /**
+         * @return the delay in milliseconds between the end of one refill and the start of the next
+         */
+        public long getRefillInterval() {
+            return refillInterval;
+        }
+
+        public void setRefillInterval(long refillInterval) {
+            this.refillInterval = refillInterval;
+        }
+
+        /**
+         * @return the age in milliseconds after which an unclaimed entry is retired instead of being claimed
+         */
+        public long getMaxAge() {
+            return maxAge;
+        }
+
+        public void setMaxAge(long maxAge) {
+            this.maxAge = maxAge;
+        }
+
+        @Override
+        public String toString() {
+            return "WarmPool{" +
+                    "enabled=" + enabled +
+                    ", size=" + size +
+                    ", refillRate=" + refillRate +
+                    ", refillInterval=" + refillInterval +
+                    ", maxAge=" + maxAge +
+                    '}';
+        }
+    }
+
+    public static class Cache {
+        private String spec = "maximumSize=10000,expireAfterWrite=1m,recordStats";
+        private long invalidationPollInterval = 1000;
+        private long invalidationRetention = 3600000;
+
+        /**
+         * @return the Guava cache specification used for every cache, which must record stats for hit ratio metrics.
+         * The expiry bounds how long an entry stays stale on other broker instances when its invalidation could not
+         * be published.
+         */
+        public String getSpec() {
+            return spec;
+        }
+
+        public void setSpec(String spec) {
+            this.spec = spec;
+        }
+
+        /**
+         * @return the delay in milliseconds between polls for invalidations published by other broker instances
+         */
+        public long getInvalidationPollInterval() {
+            return invalidationPollInterval;
+        }
+
+        public void setInvalidationPollInterval(long invalidationPollInterval) {
+            this.invalidationPollInterval = invalidationPollInterval;
+        }
+
+        /**
+         * @return the age in milliseconds after which published invalidations are deleted
+         */
+        public long getInvalidationRetention() {
+            return invalidationRetention;
+        }
+
+        public void setInvalidationRetention(long invalidationRetention) {
+            this.invalidationRetention = invalidationRetention;
+        }
+
+        @Override
+        public String toString() {
+            return "Cache{" +
+                    "spec='" + spec + '\'' +
+                    ", invalidationPollInterval=" + invalidationPollInterval +
+                    ", invalidationRetention=" + invalidationRetention +
+                    '}';
+        }
+    }
+
     public String getProviderDisplayName() {
         return providerDisplayName;
     }
@@ -183,6 +390,30 @@ public class BrokerProperties {
         this.definition = definition;
     }
 
+    public Provisioning getProvisioning() {
+        return provisioning;
+    }
+
+    public void setProvisioning(Provisioning provisioning) {
+        this.provisioning = provisioning;
+    }
+
+    public WarmPool getWarmPool() {
+        return warmPool;
+    }
+
+    public void setWarmPool(WarmPool warmPool) {
+        this.warmPool = warmPool;
+    }
+
+    public Cache getCache() {
+        return cache;
+    }
+
+    public void setCache(Cache cache) {
+        this.cache = cache;
+    }
+
     @Override
     public String toString() {
         return "BrokerProperties{" +
@@ -194,6 +425,9 @@ public class BrokerProperties {
                 ", imageUrl='" + imageUrl + '\'' +
                 ", basicPlan=" + basicPlan +
                 ", definition=" + definition +
+                ", provisioning=" + provisioning +
+                ", warmPool=" + warmPool +
+                ", cache=" + cache +
                 '}';
     }
 }
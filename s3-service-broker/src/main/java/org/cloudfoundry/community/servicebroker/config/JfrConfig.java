@@ -0,0 +1,38 @@
+package org.cloudfoundry.community.servicebroker.config;
+
+import org.cloudfoundry.community.servicebroker.interceptor.BrokerRequestEventInterceptor;
+import org.cloudfoundry.community.servicebroker.jfr.JfrEventPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+/**
+ * Emits Java Flight Recorder events for broker requests, AWS calls and repository calls when
+ * {@code broker.jfr.enabled} is true, so that the samples of a recording can be matched to the broker operations
+ * that caused them. Nothing is wrapped or intercepted otherwise. Start a recording with the events enabled with
+ *
+ * <pre>
+ * jcmd &lt;pid&gt; JFR.start settings=profile filename=broker.jfr
+ * </pre>
+ *
+ * The events need the {@code jdk.jfr} API of OpenJDK 8u262 or 11 and later, on an older JVM nothing is recorded
+ * even when enabled.
+ */
+@Configuration
+@ConditionalOnClass(name = "jdk.jfr.Event")
+@ConditionalOnProperty(prefix = "broker.jfr", name = "enabled")
+public class JfrConfig extends WebMvcConfigurerAdapter {
+
+    @Bean
+    public static JfrEventPostProcessor jfrEventPostProcessor() {
+        return new JfrEventPostProcessor();
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new BrokerRequestEventInterceptor()).addPathPatterns("/v2/**");
+    }
+}
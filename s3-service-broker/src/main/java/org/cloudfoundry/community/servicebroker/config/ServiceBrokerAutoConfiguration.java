@@ -1,6 +1,5 @@
 package org.cloudfoundry.community.servicebroker.config;
 
-import org.cloudfoundry.community.servicebroker.catalog.Catalog;
 import org.cloudfoundry.community.servicebroker.repositories.ServiceDefinitionRepository;
 import org.cloudfoundry.community.servicebroker.model.BrokerApiVersion;
 import org.cloudfoundry.community.servicebroker.service.BeanCatalogService;
@@ -9,6 +8,7 @@ import org.springframework.boot.autoconfigure.AutoConfigureAfter;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.boot.autoconfigure.web.WebMvcAutoConfiguration;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
@@ -30,8 +30,9 @@ public class ServiceBrokerAutoConfiguration {
 
     @Bean
     @ConditionalOnMissingBean(CatalogService.class)
-    public CatalogService beanCatalogService(Catalog catalog, ServiceDefinitionRepository serviceDefinitionRepository) {
-        return new BeanCatalogService(catalog, serviceDefinitionRepository);
+    public CatalogService beanCatalogService(ServiceDefinitionRepository serviceDefinitionRepository,
+                                             ApplicationEventPublisher eventPublisher) {
+        return new BeanCatalogService(serviceDefinitionRepository, eventPublisher);
     }
 
 
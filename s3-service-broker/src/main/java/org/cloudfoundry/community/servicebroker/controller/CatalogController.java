@@ -1,25 +1,39 @@
 package org.cloudfoundry.community.servicebroker.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.cloudfoundry.community.servicebroker.catalog.Catalog;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.cloudfoundry.community.servicebroker.service.CatalogChangedEvent;
 import org.cloudfoundry.community.servicebroker.service.CatalogService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * See: Source: http://docs.cloudfoundry.com/docs/running/architecture/services/writing-service.html
  *
+ * The catalog is polled often by every Cloud Controller, so it is rendered once into compact JSON, and a gzipped
+ * copy, with a strong ETag. The rendering is replaced as a whole when the catalog changes.
+ *
  * @author sgreenberg@gopivotal.com
  */
 @RestController
@@ -32,6 +46,8 @@ public class CatalogController extends BaseController {
     private CatalogService service;
     private ObjectMapper objectMapper;
 
+    private final AtomicReference<RenderedCatalog> rendered = new AtomicReference<>();
+
     @Autowired
     public CatalogController(CatalogService service, ObjectMapper objectMapper) {
         this.service = service;
@@ -40,9 +56,37 @@ public class CatalogController extends BaseController {
 
     @ResponseBody
     @RequestMapping(value = BASE_PATH, method = RequestMethod.GET)
-    public Catalog getCatalog() {
+    public ResponseEntity<byte[]> getCatalog(@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false)
+                                             String ifNoneMatch,
+                                             @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false)
+                                             String acceptEncoding) {
         logger.debug("GET: " + BASE_PATH + ", getCatalog()");
-        return service.getCatalog();
+
+        RenderedCatalog catalog = rendered.get();
+        if (catalog == null) {
+            rendered.compareAndSet(null, render());
+            catalog = rendered.get();
+        }
+
+        // Each encoding is a different representation, so each has its own strong ETag
+        boolean gzip = acceptsGzip(acceptEncoding);
+        String etag = gzip ? catalog.gzippedEtag : catalog.etag;
+
+        if (matches(ifNoneMatch, etag))
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(etag)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                    .build();
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .eTag(etag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+        if (gzip)
+            return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(catalog.gzipped);
+
+        return response.body(catalog.json);
     }
 
     @ResponseBody
@@ -51,4 +95,101 @@ public class CatalogController extends BaseController {
         return new ResponseEntity<Map>(objectMapper.readValue("{ \"status\": \"UP\" }", HashMap.class), HttpStatus.OK);
     }
 
+    /**
+     * Render the changed catalog before replacing the current rendering, so that requests never see a partial one
+     */
+    @EventListener(CatalogChangedEvent.class)
+    public void catalogChanged() {
+        rendered.set(render());
+        logger.info("Catalog changed, now served with ETag " + rendered.get().etag);
+    }
+
+    private RenderedCatalog render() {
+        try {
+            byte[] json = objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT)
+                    .writeValueAsBytes(service.getCatalog());
+
+            ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+            try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+                out.write(json);
+            }
+
+            return new RenderedCatalog(json, gzipped.toByteArray(), DigestUtils.md5DigestAsHex(json));
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Could not render the catalog", ex);
+        }
+    }
+
+    /**
+     * If-None-Match uses the weak comparison, so a weak validator for the same rendering also matches
+     */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null)
+            return false;
+
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/"))
+                candidate = candidate.substring(2);
+            if (candidate.equals("*") || candidate.equals(etag))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * A client accepts gzip if it lists gzip, or failing that the {@code *} wildcard, with a quality above zero
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null)
+            return false;
+
+        Double gzip = null;
+        Double any = null;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+            if (coding.equals("gzip") || coding.equals("x-gzip"))
+                gzip = quality(parts);
+            else if (coding.equals("*"))
+                any = quality(parts);
+        }
+
+        if (gzip == null)
+            gzip = any;
+        return gzip != null && gzip > 0;
+    }
+
+    /**
+     * The quality of an Accept-Encoding element is 1 unless it has a q parameter, and an invalid one counts as 0
+     */
+    private static double quality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2).trim());
+                } catch (NumberFormatException ex) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    private static final class RenderedCatalog {
+
+        private final byte[] json;
+        private final byte[] gzipped;
+        private final String etag;
+        private final String gzippedEtag;
+
+        private RenderedCatalog(byte[] json, byte[] gzipped, String digest) {
+            this.json = json;
+            this.gzipped = gzipped;
+            this.etag = "\"" + digest + "\"";
+            this.gzippedEtag = "\"" + digest + "-gzip\"";
+        }
+    }
 }
@@ -41,14 +41,21 @@ public class ServiceInstanceController extends BaseController {
     }
 
     @RequestMapping(value = BASE_PATH + "/{instanceId}/last_operation", method = RequestMethod.GET)
-    public ResponseEntity<ServiceInstanceStateResponse> getLastServiceInstanceOperation(@PathVariable("instanceId") String serviceInstanceId)
-            throws ServiceDefinitionDoesNotExistException, ServiceInstanceExistsException, ServiceBrokerException, ServiceInstanceDoesNotExistException {
+    public ResponseEntity<?> getLastServiceInstanceOperation(@PathVariable("instanceId") String serviceInstanceId)
+            throws ServiceDefinitionDoesNotExistException, ServiceInstanceExistsException, ServiceBrokerException {
 
         logger.debug("GET: " + BASE_PATH + "/{instanceId}/last_operation, getLastServiceInstanceOperation(), serviceInstanceId = " + serviceInstanceId);
-        ServiceInstance instance = service.getServiceInstance(serviceInstanceId);
+        ServiceInstance instance;
+        try {
+            instance = service.getServiceInstance(serviceInstanceId);
+        } catch (ServiceInstanceDoesNotExistException ex) {
+            // An instance whose asynchronous deletion has finished is gone
+            return new ResponseEntity<Map>(new HashMap<>(), HttpStatus.GONE);
+        }
         logger.debug("Get ServiceInstance State: " + instance.getServiceInstanceId());
         return new ResponseEntity<>(
-                new ServiceInstanceStateResponse("succeeded", "Service created"),
+                new ServiceInstanceStateResponse(instance.getLastOperationState().getValue(),
+                        instance.getLastOperationDescription()),
                 HttpStatus.OK);
     }
 
@@ -67,6 +74,7 @@ public class ServiceInstanceController extends BaseController {
     @RequestMapping(value = BASE_PATH + "/{instanceId}", method = RequestMethod.PUT)
     public ResponseEntity<CreateServiceInstanceResponse> createServiceInstance(
             @PathVariable("instanceId") String serviceInstanceId,
+            @RequestParam(value = "accepts_incomplete", required = false, defaultValue = "false") boolean acceptsIncomplete,
             @Valid @RequestBody CreateServiceInstanceRequest request) throws
             ServiceDefinitionDoesNotExistException,
             ServiceInstanceExistsException,
@@ -78,27 +86,34 @@ public class ServiceInstanceController extends BaseController {
             throw new ServiceDefinitionDoesNotExistException(request.getServiceDefinitionId());
         }
         ServiceInstance instance = service.createServiceInstance(
-                request.withServiceDefinition(svc).and().withServiceInstanceId(serviceInstanceId));
+                request.withServiceDefinition(svc).and().withServiceInstanceId(serviceInstanceId)
+                        .withAsyncAccepted(acceptsIncomplete));
         logger.debug("ServiceInstance Created: " + instance.getServiceInstanceId());
         return new ResponseEntity<CreateServiceInstanceResponse>(
                 new CreateServiceInstanceResponse(instance),
-                HttpStatus.CREATED);
+                instance.getLastOperationState() == OperationState.IN_PROGRESS ? HttpStatus.ACCEPTED : HttpStatus.CREATED);
     }
 
     @RequestMapping(value = BASE_PATH + "/{instanceId}", method = RequestMethod.DELETE)
     public ResponseEntity<?> deleteServiceInstance(
             @PathVariable("instanceId") String instanceId,
             @RequestParam("service_id") String serviceId,
-            @RequestParam("plan_id") String planId) throws ServiceBrokerException, ServiceInstanceDoesNotExistException {
+            @RequestParam("plan_id") String planId,
+            @RequestParam(value = "accepts_incomplete", required = false, defaultValue = "false") boolean acceptsIncomplete)
+            throws ServiceBrokerException, ServiceInstanceDoesNotExistException {
         logger.debug("DELETE: " + BASE_PATH + "/{instanceId}"
                 + ", deleteServiceInstanceBinding(), serviceInstanceId = " + instanceId
                 + ", serviceId = " + serviceId
                 + ", planId = " + planId);
         ServiceInstance instance = service.deleteServiceInstance(
-                new DeleteServiceInstanceRequest(instanceId, serviceId, planId));
+                new DeleteServiceInstanceRequest(instanceId, serviceId, planId).withAsyncAccepted(acceptsIncomplete));
         if (instance == null) {
             return new ResponseEntity<Map>(new HashMap<>(), HttpStatus.GONE);
         }
+        if (instance.getLastOperationState() == OperationState.IN_PROGRESS) {
+            logger.debug("ServiceInstance Deletion Accepted: " + instance.getServiceInstanceId());
+            return new ResponseEntity<Map>(new HashMap<>(), HttpStatus.ACCEPTED);
+        }
         logger.debug("ServiceInstance Deleted: " + instance.getServiceInstanceId());
         return new ResponseEntity<Map>(new HashMap<>(), HttpStatus.OK);
     }
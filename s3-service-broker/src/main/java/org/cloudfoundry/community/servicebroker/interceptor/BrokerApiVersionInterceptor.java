@@ -5,6 +5,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.cloudfoundry.community.servicebroker.exception.ServiceBrokerApiVersionException;
 import org.cloudfoundry.community.servicebroker.model.BrokerApiVersion;
+import org.cloudfoundry.community.servicebroker.service.RequestTiming;
 import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
 
 public class BrokerApiVersionInterceptor extends HandlerInterceptorAdapter {
@@ -21,13 +22,18 @@ public class BrokerApiVersionInterceptor extends HandlerInterceptorAdapter {
 
 	public boolean preHandle(HttpServletRequest request, HttpServletResponse response,
 			Object handler) throws ServiceBrokerApiVersionException {
-		if (version != null && !anyVersionAllowed()) {
-			String apiVersion = request.getHeader(version.getBrokerApiVersionHeader());
-			if (!version.getApiVersion().equals(apiVersion)) {
-				throw new ServiceBrokerApiVersionException(version.getApiVersion(), apiVersion);
-			} 
+		long start = System.nanoTime();
+		try {
+			if (version != null && !anyVersionAllowed()) {
+				String apiVersion = request.getHeader(version.getBrokerApiVersionHeader());
+				if (!version.getApiVersion().equals(apiVersion)) {
+					throw new ServiceBrokerApiVersionException(version.getApiVersion(), apiVersion);
+				}
+			}
+			return true;
+		} finally {
+			RequestTiming.record("version", System.nanoTime() - start);
 		}
-		return true;
 	}
 
 	private boolean anyVersionAllowed() {
@@ -0,0 +1,48 @@
+package org.cloudfoundry.community.servicebroker.interceptor;
+
+import org.cloudfoundry.community.servicebroker.jfr.BrokerRequestEvent;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Map;
+
+/**
+ * Records a {@link BrokerRequestEvent} for every call to the broker API while a flight recording has the event
+ * enabled
+ */
+public class BrokerRequestEventInterceptor extends HandlerInterceptorAdapter {
+
+    private static final String EVENT = BrokerRequestEventInterceptor.class.getName() + ".event";
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        BrokerRequestEvent event = new BrokerRequestEvent();
+        if (event.isEnabled()) {
+            event.begin();
+            request.setAttribute(EVENT, event);
+        }
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        BrokerRequestEvent event = (BrokerRequestEvent) request.getAttribute(EVENT);
+        if (event == null)
+            return;
+
+        event.end();
+        if (event.shouldCommit()) {
+            Map<String, String> variables =
+                    (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+            event.completed(request.getMethod(),
+                    (String) request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE),
+                    variables == null ? null : variables.get("instanceId"),
+                    response.getStatus());
+            event.commit();
+        }
+    }
+}
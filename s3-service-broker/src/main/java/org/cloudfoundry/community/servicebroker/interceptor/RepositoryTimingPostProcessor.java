@@ -0,0 +1,38 @@
+package org.cloudfoundry.community.servicebroker.interceptor;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.cloudfoundry.community.servicebroker.service.RequestTiming;
+import org.springframework.aop.framework.Advised;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.data.repository.Repository;
+
+/**
+ * Adds the time of every JPA repository call made while handling a broker API call to the {@code db} phase of its
+ * {@link RequestTiming}, with the transaction of the call when the repository starts one
+ */
+public class RepositoryTimingPostProcessor implements BeanPostProcessor {
+
+    static final MethodInterceptor TIMING = invocation -> {
+        if (RequestTiming.current() == null)
+            return invocation.proceed();
+
+        long start = System.nanoTime();
+        try {
+            return invocation.proceed();
+        } finally {
+            RequestTiming.record("db", System.nanoTime() - start);
+        }
+    };
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) {
+        return bean;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof Repository && bean instanceof Advised && !((Advised) bean).isFrozen())
+            ((Advised) bean).addAdvice(0, TIMING);
+        return bean;
+    }
+}
@@ -0,0 +1,46 @@
+package org.cloudfoundry.community.servicebroker.interceptor;
+
+import org.cloudfoundry.community.servicebroker.service.RequestTiming;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Times every broker API call and returns the time spent in each phase in a {@code Server-Timing} header, so that
+ * a slow call reported by Cloud Controller shows where its time went. The same breakdown is logged as one line of
+ * {@code name=value} fields to the {@code org.cloudfoundry.community.servicebroker.access} logger. The filter runs
+ * before authentication, and the response is buffered so that the header can be added once the call completed.
+ */
+public class ServerTimingFilter extends OncePerRequestFilter {
+
+    public static final String SERVER_TIMING = "Server-Timing";
+
+    private final Logger accessLog = LoggerFactory.getLogger("org.cloudfoundry.community.servicebroker.access");
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        RequestTiming timing = RequestTiming.start();
+        ContentCachingResponseWrapper wrapper = new ContentCachingResponseWrapper(response);
+
+        try {
+            filterChain.doFilter(request, wrapper);
+        } finally {
+            RequestTiming.clear();
+            timing.add("total", timing.elapsedNanos());
+
+            wrapper.setHeader(SERVER_TIMING, timing.toServerTiming());
+            accessLog.info("method={} path={} status={} {}", request.getMethod(), request.getRequestURI(),
+                    wrapper.getStatusCode(), timing.toLogFields());
+
+            wrapper.copyBodyToResponse();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package org.cloudfoundry.community.servicebroker.interceptor;
+
+import org.cloudfoundry.community.servicebroker.service.RequestTiming;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Records the time a broker API call took to reach its handler, which is mostly the time spent authenticating it,
+ * as the {@code auth} phase of its {@link RequestTiming}. It must be the first interceptor.
+ */
+public class ServerTimingInterceptor extends HandlerInterceptorAdapter {
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        RequestTiming timing = RequestTiming.current();
+        if (timing != null)
+            timing.add("auth", timing.elapsedNanos());
+        return true;
+    }
+}
@@ -0,0 +1,33 @@
+package org.cloudfoundry.community.servicebroker.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A call to an AWS client, with the retries of the SDK and the wait for a slot of the IAM limiter
+ */
+@Name("org.cloudfoundry.servicebroker.AwsCall")
+@Label("AWS Call")
+@Category("Service Broker")
+@Description("A call to IAM or S3 made by the service broker")
+@StackTrace(false)
+class AwsCallEvent extends Event {
+
+    @Label("Service")
+    String service;
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Attempt")
+    @Description("The attempt of the broker operation that made the call, 0 outside of broker operations")
+    int attempt;
+
+    @Label("Outcome")
+    @Description("success, error or throttled")
+    String outcome;
+}
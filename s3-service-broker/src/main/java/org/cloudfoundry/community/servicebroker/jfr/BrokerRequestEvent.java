@@ -0,0 +1,39 @@
+package org.cloudfoundry.community.servicebroker.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A call from Cloud Controller to the broker API, from the start of its handling to the completion of the response
+ */
+@Name("org.cloudfoundry.servicebroker.BrokerRequest")
+@Label("Broker Request")
+@Category("Service Broker")
+@Description("A call to the service broker API")
+@StackTrace(false)
+public class BrokerRequestEvent extends Event {
+
+    @Label("Method")
+    String method;
+
+    @Label("Endpoint")
+    @Description("The path pattern of the handler, such as /v2/service_instances/{instanceId}")
+    String endpoint;
+
+    @Label("Service Instance Id")
+    String instanceId;
+
+    @Label("Status")
+    int status;
+
+    public void completed(String method, String endpoint, String instanceId, int status) {
+        this.method = method;
+        this.endpoint = endpoint;
+        this.instanceId = instanceId;
+        this.status = status;
+    }
+}
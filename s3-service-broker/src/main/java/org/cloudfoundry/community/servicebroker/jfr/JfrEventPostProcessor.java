@@ -0,0 +1,105 @@
+package org.cloudfoundry.community.servicebroker.jfr;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.identitymanagement.AmazonIdentityManagement;
+import com.amazonaws.services.s3.AmazonS3;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.cloudfoundry.community.servicebroker.service.OperationAttempt;
+import org.springframework.aop.framework.Advised;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.data.repository.Repository;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Records a {@link AwsCallEvent} for every call to the AWS clients and a {@link RepositoryCallEvent} for every call
+ * to the JPA repositories. The clients are wrapped in a proxy and the repositories, which are already proxies, get
+ * one more interceptor in front of their transaction. While no recording has the events enabled, each call costs
+ * the check of a flag.
+ */
+public class JfrEventPostProcessor implements BeanPostProcessor {
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) {
+        return bean;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof AmazonIdentityManagement)
+            return record("iam", AmazonIdentityManagement.class, (AmazonIdentityManagement) bean);
+
+        if (bean instanceof AmazonS3)
+            return record("s3", AmazonS3.class, (AmazonS3) bean);
+
+        if (bean instanceof Repository && bean instanceof Advised && !((Advised) bean).isFrozen())
+            ((Advised) bean).addAdvice(0, repositoryInterceptor(beanName));
+
+        return bean;
+    }
+
+    static <T> T record(String service, Class<T> type, T target) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    AwsCallEvent event = new AwsCallEvent();
+                    if (!event.isEnabled() || method.getDeclaringClass() == Object.class)
+                        return invoke(method, target, args);
+
+                    event.begin();
+                    String outcome = "error";
+                    try {
+                        Object result = invoke(method, target, args);
+                        outcome = "success";
+                        return result;
+                    } catch (AmazonServiceException ex) {
+                        if (RetryUtils.isThrottlingException(ex))
+                            outcome = "throttled";
+                        throw ex;
+                    } finally {
+                        event.end();
+                        if (event.shouldCommit()) {
+                            event.service = service;
+                            event.operation = method.getName();
+                            event.attempt = OperationAttempt.current();
+                            event.outcome = outcome;
+                            event.commit();
+                        }
+                    }
+                }));
+    }
+
+    static MethodInterceptor repositoryInterceptor(String repository) {
+        return invocation -> {
+            RepositoryCallEvent event = new RepositoryCallEvent();
+            if (!event.isEnabled())
+                return invocation.proceed();
+
+            event.begin();
+            boolean succeeded = false;
+            try {
+                Object result = invocation.proceed();
+                succeeded = true;
+                return result;
+            } finally {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.repository = repository;
+                    event.method = invocation.getMethod().getName();
+                    event.succeeded = succeeded;
+                    event.commit();
+                }
+            }
+        };
+    }
+
+    private static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+    }
+}
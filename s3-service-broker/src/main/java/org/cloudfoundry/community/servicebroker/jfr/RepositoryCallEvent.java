@@ -0,0 +1,28 @@
+package org.cloudfoundry.community.servicebroker.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A call to a JPA repository, with its transaction when the repository starts one
+ */
+@Name("org.cloudfoundry.servicebroker.RepositoryCall")
+@Label("Repository Call")
+@Category("Service Broker")
+@Description("A call to a JPA repository of the service broker")
+@StackTrace(false)
+class RepositoryCallEvent extends Event {
+
+    @Label("Repository")
+    String repository;
+
+    @Label("Method")
+    String method;
+
+    @Label("Succeeded")
+    boolean succeeded;
+}
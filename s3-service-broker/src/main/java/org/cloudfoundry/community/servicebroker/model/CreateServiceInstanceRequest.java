@@ -50,6 +50,10 @@ public class CreateServiceInstanceRequest {
 	//Cloud Controller doesn't send instanceId in the body
 	@JsonIgnore
 	private String serviceInstanceId;
+
+	//Cloud Controller sends accepts_incomplete as a query parameter
+	@JsonIgnore
+	private boolean asyncAccepted;
 	
 	public CreateServiceInstanceRequest() {
 	}
@@ -110,6 +114,10 @@ public class CreateServiceInstanceRequest {
 		this.parameters = parameters;
 	}
 
+	public boolean isAsyncAccepted() {
+		return asyncAccepted;
+	}
+
 	public CreateServiceInstanceRequest withServiceDefinition(ServiceDefinition svc) {
 		this.serviceDefinition = svc;
 		return this;
@@ -120,6 +128,12 @@ public class CreateServiceInstanceRequest {
 		this.serviceInstanceId = serviceInstanceId;
 		return this;
 	}
+
+	public CreateServiceInstanceRequest withAsyncAccepted(final boolean asyncAccepted) {
+		this.asyncAccepted = asyncAccepted;
+		return this;
+	}
+
 	public CreateServiceInstanceRequest and() {
 		return this;
 	}
@@ -10,6 +10,7 @@ public class DeleteServiceInstanceRequest {
 	private final String serviceInstanceId;
 	private final String serviceId;
 	private final String planId;
+	private boolean asyncAccepted;
 
 	public DeleteServiceInstanceRequest(String instanceId, String serviceId,
 			String planId) {
@@ -30,4 +31,13 @@ public class DeleteServiceInstanceRequest {
 		return planId;
 	}
 
+	public boolean isAsyncAccepted() {
+		return asyncAccepted;
+	}
+
+	public DeleteServiceInstanceRequest withAsyncAccepted(final boolean asyncAccepted) {
+		this.asyncAccepted = asyncAccepted;
+		return this;
+	}
+
 }
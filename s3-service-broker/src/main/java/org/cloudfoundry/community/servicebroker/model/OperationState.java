@@ -0,0 +1,30 @@
+package org.cloudfoundry.community.servicebroker.model;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+/**
+ * The state of the last operation performed on a service instance, as reported to the cloud controller
+ * when it polls the last_operation endpoint.
+ */
+public enum OperationState {
+
+    IN_PROGRESS("in progress"),
+    SUCCEEDED("succeeded"),
+    FAILED("failed");
+
+    private final String value;
+
+    OperationState(String value) {
+        this.value = value;
+    }
+
+    @JsonValue
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+}
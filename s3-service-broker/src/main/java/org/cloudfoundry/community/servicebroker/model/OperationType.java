@@ -0,0 +1,10 @@
+package org.cloudfoundry.community.servicebroker.model;
+
+/**
+ * The kind of change that a broker operation makes to a service instance
+ */
+public enum OperationType {
+
+    CREATE,
+    DELETE
+}
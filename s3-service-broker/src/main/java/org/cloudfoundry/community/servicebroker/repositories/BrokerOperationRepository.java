@@ -0,0 +1,68 @@
+package org.cloudfoundry.community.servicebroker.repositories;
+
+import org.cloudfoundry.community.servicebroker.catalog.BrokerOperation;
+import org.cloudfoundry.community.servicebroker.model.OperationState;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+public interface BrokerOperationRepository extends JpaRepository<BrokerOperation, String> {
+
+    /**
+     * @return the oldest operations in the given state whose lease has expired, or that were never claimed
+     */
+    List<BrokerOperation> findFirst20ByStateAndLeaseExpiresAtLessThanOrderByCreatedAtAsc(OperationState state,
+                                                                                         long now);
+
+    long countByState(OperationState state);
+
+    /**
+     * Claim an operation for a worker. The update only matches while the operation is unclaimed or its lease has
+     * expired, so when several workers race for the same operation exactly one of them claims it and the others
+     * skip it and move on to the next candidate. The claim changes the version, so that the previous owner can no
+     * longer save the operation.
+     *
+     * @return 1 if the operation was claimed and 0 if another worker holds it
+     */
+    @Modifying
+    @Transactional
+    @Query("update BrokerOperation o set o.owner = :owner, o.leaseExpiresAt = :leaseExpiresAt, " +
+            "o.attempts = o.attempts + 1, o.version = o.version + 1 " +
+            "where o.id = :id and o.state = :state and o.leaseExpiresAt < :now")
+    int claim(@Param("id") String id, @Param("owner") String owner, @Param("leaseExpiresAt") long leaseExpiresAt,
+              @Param("state") OperationState state, @Param("now") long now);
+
+    /**
+     * Extend the lease of an operation while one of its steps runs. The update only matches while the worker still
+     * owns the operation at the version it last saved, so a worker whose lease was taken over does not take it back.
+     *
+     * @return 1 if the lease was renewed and 0 if the worker no longer holds the operation
+     */
+    @Modifying
+    @Transactional
+    @Query("update BrokerOperation o set o.leaseExpiresAt = :leaseExpiresAt, o.version = o.version + 1 " +
+            "where o.id = :id and o.owner = :owner and o.version = :version")
+    int renewLease(@Param("id") String id, @Param("owner") String owner, @Param("version") long version,
+                   @Param("leaseExpiresAt") long leaseExpiresAt);
+
+    /**
+     * Record the outcome of an operation in a single statement, rather than the read and update of a save. The
+     * steps and context are recorded by checkpoints, so only the state and the lease have changed since. The
+     * update only matches while the operation is at the version the worker last saved, that is while the worker
+     * still holds it.
+     *
+     * @return 1 if the outcome was saved and 0 if another worker has taken the operation over
+     */
+    @Modifying
+    @Transactional
+    @Query("update BrokerOperation o set o.state = :state, o.description = :description, o.owner = :owner, " +
+            "o.leaseExpiresAt = :leaseExpiresAt, o.version = o.version + 1 " +
+            "where o.id = :id and o.version = :version")
+    int saveOutcome(@Param("id") String id, @Param("version") long version, @Param("state") OperationState state,
+                    @Param("description") String description, @Param("owner") String owner,
+                    @Param("leaseExpiresAt") long leaseExpiresAt);
+}
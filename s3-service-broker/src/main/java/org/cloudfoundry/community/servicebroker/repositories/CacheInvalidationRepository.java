@@ -0,0 +1,23 @@
+package org.cloudfoundry.community.servicebroker.repositories;
+
+import org.cloudfoundry.community.servicebroker.catalog.CacheInvalidation;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+public interface CacheInvalidationRepository extends JpaRepository<CacheInvalidation, Long> {
+
+    /**
+     * @return the invalidations published after the given time, in the order they were published
+     */
+    List<CacheInvalidation> findByCreatedAtGreaterThanOrderByIdAsc(long createdAfter);
+
+    @Modifying
+    @Transactional
+    @Query("delete from CacheInvalidation i where i.createdAt < :createdBefore")
+    int deleteByCreatedAtBefore(@Param("createdBefore") long createdBefore);
+}
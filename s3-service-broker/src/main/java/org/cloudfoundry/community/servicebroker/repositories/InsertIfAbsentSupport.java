@@ -0,0 +1,72 @@
+package org.cloudfoundry.community.servicebroker.repositories;
+
+import org.hibernate.exception.ConstraintViolationException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityExistsException;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceException;
+
+/**
+ * Inserts an entity with an assigned id in a single statement. Saving such an entity through a repository merges
+ * it, which selects the row before inserting it, so checking that an id is free and then saving costs three round
+ * trips where the insert alone tells whether the id was free.
+ */
+abstract class InsertIfAbsentSupport {
+
+    @PersistenceContext
+    protected EntityManager entityManager;
+
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Insert an entity unless a row with its id exists. Must not be called within a transaction, as a duplicate
+     * rolls the transaction back.
+     *
+     * @return false if a row with the entity's id exists
+     */
+    protected boolean insertEntityIfAbsent(Object entity) {
+        try {
+            transactionTemplate.execute(status -> {
+                entityManager.persist(entity);
+                entityManager.flush();
+                return null;
+            });
+            return true;
+        } catch (PersistenceException ex) {
+            if (isDuplicate(ex))
+                return false;
+            throw ex;
+        }
+    }
+
+    /**
+     * Insert an entity as part of the caller's transaction. A row with the entity's id fails the insert, after which
+     * the caller must roll its transaction back.
+     *
+     * @return false if a row with the entity's id exists
+     */
+    protected boolean insertEntity(Object entity) {
+        try {
+            entityManager.persist(entity);
+            entityManager.flush();
+            return true;
+        } catch (PersistenceException ex) {
+            if (isDuplicate(ex))
+                return false;
+            throw ex;
+        }
+    }
+
+    private static boolean isDuplicate(PersistenceException ex) {
+        return ex instanceof EntityExistsException || ex.getCause() instanceof ConstraintViolationException;
+    }
+}
@@ -1,7 +1,34 @@
 package org.cloudfoundry.community.servicebroker.repositories;
 
 import org.cloudfoundry.community.servicebroker.catalog.ServiceInstanceBinding;
+import org.springframework.cache.annotation.CacheConfig;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.data.jpa.repository.JpaRepository;
 
-public interface ServiceInstanceBindingRepository extends JpaRepository<ServiceInstanceBinding, String> {
+/**
+ * Bindings are cached by id. Every save and delete evicts the binding on this and every other broker instance. A
+ * binding cannot be changed, so every lookup shares the cached binding.
+ */
+@CacheConfig(cacheNames = ServiceInstanceBindingRepository.CACHE)
+public interface ServiceInstanceBindingRepository extends JpaRepository<ServiceInstanceBinding, String>,
+        ServiceInstanceBindingRepositoryCustom {
+
+    String CACHE = "serviceInstanceBindings";
+
+    @Override
+    @Cacheable(key = "#p0", unless = "#result == null")
+    ServiceInstanceBinding findOne(String bindingId);
+
+    @Override
+    @CacheEvict(key = "#p0.id")
+    <S extends ServiceInstanceBinding> S save(S serviceInstanceBinding);
+
+    @Override
+    @CacheEvict(key = "#p0")
+    void delete(String bindingId);
+
+    @Override
+    @CacheEvict(key = "#p0.id")
+    void delete(ServiceInstanceBinding serviceInstanceBinding);
 }
@@ -0,0 +1,22 @@
+package org.cloudfoundry.community.servicebroker.repositories;
+
+import org.cloudfoundry.community.servicebroker.catalog.ServiceInstanceBinding;
+import org.springframework.cache.annotation.CacheEvict;
+
+public interface ServiceInstanceBindingRepositoryCustom {
+
+    /**
+     * Insert a new binding without selecting it first
+     *
+     * @return false if a binding with the same id exists
+     */
+    boolean insertIfAbsent(ServiceInstanceBinding serviceInstanceBinding);
+
+    /**
+     * Delete a binding in one transaction that reads it once
+     *
+     * @return the deleted binding, or null if it did not exist
+     */
+    @CacheEvict(cacheNames = ServiceInstanceBindingRepository.CACHE, key = "#p0")
+    ServiceInstanceBinding remove(String bindingId);
+}
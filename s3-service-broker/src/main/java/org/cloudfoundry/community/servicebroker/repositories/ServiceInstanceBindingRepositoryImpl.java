@@ -0,0 +1,24 @@
+package org.cloudfoundry.community.servicebroker.repositories;
+
+import org.cloudfoundry.community.servicebroker.catalog.ServiceInstanceBinding;
+import org.springframework.transaction.annotation.Transactional;
+
+class ServiceInstanceBindingRepositoryImpl extends InsertIfAbsentSupport
+        implements ServiceInstanceBindingRepositoryCustom {
+
+    @Override
+    public boolean insertIfAbsent(ServiceInstanceBinding serviceInstanceBinding) {
+        return insertEntityIfAbsent(serviceInstanceBinding);
+    }
+
+    @Override
+    @Transactional
+    public ServiceInstanceBinding remove(String bindingId) {
+        ServiceInstanceBinding serviceInstanceBinding = entityManager.find(ServiceInstanceBinding.class, bindingId);
+
+        if (serviceInstanceBinding != null)
+            entityManager.remove(serviceInstanceBinding);
+
+        return serviceInstanceBinding;
+    }
+}
@@ -1,7 +1,68 @@
 package org.cloudfoundry.community.servicebroker.repositories;
 
 import org.cloudfoundry.community.servicebroker.catalog.ServiceInstance;
+import org.cloudfoundry.community.servicebroker.model.OperationState;
+import org.springframework.cache.annotation.CacheConfig;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
-public interface ServiceInstanceRepository extends JpaRepository<ServiceInstance, String> {
+/**
+ * Service instances, with their credentials, are cached by id. Every save and delete evicts the instance on this
+ * and every other broker instance. The cache holds copies, so each lookup returns an instance that the caller may
+ * change before saving it.
+ */
+@CacheConfig(cacheNames = ServiceInstanceRepository.CACHE)
+public interface ServiceInstanceRepository extends JpaRepository<ServiceInstance, String>,
+        ServiceInstanceRepositoryCustom {
+
+    String CACHE = "serviceInstances";
+
+    @Override
+    @Cacheable(key = "#p0", unless = "#result == null")
+    ServiceInstance findOne(String serviceInstanceId);
+
+    @Override
+    @CacheEvict(key = "#p0.serviceInstanceId")
+    <S extends ServiceInstance> S save(S serviceInstance);
+
+    @Override
+    @CacheEvict(key = "#p0")
+    void delete(String serviceInstanceId);
+
+    @Override
+    @CacheEvict(key = "#p0.serviceInstanceId")
+    void delete(ServiceInstance serviceInstance);
+
+    /**
+     * Change the plan of a service instance in a single statement, unless an operation on the instance is in
+     * progress
+     *
+     * @return 1 if the plan was changed, 0 if the instance does not exist or has an operation in progress
+     */
+    @CacheEvict(key = "#p0")
+    @Modifying
+    @Transactional
+    @Query("update ServiceInstance i set i.planId = :planId where i.serviceInstanceId = :serviceInstanceId " +
+            "and (i.lastOperationState is null or i.lastOperationState <> :inProgress)")
+    int updatePlan(@Param("serviceInstanceId") String serviceInstanceId, @Param("planId") String planId,
+                   @Param("inProgress") OperationState inProgress);
+
+    /**
+     * Mark an operation on a service instance as in progress in a single statement, unless one already is
+     *
+     * @return 1 if the operation was started, 0 if the instance does not exist or has an operation in progress
+     */
+    @CacheEvict(key = "#p0")
+    @Modifying
+    @Transactional
+    @Query("update ServiceInstance i set i.lastOperationState = :inProgress, " +
+            "i.lastOperationDescription = :description where i.serviceInstanceId = :serviceInstanceId " +
+            "and (i.lastOperationState is null or i.lastOperationState <> :inProgress)")
+    int startOperation(@Param("serviceInstanceId") String serviceInstanceId,
+                       @Param("inProgress") OperationState inProgress, @Param("description") String description);
 }
@@ -0,0 +1,28 @@
+package org.cloudfoundry.community.servicebroker.repositories;
+
+import org.cloudfoundry.community.servicebroker.catalog.ServiceInstance;
+import org.springframework.cache.annotation.CacheEvict;
+
+public interface ServiceInstanceRepositoryCustom {
+
+    /**
+     * Insert a new service instance in a single statement
+     *
+     * @return false if a service instance with the same id exists
+     */
+    boolean insertIfAbsent(ServiceInstance serviceInstance);
+
+    /**
+     * Insert a new service instance in a single statement, as part of the caller's transaction. If a service instance
+     * with the same id exists, the caller must roll its transaction back.
+     *
+     * @return false if a service instance with the same id exists
+     */
+    boolean insert(ServiceInstance serviceInstance);
+
+    /**
+     * Delete a service instance and its credential without reading them again
+     */
+    @CacheEvict(cacheNames = ServiceInstanceRepository.CACHE, key = "#p0.serviceInstanceId")
+    void remove(ServiceInstance serviceInstance);
+}
@@ -0,0 +1,31 @@
+package org.cloudfoundry.community.servicebroker.repositories;
+
+import org.cloudfoundry.community.servicebroker.catalog.ServiceInstance;
+import org.springframework.transaction.annotation.Transactional;
+
+class ServiceInstanceRepositoryImpl extends InsertIfAbsentSupport implements ServiceInstanceRepositoryCustom {
+
+    @Override
+    public boolean insertIfAbsent(ServiceInstance serviceInstance) {
+        return insertEntityIfAbsent(serviceInstance);
+    }
+
+    @Override
+    public boolean insert(ServiceInstance serviceInstance) {
+        return insertEntity(serviceInstance);
+    }
+
+    @Override
+    @Transactional
+    public void remove(ServiceInstance serviceInstance) {
+        // The instance references its credential, so it goes first
+        entityManager.createQuery("delete from ServiceInstance i where i.serviceInstanceId = :serviceInstanceId")
+                .setParameter("serviceInstanceId", serviceInstance.getServiceInstanceId())
+                .executeUpdate();
+
+        if (serviceInstance.getCredential() != null)
+            entityManager.createQuery("delete from Credential c where c.id = :id")
+                    .setParameter("id", serviceInstance.getCredential().getId())
+                    .executeUpdate();
+    }
+}
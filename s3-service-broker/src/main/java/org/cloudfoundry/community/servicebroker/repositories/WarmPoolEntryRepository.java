@@ -0,0 +1,58 @@
+package org.cloudfoundry.community.servicebroker.repositories;
+
+import org.cloudfoundry.community.servicebroker.catalog.WarmPoolEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+public interface WarmPoolEntryRepository extends JpaRepository<WarmPoolEntry, String> {
+
+    /**
+     * @return the oldest entries created after the given time, which are the next candidates for a claim
+     */
+    List<WarmPoolEntry> findFirst5ByCreatedAtGreaterThanOrderByCreatedAtAsc(long createdAfter);
+
+    List<WarmPoolEntry> findByCreatedAtLessThanEqual(long createdBefore);
+
+    long countByCreatedAtGreaterThan(long createdAfter);
+
+    /**
+     * Remove an entry from the pool, unless it has expired since it was read. Only one of any number of concurrent
+     * callers removes the entry, and an entry that is being retired is not removed, so a result of 1 means the
+     * caller now owns the entry's resources.
+     *
+     * @return the number of entries removed, 1 if the entry was still in the pool and 0 otherwise
+     */
+    @Modifying
+    @Transactional
+    @Query("delete from WarmPoolEntry e where e.name = :name and e.createdAt > :createdAfter")
+    int claim(@Param("name") String name, @Param("createdAfter") long createdAfter);
+
+    /**
+     * Mark an expired entry as retiring, by setting its creation time to {@link WarmPoolEntry#RETIRING}, so that it
+     * can no longer be claimed while its resources are deleted. The entry stays in the table as the record of its
+     * resources until they are gone.
+     *
+     * @return 1 if the caller marked the entry, 0 if it was claimed or marked by someone else
+     */
+    @Modifying
+    @Transactional
+    @Query("update WarmPoolEntry e set e.createdAt = :retiring "
+            + "where e.name = :name and e.createdAt <= :createdBefore and e.createdAt <> :retiring")
+    int retire(@Param("name") String name, @Param("createdBefore") long createdBefore,
+               @Param("retiring") long retiring);
+
+    /**
+     * Remove a retiring entry once its resources have been deleted
+     *
+     * @return the number of entries removed
+     */
+    @Modifying
+    @Transactional
+    @Query("delete from WarmPoolEntry e where e.name = :name and e.createdAt = :retiring")
+    int removeRetired(@Param("name") String name, @Param("retiring") long retiring);
+}
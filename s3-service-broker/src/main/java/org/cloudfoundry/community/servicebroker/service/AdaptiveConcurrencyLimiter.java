@@ -0,0 +1,209 @@
+package org.cloudfoundry.community.servicebroker.service;
+
+import amazon.client.ThrottlingListener;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of concurrent calls to an AWS service with additive increase and multiplicative decrease. Every
+ * call that completes without being throttled raises the limit by one over the current limit, so the limit grows
+ * by about one for each window of calls. Every throttled attempt, including attempts that the SDK retries on its
+ * own, halves the limit, at most once per second so that one burst of throttling counts once. Callers beyond the
+ * limit wait in line and fail with an {@link AmazonClientException} if no slot frees up before their deadline.
+ */
+public class AdaptiveConcurrencyLimiter implements ThrottlingListener, PublicMetrics {
+
+    static final double BACKOFF_RATIO = 0.5;
+
+    private static final long DECREASE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final Set<String> LOCAL_METHODS = new HashSet<>(Arrays.asList(
+            "setEndpoint", "setRegion", "shutdown", "getCachedResponseMetadata"));
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long maxWaitNanos;
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition slotAvailable = lock.newCondition();
+
+    private double limit;
+    private int inFlight;
+    private int waiting;
+    private long lastDecrease;
+
+    private final AtomicLong throttles = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * @param name          names the limited service in metrics and errors
+     * @param initialLimit  is the number of concurrent calls allowed before any feedback
+     * @param minLimit      is the lowest the limit shrinks to
+     * @param maxLimit      is the highest the limit grows to
+     * @param maxWaitMillis is how long a caller waits for a slot before failing
+     */
+    public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, long maxWaitMillis) {
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.lastDecrease = System.nanoTime() - DECREASE_INTERVAL_NANOS;
+    }
+
+    /**
+     * Wrap a client so that each of its remote calls holds a slot of this limiter while it runs, retries included
+     *
+     * @param type   is the client interface
+     * @param target is the client to limit
+     * @return a client that calls the target within the limit
+     */
+    public <T> T limit(Class<T> type, T target) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class || LOCAL_METHODS.contains(method.getName()))
+                        return invoke(method, target, args);
+
+                    acquire();
+                    try {
+                        Object result = invoke(method, target, args);
+                        succeeded();
+                        return result;
+                    } catch (AmazonServiceException ex) {
+                        // The last attempt is not retried, so the retry policy has not reported it
+                        if (RetryUtils.isThrottlingException(ex))
+                            throttled(ex);
+                        else
+                            succeeded();
+                        throw ex;
+                    } finally {
+                        release();
+                    }
+                }));
+    }
+
+    /**
+     * Take a slot, waiting in line while every slot is in use
+     *
+     * @throws AmazonClientException if no slot became available before the deadline
+     */
+    public void acquire() {
+        lock.lock();
+        try {
+            long remaining = maxWaitNanos;
+            waiting++;
+            try {
+                while (inFlight >= (int) limit) {
+                    if (remaining <= 0) {
+                        timeouts.incrementAndGet();
+                        throw new AmazonClientException(String.format(
+                                "Timed out after %d ms waiting for one of %d %s request slots",
+                                TimeUnit.NANOSECONDS.toMillis(maxWaitNanos), (int) limit, name));
+                    }
+                    remaining = slotAvailable.awaitNanos(remaining);
+                }
+            } finally {
+                waiting--;
+            }
+            inFlight++;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new AmazonClientException(String.format("Interrupted while waiting for a %s request slot", name),
+                    ex);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            slotAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Grow the limit after a call that was not throttled
+     */
+    public void succeeded() {
+        lock.lock();
+        try {
+            int before = (int) limit;
+            limit = Math.min(maxLimit, limit + 1 / limit);
+            if ((int) limit > before)
+                slotAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Shrink the limit after a throttled attempt, unless it was already shrunk within the last second
+     */
+    @Override
+    public void throttled(AmazonServiceException exception) {
+        throttles.incrementAndGet();
+
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            if (now - lastDecrease >= DECREASE_INTERVAL_NANOS) {
+                limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+                lastDecrease = now;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        lock.lock();
+        try {
+            return Arrays.asList(
+                    new Metric<>("broker." + name + "-limiter.limit", (int) limit),
+                    new Metric<>("broker." + name + "-limiter.in-flight", inFlight),
+                    new Metric<>("broker." + name + "-limiter.queue-depth", waiting),
+                    new Metric<>("broker." + name + "-limiter.throttles", throttles.get()),
+                    new Metric<>("broker." + name + "-limiter.timeouts", timeouts.get()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.cloudfoundry.community.servicebroker.service;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Times every remote call made through an AWS client, by operation and outcome. The actuator metrics have no tags,
+ * so the service, operation and outcome are part of each name. For example, the calls to IAM's {@code createUser}
+ * that succeeded are published as
+ *
+ * <pre>
+ * timer.aws.iam.createUser.success.count
+ * timer.aws.iam.createUser.success.mean
+ * timer.aws.iam.createUser.success.max
+ * timer.aws.iam.createUser.success.p50     p90, p99 and p99.9 likewise
+ * timer.aws.iam.createUser.success.le.100  calls that took 100 ms or less, one for each bucket
+ * </pre>
+ *
+ * The outcome is {@code success}, {@code error} or {@code throttled}, and the failures are also counted in
+ * {@code counter.aws.iam.createUser.errors} and {@code counter.aws.iam.createUser.throttles}. Percentiles are the
+ * upper bound of the bucket they fall into, so they are exact to the bucket. A call is timed as a whole, with the
+ * retries of the SDK, but without the time it waited for a slot of a concurrency limiter around it.
+ */
+public class AwsCallMetrics implements PublicMetrics {
+
+    static final String SUCCESS = "success";
+    static final String ERROR = "error";
+    static final String THROTTLED = "throttled";
+
+    /**
+     * Upper bounds in milliseconds of the latency buckets, from the few milliseconds of a warm S3 call to the SDK's
+     * longest socket timeout with retries
+     */
+    static final long[] BUCKETS = {5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000};
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private static final Set<String> LOCAL_METHODS = new HashSet<>(Arrays.asList(
+            "setEndpoint", "setRegion", "shutdown", "getCachedResponseMetadata"));
+
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    /**
+     * Wrap a client so that each of its remote calls is timed
+     *
+     * @param service names the service in the metrics, such as {@code iam}
+     * @param type    is the client interface
+     * @param target  is the client to time
+     * @return a client that times its calls to the target
+     */
+    public <T> T instrument(String service, Class<T> type, T target) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class || LOCAL_METHODS.contains(method.getName()))
+                        return invoke(method, target, args);
+
+                    String operation = "aws." + service + "." + method.getName();
+                    long start = System.nanoTime();
+                    try {
+                        Object result = invoke(method, target, args);
+                        record(operation, SUCCESS, System.nanoTime() - start);
+                        return result;
+                    } catch (Throwable ex) {
+                        boolean throttled = ex instanceof AmazonServiceException
+                                && RetryUtils.isThrottlingException((AmazonServiceException) ex);
+                        record(operation, throttled ? THROTTLED : ERROR, System.nanoTime() - start);
+                        increment("counter." + operation + (throttled ? ".throttles" : ".errors"));
+                        throw ex;
+                    }
+                }));
+    }
+
+    void record(String operation, String outcome, long nanos) {
+        timers.computeIfAbsent("timer." + operation + "." + outcome, name -> new Timer())
+                .record(TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+
+    private void increment(String name) {
+        counters.computeIfAbsent(name, key -> new AtomicLong()).incrementAndGet();
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+        new TreeMap<>(timers).forEach((name, timer) -> timer.metrics(name, metrics));
+        new TreeMap<>(counters).forEach((name, count) -> metrics.add(new Metric<>(name, count.get())));
+        return metrics;
+    }
+
+    private static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * The latencies of one operation with one outcome, in fixed buckets so that recording never allocates or locks
+     */
+    private static final class Timer {
+
+        private final LongAdder[] buckets = new LongAdder[BUCKETS.length + 1];
+        private final LongAdder totalMillis = new LongAdder();
+        private final AtomicLong maxMillis = new AtomicLong();
+
+        private Timer() {
+            for (int i = 0; i < buckets.length; i++)
+                buckets[i] = new LongAdder();
+        }
+
+        void record(long millis) {
+            int bucket = 0;
+            while (bucket < BUCKETS.length && millis > BUCKETS[bucket])
+                bucket++;
+
+            buckets[bucket].increment();
+            totalMillis.add(millis);
+            maxMillis.accumulateAndGet(millis, Math::max);
+        }
+
+        void metrics(String name, List<Metric<?>> metrics) {
+            long[] counts = new long[buckets.length];
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets[i].sum();
+                total += counts[i];
+            }
+
+            long max = maxMillis.get();
+            metrics.add(new Metric<>(name + ".count", total));
+            metrics.add(new Metric<>(name + ".mean", total == 0 ? 0.0 : (double) totalMillis.sum() / total));
+            metrics.add(new Metric<>(name + ".max", max));
+
+            for (double percentile : PERCENTILES) {
+                long rank = (long) Math.ceil(total * percentile / 100);
+                long seen = 0;
+                int bucket = 0;
+                while (bucket < counts.length - 1 && (seen += counts[bucket]) < rank)
+                    bucket++;
+                String suffix = percentile == Math.rint(percentile) ? String.valueOf((long) percentile)
+                        : String.valueOf(percentile);
+                metrics.add(new Metric<>(name + ".p" + suffix,
+                        bucket < BUCKETS.length ? Math.min(BUCKETS[bucket], max) : max));
+            }
+
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                cumulative += counts[i];
+                metrics.add(new Metric<>(name + ".le." + BUCKETS[i], cumulative));
+            }
+        }
+    }
+}
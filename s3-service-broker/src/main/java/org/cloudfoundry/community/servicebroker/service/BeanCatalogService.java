@@ -1,37 +1,76 @@
 package org.cloudfoundry.community.servicebroker.service;
 
 import org.cloudfoundry.community.servicebroker.catalog.Catalog;
+import org.cloudfoundry.community.servicebroker.catalog.Plan;
 import org.cloudfoundry.community.servicebroker.catalog.ServiceDefinition;
 import org.cloudfoundry.community.servicebroker.repositories.ServiceDefinitionRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * An implementation of the CatalogService that gets the catalog injected (ie configure 
- * in spring config)
+ * An implementation of the CatalogService that serves an immutable snapshot of the service definitions. The
+ * snapshot is loaded on first use and only replaced by {@link #reload()}, so looking up services and plans on the
+ * provisioning path does not read the database.
  * 
  * @author sgreenberg@gopivotal.com
  *
  */
 public class BeanCatalogService implements CatalogService {
 
-	private Catalog catalog;
     private ServiceDefinitionRepository serviceDefinitionRepository;
+    private ApplicationEventPublisher eventPublisher;
+
+    private volatile Catalog catalog;
 
 	@Autowired
-	public BeanCatalogService(Catalog catalog, ServiceDefinitionRepository serviceDefinitionRepository) {
-		this.catalog = catalog;
+	public BeanCatalogService(ServiceDefinitionRepository serviceDefinitionRepository,
+                              ApplicationEventPublisher eventPublisher) {
         this.serviceDefinitionRepository = serviceDefinitionRepository;
+        this.eventPublisher = eventPublisher;
 	}
 
 	@Override
 	public Catalog getCatalog() {
-        catalog.getServices();
-		return catalog;
+        Catalog current = catalog;
+        if (current == null) {
+            synchronized (this) {
+                if (catalog == null)
+                    catalog = load();
+                current = catalog;
+            }
+        }
+		return current;
 	}
 
 	@Override
 	public ServiceDefinition getServiceDefinition(String serviceId) {
-		return serviceDefinitionRepository.findOne(serviceId);
+		return getCatalog().getServiceDefinition(serviceId);
 	}
 
+    @Override
+    public Plan getPlan(String planId) {
+        return getCatalog().getPlan(planId);
+    }
+
+    /**
+     * Build a new snapshot before replacing the current one, and let anything derived from the catalog know
+     */
+    @Override
+    public void reload() {
+        Catalog reloaded = load();
+        synchronized (this) {
+            catalog = reloaded;
+        }
+        eventPublisher.publishEvent(new CatalogChangedEvent(reloaded));
+    }
+
+    private Catalog load() {
+        List<ServiceDefinition> services = new ArrayList<>();
+        serviceDefinitionRepository.findAll().forEach(services::add);
+        return new Catalog(services);
+    }
+
 }
@@ -0,0 +1,439 @@
+package org.cloudfoundry.community.servicebroker.service;
+
+import org.cloudfoundry.community.servicebroker.catalog.BrokerOperation;
+import org.cloudfoundry.community.servicebroker.catalog.Credential;
+import org.cloudfoundry.community.servicebroker.catalog.ServiceInstance;
+import org.cloudfoundry.community.servicebroker.config.BrokerProperties;
+import org.cloudfoundry.community.servicebroker.exception.ServiceBrokerException;
+import org.cloudfoundry.community.servicebroker.model.OperationState;
+import org.cloudfoundry.community.servicebroker.model.OperationType;
+import org.cloudfoundry.community.servicebroker.model.S3User;
+import org.cloudfoundry.community.servicebroker.repositories.BrokerOperationRepository;
+import org.cloudfoundry.community.servicebroker.repositories.ServiceInstanceRepository;
+import org.cloudfoundry.community.servicebroker.service.StepExecutor.Checkpoint;
+import org.cloudfoundry.community.servicebroker.service.StepExecutor.SupersededException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Works the durable outbox of broker operations. Every create and delete of a service instance is recorded as a
+ * {@link BrokerOperation} before any AWS resource is touched. Workers claim operations with a lease through a
+ * conditional update, so that each operation is run by one worker at a time across every broker instance, renew
+ * the lease while the operation runs and record each completed step as a checkpoint. Every save is conditional on
+ * the version the worker last saved or claimed, so a worker that lost its lease stops at its next checkpoint rather
+ * than overwrite the new owner's progress. An operation whose worker died is claimed again once its lease expires
+ * and resumes from its last checkpoint, and operations left unfinished by a restart are picked up as soon as the
+ * broker is ready.
+ */
+@Component
+public class BrokerOperationService {
+
+    private final Logger log = LoggerFactory.getLogger(BrokerOperationService.class);
+
+    private final BrokerOperationRepository brokerOperationRepository;
+    private final ServiceInstanceRepository serviceInstanceRepository;
+    private final S3Service s3Service;
+    private final ThreadPoolTaskExecutor provisioningExecutor;
+    private final BrokerProperties.Provisioning properties;
+    private final Clock clock;
+
+    private final String owner = UUID.randomUUID().toString();
+
+    /**
+     * The operations this worker is running, whose leases are renewed until they finish
+     */
+    private final Set<BrokerOperation> running = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public BrokerOperationService(BrokerOperationRepository brokerOperationRepository,
+                                  ServiceInstanceRepository serviceInstanceRepository, S3Service s3Service,
+                                  @Qualifier("provisioningExecutor") ThreadPoolTaskExecutor provisioningExecutor,
+                                  BrokerProperties brokerProperties) {
+        this(brokerOperationRepository, serviceInstanceRepository, s3Service, provisioningExecutor,
+                brokerProperties.getProvisioning(), Clock.systemUTC());
+    }
+
+    BrokerOperationService(BrokerOperationRepository brokerOperationRepository,
+                           ServiceInstanceRepository serviceInstanceRepository, S3Service s3Service,
+                           ThreadPoolTaskExecutor provisioningExecutor, BrokerProperties.Provisioning properties,
+                           Clock clock) {
+        this.brokerOperationRepository = brokerOperationRepository;
+        this.serviceInstanceRepository = serviceInstanceRepository;
+        this.s3Service = s3Service;
+        this.provisioningExecutor = provisioningExecutor;
+        this.properties = properties;
+        this.clock = clock;
+    }
+
+    /**
+     * Record a new operation for a service instance. The operation is unclaimed, so the next poll of any broker
+     * instance picks it up and runs it on the provisioning executor.
+     *
+     * @param type              is the kind of change
+     * @param serviceInstanceId is the id of the service instance to change
+     * @param context           holds the parameters of the change
+     * @return the persisted operation
+     */
+    public BrokerOperation submit(OperationType type, String serviceInstanceId, Map<String, String> context) {
+        BrokerOperation operation = new BrokerOperation(type, serviceInstanceId, clock.millis());
+        operation.getContext().putAll(context);
+        return brokerOperationRepository.save(operation);
+    }
+
+    /**
+     * Record a new operation for a service instance, already claimed by this worker, and run it on the calling
+     * thread. The operation is durable before its first step runs, so if the broker stops part way through, the
+     * operation is resumed from its last checkpoint once its lease expires.
+     *
+     * @param type              is the kind of change
+     * @param serviceInstanceId is the id of the service instance to change
+     * @param context           holds the parameters of the change
+     * @return the operation, which is still in progress if it failed and will be retried
+     */
+    public BrokerOperation run(OperationType type, String serviceInstanceId, Map<String, String> context) {
+        return run(type, serviceInstanceId, context, true);
+    }
+
+    /**
+     * Record a new operation for a service instance and run it on the calling thread like {@link #run}, but abandon
+     * it if it fails rather than retry it, for callers that report the failure to the platform
+     *
+     * @param type              is the kind of change
+     * @param serviceInstanceId is the id of the service instance to change
+     * @param context           holds the parameters of the change
+     * @return the operation, which has either succeeded or failed
+     */
+    public BrokerOperation runOnce(OperationType type, String serviceInstanceId, Map<String, String> context) {
+        return run(type, serviceInstanceId, context, false);
+    }
+
+    private BrokerOperation run(OperationType type, String serviceInstanceId, Map<String, String> context,
+                                boolean retried) {
+        BrokerOperation operation = new BrokerOperation(type, serviceInstanceId, clock.millis());
+        operation.getContext().putAll(context);
+        operation.claimed(owner, clock.millis() + properties.getLeaseDuration());
+        operation = brokerOperationRepository.save(operation);
+
+        execute(operation, retried);
+        return operation;
+    }
+
+    /**
+     * Resume the operations that were left unfinished when the broker last stopped
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeUnfinished() {
+        log.info("{} broker operations are unfinished",
+                brokerOperationRepository.countByState(OperationState.IN_PROGRESS));
+        poll();
+    }
+
+    /**
+     * Claim the oldest unclaimed or abandoned operations, as many as the provisioning executor has idle workers
+     * for, and run them on it. Candidates that another worker claims first are skipped.
+     */
+    @Scheduled(fixedDelayString = "${broker.provisioning.pollInterval:1000}")
+    public void poll() {
+        int idle = provisioningExecutor.getMaxPoolSize() - provisioningExecutor.getActiveCount()
+                - provisioningExecutor.getThreadPoolExecutor().getQueue().size();
+
+        if (idle <= 0)
+            return;
+
+        for (BrokerOperation operation : brokerOperationRepository
+                .findFirst20ByStateAndLeaseExpiresAtLessThanOrderByCreatedAtAsc(OperationState.IN_PROGRESS,
+                        clock.millis())) {
+
+            if (idle == 0)
+                break;
+
+            if (!claim(operation))
+                continue;
+
+            idle--;
+
+            try {
+                provisioningExecutor.execute(() -> execute(operation));
+            } catch (TaskRejectedException ex) {
+                log.warn("Could not schedule {}, releasing it", operation, ex);
+                operation.release(clock.millis());
+                saveOutcome(operation);
+            }
+        }
+    }
+
+    /**
+     * Renew the leases of the operations this worker is running, so that a step that takes longer than the lease
+     * is not taken over while it runs. An operation whose lease could not be renewed was taken over, and stops at
+     * its next checkpoint.
+     */
+    @Scheduled(fixedDelayString = "${broker.provisioning.leaseRenewalInterval:60000}")
+    public void renewLeases() {
+        for (BrokerOperation operation : running) {
+            synchronized (operation) {
+                if (!running.contains(operation))
+                    continue;
+
+                long leaseExpiresAt = clock.millis() + properties.getLeaseDuration();
+                try {
+                    if (brokerOperationRepository.renewLease(operation.getId(), owner, operation.getVersion(),
+                            leaseExpiresAt) == 1)
+                        operation.leaseRenewed(leaseExpiresAt);
+                    else
+                        log.warn("{} was taken over by another worker", operation);
+                } catch (DataAccessException ex) {
+                    log.warn("Could not renew the lease of {}", operation, ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Take the lease of an operation. The conditional update does not change the operation in memory, so the
+     * claim is mirrored onto it for the saves that follow.
+     */
+    private boolean claim(BrokerOperation operation) {
+        long now = clock.millis();
+        long leaseExpiresAt = now + properties.getLeaseDuration();
+
+        if (brokerOperationRepository.claim(operation.getId(), owner, leaseExpiresAt, OperationState.IN_PROGRESS,
+                now) != 1)
+            return false;
+
+        operation.claimed(owner, leaseExpiresAt);
+        return true;
+    }
+
+    /**
+     * Run a claimed operation and persist its outcome
+     */
+    void execute(BrokerOperation operation) {
+        execute(operation, true);
+    }
+
+    /**
+     * Run a claimed operation and persist its outcome, renewing its lease until it finishes
+     *
+     * @param retried is false to abandon the operation if it fails, rather than release it to be retried
+     */
+    private void execute(BrokerOperation operation, boolean retried) {
+        running.add(operation);
+        try {
+            if (operation.getAttempts() > properties.getMaxAttempts()) {
+                abandon(operation, String.format("Gave up after %d attempts", operation.getAttempts() - 1));
+            } else {
+                log.info("Running {}", operation);
+
+                OperationAttempt.set(operation.getAttempts());
+                try {
+                    switch (operation.getType()) {
+                        case CREATE:
+                            create(operation);
+                            break;
+                        case DELETE:
+                            delete(operation);
+                            break;
+                    }
+                } catch (SupersededException ex) {
+                    log.warn("Stopped running {}", operation, ex);
+                    return;
+                } catch (Exception ex) {
+                    log.error("Could not run {}", operation, ex);
+                    if (retried)
+                        retryOrAbandon(operation, ex.getMessage());
+                    else
+                        abandon(operation, ex.getMessage());
+                } finally {
+                    OperationAttempt.clear();
+                }
+            }
+
+            synchronized (operation) {
+                running.remove(operation);
+                try {
+                    saveOutcome(operation);
+                } catch (SupersededException ex) {
+                    log.warn("Could not save the outcome of {}", operation, ex);
+                    return;
+                }
+            }
+
+            if (operation.getState() == OperationState.FAILED)
+                abandoned(operation);
+        } finally {
+            running.remove(operation);
+        }
+    }
+
+    /**
+     * Create the AWS resources for a service instance. A failed step leaves the steps that completed in place, so
+     * that the retry resumes from the last checkpoint, and what was created is only deleted once the operation is
+     * abandoned.
+     */
+    private void create(BrokerOperation operation) throws ServiceBrokerException {
+        ServiceInstance serviceInstance = serviceInstanceRepository.findOne(operation.getServiceInstanceId());
+
+        if (serviceInstance == null) {
+            abandon(operation, "Service instance was removed before it was provisioned");
+            return;
+        }
+
+        Map<String, String> context = new ConcurrentHashMap<>(operation.getContext());
+        S3User user;
+
+        try {
+            user = s3Service.createUserResult(serviceInstance.getServiceInstanceId(), context,
+                    checkpoint(operation, context));
+        } catch (ServiceBrokerException ex) {
+            throw new ServiceBrokerException(String.format("Could not create the S3 bucket and IAM user: %s",
+                    ex.getMessage()), ex);
+        }
+
+        serviceInstance.setCredential(
+                new Credential(user.getCreateUserResult().getUser().getUserName(),
+                        user.getAccessKeyId(), user.getAccessKeySecret()));
+        serviceInstance.setLastOperation(OperationState.SUCCEEDED, "Service created");
+        operation.setState(OperationState.SUCCEEDED, "Service created");
+
+        serviceInstanceRepository.save(serviceInstance);
+    }
+
+    /**
+     * Delete the AWS resources of a service instance and then the instance itself. Deleting resources that are
+     * already gone succeeds, so a failed deletion is retried with a backoff until it runs out of attempts.
+     */
+    private void delete(BrokerOperation operation) throws ServiceBrokerException {
+        ServiceInstance serviceInstance = serviceInstanceRepository.findOne(operation.getServiceInstanceId());
+
+        if (serviceInstance == null) {
+            operation.setState(OperationState.SUCCEEDED, "Service deleted");
+            return;
+        }
+
+        Credential credential = serviceInstance.getCredential();
+
+        // Provisioning may have failed before any credentials were created
+        if (credential != null && !s3Service.deleteServiceInstanceBucket(credential.getUserName(),
+                credential.getAccessKeyId(), credential.getUserName()))
+            throw new ServiceBrokerException("Could not delete the S3 bucket and IAM user");
+
+        serviceInstanceRepository.remove(serviceInstance);
+        operation.setState(OperationState.SUCCEEDED, "Service deleted");
+    }
+
+    /**
+     * Release a failed operation to be retried after an exponential backoff, or fail it for good once it has
+     * used up its attempts
+     */
+    private void retryOrAbandon(BrokerOperation operation, String reason) {
+        if (operation.getAttempts() >= properties.getMaxAttempts()) {
+            abandon(operation, reason);
+            return;
+        }
+
+        long backoff = properties.getPollInterval() << Math.min(operation.getAttempts(), 16);
+        operation.setState(OperationState.IN_PROGRESS, reason);
+        operation.release(clock.millis() + Math.min(backoff, properties.getLeaseDuration()));
+    }
+
+    private void abandon(BrokerOperation operation, String reason) {
+        log.error("Abandoning {}: {}", operation, reason);
+        operation.setState(OperationState.FAILED, reason);
+    }
+
+    /**
+     * Clean up after an operation once its failure is saved. A create leaves the resources it created for its
+     * retries, so they are deleted now that nothing will resume it, and the service instance is marked as failed.
+     */
+    private void abandoned(BrokerOperation operation) {
+        String serviceInstanceId = operation.getServiceInstanceId();
+
+        // The bucket and the IAM user are named after the service instance
+        if (operation.getType() == OperationType.CREATE && !s3Service.deleteServiceInstanceBucket(serviceInstanceId,
+                operation.getContext().get(S3Service.ACCESS_KEY_ID), serviceInstanceId))
+            log.error("Could not delete the resources created by {}", operation);
+
+        ServiceInstance serviceInstance = serviceInstanceRepository.findOne(serviceInstanceId);
+        if (serviceInstance != null) {
+            serviceInstance.setLastOperation(OperationState.FAILED, operation.getDescription());
+            serviceInstanceRepository.save(serviceInstance);
+        }
+    }
+
+    /**
+     * Save an operation that this worker holds. The save is conditional on the version this worker last saved or
+     * claimed, and a claim by another worker changes the version, so the save fails once the operation was taken
+     * over. The repository saves a copy, whose new version is mirrored onto the operation.
+     *
+     * @throws SupersededException if another worker has taken the operation over
+     */
+    private void save(BrokerOperation operation) {
+        try {
+            operation.setVersion(brokerOperationRepository.save(operation).getVersion());
+        } catch (OptimisticLockingFailureException ex) {
+            throw new SupersededException(String.format("%s was taken over by another worker", operation), ex);
+        }
+    }
+
+    /**
+     * Save the outcome of an operation that this worker holds in a single conditional statement, mirroring the new
+     * version onto the operation
+     *
+     * @throws SupersededException if another worker has taken the operation over
+     */
+    private void saveOutcome(BrokerOperation operation) {
+        if (brokerOperationRepository.saveOutcome(operation.getId(), operation.getVersion(), operation.getState(),
+                operation.getDescription(), operation.getOwner(), operation.getLeaseExpiresAt()) != 1)
+            throw new SupersededException(String.format("%s was taken over by another worker", operation), null);
+
+        operation.setVersion(operation.getVersion() + 1);
+    }
+
+    /**
+     * Record the completed steps of an operation and the values they produced, renewing the lease with each step.
+     * Steps complete concurrently, so the operation is only changed and saved by one of them at a time. The
+     * checkpoint is resumable, so a failed attempt leaves its completed steps for the retry.
+     */
+    private Checkpoint checkpoint(BrokerOperation operation, Map<String, String> context) {
+        return new Checkpoint() {
+
+            @Override
+            public boolean isCompleted(String step) {
+                synchronized (operation) {
+                    return operation.getCompletedSteps().contains(step);
+                }
+            }
+
+            @Override
+            public void completed(String step) {
+                synchronized (operation) {
+                    operation.getContext().putAll(context);
+                    operation.getCompletedSteps().add(step);
+                    operation.renewLease(clock.millis() + properties.getLeaseDuration());
+                    save(operation);
+                }
+            }
+
+            @Override
+            public boolean isResumable() {
+                return true;
+            }
+        };
+    }
+}
@@ -0,0 +1,131 @@
+package org.cloudfoundry.community.servicebroker.service;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
+import com.amazonaws.services.s3.model.ListVersionsRequest;
+import com.amazonaws.services.s3.model.S3VersionSummary;
+import com.amazonaws.services.s3.model.VersionListing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.cloudfoundry.community.servicebroker.exception.ServiceBrokerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Empties a service instance's bucket before it is deleted. The bucket is walked one page of object versions at a
+ * time, including delete markers, and each page is deleted with a single multi-object delete. Up to the configured
+ * number of deletes run in parallel, so at most that many pages of keys are held in memory at once.
+ */
+@Component
+public class BucketPurger {
+
+    /**
+     * The maximum number of keys accepted by a single multi-object delete
+     */
+    static final int MAX_KEYS_PER_DELETE = 1000;
+
+    private final Logger log = LoggerFactory.getLogger(BucketPurger.class);
+
+    private final AmazonS3 amazonS3;
+    private final int concurrency;
+    private final ExecutorService executor;
+
+    @Autowired
+    public BucketPurger(AmazonS3 amazonS3, @Value("${aws.purge.concurrency:8}") int concurrency) {
+        this.amazonS3 = amazonS3;
+        this.concurrency = concurrency;
+        this.executor = Executors.newFixedThreadPool(concurrency,
+                new ThreadFactoryBuilder().setNameFormat("bucket-purge-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Delete every object version and delete marker in a bucket
+     *
+     * @param bucketName is the name of the bucket to empty
+     * @return the number of object versions and delete markers that were deleted
+     * @throws ServiceBrokerException if any batch could not be deleted
+     */
+    public long purge(String bucketName) throws ServiceBrokerException {
+        long start = System.nanoTime();
+        Semaphore inFlight = new Semaphore(concurrency);
+        AtomicLong deleted = new AtomicLong();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+
+        try {
+            VersionListing listing = amazonS3.listVersions(new ListVersionsRequest()
+                    .withBucketName(bucketName)
+                    .withMaxResults(MAX_KEYS_PER_DELETE));
+
+            while (failure.get() == null) {
+                List<KeyVersion> keys = toKeyVersions(listing.getVersionSummaries());
+
+                if (!keys.isEmpty()) {
+                    // Wait for a free slot, which bounds both parallelism and the number of pages in memory
+                    inFlight.acquire();
+                    executor.execute(() -> {
+                        try {
+                            amazonS3.deleteObjects(new DeleteObjectsRequest(bucketName)
+                                    .withKeys(keys)
+                                    .withQuiet(true));
+                            deleted.addAndGet(keys.size());
+                        } catch (Exception ex) {
+                            failure.compareAndSet(null, ex);
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                }
+
+                if (!listing.isTruncated())
+                    break;
+
+                listing = amazonS3.listNextBatchOfVersions(listing);
+            }
+
+            // Wait for the remaining deletes to complete
+            inFlight.acquire(concurrency);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ServiceBrokerException("Interrupted while purging bucket " + bucketName, ex);
+        } catch (Exception ex) {
+            failure.compareAndSet(null, ex);
+        }
+
+        if (failure.get() != null) {
+            throw new ServiceBrokerException(String.format("Could not purge bucket %s after deleting %d objects",
+                    bucketName, deleted.get()), failure.get());
+        }
+
+        long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        log.info("Purged {} objects from bucket {} in {} ms ({} objects/sec)", deleted.get(), bucketName,
+                elapsedMillis, deleted.get() * 1000 / elapsedMillis);
+
+        return deleted.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static List<KeyVersion> toKeyVersions(List<S3VersionSummary> versionSummaries) {
+        List<KeyVersion> keys = new ArrayList<>(versionSummaries.size());
+        for (S3VersionSummary summary : versionSummaries) {
+            keys.add(new KeyVersion(summary.getKey(), summary.getVersionId()));
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,14 @@
+package org.cloudfoundry.community.servicebroker.service;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published when the service definitions offered by this broker have changed, so that anything derived from the
+ * catalog is rebuilt
+ */
+public class CatalogChangedEvent extends ApplicationEvent {
+
+    public CatalogChangedEvent(Object source) {
+        super(source);
+    }
+}
@@ -1,6 +1,7 @@
 package org.cloudfoundry.community.servicebroker.service;
 
 import org.cloudfoundry.community.servicebroker.catalog.Catalog;
+import org.cloudfoundry.community.servicebroker.catalog.Plan;
 import org.cloudfoundry.community.servicebroker.catalog.ServiceDefinition;
 
 /**
@@ -21,5 +22,16 @@ public interface CatalogService {
 	 * @return The service definition or null if it doesn't exist
 	 */
 	ServiceDefinition getServiceDefinition(String serviceId);
+
+	/**
+	 * @param planId  The id of a plan of any service in the catalog
+	 * @return The plan or null if it doesn't exist
+	 */
+	Plan getPlan(String planId);
+
+	/**
+	 * Replace the catalog with the current service definitions, after they have changed.
+	 */
+	void reload();
 	
 }
@@ -0,0 +1,241 @@
+package org.cloudfoundry.community.servicebroker.service;
+
+import org.cloudfoundry.community.servicebroker.catalog.CacheInvalidation;
+import org.cloudfoundry.community.servicebroker.config.BrokerProperties;
+import org.cloudfoundry.community.servicebroker.repositories.CacheInvalidationRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.guava.GuavaCacheManager;
+import org.springframework.cache.support.SimpleValueWrapper;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+/**
+ * A cache manager for size-bounded local Guava caches that stay coherent across broker instances. Every eviction
+ * is applied locally and published to a database table. The cache advice runs around the repository, so the
+ * eviction is published after the change that caused it has committed, in a transaction of its own. Each broker
+ * instance polls the table and evicts the entries that other instances invalidated, so a cached entry is stale on
+ * another instance for about the poll interval. Invalidations are read again for a while after they are published,
+ * so that one committed late by a long transaction is not missed. An invalidation that could not be published,
+ * because publishing failed or the broker stopped right after the change committed, is never applied elsewhere, so
+ * the expiry of the cache specification is what bounds staleness in that case, and it is kept short.
+ * <p>
+ * Caches hold detached entities that callers change before saving them, so a cache can be set to hold copies, and
+ * every read then returns a copy of its own.
+ */
+public class ClusterCacheManager implements CacheManager, PublicMetrics {
+
+    static final long LOOKBACK_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final long PURGE_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final Logger log = LoggerFactory.getLogger(ClusterCacheManager.class);
+
+    private final GuavaCacheManager localCacheManager;
+    private final CacheInvalidationRepository cacheInvalidationRepository;
+    private final BrokerProperties.Cache properties;
+    private final Clock clock;
+
+    private final String origin = UUID.randomUUID().toString();
+    private final ConcurrentMap<String, Cache> caches = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, UnaryOperator<Object>> copiers = new ConcurrentHashMap<>();
+
+    // The ids and publication times of the invalidations that were read within the lookback
+    private final Map<Long, Long> seen = new HashMap<>();
+    private long lastPurge;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong publishFailures = new AtomicLong();
+
+    public ClusterCacheManager(CacheInvalidationRepository cacheInvalidationRepository,
+                               BrokerProperties.Cache properties, String... cacheNames) {
+        this(cacheInvalidationRepository, properties, Clock.systemUTC(), cacheNames);
+    }
+
+    ClusterCacheManager(CacheInvalidationRepository cacheInvalidationRepository, BrokerProperties.Cache properties,
+                        Clock clock, String... cacheNames) {
+        this.localCacheManager = new GuavaCacheManager(cacheNames);
+        this.localCacheManager.setCacheSpecification(properties.getSpec());
+        this.cacheInvalidationRepository = cacheInvalidationRepository;
+        this.properties = properties;
+        this.clock = clock;
+    }
+
+    /**
+     * Hold copies in a cache, for values that callers change. The value put in the cache is copied, and so is every
+     * value read from it, so a change made by a caller never reaches the cache or another caller.
+     *
+     * @param cacheName is the name of the cache
+     * @param type      is the type of the values in the cache
+     * @param copier    copies a value
+     */
+    public <T> void copyValues(String cacheName, Class<T> type, UnaryOperator<T> copier) {
+        copiers.put(cacheName, value -> copier.apply(type.cast(value)));
+    }
+
+    @Override
+    public Cache getCache(String name) {
+        return caches.computeIfAbsent(name, key -> {
+            Cache cache = localCacheManager.getCache(key);
+            return cache == null ? null : new ClusterCache(cache);
+        });
+    }
+
+    @Override
+    public Collection<String> getCacheNames() {
+        return localCacheManager.getCacheNames();
+    }
+
+    /**
+     * Apply the invalidations published by other broker instances since the last poll, and delete the ones that
+     * are older than the retention
+     */
+    @Scheduled(fixedDelayString = "${broker.cache.invalidationPollInterval:1000}")
+    public synchronized void poll() {
+        long now = clock.millis();
+
+        for (CacheInvalidation invalidation : cacheInvalidationRepository
+                .findByCreatedAtGreaterThanOrderByIdAsc(now - LOOKBACK_MILLIS)) {
+
+            if (seen.put(invalidation.getId(), invalidation.getCreatedAt()) != null
+                    || origin.equals(invalidation.getOrigin()))
+                continue;
+
+            Cache cache = localCacheManager.getCache(invalidation.getCacheName());
+            if (cache == null)
+                continue;
+
+            if (invalidation.getCacheKey() == null)
+                cache.clear();
+            else
+                cache.evict(invalidation.getCacheKey());
+
+            applied.incrementAndGet();
+        }
+
+        seen.values().removeIf(createdAt -> createdAt <= now - LOOKBACK_MILLIS);
+
+        if (now - lastPurge >= PURGE_INTERVAL_MILLIS) {
+            cacheInvalidationRepository.deleteByCreatedAtBefore(now - properties.getInvalidationRetention());
+            lastPurge = now;
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+
+        for (String name : getCacheNames()) {
+            com.google.common.cache.Cache<?, ?> cache =
+                    (com.google.common.cache.Cache<?, ?>) localCacheManager.getCache(name).getNativeCache();
+
+            metrics.add(new Metric<>("cache." + name + ".size", cache.size()));
+            metrics.add(new Metric<>("cache." + name + ".hit.ratio", cache.stats().hitRate()));
+            metrics.add(new Metric<>("cache." + name + ".miss.ratio", cache.stats().missRate()));
+            metrics.add(new Metric<>("cache." + name + ".evictions", cache.stats().evictionCount()));
+        }
+
+        metrics.add(new Metric<>("cache.invalidations.published", published.get()));
+        metrics.add(new Metric<>("cache.invalidations.applied", applied.get()));
+        metrics.add(new Metric<>("cache.invalidations.publish-failures", publishFailures.get()));
+        return metrics;
+    }
+
+    /**
+     * Record an eviction for the other broker instances. A failure is only logged, as the entry on the other
+     * instances still expires with the cache specification.
+     */
+    private void publish(String cacheName, Object key) {
+        try {
+            cacheInvalidationRepository.save(new CacheInvalidation(cacheName, key == null ? null : key.toString(),
+                    origin, clock.millis()));
+            published.incrementAndGet();
+        } catch (Exception ex) {
+            publishFailures.incrementAndGet();
+            log.warn("Could not publish the invalidation of {} in cache {}", key, cacheName, ex);
+        }
+    }
+
+    /**
+     * A local cache whose evictions are published to the other broker instances. Puts stay local, since only a
+     * change to the underlying row can make another instance's entry stale, and every change evicts.
+     */
+    private class ClusterCache implements Cache {
+
+        private final Cache local;
+
+        ClusterCache(Cache local) {
+            this.local = local;
+        }
+
+        @Override
+        public String getName() {
+            return local.getName();
+        }
+
+        @Override
+        public Object getNativeCache() {
+            return local.getNativeCache();
+        }
+
+        @Override
+        public ValueWrapper get(Object key) {
+            return copy(local.get(key));
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T get(Object key, Class<T> type) {
+            return (T) copy(local.get(key, type));
+        }
+
+        @Override
+        public void put(Object key, Object value) {
+            local.put(key, copy(value));
+        }
+
+        @Override
+        public ValueWrapper putIfAbsent(Object key, Object value) {
+            return copy(local.putIfAbsent(key, copy(value)));
+        }
+
+        @Override
+        public void evict(Object key) {
+            local.evict(key);
+            publish(getName(), key);
+        }
+
+        @Override
+        public void clear() {
+            local.clear();
+            publish(getName(), null);
+        }
+
+        private Object copy(Object value) {
+            UnaryOperator<Object> copier = copiers.get(getName());
+            return copier == null || value == null ? value : copier.apply(value);
+        }
+
+        private ValueWrapper copy(ValueWrapper wrapper) {
+            return wrapper == null || !copiers.containsKey(getName()) ? wrapper
+                    : new SimpleValueWrapper(copy(wrapper.get()));
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.cloudfoundry.community.servicebroker.service;
+
+import com.amazonaws.services.identitymanagement.AmazonIdentityManagement;
+import com.amazonaws.services.identitymanagement.model.CreatePolicyRequest;
+import com.amazonaws.services.identitymanagement.model.EntityAlreadyExistsException;
+import com.amazonaws.services.identitymanagement.model.GetPolicyRequest;
+import com.amazonaws.services.identitymanagement.model.NoSuchEntityException;
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import org.cloudfoundry.community.servicebroker.exception.ServiceBrokerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves the ARN of the manage bucket policy that is attached to every service instance's IAM user. The account
+ * id and the policy ARN are cached so that provisioning and deprovisioning do not pay for extra IAM round trips,
+ * and concurrent lookups are collapsed into a single call to IAM.
+ */
+@Component
+public class ManageBucketPolicyResolver implements PublicMetrics {
+
+    static final String POLICY_NAME = "manage-bucket";
+
+    private static final Pattern ACCOUNT_ID_PATTERN = Pattern.compile("(?<=::)([\\d]*)(?=:)");
+
+    private final Logger log = LoggerFactory.getLogger(ManageBucketPolicyResolver.class);
+
+    private final AmazonIdentityManagement identityManagement;
+    private final long ttlMillis;
+    private final Clock clock;
+    private final Object lock = new Object();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private volatile CachedArn cachedArn;
+    private String accountId;
+    private String policyDocument;
+
+    @Autowired
+    public ManageBucketPolicyResolver(AmazonIdentityManagement identityManagement,
+                                      @Value("${aws.policy-cache.ttl-seconds:3600}") long ttlSeconds) {
+        this(identityManagement, ttlSeconds, Clock.systemUTC());
+    }
+
+    ManageBucketPolicyResolver(AmazonIdentityManagement identityManagement, long ttlSeconds, Clock clock) {
+        this.identityManagement = identityManagement;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        this.clock = clock;
+    }
+
+    /**
+     * Get the ARN of the manage bucket policy, creating the policy if it does not exist yet. Only one caller at a
+     * time performs the lookup against IAM, every other caller waits for and then shares its result.
+     *
+     * @return the ARN of the manage bucket policy
+     * @throws ServiceBrokerException if the policy could neither be found nor created
+     */
+    public String resolve() throws ServiceBrokerException {
+        CachedArn cached = cachedArn;
+        if (cached != null && !cached.isExpired(clock.millis())) {
+            hits.incrementAndGet();
+            return cached.arn;
+        }
+
+        synchronized (lock) {
+            // Another caller may have completed the lookup while this one was waiting for the lock
+            cached = cachedArn;
+            if (cached != null && !cached.isExpired(clock.millis())) {
+                hits.incrementAndGet();
+                return cached.arn;
+            }
+
+            misses.incrementAndGet();
+            String arn = lookupPolicyArn();
+            cachedArn = new CachedArn(arn, clock.millis() + ttlMillis);
+            return arn;
+        }
+    }
+
+    /**
+     * Discard the cached policy ARN, used when IAM reports that the cached policy no longer exists
+     */
+    public void invalidate() {
+        invalidations.incrementAndGet();
+        cachedArn = null;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        return Arrays.asList(
+                new Metric<>("broker.manage-bucket-policy.hits", hits.get()),
+                new Metric<>("broker.manage-bucket-policy.misses", misses.get()),
+                new Metric<>("broker.manage-bucket-policy.invalidations", invalidations.get()));
+    }
+
+    private String lookupPolicyArn() throws ServiceBrokerException {
+        String policyArn = String.format("arn:aws:iam::%s:policy/%s", getAccountId(), POLICY_NAME);
+
+        try {
+            return identityManagement.getPolicy(new GetPolicyRequest().withPolicyArn(policyArn))
+                    .getPolicy().getArn();
+        } catch (NoSuchEntityException ex) {
+            log.info("Manage bucket policy {} does not exist, creating it", policyArn);
+        } catch (Exception ex) {
+            throw new ServiceBrokerException(ex);
+        }
+
+        try {
+            // If the manage bucket policy does not exist, create one
+            return identityManagement.createPolicy(new CreatePolicyRequest()
+                    .withPolicyDocument(getPolicyDocument())
+                    .withPolicyName(POLICY_NAME)
+                    .withDescription("Allows service instances to manage the content of an exclusive S3 bucket"))
+                    .getPolicy().getArn();
+        } catch (EntityAlreadyExistsException ex) {
+            // Another broker instance created the policy in the meantime
+            return policyArn;
+        } catch (Exception ex) {
+            log.error(String.format("Could not create the manage bucket policy %s", policyArn), ex);
+            throw new ServiceBrokerException(ex);
+        }
+    }
+
+    /**
+     * Get the IAM account identifier from the broker user's resource name, which does not change for the lifetime
+     * of the broker
+     */
+    private String getAccountId() throws ServiceBrokerException {
+        if (accountId == null) {
+            try {
+                Matcher m = ACCOUNT_ID_PATTERN.matcher(identityManagement.getUser().getUser().getArn());
+                accountId = m.find() ? m.group(1) : ":";
+            } catch (Exception ex) {
+                throw new ServiceBrokerException(ex);
+            }
+        }
+        return accountId;
+    }
+
+    /**
+     * Get the policy document JSON from classpath resources
+     */
+    private String getPolicyDocument() throws ServiceBrokerException {
+        if (policyDocument == null) {
+            try {
+                policyDocument = Resources.toString(new ClassPathResource("manage-bucket-policy.json").getURL(),
+                        Charsets.UTF_8);
+            } catch (IOException ex) {
+                throw new ServiceBrokerException("Error retrieving manage bucket policy from resources", ex);
+            }
+        }
+        return policyDocument;
+    }
+
+    private static class CachedArn {
+
+        private final String arn;
+        private final long expiresAt;
+
+        CachedArn(String arn, long expiresAt) {
+            this.arn = arn;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
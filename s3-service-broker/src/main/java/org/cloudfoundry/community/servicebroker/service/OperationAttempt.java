@@ -0,0 +1,32 @@
+package org.cloudfoundry.community.servicebroker.service;
+
+/**
+ * The attempt of the broker operation that the current thread works on, so that the AWS calls made by the steps of
+ * an operation can be traced back to the attempt that made them
+ */
+public final class OperationAttempt {
+
+    private static final ThreadLocal<Integer> CURRENT = new ThreadLocal<>();
+
+    private OperationAttempt() {
+    }
+
+    /**
+     * @return the attempt of the current operation, or 0 if the thread is not working on an operation
+     */
+    public static int current() {
+        Integer attempt = CURRENT.get();
+        return attempt == null ? 0 : attempt;
+    }
+
+    static void set(int attempt) {
+        if (attempt == 0)
+            CURRENT.remove();
+        else
+            CURRENT.set(attempt);
+    }
+
+    static void clear() {
+        CURRENT.remove();
+    }
+}
@@ -0,0 +1,128 @@
+package org.cloudfoundry.community.servicebroker.service;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time a broker API call spent in each of its phases, such as authentication, repository calls or the steps of
+ * an operation. A phase recorded more than once accumulates its time and counts its calls. The timing belongs to
+ * the thread handling the call, and steps run on other threads record into the timing of the call that started
+ * them.
+ */
+public final class RequestTiming {
+
+    private static final ThreadLocal<RequestTiming> CURRENT = new ThreadLocal<>();
+
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+
+    private RequestTiming() {
+    }
+
+    /**
+     * Start timing a call on the current thread
+     *
+     * @return the timing of the call
+     */
+    public static RequestTiming start() {
+        RequestTiming timing = new RequestTiming();
+        CURRENT.set(timing);
+        return timing;
+    }
+
+    /**
+     * @return the timing of the call the current thread works on, or null if there is none
+     */
+    public static RequestTiming current() {
+        return CURRENT.get();
+    }
+
+    static void set(RequestTiming timing) {
+        if (timing == null)
+            CURRENT.remove();
+        else
+            CURRENT.set(timing);
+    }
+
+    public static void clear() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Add the time of a phase to the call the current thread works on, if any
+     *
+     * @param phase is a name made of letters, digits, dots and dashes
+     * @param nanos is the time the phase took
+     */
+    public static void record(String phase, long nanos) {
+        RequestTiming timing = CURRENT.get();
+        if (timing != null)
+            timing.add(phase, nanos);
+    }
+
+    public void add(String phase, long nanos) {
+        synchronized (phases) {
+            phases.computeIfAbsent(phase, name -> new Phase()).add(nanos);
+        }
+    }
+
+    /**
+     * @return the time since the call started
+     */
+    public long elapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * @return the phases as the value of a {@code Server-Timing} header, such as
+     * {@code auth;dur=1.2, db;dur=3.4;desc="5 calls"}
+     */
+    public String toServerTiming() {
+        StringBuilder header = new StringBuilder();
+        synchronized (phases) {
+            phases.forEach((name, phase) -> {
+                if (header.length() > 0)
+                    header.append(", ");
+                header.append(name).append(";dur=").append(millis(phase.nanos));
+                if (phase.count > 1)
+                    header.append(";desc=\"").append(phase.count).append(" calls\"");
+            });
+        }
+        return header.toString();
+    }
+
+    /**
+     * @return the phases as space separated {@code name=millis} pairs, with {@code name.count=calls} after the
+     * phases recorded more than once
+     */
+    public String toLogFields() {
+        StringBuilder fields = new StringBuilder();
+        synchronized (phases) {
+            phases.forEach((name, phase) -> {
+                if (fields.length() > 0)
+                    fields.append(' ');
+                fields.append(name).append('=').append(millis(phase.nanos));
+                if (phase.count > 1)
+                    fields.append(' ').append(name).append(".count=").append(phase.count);
+            });
+        }
+        return fields.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    private static final class Phase {
+
+        private long nanos;
+        private int count;
+
+        void add(long nanos) {
+            this.nanos += nanos;
+            this.count++;
+        }
+    }
+}
@@ -1,31 +1,26 @@
 package org.cloudfoundry.community.servicebroker.service;
 
-import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.services.identitymanagement.AmazonIdentityManagement;
-import com.amazonaws.services.identitymanagement.AmazonIdentityManagementClient;
 import com.amazonaws.services.identitymanagement.model.*;
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.BucketTaggingConfiguration;
 import com.amazonaws.services.s3.model.CreateBucketRequest;
-import com.amazonaws.services.s3.model.DeleteObjectsRequest;
-import com.amazonaws.services.s3.model.S3ObjectSummary;
-import com.google.common.base.Charsets;
-import com.google.common.io.Resources;
+import com.amazonaws.services.s3.model.TagSet;
 import org.cloudfoundry.community.servicebroker.exception.ServiceBrokerException;
 import org.cloudfoundry.community.servicebroker.model.S3User;
+import org.cloudfoundry.community.servicebroker.service.StepExecutor.Checkpoint;
+import org.cloudfoundry.community.servicebroker.service.StepExecutor.Step;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.ClassPathResource;
 import org.springframework.stereotype.Service;
 
-import java.io.IOException;
-import java.net.URL;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A service component for managing the lifecycle of AWS S3 credential bindings for service instances in this
@@ -36,38 +31,39 @@ import java.util.stream.Collectors;
 @Service
 public class S3Service {
 
+    static final String SERVICE_INSTANCE_TAG = "service-instance-id";
+
+    static final String CREATE_USER = "createUser";
+    static final String CREATE_ACCESS_KEY = "createAccessKey";
+    static final String CREATE_BUCKET = "createBucket";
+    static final String ATTACH_POLICY = "attachPolicy";
+    static final String PURGE_BUCKET = "purgeBucket";
+    static final String DELETE_BUCKET = "deleteBucket";
+    static final String DETACH_POLICY = "detachPolicy";
+    static final String DELETE_ACCESS_KEY = "deleteAccessKey";
+    static final String DELETE_USER = "deleteUser";
+
+    static final String ACCESS_KEY_ID = "accessKeyId";
+    static final String SECRET_ACCESS_KEY = "secretAccessKey";
+
+    private static final String BUCKET_ALREADY_OWNED = "BucketAlreadyOwnedByYou";
+
     private final Logger log = LoggerFactory.getLogger(S3Service.class);
     private AmazonIdentityManagement identityManagement;
     private AmazonS3 amazonS3;
+    private ManageBucketPolicyResolver manageBucketPolicyResolver;
+    private BucketPurger bucketPurger;
+    private StepExecutor stepExecutor;
 
     @Autowired
-    public S3Service(@Value("${aws.access-key-id}") String awsAccessKeyId,
-                     @Value("${aws.secret-access-key}") String awsSecretAccessKey) {
-        // Create identity management client
-        this.identityManagement =
-                new AmazonIdentityManagementClient(
-                        new BasicAWSCredentials(awsAccessKeyId, awsSecretAccessKey));
-
-        // Create S3 client
-        this.amazonS3 = new AmazonS3Client(new BasicAWSCredentials(awsAccessKeyId, awsSecretAccessKey));
-    }
-
-    /**
-     * Get the policy document JSON from classpath resources
-     *
-     * @return a resource policy for managing buckets on S3
-     */
-    private String getManageBucketPolicyDocument() {
-        String policyDocument = null;
-
-        try {
-            URL policyDocumentUrl = new ClassPathResource("manage-bucket-policy.json").getURL();
-            policyDocument = Resources.toString(policyDocumentUrl, Charsets.UTF_8);
-        } catch (IOException ex) {
-            log.error("Error retrieving manage bucket policy from resources {}", ex);
-        }
-
-        return policyDocument;
+    public S3Service(AmazonIdentityManagement identityManagement, AmazonS3 amazonS3,
+                     ManageBucketPolicyResolver manageBucketPolicyResolver, BucketPurger bucketPurger,
+                     StepExecutor stepExecutor) {
+        this.identityManagement = identityManagement;
+        this.amazonS3 = amazonS3;
+        this.manageBucketPolicyResolver = manageBucketPolicyResolver;
+        this.bucketPurger = bucketPurger;
+        this.stepExecutor = stepExecutor;
     }
 
     /**
@@ -90,40 +86,44 @@ public class S3Service {
     }
 
     /**
-     * Delete a service instance's bucket and user, used when a service instance has been deleted from the catalog
+     * Delete a service instance's bucket and user, used when a service instance has been deleted from the catalog.
+     * Resources that are already gone are skipped, so a deletion that was interrupted can simply be run again.
      *
-     * @param applicationId is the id of the service instance from the catalog that is being deleted
-     * @param accessKeyId   is the access key for the service instance's IAM user
-     * @param userName      is the service instance's IAM user name
+     * @param bucketName  is the name of the service instance's bucket, which is the name of its IAM user
+     * @param accessKeyId is the access key for the service instance's IAM user, or null if it never got one
+     * @param userName    is the service instance's IAM user name
      */
-    public boolean deleteServiceInstanceBucket(String applicationId, String accessKeyId, String userName) {
+    public boolean deleteServiceInstanceBucket(String bucketName, String accessKeyId, String userName) {
 
         try {
-            // Get all keys for objects in the service instance's bucket
-            List<String> objectKeys = amazonS3.listObjects(applicationId).getObjectSummaries()
-                    .stream()
-                    .map(S3ObjectSummary::getKey)
-                    .collect(Collectors.toList());
-
-            if (objectKeys.size() > 0)
-                // Clear the contents of the service instance's bucket
-                amazonS3.deleteObjects(new DeleteObjectsRequest(applicationId)
-                        .withKeys(objectKeys
-                                .toArray(new String[objectKeys.size()])));
-
-            // Delete the empty bucket for the service instance
-            amazonS3.deleteBucket(applicationId);
-
-            // Detach the manage bucket user policy before deleting the user
-            identityManagement.detachUserPolicy(new DetachUserPolicyRequest()
-                    .withPolicyArn(getManageBucketPolicyArn())
-                    .withUserName(userName));
-
-            // Delete the access key for the service instance before deleting the user
-            identityManagement.deleteAccessKey(new DeleteAccessKeyRequest(userName, accessKeyId));
-
-            // Finally, delete the user for the service instance that has been deleted by the service broker
-            identityManagement.deleteUser(new DeleteUserRequest(userName));
+            stepExecutor.run("Deprovision " + bucketName, Arrays.asList(
+                    // Clear every object version and delete marker in the service instance's bucket
+                    Step.of(PURGE_BUCKET, () -> {
+                        if (amazonS3.doesBucketExist(bucketName))
+                            bucketPurger.purge(bucketName);
+                    }),
+
+                    // Delete the empty bucket for the service instance
+                    Step.of(DELETE_BUCKET, () -> {
+                        if (amazonS3.doesBucketExist(bucketName))
+                            amazonS3.deleteBucket(bucketName);
+                    })
+                            .after(PURGE_BUCKET),
+
+                    // Detach the manage bucket user policy before deleting the user
+                    Step.of(DETACH_POLICY, () -> ignoringMissing(() -> detachManageBucketPolicy(userName))),
+
+                    // Delete the access key for the service instance before deleting the user, if it got one
+                    Step.of(DELETE_ACCESS_KEY, () -> {
+                        if (accessKeyId != null)
+                            ignoringMissing(() -> identityManagement.deleteAccessKey(
+                                    new DeleteAccessKeyRequest(userName, accessKeyId)));
+                    }),
+
+                    // Finally, delete the user for the service instance that has been deleted by the service broker
+                    Step.of(DELETE_USER, () -> ignoringMissing(() -> identityManagement.deleteUser(
+                            new DeleteUserRequest(userName))))
+                            .after(DETACH_POLICY, DELETE_ACCESS_KEY)));
 
         } catch (Exception ex) {
             log.error("Could not delete instance bucket {}", ex);
@@ -134,79 +134,179 @@ public class S3Service {
     }
 
     /**
-     * Get or create an AWS resource policy name for managing a service instance's bucket
+     * Tag a bucket with the id of the service instance that owns it, so that a bucket claimed from the warm pool
+     * can be traced back to its service instance. Tagging is best effort and a failure is only logged.
      *
-     * @return a resource policy name for the AWS manage bucket policy
+     * @param bucketName        is the name of the service instance's bucket
+     * @param serviceInstanceId is the id of the service instance that owns the bucket
      */
-    private String getManageBucketPolicyArn() throws ServiceBrokerException {
-
-        String manageBucketArn;
-
+    public void tagBucket(String bucketName, String serviceInstanceId) {
         try {
-            // Get the IAM account identifier from the user's resource name
-            Pattern p = Pattern.compile("(?<=::)([\\d]*)(?=:)");
-            Matcher m = p.matcher(identityManagement.getUser().getUser().getArn());
+            amazonS3.setBucketTaggingConfiguration(bucketName, new BucketTaggingConfiguration(
+                    Collections.singletonList(new TagSet(
+                            Collections.singletonMap(SERVICE_INSTANCE_TAG, serviceInstanceId)))));
+        } catch (Exception ex) {
+            log.warn("Could not tag bucket {} with service instance {}", bucketName, serviceInstanceId, ex);
+        }
+    }
 
-            // Use the account id to get the manage bucket policy
-            GetPolicyResult policyResult = identityManagement
-                    .getPolicy(new GetPolicyRequest().withPolicyArn(String.format("arn:aws:iam::%s:policy/manage-bucket",
-                            m.find() ? m.group(1) : ":")));
+    /**
+     * Attach the manage bucket policy to a service instance's IAM user. If the cached policy was deleted out of
+     * band, the cache is invalidated and the attachment is retried once with a freshly resolved policy.
+     *
+     * @param userName is the service instance's IAM user name
+     */
+    private void attachManageBucketPolicy(String userName) throws ServiceBrokerException {
+        try {
+            identityManagement.attachUserPolicy(new AttachUserPolicyRequest()
+                    .withUserName(userName)
+                    .withPolicyArn(manageBucketPolicyResolver.resolve()));
+        } catch (NoSuchEntityException ex) {
+            manageBucketPolicyResolver.invalidate();
+            identityManagement.attachUserPolicy(new AttachUserPolicyRequest()
+                    .withUserName(userName)
+                    .withPolicyArn(manageBucketPolicyResolver.resolve()));
+        }
+    }
 
-            // Retrieve the manage bucket policy's ARN
-            manageBucketArn = policyResult.getPolicy().getArn();
+    /**
+     * Detach the manage bucket policy from a service instance's IAM user, retrying once with a freshly resolved
+     * policy if the cached one no longer exists
+     *
+     * @param userName is the service instance's IAM user name
+     */
+    private void detachManageBucketPolicy(String userName) throws ServiceBrokerException {
+        try {
+            identityManagement.detachUserPolicy(new DetachUserPolicyRequest()
+                    .withPolicyArn(manageBucketPolicyResolver.resolve())
+                    .withUserName(userName));
         } catch (NoSuchEntityException ex) {
-            try {
-                // If the manage bucket policy does not exist, create one
-                CreatePolicyResult createPolicyResult = identityManagement
-                        .createPolicy(new CreatePolicyRequest()
-                                .withPolicyDocument(getManageBucketPolicyDocument())
-                                .withPolicyName("manage-bucket")
-                                .withDescription("Allows service instances to manage the content of an exclusive S3 bucket"));
-                manageBucketArn = createPolicyResult.getPolicy().getArn();
-            } catch (Exception exr) {
-                // The manage bucket policy could not be created
-                log.error(String.format("arn:aws:iam::%s:policy/manage-bucket",
-                        identityManagement.getUser().getUser().getUserId()), exr);
-                throw new ServiceBrokerException(exr);
-            }
+            manageBucketPolicyResolver.invalidate();
+            identityManagement.detachUserPolicy(new DetachUserPolicyRequest()
+                    .withPolicyArn(manageBucketPolicyResolver.resolve())
+                    .withUserName(userName));
         }
-        return manageBucketArn;
     }
 
     /**
-     * Create a new IAM user for a service instance using its unique id
+     * Create a new IAM user and bucket for a service instance using its unique id. The bucket is created while the
+     * user is being set up, and the access key and policy attachment run concurrently once the user exists. If any
+     * step fails, the resources created by the other steps are deleted again.
      *
      * @param applicationId is the service instance's unique id from the broker catalog
      * @return a new {@link S3User} containing the credential details for the new service instance's IAM user
      */
     public S3User createUserResult(String applicationId) throws ServiceBrokerException {
+        return createUserResult(applicationId, new ConcurrentHashMap<>(), Checkpoint.NONE);
+    }
 
-        S3User user = new S3User(applicationId);
-
-        // Create a new user for the service instance
-        user.setCreateUserResult(identityManagement.createUser(new CreateUserRequest(applicationId)));
-
-        // Create access key for new user
-        CreateAccessKeyResult createAccessKeyResult =
-                identityManagement.createAccessKey(new CreateAccessKeyRequest(applicationId)
-                        .withUserName(user.getCreateUserResult().getUser().getUserName()));
+    /**
+     * Create a new IAM user and bucket for a service instance, resuming an earlier attempt from its checkpoint.
+     * Steps that the checkpoint records are skipped, and the access key created by an earlier attempt is restored
+     * from the context. A step that ran before an interruption without being checkpointed runs again, so creating
+     * the user or the bucket tolerates them already existing. If the checkpoint is resumable, a failed attempt
+     * leaves what it created for the next attempt rather than deleting it.
+     *
+     * @param applicationId is the service instance's unique id from the broker catalog
+     * @param context       holds the values produced by completed steps, it is updated before each checkpoint
+     * @param checkpoint    records the completed steps
+     * @return a new {@link S3User} containing the credential details for the new service instance's IAM user
+     */
+    public S3User createUserResult(String applicationId, Map<String, String> context, Checkpoint checkpoint)
+            throws ServiceBrokerException {
 
-        // Get access key and secret for new user
-        user.setAccessKeyId(createAccessKeyResult.getAccessKey().getAccessKeyId());
-        user.setAccessKeySecret(createAccessKeyResult.getAccessKey().getSecretAccessKey());
+        S3User user = new S3User(applicationId);
 
-        // Create the bucket for the service instance
-        amazonS3.createBucket(new CreateBucketRequest(applicationId));
+        // The user is named after the service instance, and a resumed attempt does not create it again
+        user.setCreateUserResult(new CreateUserResult().withUser(new User().withUserName(applicationId)));
+        user.setAccessKeyId(context.get(ACCESS_KEY_ID));
+        user.setAccessKeySecret(context.get(SECRET_ACCESS_KEY));
+        AtomicBoolean createdUser = new AtomicBoolean();
+
+        stepExecutor.run("Provision " + applicationId, Arrays.asList(
+                // Create a new user for the service instance
+                Step.of(CREATE_USER, () -> {
+                    try {
+                        user.setCreateUserResult(identityManagement.createUser(new CreateUserRequest(applicationId)));
+                        createdUser.set(true);
+                    } catch (EntityAlreadyExistsException ex) {
+                        log.info("IAM user {} was created by an interrupted attempt", applicationId);
+                    }
+                })
+                        .compensatedBy(() -> identityManagement.deleteUser(new DeleteUserRequest(applicationId))),
+
+                // Create access key for new user, and get access key and secret for new user
+                Step.of(CREATE_ACCESS_KEY, () -> {
+                    // A user that an earlier attempt created may hold a key that attempt never recorded, and IAM
+                    // refuses a third key, so delete the keys the context does not know before creating one
+                    if (!createdUser.get() && deleteUnrecordedAccessKeys(applicationId, user.getAccessKeyId()))
+                        return;
+
+                    CreateAccessKeyResult createAccessKeyResult =
+                            identityManagement.createAccessKey(new CreateAccessKeyRequest(applicationId)
+                                    .withUserName(user.getCreateUserResult().getUser().getUserName()));
+
+                    user.setAccessKeyId(createAccessKeyResult.getAccessKey().getAccessKeyId());
+                    user.setAccessKeySecret(createAccessKeyResult.getAccessKey().getSecretAccessKey());
+                    context.put(ACCESS_KEY_ID, user.getAccessKeyId());
+                    context.put(SECRET_ACCESS_KEY, user.getAccessKeySecret());
+                })
+                        .after(CREATE_USER)
+                        .compensatedBy(() -> identityManagement.deleteAccessKey(
+                                new DeleteAccessKeyRequest(applicationId, user.getAccessKeyId()))),
+
+                // Create the bucket for the service instance
+                Step.of(CREATE_BUCKET, () -> {
+                    try {
+                        amazonS3.createBucket(new CreateBucketRequest(applicationId));
+                    } catch (AmazonS3Exception ex) {
+                        if (!BUCKET_ALREADY_OWNED.equals(ex.getErrorCode()))
+                            throw ex;
+                        log.info("Bucket {} was created by an interrupted attempt", applicationId);
+                    }
+                })
+                        .compensatedBy(() -> amazonS3.deleteBucket(applicationId)),
+
+                // Attach the manage bucket policy to the new user
+                Step.of(ATTACH_POLICY, () -> attachManageBucketPolicy(applicationId))
+                        .after(CREATE_USER)
+                        .compensatedBy(() -> detachManageBucketPolicy(applicationId))), checkpoint);
 
-        // Get or create the manage bucket policy for the new user
-        String manageBucketArn = getManageBucketPolicyArn();
+        return user;
+    }
 
-        // Attach the manage bucket policy to the new user
-        identityManagement.attachUserPolicy(new AttachUserPolicyRequest()
-                .withUserName(user.getCreateUserResult().getUser().getUserName())
-                .withPolicyArn(manageBucketArn));
+    /**
+     * Delete the access keys of a service instance's IAM user other than the one recorded by an earlier attempt
+     *
+     * @param userName    is the service instance's IAM user name
+     * @param accessKeyId is the access key recorded by an earlier attempt, or null if none was
+     * @return true if the recorded access key still exists and can be used
+     */
+    private boolean deleteUnrecordedAccessKeys(String userName, String accessKeyId) {
+        boolean recordedKeyExists = false;
+
+        for (AccessKeyMetadata accessKey : identityManagement.listAccessKeys(new ListAccessKeysRequest()
+                .withUserName(userName)).getAccessKeyMetadata()) {
+            if (accessKey.getAccessKeyId().equals(accessKeyId)) {
+                recordedKeyExists = true;
+            } else {
+                log.info("Deleting access key {} of IAM user {} left by an interrupted attempt",
+                        accessKey.getAccessKeyId(), userName);
+                identityManagement.deleteAccessKey(new DeleteAccessKeyRequest(userName, accessKey.getAccessKeyId()));
+            }
+        }
 
-        return user;
+        return recordedKeyExists;
     }
 
+    /**
+     * Run a deletion that an earlier attempt of the same deprovisioning may already have performed
+     */
+    private static void ignoringMissing(StepExecutor.Action deletion) throws Exception {
+        try {
+            deletion.run();
+        } catch (NoSuchEntityException ex) {
+            // Already deleted
+        }
+    }
 }
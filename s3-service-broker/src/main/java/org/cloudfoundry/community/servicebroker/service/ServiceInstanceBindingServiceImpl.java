@@ -9,6 +9,7 @@ import org.cloudfoundry.community.servicebroker.exception.ServiceInstanceBinding
 import org.cloudfoundry.community.servicebroker.exception.ServiceInstanceDoesNotExistException;
 import org.cloudfoundry.community.servicebroker.model.CreateServiceInstanceBindingRequest;
 import org.cloudfoundry.community.servicebroker.model.DeleteServiceInstanceBindingRequest;
+import org.cloudfoundry.community.servicebroker.model.OperationState;
 import org.cloudfoundry.community.servicebroker.repositories.ServiceInstanceBindingRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -41,11 +42,6 @@ public class ServiceInstanceBindingServiceImpl implements ServiceInstanceBinding
     @Override
     public ServiceInstanceBinding createServiceInstanceBinding(CreateServiceInstanceBindingRequest createServiceInstanceBindingRequest) throws ServiceInstanceBindingExistsException, ServiceBrokerException {
 
-        ServiceInstanceBinding serviceInstanceBinding = serviceInstanceBindingRepository.findOne(createServiceInstanceBindingRequest.getBindingId());
-
-        if (serviceInstanceBinding != null)
-            throw new ServiceInstanceBindingExistsException(serviceInstanceBinding);
-
         ServiceInstance serviceInstance = null;
 
         // Get service instance
@@ -56,6 +52,12 @@ public class ServiceInstanceBindingServiceImpl implements ServiceInstanceBinding
             throw new ServiceBrokerException(ex);
         }
 
+        // Credentials only exist once provisioning has succeeded
+        if (serviceInstance.getLastOperationState() != OperationState.SUCCEEDED) {
+            throw new ServiceBrokerException(String.format("Service instance %s is not ready for binding: %s",
+                    serviceInstance.getServiceInstanceId(), serviceInstance.getLastOperationState()));
+        }
+
         // Test credentials
         Map<String, String> credentials;
         credentials = new HashMap<>();
@@ -63,17 +65,24 @@ public class ServiceInstanceBindingServiceImpl implements ServiceInstanceBinding
         credentials.put("accessKeyId", serviceInstance.getCredential().getAccessKeyId());
         credentials.put("secretAccessKey", serviceInstance.getCredential().getSecretAccessKey());
 
-        serviceInstanceBinding = new ServiceInstanceBinding(createServiceInstanceBindingRequest.getBindingId(),
+        ServiceInstanceBinding serviceInstanceBinding = new ServiceInstanceBinding(
+                createServiceInstanceBindingRequest.getBindingId(),
                 createServiceInstanceBindingRequest.getServiceInstanceId(),
                 credentials, null, createServiceInstanceBindingRequest.getAppGuid());
 
+        // The insert is the existence check, a binding with the same id makes it insert nothing
+        boolean inserted;
+
         try {
-            serviceInstanceBinding = serviceInstanceBindingRepository.save(serviceInstanceBinding);
+            inserted = serviceInstanceBindingRepository.insertIfAbsent(serviceInstanceBinding);
         } catch (Exception ex) {
             log.error(ex);
             throw new ServiceBrokerException(ex);
         }
 
+        if (!inserted)
+            throw new ServiceInstanceBindingExistsException(serviceInstanceBinding);
+
         return serviceInstanceBinding;
     }
 
@@ -89,18 +98,16 @@ public class ServiceInstanceBindingServiceImpl implements ServiceInstanceBinding
     public ServiceInstanceBinding deleteServiceInstanceBinding(DeleteServiceInstanceBindingRequest deleteServiceInstanceBindingRequest) throws ServiceBrokerException {
         ServiceInstanceBinding serviceInstanceBinding;
 
-        if (!serviceInstanceBindingRepository.exists(deleteServiceInstanceBindingRequest.getBindingId())) {
-            throw new ServiceBrokerException(String.format("Service instance binding does not exist: %s", deleteServiceInstanceBindingRequest.getBindingId()));
-        } else {
-            serviceInstanceBinding = serviceInstanceBindingRepository.findOne(deleteServiceInstanceBindingRequest.getBindingId());
-        }
-
         try {
-            serviceInstanceBindingRepository.delete(deleteServiceInstanceBindingRequest.getBindingId());
+            serviceInstanceBinding = serviceInstanceBindingRepository.remove(deleteServiceInstanceBindingRequest.getBindingId());
         } catch (Exception ex) {
             log.error(ex);
+            throw new ServiceBrokerException(ex);
         }
 
+        if (serviceInstanceBinding == null)
+            throw new ServiceBrokerException(String.format("Service instance binding does not exist: %s", deleteServiceInstanceBindingRequest.getBindingId()));
+
         return serviceInstanceBinding;
     }
 }
@@ -2,7 +2,7 @@ package org.cloudfoundry.community.servicebroker.service;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.cloudfoundry.community.servicebroker.catalog.Credential;
+import org.cloudfoundry.community.servicebroker.catalog.BrokerOperation;
 import org.cloudfoundry.community.servicebroker.catalog.ServiceInstance;
 import org.cloudfoundry.community.servicebroker.exception.ServiceBrokerException;
 import org.cloudfoundry.community.servicebroker.exception.ServiceInstanceDoesNotExistException;
@@ -10,31 +10,48 @@ import org.cloudfoundry.community.servicebroker.exception.ServiceInstanceExistsE
 import org.cloudfoundry.community.servicebroker.exception.ServiceInstanceUpdateNotSupportedException;
 import org.cloudfoundry.community.servicebroker.model.CreateServiceInstanceRequest;
 import org.cloudfoundry.community.servicebroker.model.DeleteServiceInstanceRequest;
-import org.cloudfoundry.community.servicebroker.model.S3User;
+import org.cloudfoundry.community.servicebroker.model.OperationState;
+import org.cloudfoundry.community.servicebroker.model.OperationType;
 import org.cloudfoundry.community.servicebroker.model.UpdateServiceInstanceRequest;
-import org.cloudfoundry.community.servicebroker.repositories.PlanRepository;
 import org.cloudfoundry.community.servicebroker.repositories.ServiceInstanceRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.stereotype.Service;
 
+import java.util.Collections;
+
 @Service
 public class ServiceInstanceServiceImpl implements ServiceInstanceService {
 
     private ServiceInstanceRepository serviceInstanceRepository;
-    private PlanRepository planRepository;
+    private CatalogService catalogService;
     private S3Service s3Service;
+    private TaskExecutor provisioningExecutor;
+    private WarmPool warmPool;
+    private BrokerOperationService brokerOperationService;
 
     Log log = LogFactory.getLog(ServiceInstanceService.class);
 
     @Autowired
-    public ServiceInstanceServiceImpl(ServiceInstanceRepository serviceInstanceRepository, PlanRepository planRepository, S3Service s3Service) {
+    public ServiceInstanceServiceImpl(ServiceInstanceRepository serviceInstanceRepository, CatalogService catalogService, S3Service s3Service,
+                                      @Qualifier("provisioningExecutor") TaskExecutor provisioningExecutor,
+                                      WarmPool warmPool, BrokerOperationService brokerOperationService) {
         this.serviceInstanceRepository = serviceInstanceRepository;
-        this.planRepository = planRepository;
+        this.catalogService = catalogService;
         this.s3Service = s3Service;
+        this.provisioningExecutor = provisioningExecutor;
+        this.warmPool = warmPool;
+        this.brokerOperationService = brokerOperationService;
     }
 
     /**
-     * Create a new instance of a service
+     * Create a new instance of a service. When the warm pool is enabled and not empty, the instance claims a
+     * pre-provisioned bucket and IAM user and is inserted complete, in the transaction that claims them. Otherwise
+     * the instance is inserted as in progress and a create operation goes into the outbox. If the cloud controller
+     * accepts incomplete operations, the operation is left to the provisioning workers, otherwise it is run on the
+     * request thread.
      *
      * @param createServiceInstanceRequest containing the parameters from CloudController
      * @return The newly created ServiceInstance
@@ -48,26 +65,57 @@ public class ServiceInstanceServiceImpl implements ServiceInstanceService {
 
         ServiceInstance serviceInstance = new ServiceInstance(createServiceInstanceRequest);
 
-        if (serviceInstanceRepository.exists(serviceInstance.getServiceInstanceId()))
+        ServiceInstance claimed = warmPool.claim(serviceInstance);
+        if (claimed != null) {
+            tagClaimedBucket(claimed);
+            return claimed;
+        }
+
+        serviceInstance.setLastOperation(OperationState.IN_PROGRESS, "Creating S3 bucket and IAM user");
+
+        // The insert is the existence check, so a new instance costs one round trip before provisioning starts
+        if (!serviceInstanceRepository.insertIfAbsent(serviceInstance))
             throw new ServiceInstanceExistsException(serviceInstance);
 
-        try {
-            S3User user = s3Service.createBucket(
-                    serviceInstance.getServiceInstanceId());
+        final String serviceInstanceId = serviceInstance.getServiceInstanceId();
 
-            serviceInstance.setCredential(
-                    new Credential(user.getCreateUserResult().getUser().getUserName(),
-                            user.getAccessKeyId(), user.getAccessKeySecret()));
+        if (createServiceInstanceRequest.isAsyncAccepted()) {
+            brokerOperationService.submit(OperationType.CREATE, serviceInstanceId, Collections.emptyMap());
+            return serviceInstance;
+        }
 
-            serviceInstance = serviceInstanceRepository.save(serviceInstance);
-        } catch (Exception ex) {
-            log.error(ex);
-            throw new ServiceBrokerException(ex);
+        // The platform is told that the creation failed, so it is abandoned rather than retried
+        BrokerOperation operation = brokerOperationService.runOnce(OperationType.CREATE, serviceInstanceId,
+                Collections.emptyMap());
+
+        serviceInstance = serviceInstanceRepository.findOne(serviceInstanceId);
+
+        if (operation.getState() != OperationState.SUCCEEDED) {
+            serviceInstanceRepository.delete(serviceInstanceId);
+            throw new ServiceBrokerException(operation.getDescription());
         }
 
         return serviceInstance;
     }
 
+    /**
+     * Tag the bucket of an instance that was provisioned from the warm pool with the instance's id, off the request
+     * thread as the instance is already usable without it
+     *
+     * @param serviceInstance is the service instance that claimed a warm pool entry
+     */
+    private void tagClaimedBucket(ServiceInstance serviceInstance) {
+        final String bucketName = serviceInstance.getCredential().getUserName();
+        final String serviceInstanceId = serviceInstance.getServiceInstanceId();
+
+        try {
+            provisioningExecutor.execute(() -> s3Service.tagBucket(bucketName, serviceInstanceId));
+        } catch (TaskRejectedException ex) {
+            log.warn(String.format("Could not tag bucket %s with service instance %s", bucketName,
+                    serviceInstanceId), ex);
+        }
+    }
+
     /**
      * @param serviceInstanceId The id of the serviceInstance
      * @return The ServiceInstance with the given id or null if one does not exist
@@ -90,38 +138,47 @@ public class ServiceInstanceServiceImpl implements ServiceInstanceService {
     }
 
     /**
-     * Delete and return the instance if it exists.
+     * Delete and return the instance if it exists. Marking the instance as being deleted is the existence and state
+     * check, in a single statement, and the instance is only read when that fails, to tell why. The deletion is
+     * recorded in the outbox. If the cloud controller accepts incomplete operations, the deletion is left to the
+     * provisioning workers, which retry it until it runs out of attempts, and the instance is returned in progress.
+     * Otherwise it is run once on the request thread, and a deletion that fails leaves the instance marked as failed
+     * for the cloud controller to delete again.
      *
      * @param deleteServiceInstanceRequest containing pertinent information for deleting the service.
-     * @return The deleted ServiceInstance or null if one did not exist.
-     * @throws ServiceBrokerException is something goes wrong internally
+     * @return The deleted ServiceInstance, as described by the request, which is in progress if the deletion was
+     * accepted but has not finished
+     * @throws ServiceBrokerException is something goes wrong internally, or the deletion failed
      */
     @Override
     public ServiceInstance deleteServiceInstance(DeleteServiceInstanceRequest deleteServiceInstanceRequest) throws ServiceBrokerException, ServiceInstanceDoesNotExistException {
+        String serviceInstanceId = deleteServiceInstanceRequest.getServiceInstanceId();
 
-        ServiceInstance serviceInstance;
+        if (serviceInstanceRepository.startOperation(serviceInstanceId, OperationState.IN_PROGRESS,
+                "Deleting S3 bucket and IAM user") == 0) {
+            if (serviceInstanceRepository.findOne(serviceInstanceId) == null)
+                throw new ServiceInstanceDoesNotExistException(serviceInstanceId);
 
-        if (!serviceInstanceRepository.exists(deleteServiceInstanceRequest.getServiceInstanceId())) {
-            throw new ServiceInstanceDoesNotExistException(deleteServiceInstanceRequest.getServiceInstanceId());
-        } else {
-            serviceInstance = serviceInstanceRepository.findOne(deleteServiceInstanceRequest.getServiceInstanceId());
+            throw new ServiceBrokerException(String.format("Service instance %s has an operation in progress",
+                    serviceInstanceId));
         }
 
+        ServiceInstance serviceInstance = new ServiceInstance(deleteServiceInstanceRequest);
 
-        // Delete service broker
-        if (!s3Service.deleteServiceInstanceBucket(serviceInstance.getServiceInstanceId(),
-                serviceInstance.getCredential().getAccessKeyId(),
-                serviceInstance.getCredential().getUserName())) {
-            log.error("Could not delete the S3 bucket for the service instance");
+        if (deleteServiceInstanceRequest.isAsyncAccepted()) {
+            brokerOperationService.submit(OperationType.DELETE, serviceInstanceId, Collections.emptyMap());
+            serviceInstance.setLastOperation(OperationState.IN_PROGRESS, "Deleting S3 bucket and IAM user");
+            return serviceInstance;
         }
 
-        try {
-            serviceInstanceRepository.delete(deleteServiceInstanceRequest.getServiceInstanceId());
-        } catch (Exception ex) {
-            log.error(ex);
-            throw new ServiceBrokerException(ex);
-        }
+        // The platform is told that the deletion failed, so it is abandoned rather than retried behind its back
+        BrokerOperation operation = brokerOperationService.runOnce(OperationType.DELETE, serviceInstanceId,
+                Collections.emptyMap());
+
+        if (operation.getState() != OperationState.SUCCEEDED)
+            throw new ServiceBrokerException(operation.getDescription());
 
+        serviceInstance.setLastOperation(OperationState.SUCCEEDED, operation.getDescription());
         return serviceInstance;
     }
 
@@ -129,7 +186,7 @@ public class ServiceInstanceServiceImpl implements ServiceInstanceService {
      * Update a service instance. Only modification of service plan is supported.
      *
      * @param updateServiceInstanceRequest detailing the request parameters
-     * @return The updated serviceInstance
+     * @return The updated serviceInstance, as described by the request
      * @throws ServiceInstanceUpdateNotSupportedException if particular plan change is not supported
      *                                                    or if the request can not currently be fulfilled due to the state of the instance.
      * @throws ServiceInstanceDoesNotExistException       if the service instance does not exist
@@ -137,21 +194,21 @@ public class ServiceInstanceServiceImpl implements ServiceInstanceService {
      */
     @Override
     public ServiceInstance updateServiceInstance(UpdateServiceInstanceRequest updateServiceInstanceRequest) throws ServiceInstanceUpdateNotSupportedException, ServiceBrokerException, ServiceInstanceDoesNotExistException {
-        ServiceInstance serviceInstance;
+        String serviceInstanceId = updateServiceInstanceRequest.getServiceInstanceId();
+        String planId = updateServiceInstanceRequest.getPlanId();
 
-        if (!serviceInstanceRepository.exists(updateServiceInstanceRequest.getServiceInstanceId())) {
-            throw new ServiceInstanceDoesNotExistException(updateServiceInstanceRequest.getServiceInstanceId());
-        } else {
-            serviceInstance = serviceInstanceRepository.getOne(updateServiceInstanceRequest.getServiceInstanceId());
-        }
+        if (catalogService.getPlan(planId) == null)
+            throw new ServiceBrokerException(String.format("Service plan with id %s does not exist", planId));
+
+        // The update is the existence and state check, so the instance is only read to tell why it failed
+        if (serviceInstanceRepository.updatePlan(serviceInstanceId, planId, OperationState.IN_PROGRESS) == 0) {
+            if (serviceInstanceRepository.findOne(serviceInstanceId) == null)
+                throw new ServiceInstanceDoesNotExistException(serviceInstanceId);
 
-        if (planRepository.exists(serviceInstance.getPlanId())) {
-            serviceInstance.setPlanId(updateServiceInstanceRequest.getPlanId());
-            serviceInstance = serviceInstanceRepository.save(serviceInstance);
-        } else {
-            throw new ServiceBrokerException(String.format("Service plan with id %s does not exist", updateServiceInstanceRequest.getPlanId()));
+            throw new ServiceInstanceUpdateNotSupportedException(String.format(
+                    "Service instance %s has an operation in progress", serviceInstanceId));
         }
 
-        return serviceInstance;
+        return new ServiceInstance(updateServiceInstanceRequest);
     }
 }
@@ -0,0 +1,355 @@
+package org.cloudfoundry.community.servicebroker.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.cloudfoundry.community.servicebroker.exception.ServiceBrokerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs named steps whose dependencies form a directed acyclic graph. Each step starts as soon as every step it
+ * depends on has completed, so independent steps run concurrently on a bounded pool. If a step fails, the steps
+ * that depend on it are skipped and the steps that are already running are allowed to finish. Then every completed
+ * step is compensated in reverse dependency order, so that a failed operation does not leave half-created resources
+ * behind. Steps see the {@link OperationAttempt} and the {@link RequestTiming} of the caller, and the time of each
+ * step is added to the request timing as {@code step.<name>}.
+ */
+@Component
+public class StepExecutor {
+
+    private final Logger log = LoggerFactory.getLogger(StepExecutor.class);
+
+    private final ExecutorService executor;
+
+    @Autowired
+    public StepExecutor(@Value("${broker.steps.concurrency:8}") int concurrency) {
+        this(Executors.newFixedThreadPool(concurrency,
+                new ThreadFactoryBuilder().setNameFormat("broker-step-%d").setDaemon(true).build()));
+    }
+
+    StepExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Run a set of steps and wait for all of them to complete or be skipped
+     *
+     * @param name  describes the operation in logs and errors
+     * @param steps are the steps to run, in any order
+     * @return the time taken by the operation and by each of its steps
+     * @throws ServiceBrokerException   if a step failed, after the completed steps have been compensated
+     * @throws IllegalArgumentException if step names are not unique, a dependency is unknown or there is a cycle
+     */
+    public Report run(String name, List<Step> steps) throws ServiceBrokerException {
+        return run(name, steps, Checkpoint.NONE);
+    }
+
+    /**
+     * Run a set of steps, skipping the steps that a checkpoint records as completed and recording each step that
+     * completes. Skipped steps count as completed, so they are compensated if a later step fails, unless the
+     * checkpoint is resumable.
+     *
+     * @param name       describes the operation in logs and errors
+     * @param steps      are the steps to run, in any order
+     * @param checkpoint records completed steps
+     * @return the time taken by the operation and by each of the steps it ran
+     * @throws ServiceBrokerException   if a step failed, after the completed steps have been compensated unless the
+     *                                  checkpoint is resumable
+     * @throws SupersededException      if the checkpoint found that the operation was taken over, without
+     *                                  compensating anything
+     * @throws IllegalArgumentException if step names are not unique, a dependency is unknown or there is a cycle
+     */
+    public Report run(String name, List<Step> steps, Checkpoint checkpoint) throws ServiceBrokerException {
+        List<Step> ordered = topologicalOrder(steps);
+        Map<String, CompletableFuture<Void>> futures = new HashMap<>();
+        Map<String, Long> stepNanos = new ConcurrentHashMap<>();
+        Map<String, Throwable> failures = new ConcurrentHashMap<>();
+        Set<String> completed = ConcurrentHashMap.newKeySet();
+        int attempt = OperationAttempt.current();
+        RequestTiming timing = RequestTiming.current();
+        long start = System.nanoTime();
+
+        for (Step step : ordered) {
+            if (checkpoint.isCompleted(step.name)) {
+                completed.add(step.name);
+                futures.put(step.name, CompletableFuture.completedFuture(null));
+                continue;
+            }
+
+            CompletableFuture<?>[] dependencies = step.dependsOn.stream()
+                    .map(futures::get)
+                    .toArray(CompletableFuture[]::new);
+
+            futures.put(step.name, CompletableFuture.allOf(dependencies).thenRunAsync(() -> {
+                long stepStart = System.nanoTime();
+                OperationAttempt.set(attempt);
+                RequestTiming.set(timing);
+                try {
+                    step.action.run();
+                    stepNanos.put(step.name, System.nanoTime() - stepStart);
+                    completed.add(step.name);
+                    checkpoint.completed(step.name);
+                } catch (Exception ex) {
+                    failures.put(step.name, ex);
+                    throw new CompletionException(ex);
+                } finally {
+                    RequestTiming.record("step." + step.name, System.nanoTime() - stepStart);
+                    OperationAttempt.clear();
+                    RequestTiming.clear();
+                }
+            }, executor));
+        }
+
+        // Wait for every step, including independent steps that are still running after a failure
+        for (Step step : ordered) {
+            try {
+                futures.get(step.name).join();
+            } catch (CompletionException | CancellationException ex) {
+                // A step that could not be scheduled failed without running
+                if (ex.getCause() instanceof RejectedExecutionException)
+                    failures.putIfAbsent(step.name, ex.getCause());
+            }
+        }
+
+        Report report = new Report(name, System.nanoTime() - start, ordered, stepNanos);
+
+        if (failures.isEmpty()) {
+            log.info("{}", report);
+            return report;
+        }
+
+        String failedStep = ordered.stream()
+                .map(step -> step.name)
+                .filter(failures::containsKey)
+                .findFirst()
+                .orElse(null);
+
+        // The completed steps belong to whoever took the operation over, undoing them would undo its work
+        Optional<Throwable> superseded = failures.values().stream()
+                .filter(failure -> failure instanceof SupersededException)
+                .findFirst();
+        if (superseded.isPresent()) {
+            log.warn("{} was taken over at step {}, leaving {} completed steps", name, failedStep, completed.size());
+            throw (SupersededException) superseded.get();
+        }
+
+        if (checkpoint.isResumable()) {
+            log.warn("{} failed at step {}, leaving {} completed steps to resume from", name, failedStep,
+                    completed.size());
+        } else {
+            log.warn("{} failed at step {}, compensating {} completed steps", name, failedStep, completed.size());
+            compensate(name, ordered, completed);
+        }
+
+        throw new ServiceBrokerException(String.format("%s failed at step %s", name, failedStep),
+                failures.get(failedStep));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Undo completed steps one at a time, dependents before their dependencies. A compensation that fails is logged
+     * and does not stop the others.
+     */
+    private void compensate(String name, List<Step> ordered, Set<String> completed) {
+        for (int i = ordered.size() - 1; i >= 0; i--) {
+            Step step = ordered.get(i);
+
+            if (step.compensation == null || !completed.contains(step.name))
+                continue;
+
+            try {
+                step.compensation.run();
+            } catch (Exception ex) {
+                log.error(String.format("Could not compensate step %s of %s", step.name, name), ex);
+            }
+        }
+    }
+
+    private static List<Step> topologicalOrder(List<Step> steps) {
+        Map<String, Step> byName = new LinkedHashMap<>();
+        for (Step step : steps) {
+            if (byName.put(step.name, step) != null)
+                throw new IllegalArgumentException("Duplicate step " + step.name);
+        }
+
+        for (Step step : steps) {
+            for (String dependency : step.dependsOn) {
+                if (!byName.containsKey(dependency))
+                    throw new IllegalArgumentException(String.format("Step %s depends on unknown step %s",
+                            step.name, dependency));
+            }
+        }
+
+        List<Step> ordered = new ArrayList<>(steps.size());
+        Set<String> visited = new HashSet<>();
+        Set<String> visiting = new HashSet<>();
+        for (Step step : steps) {
+            visit(step, byName, visited, visiting, ordered);
+        }
+        return ordered;
+    }
+
+    private static void visit(Step step, Map<String, Step> byName, Set<String> visited, Set<String> visiting,
+                              List<Step> ordered) {
+        if (visited.contains(step.name))
+            return;
+        if (!visiting.add(step.name))
+            throw new IllegalArgumentException("Steps depend on each other in a cycle through " + step.name);
+
+        for (String dependency : step.dependsOn) {
+            visit(byName.get(dependency), byName, visited, visiting, ordered);
+        }
+
+        visiting.remove(step.name);
+        visited.add(step.name);
+        ordered.add(step);
+    }
+
+    /**
+     * Records the steps of an operation as they complete, so that an interrupted operation can be resumed without
+     * repeating them. Steps complete concurrently, so implementations must be thread safe.
+     */
+    public interface Checkpoint {
+
+        Checkpoint NONE = new Checkpoint() {
+
+            @Override
+            public boolean isCompleted(String step) {
+                return false;
+            }
+
+            @Override
+            public void completed(String step) {
+            }
+        };
+
+        boolean isCompleted(String step);
+
+        /**
+         * Called after a step has completed. A step whose completion cannot be recorded fails, and is compensated.
+         *
+         * @throws SupersededException if another worker has taken the operation over, in which case nothing is
+         *                             compensated
+         */
+        void completed(String step) throws Exception;
+
+        /**
+         * @return true if a failed run leaves its completed steps in place for a later run to resume from, rather
+         * than compensating them
+         */
+        default boolean isResumable() {
+            return false;
+        }
+    }
+
+    /**
+     * Thrown by a checkpoint whose operation was taken over by another worker while its steps ran
+     */
+    public static class SupersededException extends RuntimeException {
+
+        private static final long serialVersionUID = -3175064726483201189L;
+
+        public SupersededException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * An action performed by a step or by its compensation
+     */
+    @FunctionalInterface
+    public interface Action {
+
+        void run() throws Exception;
+    }
+
+    /**
+     * A named unit of work, the steps it depends on and an optional compensation that undoes it
+     */
+    public static final class Step {
+
+        private final String name;
+        private final Action action;
+        private Set<String> dependsOn = Collections.emptySet();
+        private Action compensation;
+
+        private Step(String name, Action action) {
+            this.name = name;
+            this.action = action;
+        }
+
+        public static Step of(String name, Action action) {
+            return new Step(name, action);
+        }
+
+        /**
+         * @param steps are the names of the steps that must complete before this one starts
+         */
+        public Step after(String... steps) {
+            this.dependsOn = new LinkedHashSet<>(Arrays.asList(steps));
+            return this;
+        }
+
+        /**
+         * @param compensation undoes the step, it is run when the step completed but another step failed
+         */
+        public Step compensatedBy(Action compensation) {
+            this.compensation = compensation;
+            return this;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * The wall-clock time of a completed operation and of each of its steps
+     */
+    public static final class Report {
+
+        private final String name;
+        private final long totalMillis;
+        private final Map<String, Long> stepMillis = new LinkedHashMap<>();
+
+        Report(String name, long totalNanos, List<Step> ordered, Map<String, Long> stepNanos) {
+            this.name = name;
+            this.totalMillis = TimeUnit.NANOSECONDS.toMillis(totalNanos);
+            for (Step step : ordered) {
+                Long nanos = stepNanos.get(step.name);
+                if (nanos != null)
+                    stepMillis.put(step.name, TimeUnit.NANOSECONDS.toMillis(nanos));
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getTotalMillis() {
+            return totalMillis;
+        }
+
+        /**
+         * @return the time taken by each completed step, in dependency order
+         */
+        public Map<String, Long> getStepMillis() {
+            return Collections.unmodifiableMap(stepMillis);
+        }
+
+        @Override
+        public String toString() {
+            return name + " completed in " + totalMillis + " ms " + stepMillis;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package org.cloudfoundry.community.servicebroker.service;
+
+import org.cloudfoundry.community.servicebroker.catalog.Credential;
+import org.cloudfoundry.community.servicebroker.catalog.ServiceInstance;
+import org.cloudfoundry.community.servicebroker.catalog.WarmPoolEntry;
+import org.cloudfoundry.community.servicebroker.config.BrokerProperties;
+import org.cloudfoundry.community.servicebroker.exception.ServiceInstanceExistsException;
+import org.cloudfoundry.community.servicebroker.model.OperationState;
+import org.cloudfoundry.community.servicebroker.model.S3User;
+import org.cloudfoundry.community.servicebroker.repositories.ServiceInstanceRepository;
+import org.cloudfoundry.community.servicebroker.repositories.WarmPoolEntryRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An optional pool of pre-provisioned buckets and IAM users. A background refill keeps the pool topped up by running
+ * the serial IAM and S3 provisioning chain ahead of time, so that creating a service instance only claims an entry
+ * and inserts the instance in a single database transaction. Entries that stay unclaimed for longer than the
+ * configured maximum age are retired, so that no access key waits in the pool indefinitely. An entry is only removed
+ * once its resources have been deleted, so a retirement that fails or is interrupted is retried by the next refill.
+ */
+@Component
+public class WarmPool implements PublicMetrics {
+
+    static final String NAME_PREFIX = "warm-";
+
+    private final Logger log = LoggerFactory.getLogger(WarmPool.class);
+
+    private final WarmPoolEntryRepository warmPoolEntryRepository;
+    private final ServiceInstanceRepository serviceInstanceRepository;
+    private final S3Service s3Service;
+    private final BrokerProperties.WarmPool properties;
+    private final TransactionOperations transactionOperations;
+    private final Clock clock;
+
+    private final AtomicLong depth = new AtomicLong();
+    private final AtomicLong claims = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong claimNanos = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong retired = new AtomicLong();
+    private final AtomicLong refillFailures = new AtomicLong();
+
+    @Autowired
+    public WarmPool(WarmPoolEntryRepository warmPoolEntryRepository,
+                    ServiceInstanceRepository serviceInstanceRepository, S3Service s3Service,
+                    BrokerProperties brokerProperties, PlatformTransactionManager transactionManager) {
+        this(warmPoolEntryRepository, serviceInstanceRepository, s3Service, brokerProperties.getWarmPool(),
+                new TransactionTemplate(transactionManager), Clock.systemUTC());
+    }
+
+    WarmPool(WarmPoolEntryRepository warmPoolEntryRepository, ServiceInstanceRepository serviceInstanceRepository,
+             S3Service s3Service, BrokerProperties.WarmPool properties, TransactionOperations transactionOperations,
+             Clock clock) {
+        this.warmPoolEntryRepository = warmPoolEntryRepository;
+        this.serviceInstanceRepository = serviceInstanceRepository;
+        this.s3Service = s3Service;
+        this.properties = properties;
+        this.transactionOperations = transactionOperations;
+        this.clock = clock;
+    }
+
+    /**
+     * Provision a new service instance from the pool. The oldest entry that has not expired is removed from the
+     * pool and its bucket and IAM user become the instance's, in the same transaction that inserts the instance.
+     * Concurrent claims, from this or another broker instance, never receive the same entry, and a claim for an
+     * instance that exists is rolled back so that its entry stays in the pool.
+     *
+     * @param serviceInstance is the new service instance
+     * @return the inserted service instance, or null if the pool is disabled or has no entry to claim
+     * @throws ServiceInstanceExistsException if a service instance with the same id exists
+     */
+    public ServiceInstance claim(ServiceInstance serviceInstance) throws ServiceInstanceExistsException {
+        if (!properties.isEnabled())
+            return null;
+
+        long start = System.nanoTime();
+
+        try {
+            Boolean inserted = transactionOperations.execute(status -> claimEntry(serviceInstance, status));
+
+            if (inserted == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+
+            if (!inserted)
+                throw new ServiceInstanceExistsException(serviceInstance);
+
+            depth.decrementAndGet();
+            claims.incrementAndGet();
+            return serviceInstance;
+        } finally {
+            claimNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return null if there was no entry to claim, otherwise whether the instance was inserted with the entry's
+     * credential
+     */
+    private Boolean claimEntry(ServiceInstance serviceInstance, TransactionStatus status) {
+        long createdAfter = clock.millis() - properties.getMaxAge();
+
+        for (WarmPoolEntry entry : warmPoolEntryRepository
+                .findFirst5ByCreatedAtGreaterThanOrderByCreatedAtAsc(createdAfter)) {
+
+            // Another claim or a retirement may have taken the entry since it was read, only the one that removes
+            // it owns it
+            if (warmPoolEntryRepository.claim(entry.getName(), createdAfter) == 1) {
+                serviceInstance.setCredential(new Credential(entry.getName(), entry.getAccessKeyId(),
+                        entry.getSecretAccessKey()));
+                serviceInstance.setLastOperation(OperationState.SUCCEEDED, "Service created");
+
+                // The insert is the existence check, a duplicate rolls the removal of the entry back
+                if (!serviceInstanceRepository.insert(serviceInstance)) {
+                    status.setRollbackOnly();
+                    return false;
+                }
+                return true;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Retire expired entries and create new ones until the pool is full, creating no more than the refill rate
+     * in one run. A run stops at the first failure and leaves the rest to the next run, and the resources of an
+     * entry that could not be saved are deleted again. Runs take a thread of the broker's task scheduler to
+     * themselves, so a slow run does not delay the other scheduled tasks.
+     */
+    @Scheduled(fixedDelayString = "${broker.warmPool.refillInterval:30000}")
+    public void refill() {
+        if (!properties.isEnabled())
+            return;
+
+        retireExpired();
+
+        long available = warmPoolEntryRepository.countByCreatedAtGreaterThan(clock.millis() - properties.getMaxAge());
+        depth.set(available);
+
+        long missing = Math.min(properties.getRefillRate(), properties.getSize() - available);
+
+        for (int i = 0; i < missing; i++) {
+            String name = NAME_PREFIX + UUID.randomUUID();
+            S3User user = null;
+
+            try {
+                user = s3Service.createUserResult(name);
+                warmPoolEntryRepository.save(new WarmPoolEntry(name, user.getAccessKeyId(),
+                        user.getAccessKeySecret(), clock.millis()));
+                depth.incrementAndGet();
+                created.incrementAndGet();
+            } catch (Exception ex) {
+                refillFailures.incrementAndGet();
+                log.error(String.format("Could not add %s to the warm pool", name), ex);
+
+                // Resources that no entry records would never be retired
+                if (user != null && !s3Service.deleteServiceInstanceBucket(name, user.getAccessKeyId(), name))
+                    log.error("Could not delete the resources of unsaved warm pool entry {}", name);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Mark expired entries as retiring, so that their resources are never deleted while an instance owns them, and
+     * delete the resources of every retiring entry. An entry is removed once its resources are gone, and entries left
+     * retiring by a failed or interrupted retirement are picked up again here. Deletion skips resources that are
+     * already gone, so retiring an entry twice is harmless.
+     */
+    private void retireExpired() {
+        long createdBefore = clock.millis() - properties.getMaxAge();
+
+        for (WarmPoolEntry entry : warmPoolEntryRepository.findByCreatedAtLessThanEqual(createdBefore)) {
+            String name = entry.getName();
+
+            if (entry.getCreatedAt() != WarmPoolEntry.RETIRING
+                    && warmPoolEntryRepository.retire(name, createdBefore, WarmPoolEntry.RETIRING) == 0)
+                continue;
+
+            if (!s3Service.deleteServiceInstanceBucket(name, entry.getAccessKeyId(), name)) {
+                refillFailures.incrementAndGet();
+                log.error("Could not delete the resources of expired warm pool entry {}, it is retried by the next "
+                        + "refill", name);
+                continue;
+            }
+
+            warmPoolEntryRepository.removeRetired(name, WarmPoolEntry.RETIRING);
+            retired.incrementAndGet();
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        long attempts = claims.get() + misses.get();
+
+        return Arrays.asList(
+                new Metric<>("broker.warm-pool.depth", depth.get()),
+                new Metric<>("broker.warm-pool.claims", claims.get()),
+                new Metric<>("broker.warm-pool.misses", misses.get()),
+                new Metric<>("broker.warm-pool.claim.mean-millis", attempts == 0 ? 0.0
+                        : (double) TimeUnit.NANOSECONDS.toMicros(claimNanos.get()) / attempts / 1000),
+                new Metric<>("broker.warm-pool.created", created.get()),
+                new Metric<>("broker.warm-pool.retired", retired.get()),
+                new Metric<>("broker.warm-pool.refill-failures", refillFailures.get()));
+    }
+}
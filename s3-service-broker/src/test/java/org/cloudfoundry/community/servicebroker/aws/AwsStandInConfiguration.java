@@ -0,0 +1,57 @@
+package org.cloudfoundry.community.servicebroker.aws;
+
+import com.amazonaws.services.identitymanagement.AmazonIdentityManagement;
+import com.amazonaws.services.s3.AmazonS3;
+import org.cloudfoundry.community.servicebroker.aws.InMemoryAws.Behaviour;
+import org.cloudfoundry.community.servicebroker.service.AdaptiveConcurrencyLimiter;
+import org.cloudfoundry.community.servicebroker.service.AwsCallMetrics;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+
+/**
+ * Replaces the AWS clients with the {@link InMemoryAws} stand-in when the {@code aws-standin} profile is active.
+ * The stand-in is timed by the broker's {@link AwsCallMetrics}, and the IAM stand-in is still called through the
+ * broker's IAM limiter, so that the limiter reacts to throttling as it does against IAM. The behaviour of each service is set with these properties:
+ *
+ * <pre>
+ * aws.standin.iam.latency              least milliseconds taken by each call, 0 by default
+ * aws.standin.iam.jitter               most milliseconds added at random to each call, 0 by default
+ * aws.standin.iam.throttle-rate        fraction of calls throttled at random, 0 by default
+ * aws.standin.iam.max-calls-per-second calls allowed in each second before the rest are throttled, 0 for no limit
+ * aws.standin.s3.*                     the same for S3
+ * </pre>
+ */
+@Configuration
+@Profile("aws-standin")
+public class AwsStandInConfiguration {
+
+	@Bean
+	public InMemoryAws inMemoryAws(Environment environment) {
+		return new InMemoryAws(behaviour(environment, "aws.standin.iam."), behaviour(environment, "aws.standin.s3."));
+	}
+
+	@Bean
+	@Primary
+	public AmazonIdentityManagement standInIdentityManagement(InMemoryAws inMemoryAws,
+			AdaptiveConcurrencyLimiter iamConcurrencyLimiter, AwsCallMetrics awsCallMetrics) {
+		return iamConcurrencyLimiter.limit(AmazonIdentityManagement.class,
+				awsCallMetrics.instrument("iam", AmazonIdentityManagement.class, inMemoryAws.identityManagement()));
+	}
+
+	@Bean
+	@Primary
+	public AmazonS3 standInAmazonS3(InMemoryAws inMemoryAws, AwsCallMetrics awsCallMetrics) {
+		return awsCallMetrics.instrument("s3", AmazonS3.class, inMemoryAws.amazonS3());
+	}
+
+	private static Behaviour behaviour(Environment environment, String prefix) {
+		return new Behaviour()
+				.latency(environment.getProperty(prefix + "latency", Long.class, 0L),
+						environment.getProperty(prefix + "jitter", Long.class, 0L))
+				.throttleRate(environment.getProperty(prefix + "throttle-rate", Double.class, 0.0))
+				.maxCallsPerSecond(environment.getProperty(prefix + "max-calls-per-second", Integer.class, 0));
+	}
+}
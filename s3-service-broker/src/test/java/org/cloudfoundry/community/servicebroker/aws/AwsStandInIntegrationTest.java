@@ -0,0 +1,53 @@
+package org.cloudfoundry.community.servicebroker.aws;
+
+import org.cloudfoundry.community.servicebroker.ServiceBrokerApplication;
+import org.cloudfoundry.community.servicebroker.catalog.ServiceInstance;
+import org.cloudfoundry.community.servicebroker.model.CreateServiceInstanceRequest;
+import org.cloudfoundry.community.servicebroker.model.DeleteServiceInstanceRequest;
+import org.cloudfoundry.community.servicebroker.model.OperationState;
+import org.cloudfoundry.community.servicebroker.service.ServiceInstanceService;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.boot.test.WebIntegrationTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(ServiceBrokerApplication.class)
+@WebIntegrationTest(value = "spring.datasource.url=jdbc:h2:mem:standin", randomPort = true)
+@ActiveProfiles({"test", "aws-standin"})
+public class AwsStandInIntegrationTest {
+
+	@Autowired
+	private ServiceInstanceService serviceInstanceService;
+
+	@Autowired
+	private InMemoryAws inMemoryAws;
+
+	@Test
+	public void instanceIsProvisionedAndDeprovisionedWithoutAws() throws Exception {
+		ServiceInstance serviceInstance = serviceInstanceService.createServiceInstance(
+				new CreateServiceInstanceRequest("service-id", "plan-id", "org-guid", "space-guid")
+						.withServiceInstanceId("standin-instance"));
+
+		assertEquals(OperationState.SUCCEEDED, serviceInstance.getLastOperationState());
+		assertTrue(inMemoryAws.getBucketNames().contains("standin-instance"));
+		assertEquals(Collections.singleton(serviceInstance.getCredential().getAccessKeyId()),
+				inMemoryAws.getAccessKeyIds("standin-instance"));
+		assertEquals(1, inMemoryAws.getAttachedPolicyArns("standin-instance").size());
+
+		inMemoryAws.putObject("standin-instance", "object", "content");
+
+		serviceInstanceService.deleteServiceInstance(
+				new DeleteServiceInstanceRequest("standin-instance", "service-id", "plan-id"));
+
+		assertFalse(inMemoryAws.getBucketNames().contains("standin-instance"));
+		assertFalse(inMemoryAws.getUserNames().contains("standin-instance"));
+	}
+}
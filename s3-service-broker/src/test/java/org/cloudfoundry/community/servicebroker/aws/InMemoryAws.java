@@ -0,0 +1,509 @@
+package org.cloudfoundry.community.servicebroker.aws;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonServiceException.ErrorType;
+import com.amazonaws.services.identitymanagement.AmazonIdentityManagement;
+import com.amazonaws.services.identitymanagement.model.*;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.Bucket;
+import com.amazonaws.services.s3.model.BucketTaggingConfiguration;
+import com.amazonaws.services.s3.model.CreateBucketRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
+import com.amazonaws.services.s3.model.DeleteObjectsResult;
+import com.amazonaws.services.s3.model.DeleteObjectsResult.DeletedObject;
+import com.amazonaws.services.s3.model.ListVersionsRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3VersionSummary;
+import com.amazonaws.services.s3.model.VersionListing;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * An in-memory stand-in for S3 and IAM, so that the broker can be load tested without an AWS account. It models
+ * the IAM users, access keys and managed policies and the S3 buckets, tags and objects that the broker works with,
+ * including the errors that AWS returns for missing, duplicate and still referenced resources. Each call can be
+ * delayed and throttled, so that provisioning throughput and tail latency can be measured against realistic
+ * service behaviour. Operations that are not modelled fail with an {@link UnsupportedOperationException}.
+ */
+public class InMemoryAws {
+
+	public static final String ACCOUNT_ID = "123456789012";
+
+	private static final Set<String> LOCAL_METHODS = new HashSet<>(Arrays.asList(
+			"setEndpoint", "setRegion", "setS3ClientOptions", "getCachedResponseMetadata", "shutdown"));
+
+	private static final int MAX_KEYS = 1000;
+
+	private final AtomicLong sequence = new AtomicLong();
+	private final Map<String, AtomicLong> calls = new ConcurrentHashMap<>();
+	private final AtomicLong throttles = new AtomicLong();
+
+	private final Iam iam = new Iam();
+	private final S3 s3 = new S3();
+
+	private final Behaviour iamBehaviour;
+	private final Behaviour s3Behaviour;
+
+	public InMemoryAws() {
+		this(new Behaviour(), new Behaviour());
+	}
+
+	public InMemoryAws(Behaviour iamBehaviour, Behaviour s3Behaviour) {
+		this.iamBehaviour = iamBehaviour;
+		this.s3Behaviour = s3Behaviour;
+	}
+
+	public AmazonIdentityManagement identityManagement() {
+		return proxy(AmazonIdentityManagement.class, iam, iamBehaviour, () -> error(new AmazonServiceException(
+				"Rate exceeded"), "Throttling", 400, ErrorType.Client, "AmazonIdentityManagement"));
+	}
+
+	public AmazonS3 amazonS3() {
+		return proxy(AmazonS3.class, s3, s3Behaviour, () -> error(new AmazonS3Exception(
+				"Please reduce your request rate."), "SlowDown", 503, ErrorType.Service, "Amazon S3"));
+	}
+
+	public Set<String> getUserNames() {
+		synchronized (iam) {
+			return new TreeSet<>(iam.users.keySet());
+		}
+	}
+
+	public Set<String> getAccessKeyIds(String userName) {
+		synchronized (iam) {
+			return new TreeSet<>(iam.existingUser(userName).accessKeyIds);
+		}
+	}
+
+	public Set<String> getAttachedPolicyArns(String userName) {
+		synchronized (iam) {
+			return new TreeSet<>(iam.existingUser(userName).policyArns);
+		}
+	}
+
+	public Set<String> getBucketNames() {
+		synchronized (s3) {
+			return new TreeSet<>(s3.buckets.keySet());
+		}
+	}
+
+	public int getObjectCount(String bucketName) {
+		synchronized (s3) {
+			return s3.existingBucket(bucketName).objects.size();
+		}
+	}
+
+	/**
+	 * Store an object directly, without any delay or throttling, to give the broker something to purge
+	 */
+	public void putObject(String bucketName, String key, String content) {
+		synchronized (s3) {
+			s3.existingBucket(bucketName).objects.put(key, content.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * @return the number of calls made to each modelled operation, throttled calls included
+	 */
+	public Map<String, Long> getCalls() {
+		Map<String, Long> counts = new TreeMap<>();
+		calls.forEach((operation, count) -> counts.put(operation, count.get()));
+		return counts;
+	}
+
+	public long getThrottles() {
+		return throttles.get();
+	}
+
+	private <T> T proxy(Class<T> type, Object model, Behaviour behaviour, Supplier<AmazonServiceException> throttling) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+				(proxy, method, args) -> {
+					if (method.getDeclaringClass() == Object.class)
+						return method.invoke(model, args);
+
+					if (LOCAL_METHODS.contains(method.getName()))
+						return null;
+
+					Method operation;
+					try {
+						operation = model.getClass().getMethod(method.getName(), method.getParameterTypes());
+					} catch (NoSuchMethodException ex) {
+						throw new UnsupportedOperationException(String.format("%s.%s is not modelled by the stand-in",
+								type.getSimpleName(), method.getName()));
+					}
+
+					calls.computeIfAbsent(method.getName(), name -> new AtomicLong()).incrementAndGet();
+					behaviour.delay();
+
+					if (behaviour.throttle()) {
+						throttles.incrementAndGet();
+						throw throttling.get();
+					}
+
+					try {
+						operation.setAccessible(true);
+						return operation.invoke(model, args);
+					} catch (InvocationTargetException ex) {
+						throw ex.getCause();
+					}
+				}));
+	}
+
+	private static <E extends AmazonServiceException> E error(E exception, String errorCode, int statusCode,
+			ErrorType errorType, String serviceName) {
+		exception.setErrorCode(errorCode);
+		exception.setStatusCode(statusCode);
+		exception.setErrorType(errorType);
+		exception.setServiceName(serviceName);
+		exception.setRequestId(UUID.randomUUID().toString());
+		return exception;
+	}
+
+	private String nextId(String prefix) {
+		return String.format("%s%016X", prefix, sequence.incrementAndGet());
+	}
+
+	/**
+	 * The delay and throttling applied to every call to one service. Calls are throttled at random at the
+	 * throttle rate, and beyond the maximum number of calls per second, as IAM does for an account.
+	 */
+	public static final class Behaviour {
+
+		private long latencyMillis;
+		private long jitterMillis;
+		private double throttleRate;
+		private int maxCallsPerSecond;
+
+		private long windowStart;
+		private int windowCalls;
+
+		/**
+		 * @param latencyMillis is the least time each call takes
+		 * @param jitterMillis  is the most time added at random to each call
+		 */
+		public Behaviour latency(long latencyMillis, long jitterMillis) {
+			this.latencyMillis = latencyMillis;
+			this.jitterMillis = jitterMillis;
+			return this;
+		}
+
+		/**
+		 * @param throttleRate is the fraction of calls that are throttled at random, from 0 to 1
+		 */
+		public Behaviour throttleRate(double throttleRate) {
+			this.throttleRate = throttleRate;
+			return this;
+		}
+
+		/**
+		 * @param maxCallsPerSecond is the number of calls allowed in each second, or 0 for no limit
+		 */
+		public Behaviour maxCallsPerSecond(int maxCallsPerSecond) {
+			this.maxCallsPerSecond = maxCallsPerSecond;
+			return this;
+		}
+
+		private void delay() throws InterruptedException {
+			long millis = latencyMillis + (jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis + 1) : 0);
+			if (millis > 0)
+				Thread.sleep(millis);
+		}
+
+		private boolean throttle() {
+			if (throttleRate > 0 && ThreadLocalRandom.current().nextDouble() < throttleRate)
+				return true;
+
+			if (maxCallsPerSecond <= 0)
+				return false;
+
+			synchronized (this) {
+				long now = System.nanoTime();
+				if (now - windowStart >= 1_000_000_000L) {
+					windowStart = now;
+					windowCalls = 0;
+				}
+				return ++windowCalls > maxCallsPerSecond;
+			}
+		}
+	}
+
+	private static final class IamUser {
+
+		private final User user;
+		private final Set<String> accessKeyIds = new LinkedHashSet<>();
+		private final Set<String> policyArns = new LinkedHashSet<>();
+
+		private IamUser(User user) {
+			this.user = user;
+		}
+	}
+
+	/**
+	 * The modelled IAM operations, with the signatures of {@link AmazonIdentityManagement}
+	 */
+	public final class Iam {
+
+		private final Map<String, IamUser> users = new HashMap<>();
+		private final Map<String, String> policyNamesByArn = new HashMap<>();
+
+		private final User brokerUser = new User()
+				.withUserName("broker")
+				.withUserId(nextId("AIDA"))
+				.withArn(arn("user/broker"))
+				.withPath("/")
+				.withCreateDate(new Date());
+
+		public synchronized GetUserResult getUser() {
+			return new GetUserResult().withUser(brokerUser);
+		}
+
+		public synchronized CreateUserResult createUser(CreateUserRequest request) {
+			String userName = request.getUserName();
+
+			if (users.containsKey(userName))
+				throw iamError(new EntityAlreadyExistsException(String.format(
+						"User with name %s already exists.", userName)), "EntityAlreadyExists", 409);
+
+			User user = new User()
+					.withUserName(userName)
+					.withUserId(nextId("AIDA"))
+					.withArn(arn("user/" + userName))
+					.withPath("/")
+					.withCreateDate(new Date());
+			users.put(userName, new IamUser(user));
+
+			return new CreateUserResult().withUser(user);
+		}
+
+		public synchronized void deleteUser(DeleteUserRequest request) {
+			IamUser user = existingUser(request.getUserName());
+
+			if (!user.accessKeyIds.isEmpty() || !user.policyArns.isEmpty())
+				throw iamError(new DeleteConflictException(
+						"Cannot delete entity, must delete access keys and detach policies first."), "DeleteConflict", 409);
+
+			users.remove(request.getUserName());
+		}
+
+		public synchronized CreateAccessKeyResult createAccessKey(CreateAccessKeyRequest request) {
+			IamUser user = existingUser(request.getUserName());
+
+			if (user.accessKeyIds.size() >= 2)
+				throw iamError(new LimitExceededException("Cannot exceed quota for AccessKeysPerUser: 2"),
+						"LimitExceeded", 409);
+
+			String accessKeyId = nextId("AKIA");
+			user.accessKeyIds.add(accessKeyId);
+
+			return new CreateAccessKeyResult().withAccessKey(new AccessKey()
+					.withUserName(request.getUserName())
+					.withAccessKeyId(accessKeyId)
+					.withSecretAccessKey(UUID.randomUUID().toString())
+					.withStatus(StatusType.Active)
+					.withCreateDate(new Date()));
+		}
+
+		public synchronized void deleteAccessKey(DeleteAccessKeyRequest request) {
+			if (!existingUser(request.getUserName()).accessKeyIds.remove(request.getAccessKeyId()))
+				throw noSuchEntity(String.format("The Access Key with id %s cannot be found.",
+						request.getAccessKeyId()));
+		}
+
+		public synchronized GetPolicyResult getPolicy(GetPolicyRequest request) {
+			return new GetPolicyResult().withPolicy(existingPolicy(request.getPolicyArn()));
+		}
+
+		public synchronized CreatePolicyResult createPolicy(CreatePolicyRequest request) {
+			String policyArn = arn("policy/" + request.getPolicyName());
+
+			if (policyNamesByArn.containsKey(policyArn))
+				throw iamError(new EntityAlreadyExistsException(String.format(
+						"A policy called %s already exists.", request.getPolicyName())), "EntityAlreadyExists", 409);
+
+			policyNamesByArn.put(policyArn, request.getPolicyName());
+			return new CreatePolicyResult().withPolicy(existingPolicy(policyArn));
+		}
+
+		public synchronized void attachUserPolicy(AttachUserPolicyRequest request) {
+			IamUser user = existingUser(request.getUserName());
+			existingPolicy(request.getPolicyArn());
+			user.policyArns.add(request.getPolicyArn());
+		}
+
+		public synchronized void detachUserPolicy(DetachUserPolicyRequest request) {
+			if (!existingUser(request.getUserName()).policyArns.remove(request.getPolicyArn()))
+				throw noSuchEntity(String.format("Policy %s was not found.", request.getPolicyArn()));
+		}
+
+		private IamUser existingUser(String userName) {
+			IamUser user = users.get(userName);
+			if (user == null)
+				throw noSuchEntity(String.format("The user with name %s cannot be found.", userName));
+			return user;
+		}
+
+		private Policy existingPolicy(String policyArn) {
+			String policyName = policyNamesByArn.get(policyArn);
+			if (policyName == null)
+				throw noSuchEntity(String.format("Policy %s does not exist or is not attachable.", policyArn));
+			return new Policy().withArn(policyArn).withPolicyName(policyName).withPath("/");
+		}
+
+		private String arn(String resource) {
+			return String.format("arn:aws:iam::%s:%s", ACCOUNT_ID, resource);
+		}
+
+		private NoSuchEntityException noSuchEntity(String message) {
+			return iamError(new NoSuchEntityException(message), "NoSuchEntity", 404);
+		}
+
+		private <E extends AmazonServiceException> E iamError(E exception, String errorCode, int statusCode) {
+			return error(exception, errorCode, statusCode, ErrorType.Client, "AmazonIdentityManagement");
+		}
+	}
+
+	private static final class StoredBucket {
+
+		private final NavigableMap<String, byte[]> objects = new TreeMap<>();
+		private BucketTaggingConfiguration taggingConfiguration;
+	}
+
+	/**
+	 * The modelled S3 operations, with the signatures of {@link AmazonS3}. Buckets are not versioned, so each
+	 * object has a single version with the id "null".
+	 */
+	public final class S3 {
+
+		private final Map<String, StoredBucket> buckets = new HashMap<>();
+
+		public synchronized Bucket createBucket(CreateBucketRequest request) {
+			String bucketName = request.getBucketName();
+
+			if (buckets.containsKey(bucketName))
+				throw s3Error("Your previous request to create the named bucket succeeded and you already own it.",
+						"BucketAlreadyOwnedByYou", 409);
+
+			buckets.put(bucketName, new StoredBucket());
+			return new Bucket(bucketName);
+		}
+
+		public Bucket createBucket(String bucketName) {
+			return createBucket(new CreateBucketRequest(bucketName));
+		}
+
+		public synchronized boolean doesBucketExist(String bucketName) {
+			return buckets.containsKey(bucketName);
+		}
+
+		public synchronized void deleteBucket(String bucketName) {
+			if (!existingBucket(bucketName).objects.isEmpty())
+				throw s3Error("The bucket you tried to delete is not empty", "BucketNotEmpty", 409);
+
+			buckets.remove(bucketName);
+		}
+
+		public synchronized void setBucketTaggingConfiguration(String bucketName,
+				BucketTaggingConfiguration taggingConfiguration) {
+			existingBucket(bucketName).taggingConfiguration = taggingConfiguration;
+		}
+
+		public synchronized BucketTaggingConfiguration getBucketTaggingConfiguration(String bucketName) {
+			return existingBucket(bucketName).taggingConfiguration;
+		}
+
+		public PutObjectResult putObject(String bucketName, String key, InputStream input, ObjectMetadata metadata)
+				throws IOException {
+			byte[] content = StreamUtils.copyToByteArray(input);
+
+			synchronized (this) {
+				existingBucket(bucketName).objects.put(key, content);
+			}
+
+			return new PutObjectResult();
+		}
+
+		public synchronized VersionListing listVersions(ListVersionsRequest request) {
+			int maxKeys = request.getMaxResults() != null ? request.getMaxResults() : MAX_KEYS;
+			return page(request.getBucketName(), request.getKeyMarker(), maxKeys);
+		}
+
+		public synchronized VersionListing listNextBatchOfVersions(VersionListing previous) {
+			if (!previous.isTruncated()) {
+				VersionListing empty = new VersionListing();
+				empty.setBucketName(previous.getBucketName());
+				return empty;
+			}
+			return page(previous.getBucketName(), previous.getNextKeyMarker(), previous.getMaxKeys());
+		}
+
+		public synchronized DeleteObjectsResult deleteObjects(DeleteObjectsRequest request) {
+			StoredBucket bucket = existingBucket(request.getBucketName());
+			List<DeletedObject> deleted = new ArrayList<>(request.getKeys().size());
+
+			for (KeyVersion key : request.getKeys()) {
+				bucket.objects.remove(key.getKey());
+
+				DeletedObject deletedObject = new DeletedObject();
+				deletedObject.setKey(key.getKey());
+				deletedObject.setVersionId(key.getVersion());
+				deleted.add(deletedObject);
+			}
+
+			return new DeleteObjectsResult(deleted);
+		}
+
+		private VersionListing page(String bucketName, String keyMarker, int maxKeys) {
+			NavigableMap<String, byte[]> objects = existingBucket(bucketName).objects;
+			if (keyMarker != null)
+				objects = objects.tailMap(keyMarker, false);
+
+			VersionListing listing = new VersionListing();
+			listing.setBucketName(bucketName);
+			listing.setKeyMarker(keyMarker);
+			listing.setMaxKeys(maxKeys);
+
+			for (Map.Entry<String, byte[]> object : objects.entrySet()) {
+				if (listing.getVersionSummaries().size() == maxKeys) {
+					listing.setTruncated(true);
+					break;
+				}
+
+				S3VersionSummary summary = new S3VersionSummary();
+				summary.setBucketName(bucketName);
+				summary.setKey(object.getKey());
+				summary.setVersionId("null");
+				summary.setIsLatest(true);
+				summary.setSize(object.getValue().length);
+				listing.getVersionSummaries().add(summary);
+				listing.setNextKeyMarker(object.getKey());
+			}
+
+			return listing;
+		}
+
+		private StoredBucket existingBucket(String bucketName) {
+			StoredBucket bucket = buckets.get(bucketName);
+			if (bucket == null)
+				throw s3Error("The specified bucket does not exist", "NoSuchBucket", 404);
+			return bucket;
+		}
+
+		private AmazonS3Exception s3Error(String message, String errorCode, int statusCode) {
+			return error(new AmazonS3Exception(message), errorCode, statusCode, ErrorType.Client, "Amazon S3");
+		}
+	}
+}
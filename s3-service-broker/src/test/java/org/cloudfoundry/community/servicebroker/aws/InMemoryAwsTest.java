@@ -0,0 +1,112 @@
+package org.cloudfoundry.community.servicebroker.aws;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.identitymanagement.AmazonIdentityManagement;
+import com.amazonaws.services.identitymanagement.model.CreateAccessKeyRequest;
+import com.amazonaws.services.identitymanagement.model.CreateUserRequest;
+import com.amazonaws.services.identitymanagement.model.DeleteAccessKeyRequest;
+import com.amazonaws.services.identitymanagement.model.DeleteConflictException;
+import com.amazonaws.services.identitymanagement.model.DeleteUserRequest;
+import com.amazonaws.services.identitymanagement.model.NoSuchEntityException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CreateBucketRequest;
+import org.cloudfoundry.community.servicebroker.aws.InMemoryAws.Behaviour;
+import org.cloudfoundry.community.servicebroker.service.BucketPurger;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class InMemoryAwsTest {
+
+	@Test
+	public void userCannotBeDeletedWhileItHasAccessKeys() {
+		InMemoryAws aws = new InMemoryAws();
+		AmazonIdentityManagement iam = aws.identityManagement();
+
+		iam.createUser(new CreateUserRequest("user"));
+		String accessKeyId = iam.createAccessKey(new CreateAccessKeyRequest("user")).getAccessKey().getAccessKeyId();
+
+		try {
+			iam.deleteUser(new DeleteUserRequest("user"));
+			fail();
+		} catch (DeleteConflictException ex) {
+			assertEquals("DeleteConflict", ex.getErrorCode());
+		}
+
+		iam.deleteAccessKey(new DeleteAccessKeyRequest("user", accessKeyId));
+		iam.deleteUser(new DeleteUserRequest("user"));
+
+		assertEquals(Collections.emptySet(), aws.getUserNames());
+
+		try {
+			iam.deleteUser(new DeleteUserRequest("user"));
+			fail();
+		} catch (NoSuchEntityException ex) {
+			assertEquals(404, ex.getStatusCode());
+		}
+	}
+
+	@Test
+	public void bucketIsPurgedPageByPage() throws Exception {
+		InMemoryAws aws = new InMemoryAws();
+		AmazonS3 s3 = aws.amazonS3();
+
+		s3.createBucket(new CreateBucketRequest("bucket"));
+		for (int i = 0; i < 2500; i++)
+			aws.putObject("bucket", "object-" + i, "content");
+
+		try {
+			s3.deleteBucket("bucket");
+			fail();
+		} catch (AmazonS3Exception ex) {
+			assertEquals("BucketNotEmpty", ex.getErrorCode());
+		}
+
+		BucketPurger purger = new BucketPurger(s3, 4);
+		try {
+			assertEquals(2500, purger.purge("bucket"));
+		} finally {
+			purger.shutdown();
+		}
+
+		s3.deleteBucket("bucket");
+		assertFalse(s3.doesBucketExist("bucket"));
+		assertEquals(3L, aws.getCalls().get("deleteObjects").longValue());
+	}
+
+	@Test
+	public void callsBeyondTheRateAreThrottled() {
+		InMemoryAws aws = new InMemoryAws(new Behaviour().maxCallsPerSecond(2), new Behaviour());
+		AmazonIdentityManagement iam = aws.identityManagement();
+
+		iam.createUser(new CreateUserRequest("one"));
+		iam.createUser(new CreateUserRequest("two"));
+
+		try {
+			iam.createUser(new CreateUserRequest("three"));
+			fail();
+		} catch (AmazonServiceException ex) {
+			assertTrue(RetryUtils.isThrottlingException(ex));
+		}
+
+		assertEquals(1, aws.getThrottles());
+		assertEquals(2, aws.getUserNames().size());
+	}
+
+	@Test
+	public void throttledS3CallsAskToSlowDown() {
+		AmazonS3 s3 = new InMemoryAws(new Behaviour(), new Behaviour().throttleRate(1.0)).amazonS3();
+
+		try {
+			s3.doesBucketExist("bucket");
+			fail();
+		} catch (AmazonS3Exception ex) {
+			assertEquals("SlowDown", ex.getErrorCode());
+			assertTrue(RetryUtils.isThrottlingException(ex));
+		}
+	}
+}
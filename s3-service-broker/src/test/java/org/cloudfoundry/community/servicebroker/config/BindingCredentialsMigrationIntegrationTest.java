@@ -0,0 +1,73 @@
+package org.cloudfoundry.community.servicebroker.config;
+
+import org.cloudfoundry.community.servicebroker.ServiceBrokerApplication;
+import org.cloudfoundry.community.servicebroker.catalog.ServiceInstanceBinding;
+import org.cloudfoundry.community.servicebroker.repositories.ServiceInstanceBindingRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.boot.test.WebIntegrationTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import static org.junit.Assert.*;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(ServiceBrokerApplication.class)
+@WebIntegrationTest
+@ActiveProfiles("test")
+public class BindingCredentialsMigrationIntegrationTest {
+
+	@Autowired
+	private BindingCredentialsMigration migration;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private ServiceInstanceBindingRepository serviceInstanceBindingRepository;
+
+	@Before
+	public void setup() {
+		jdbcTemplate.execute("create table example_attributes (example_id varchar(255) not null, " +
+				"value varchar(255), name varchar(255) not null, primary key (example_id, name))");
+		jdbcTemplate.update("insert into service_instance_binding (id, service_instance_id, app_guid) " +
+				"values ('legacy-binding', 'service-instance-id', 'app-guid')");
+		jdbcTemplate.update("insert into example_attributes values ('legacy-binding', 'key', 'accessKeyId')");
+		jdbcTemplate.update("insert into example_attributes values ('legacy-binding', 'secret', 'secretAccessKey')");
+	}
+
+	@After
+	public void tearDown() {
+		jdbcTemplate.execute("drop table example_attributes");
+		jdbcTemplate.update("delete from service_instance_binding where id = 'legacy-binding'");
+	}
+
+	@Test
+	public void credentialsAreMovedIntoTheBindingOnce() {
+		migration.migrate();
+		migration.migrate();
+
+		ServiceInstanceBinding binding = serviceInstanceBindingRepository.remove("legacy-binding");
+		assertEquals("key", binding.getCredentials().get("accessKeyId"));
+		assertEquals("secret", binding.getCredentials().get("secretAccessKey"));
+		assertEquals(0, jdbcTemplate.queryForObject("select count(*) from example_attributes", Integer.class)
+				.intValue());
+	}
+
+	@Test
+	public void bindingReadBeforeTheMigrationIsNotServedFromTheCacheWithoutCredentials() {
+		ServiceInstanceBinding unmigrated = serviceInstanceBindingRepository.findOne("legacy-binding");
+		assertNull(unmigrated.getCredentials().get("accessKeyId"));
+
+		migration.migrate();
+
+		ServiceInstanceBinding binding = serviceInstanceBindingRepository.findOne("legacy-binding");
+		assertEquals("key", binding.getCredentials().get("accessKeyId"));
+		assertEquals("secret", binding.getCredentials().get("secretAccessKey"));
+	}
+}
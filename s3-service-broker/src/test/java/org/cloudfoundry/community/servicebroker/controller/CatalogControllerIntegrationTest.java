@@ -1,16 +1,35 @@
 package org.cloudfoundry.community.servicebroker.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.cloudfoundry.community.servicebroker.catalog.Catalog;
+import org.cloudfoundry.community.servicebroker.catalog.ServiceDefinition;
+import org.cloudfoundry.community.servicebroker.model.fixture.CatalogFixture;
+import org.cloudfoundry.community.servicebroker.model.fixture.PlanFixture;
 import org.cloudfoundry.community.servicebroker.service.CatalogService;
 import org.junit.Before;
+import org.junit.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.converter.ByteArrayHttpMessageConverter;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
 public class CatalogControllerIntegrationTest {
-	
+
 	MockMvc mockMvc;
 
 	@InjectMocks
@@ -19,11 +38,103 @@ public class CatalogControllerIntegrationTest {
 	@Mock
 	CatalogService catalogService;
 
+	@Spy
+	ObjectMapper objectMapper = new ObjectMapper();
+
 	@Before
 	public void setup() {
 		MockitoAnnotations.initMocks(this);
 
 	    this.mockMvc = MockMvcBuilders.standaloneSetup(controller)
-	            .setMessageConverters(new MappingJackson2HttpMessageConverter()).build();
+	            .setMessageConverters(new ByteArrayHttpMessageConverter(), new MappingJackson2HttpMessageConverter())
+	            .build();
+
+		when(catalogService.getCatalog()).thenReturn(CatalogFixture.getCatalog());
+	}
+
+	@Test
+	public void catalogIsRenderedOnce() throws Exception {
+		String etag = mockMvc.perform(get(CatalogController.BASE_PATH))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.services[0].id").value("service-one-id"))
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+		mockMvc.perform(get(CatalogController.BASE_PATH))
+				.andExpect(status().isOk())
+				.andExpect(header().string(HttpHeaders.ETAG, etag));
+
+		verify(catalogService, times(1)).getCatalog();
+	}
+
+	@Test
+	public void currentCopyIsNotSentAgain() throws Exception {
+		String etag = mockMvc.perform(get(CatalogController.BASE_PATH))
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+		mockMvc.perform(get(CatalogController.BASE_PATH).header(HttpHeaders.IF_NONE_MATCH, "\"other\", " + etag))
+				.andExpect(status().isNotModified())
+				.andExpect(header().string(HttpHeaders.ETAG, etag))
+				.andExpect(content().bytes(new byte[0]));
+	}
+
+	@Test
+	public void gzippedCatalogIsServedToClientsThatAcceptIt() throws Exception {
+		MvcResult plain = mockMvc.perform(get(CatalogController.BASE_PATH)).andReturn();
+
+		MvcResult gzipped = mockMvc.perform(get(CatalogController.BASE_PATH)
+				.header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"))
+				.andExpect(status().isOk())
+				.andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+				.andReturn();
+
+		assertNotEquals(plain.getResponse().getHeader(HttpHeaders.ETAG),
+				gzipped.getResponse().getHeader(HttpHeaders.ETAG));
+
+		byte[] json = new byte[plain.getResponse().getContentAsByteArray().length];
+		try (GZIPInputStream in = new GZIPInputStream(
+				new ByteArrayInputStream(gzipped.getResponse().getContentAsByteArray()))) {
+			int read = 0;
+			while (read < json.length)
+				read += in.read(json, read, json.length - read);
+		}
+		assertArrayEquals(plain.getResponse().getContentAsByteArray(), json);
+	}
+
+	@Test
+	public void gzippedCatalogIsNotServedToClientsThatRefuseIt() throws Exception {
+		mockMvc.perform(get(CatalogController.BASE_PATH).header(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0, deflate"))
+				.andExpect(status().isOk())
+				.andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+				.andExpect(jsonPath("$.services[0].id").value("service-one-id"));
+
+		mockMvc.perform(get(CatalogController.BASE_PATH).header(HttpHeaders.ACCEPT_ENCODING, "*, gzip;q=0.0"))
+				.andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING));
+	}
+
+	@Test
+	public void acceptEncodingQualitiesAreHonoured() {
+		assertTrue(CatalogController.acceptsGzip("gzip"));
+		assertTrue(CatalogController.acceptsGzip("deflate, GZIP;q=0.5"));
+		assertTrue(CatalogController.acceptsGzip("deflate, *;q=0.1"));
+		assertFalse(CatalogController.acceptsGzip("gzip;q=0"));
+		assertFalse(CatalogController.acceptsGzip("gzip ; q=0.000, *"));
+		assertFalse(CatalogController.acceptsGzip("*;q=0"));
+		assertFalse(CatalogController.acceptsGzip("gzipped, deflate"));
+		assertFalse(CatalogController.acceptsGzip("identity"));
+		assertFalse(CatalogController.acceptsGzip(null));
+	}
+
+	@Test
+	public void catalogIsRenderedAgainWhenItChanges() throws Exception {
+		String etag = mockMvc.perform(get(CatalogController.BASE_PATH))
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+		when(catalogService.getCatalog()).thenReturn(new Catalog(Collections.singletonList(new ServiceDefinition(
+				"service-two-id", "Service Two", "Description for Service Two", true, PlanFixture.getAllPlans()))));
+		controller.catalogChanged();
+
+		mockMvc.perform(get(CatalogController.BASE_PATH).header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.services[0].id").value("service-two-id"));
 	}
 }
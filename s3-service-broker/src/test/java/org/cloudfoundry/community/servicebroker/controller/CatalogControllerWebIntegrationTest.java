@@ -0,0 +1,74 @@
+package org.cloudfoundry.community.servicebroker.controller;
+
+import org.cloudfoundry.community.servicebroker.ServiceBrokerApplication;
+import org.cloudfoundry.community.servicebroker.model.BrokerApiVersion;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.boot.test.WebIntegrationTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * Serves the catalog through the message converters of the broker's own MVC configuration, which must write the
+ * pre-rendered bytes as they are rather than as a JSON string
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(ServiceBrokerApplication.class)
+@WebIntegrationTest
+@ActiveProfiles("test")
+public class CatalogControllerWebIntegrationTest {
+
+	@Autowired
+	private WebApplicationContext context;
+
+	private MockMvc mockMvc;
+
+	@Before
+	public void setup() {
+		mockMvc = MockMvcBuilders.webAppContextSetup(context).build();
+	}
+
+	@Test
+	public void catalogIsWrittenAsJson() throws Exception {
+		MvcResult plain = mockMvc.perform(get(CatalogController.BASE_PATH)
+				.header(BrokerApiVersion.DEFAULT_API_VERSION_HEADER, "2.9"))
+				.andExpect(status().isOk())
+				.andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+				.andExpect(jsonPath("$.services").isArray())
+				.andReturn();
+
+		MvcResult gzipped = mockMvc.perform(get(CatalogController.BASE_PATH)
+				.header(BrokerApiVersion.DEFAULT_API_VERSION_HEADER, "2.9")
+				.header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+				.andExpect(status().isOk())
+				.andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+				.andReturn();
+
+		ByteArrayOutputStream json = new ByteArrayOutputStream();
+		try (GZIPInputStream in = new GZIPInputStream(
+				new ByteArrayInputStream(gzipped.getResponse().getContentAsByteArray()))) {
+			byte[] buffer = new byte[1024];
+			int read;
+			while ((read = in.read(buffer)) != -1)
+				json.write(buffer, 0, read);
+		}
+		assertArrayEquals(plain.getResponse().getContentAsByteArray(), json.toByteArray());
+	}
+}
@@ -1,10 +1,13 @@
 package org.cloudfoundry.community.servicebroker.controller;
 
 import org.cloudfoundry.community.servicebroker.catalog.ServiceInstance;
+import org.cloudfoundry.community.servicebroker.exception.ServiceBrokerException;
+import org.cloudfoundry.community.servicebroker.exception.ServiceInstanceDoesNotExistException;
 import org.cloudfoundry.community.servicebroker.exception.ServiceInstanceExistsException;
 import org.cloudfoundry.community.servicebroker.exception.ServiceInstanceUpdateNotSupportedException;
 import org.cloudfoundry.community.servicebroker.model.CreateServiceInstanceRequest;
 import org.cloudfoundry.community.servicebroker.model.DeleteServiceInstanceRequest;
+import org.cloudfoundry.community.servicebroker.model.OperationState;
 import org.cloudfoundry.community.servicebroker.model.UpdateServiceInstanceRequest;
 import org.cloudfoundry.community.servicebroker.model.fixture.ServiceFixture;
 import org.cloudfoundry.community.servicebroker.model.fixture.ServiceInstanceFixture;
@@ -12,6 +15,7 @@ import org.cloudfoundry.community.servicebroker.service.CatalogService;
 import org.cloudfoundry.community.servicebroker.service.ServiceInstanceService;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentMatcher;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -25,6 +29,7 @@ import java.util.HashMap;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.is;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.argThat;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
@@ -78,6 +83,52 @@ public class ServiceInstanceControllerIntegrationTest {
 			.andExpect(jsonPath("$.dashboard_url", is(dashboardUrl)));
 	}
 	
+	@Test
+	public void asyncServiceInstanceCreationIsAccepted() throws Exception {
+		ServiceInstance instance = ServiceInstanceFixture.getServiceInstance();
+		instance.setLastOperation(OperationState.IN_PROGRESS, "Creating S3 bucket and IAM user");
+
+		when(serviceInstanceService.createServiceInstance(argThat(new ArgumentMatcher<CreateServiceInstanceRequest>() {
+			@Override
+			public boolean matches(Object argument) {
+				return ((CreateServiceInstanceRequest) argument).isAsyncAccepted();
+			}
+		}))).thenReturn(instance);
+
+		when(catalogService.getServiceDefinition(any(String.class)))
+			.thenReturn(ServiceFixture.getService());
+
+		String url = ServiceInstanceController.BASE_PATH + "/" + instance.getServiceInstanceId()
+				+ "?accepts_incomplete=true";
+		String body = ServiceInstanceFixture.getCreateServiceInstanceRequestJson();
+
+		mockMvc.perform(
+				put(url)
+				.contentType(MediaType.APPLICATION_JSON)
+				.content(body)
+				.accept(MediaType.APPLICATION_JSON)
+			)
+			.andExpect(status().isAccepted());
+	}
+
+	@Test
+	public void lastOperationReportsFailedProvisioning() throws Exception {
+		ServiceInstance instance = ServiceInstanceFixture.getServiceInstance();
+		instance.setLastOperation(OperationState.FAILED, "Could not create the S3 bucket and IAM user: denied");
+
+		when(serviceInstanceService.getServiceInstance(instance.getServiceInstanceId()))
+			.thenReturn(instance);
+
+		String url = ServiceInstanceController.BASE_PATH + "/" + instance.getServiceInstanceId() + "/last_operation";
+
+		mockMvc.perform(get(url)
+				.accept(MediaType.APPLICATION_JSON)
+			)
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.state", is("failed")))
+			.andExpect(jsonPath("$.description", containsString("denied")));
+	}
+
 	@Test
 	public void unknownServiceDefinitionInstanceCreationFails() throws Exception {
 		ServiceInstance instance = ServiceInstanceFixture.getServiceInstance();
@@ -191,6 +242,61 @@ public class ServiceInstanceControllerIntegrationTest {
 			);
 	}
 	
+	@Test
+	public void unfinishedDeletionIsAcceptedWhenIncompleteOperationsAre() throws Exception {
+		ServiceInstance instance = ServiceInstanceFixture.getServiceInstance();
+		instance.setLastOperation(OperationState.IN_PROGRESS, "Deleting S3 bucket and IAM user");
+
+		when(serviceInstanceService.deleteServiceInstance(argThat(new ArgumentMatcher<DeleteServiceInstanceRequest>() {
+			@Override
+			public boolean matches(Object request) {
+				return ((DeleteServiceInstanceRequest) request).isAsyncAccepted();
+			}
+		}))).thenReturn(instance);
+
+		String url = ServiceInstanceController.BASE_PATH + "/" + instance.getServiceInstanceId()
+				+ "?service_id=" + instance.getServiceDefinitionId()
+				+ "&plan_id=" + instance.getPlanId()
+				+ "&accepts_incomplete=true";
+
+		mockMvc.perform(delete(url)
+				.accept(MediaType.APPLICATION_JSON)
+			)
+			.andExpect(status().isAccepted());
+	}
+
+	@Test
+	public void failedDeletionIsNotReportedAsDone() throws Exception {
+		ServiceInstance instance = ServiceInstanceFixture.getServiceInstance();
+
+		when(serviceInstanceService.deleteServiceInstance(any(DeleteServiceInstanceRequest.class)))
+			.thenThrow(new ServiceBrokerException("Could not delete the S3 bucket and IAM user"));
+
+		String url = ServiceInstanceController.BASE_PATH + "/" + instance.getServiceInstanceId()
+				+ "?service_id=" + instance.getServiceDefinitionId()
+				+ "&plan_id=" + instance.getPlanId();
+
+		mockMvc.perform(delete(url)
+				.accept(MediaType.APPLICATION_JSON)
+			)
+			.andExpect(status().isInternalServerError());
+	}
+
+	@Test
+	public void lastOperationOfADeletedInstanceIsGone() throws Exception {
+		ServiceInstance instance = ServiceInstanceFixture.getServiceInstance();
+
+		when(serviceInstanceService.getServiceInstance(instance.getServiceInstanceId()))
+			.thenThrow(new ServiceInstanceDoesNotExistException(instance.getServiceInstanceId()));
+
+		String url = ServiceInstanceController.BASE_PATH + "/" + instance.getServiceInstanceId() + "/last_operation";
+
+		mockMvc.perform(get(url)
+				.accept(MediaType.APPLICATION_JSON)
+			)
+			.andExpect(status().isGone());
+	}
+
 	@Test
 	public void deleteUnknownServiceInstanceFailsWithA410() throws Exception {
 		ServiceInstance instance = ServiceInstanceFixture.getServiceInstance();
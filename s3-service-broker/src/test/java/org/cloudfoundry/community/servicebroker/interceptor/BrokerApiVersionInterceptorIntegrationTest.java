@@ -1,5 +1,6 @@
 package org.cloudfoundry.community.servicebroker.interceptor;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.cloudfoundry.community.servicebroker.controller.CatalogController;
 import org.cloudfoundry.community.servicebroker.model.BrokerApiVersion;
 import org.cloudfoundry.community.servicebroker.service.CatalogService;
@@ -8,7 +9,9 @@ import org.junit.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 import org.springframework.http.MediaType;
+import org.springframework.http.converter.ByteArrayHttpMessageConverter;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
@@ -25,6 +28,9 @@ public class BrokerApiVersionInterceptorIntegrationTest {
 
 	@Mock
 	CatalogService catalogService;
+
+	@Spy
+	ObjectMapper objectMapper = new ObjectMapper();
 	
 	@Before
 	public void setup() {
@@ -32,7 +38,8 @@ public class BrokerApiVersionInterceptorIntegrationTest {
 
 	    this.mockMvc = MockMvcBuilders.standaloneSetup(controller)
 	    		.addInterceptors(new BrokerApiVersionInterceptor(new BrokerApiVersion("header","version")))
-	            .setMessageConverters(new MappingJackson2HttpMessageConverter()).build();
+	            .setMessageConverters(new ByteArrayHttpMessageConverter(), new MappingJackson2HttpMessageConverter())
+	            .build();
 	}
 	
 	@Test
@@ -0,0 +1,74 @@
+package org.cloudfoundry.community.servicebroker.interceptor;
+
+import org.cloudfoundry.community.servicebroker.service.RequestTiming;
+import org.cloudfoundry.community.servicebroker.service.StepExecutor;
+import org.cloudfoundry.community.servicebroker.service.StepExecutor.Step;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ServerTimingFilterTest {
+
+	private StepExecutor stepExecutor;
+
+	private ServerTimingFilter filter;
+
+	@Before
+	public void setup() {
+		stepExecutor = new StepExecutor(2);
+		filter = new ServerTimingFilter();
+	}
+
+	@After
+	public void cleanup() {
+		stepExecutor.shutdown();
+	}
+
+	@Test
+	public void phasesAreReturnedInTheServerTimingHeader() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest("PUT", "/v2/service_instances/one");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+
+		filter.doFilter(request, response, (req, res) -> {
+			new ServerTimingInterceptor().preHandle(request, response, null);
+			RequestTiming.record("db", 1_000_000);
+			RequestTiming.record("db", 2_000_000);
+			try {
+				stepExecutor.run("Provision one", Arrays.asList(
+						Step.of("createUser", () -> RequestTiming.record("db", 500_000)),
+						Step.of("createBucket", () -> {
+						})));
+			} catch (Exception ex) {
+				throw new IllegalStateException(ex);
+			}
+			res.getWriter().write("{}");
+		});
+
+		String serverTiming = response.getHeader(ServerTimingFilter.SERVER_TIMING);
+		assertTrue(serverTiming, serverTiming.startsWith("auth;dur="));
+		assertTrue(serverTiming, serverTiming.contains("db;dur=3.5;desc=\"3 calls\""));
+		assertTrue(serverTiming, serverTiming.contains("step.createUser;dur="));
+		assertTrue(serverTiming, serverTiming.contains("step.createBucket;dur="));
+		assertTrue(serverTiming, serverTiming.contains("total;dur="));
+		assertEquals("{}", response.getContentAsString());
+		assertNull(RequestTiming.current());
+	}
+
+	@Test
+	public void callsRejectedBeforeTheirHandlerAreTimed() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/v2/catalog");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+
+		filter.doFilter(request, response, (req, res) -> ((HttpServletResponse) res).setStatus(401));
+
+		assertEquals(401, response.getStatus());
+		assertTrue(response.getHeader(ServerTimingFilter.SERVER_TIMING).matches("total;dur=\\d+\\.\\d"));
+	}
+}
@@ -0,0 +1,87 @@
+package org.cloudfoundry.community.servicebroker.jfr;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.identitymanagement.AmazonIdentityManagement;
+import com.amazonaws.services.identitymanagement.model.CreateUserRequest;
+import com.amazonaws.services.identitymanagement.model.CreateUserResult;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class JfrEventPostProcessorTest {
+
+	private AmazonIdentityManagement iam;
+
+	private AmazonIdentityManagement recorded;
+
+	private Path file;
+
+	@Before
+	public void setup() throws Exception {
+		iam = mock(AmazonIdentityManagement.class);
+		recorded = (AmazonIdentityManagement) new JfrEventPostProcessor()
+				.postProcessAfterInitialization(iam, "amazonIdentityManagement");
+		file = Files.createTempFile("broker", ".jfr");
+	}
+
+	@After
+	public void cleanup() throws Exception {
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void awsCallsAreRecordedWithTheirOutcome() throws Exception {
+		AmazonServiceException throttling = new AmazonServiceException("Rate exceeded");
+		throttling.setErrorCode("Throttling");
+		when(iam.createUser(any(CreateUserRequest.class)))
+				.thenReturn(new CreateUserResult())
+				.thenThrow(throttling);
+
+		try (Recording recording = new Recording()) {
+			recording.enable(AwsCallEvent.class).withoutThreshold();
+			recording.start();
+
+			recorded.createUser(new CreateUserRequest("one"));
+			try {
+				recorded.createUser(new CreateUserRequest("two"));
+				fail();
+			} catch (AmazonServiceException ex) {
+				assertSame(throttling, ex);
+			}
+
+			recording.stop();
+			recording.dump(file);
+		}
+
+		List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+				.filter(event -> event.getEventType().getName().equals("org.cloudfoundry.servicebroker.AwsCall"))
+				.collect(Collectors.toList());
+
+		assertEquals(2, events.size());
+		assertEquals("iam", events.get(0).getString("service"));
+		assertEquals("createUser", events.get(0).getString("operation"));
+		assertEquals(0, events.get(0).getInt("attempt"));
+		assertEquals("success", events.get(0).getString("outcome"));
+		assertEquals("throttled", events.get(1).getString("outcome"));
+	}
+
+	@Test
+	public void callsPassThroughWithoutARecording() {
+		when(iam.createUser(any(CreateUserRequest.class))).thenReturn(new CreateUserResult());
+
+		assertNotNull(recorded.createUser(new CreateUserRequest("one")));
+		verify(iam).createUser(any(CreateUserRequest.class));
+	}
+}
@@ -0,0 +1,228 @@
+package org.cloudfoundry.community.servicebroker.repositories;
+
+import org.cloudfoundry.community.servicebroker.ServiceBrokerApplication;
+import org.cloudfoundry.community.servicebroker.catalog.ServiceInstance;
+import org.cloudfoundry.community.servicebroker.catalog.ServiceInstanceBinding;
+import org.cloudfoundry.community.servicebroker.catalog.WarmPoolEntry;
+import org.cloudfoundry.community.servicebroker.config.BrokerProperties;
+import org.cloudfoundry.community.servicebroker.controller.ServiceInstanceController;
+import org.cloudfoundry.community.servicebroker.exception.ServiceInstanceExistsException;
+import org.cloudfoundry.community.servicebroker.model.CreateServiceInstanceRequest;
+import org.cloudfoundry.community.servicebroker.model.OperationState;
+import org.cloudfoundry.community.servicebroker.model.UpdateServiceInstanceRequest;
+import org.cloudfoundry.community.servicebroker.model.fixture.ServiceFixture;
+import org.cloudfoundry.community.servicebroker.service.CatalogService;
+import org.cloudfoundry.community.servicebroker.service.ServiceInstanceService;
+import org.cloudfoundry.community.servicebroker.service.WarmPool;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.boot.test.WebIntegrationTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Counts the statements that the repository operations used by the broker API calls send to the database, and that
+ * whole broker API calls send through the controllers, with AWS stood in. Every eviction from the service instance
+ * and binding caches also publishes one invalidation for the other brokers.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(ServiceBrokerApplication.class)
+@WebIntegrationTest
+@ActiveProfiles({"test", "aws-standin"})
+public class RoundTripIntegrationTest {
+
+	@Autowired
+	private ServiceInstanceRepository serviceInstanceRepository;
+
+	@Autowired
+	private ServiceInstanceBindingRepository serviceInstanceBindingRepository;
+
+	@Autowired
+	private WarmPoolEntryRepository warmPoolEntryRepository;
+
+	@Autowired
+	private WarmPool warmPool;
+
+	@Autowired
+	private ServiceInstanceService serviceInstanceService;
+
+	@Autowired
+	private ServiceInstanceController serviceInstanceController;
+
+	@Autowired
+	private ServiceDefinitionRepository serviceDefinitionRepository;
+
+	@Autowired
+	private CatalogService catalogService;
+
+	@Autowired
+	private BrokerProperties brokerProperties;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	private Statistics statistics;
+
+	@Before
+	public void setup() {
+		statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		statistics.setStatisticsEnabled(true);
+
+		serviceDefinitionRepository.save(ServiceFixture.getService());
+		catalogService.reload();
+	}
+
+	@Test
+	public void insertIfAbsentIsOneStatement() {
+		ServiceInstance serviceInstance = newServiceInstance();
+
+		statistics.clear();
+		assertTrue(serviceInstanceRepository.insertIfAbsent(serviceInstance));
+		assertEquals(1, statistics.getPrepareStatementCount());
+
+		statistics.clear();
+		assertFalse(serviceInstanceRepository.insertIfAbsent(newServiceInstance(serviceInstance.getServiceInstanceId())));
+		assertEquals(1, statistics.getPrepareStatementCount());
+	}
+
+	@Test
+	public void updatePlanIsOneStatementPlusTheInvalidation() {
+		ServiceInstance serviceInstance = newServiceInstance();
+		serviceInstanceRepository.insertIfAbsent(serviceInstance);
+
+		statistics.clear();
+		assertEquals(1, serviceInstanceRepository.updatePlan(serviceInstance.getServiceInstanceId(), "plan-two-id",
+				OperationState.IN_PROGRESS));
+		assertEquals(2, statistics.getPrepareStatementCount());
+
+		assertEquals("plan-two-id", serviceInstanceRepository.findOne(serviceInstance.getServiceInstanceId()).getPlanId());
+	}
+
+	@Test
+	public void updatePlanSkipsInstancesWithAnOperationInProgress() {
+		ServiceInstance serviceInstance = newServiceInstance();
+		serviceInstance.setLastOperation(OperationState.IN_PROGRESS, "Creating");
+		serviceInstanceRepository.insertIfAbsent(serviceInstance);
+
+		assertEquals(0, serviceInstanceRepository.updatePlan(serviceInstance.getServiceInstanceId(), "plan-two-id",
+				OperationState.IN_PROGRESS));
+	}
+
+	@Test
+	public void updateCallIsOneStatementPlusTheInvalidation() throws Exception {
+		ServiceInstance serviceInstance = newServiceInstance();
+		serviceInstanceRepository.insertIfAbsent(serviceInstance);
+
+		statistics.clear();
+		assertEquals(HttpStatus.OK, serviceInstanceController.updateServiceInstance(
+				serviceInstance.getServiceInstanceId(), new UpdateServiceInstanceRequest("plan-two-id")).getStatusCode());
+		assertEquals(2, statistics.getPrepareStatementCount());
+
+		assertEquals("plan-two-id", serviceInstanceRepository.findOne(serviceInstance.getServiceInstanceId()).getPlanId());
+	}
+
+	@Test
+	public void deleteCallStartsWithOneStatementPlusTheInvalidation() throws Exception {
+		String serviceInstanceId = UUID.randomUUID().toString();
+		serviceInstanceService.createServiceInstance(new CreateServiceInstanceRequest("service-one-id", "plan-one-id",
+				"org-guid", "space-guid").withServiceInstanceId(serviceInstanceId));
+		serviceInstanceRepository.findOne(serviceInstanceId);
+
+		// Marking the instance and the invalidation, the operation, reading the credential, deleting the instance
+		// and its credential and the invalidation, and the outcome of the operation
+		statistics.clear();
+		assertEquals(HttpStatus.OK, serviceInstanceController.deleteServiceInstance(serviceInstanceId,
+				"service-one-id", "plan-one-id", false).getStatusCode());
+		assertEquals(8, statistics.getPrepareStatementCount());
+
+		assertNull(serviceInstanceRepository.findOne(serviceInstanceId));
+	}
+
+	@Test
+	public void cachedLookupIsNoStatement() {
+		ServiceInstance serviceInstance = newServiceInstance();
+		serviceInstanceRepository.insertIfAbsent(serviceInstance);
+		serviceInstanceRepository.findOne(serviceInstance.getServiceInstanceId());
+
+		statistics.clear();
+		assertNotNull(serviceInstanceRepository.findOne(serviceInstance.getServiceInstanceId()));
+		assertEquals(0, statistics.getPrepareStatementCount());
+	}
+
+	@Test
+	public void bindingIsInsertedAndRemovedWithoutExtraReads() {
+		Map<String, String> credentials = new HashMap<>();
+		credentials.put("userName", "user");
+		credentials.put("accessKeyId", "key");
+		credentials.put("secretAccessKey", "secret");
+		ServiceInstanceBinding binding = new ServiceInstanceBinding(UUID.randomUUID().toString(),
+				"service-instance-id", credentials, null, "app-guid");
+
+		// The credentials are a column of the binding
+		statistics.clear();
+		assertTrue(serviceInstanceBindingRepository.insertIfAbsent(binding));
+		assertEquals(1, statistics.getPrepareStatementCount());
+
+		// One read, the delete and the invalidation
+		statistics.clear();
+		ServiceInstanceBinding removed = serviceInstanceBindingRepository.remove(binding.getId());
+		assertEquals("key", removed.getCredentials().get("accessKeyId"));
+		assertEquals(3, statistics.getPrepareStatementCount());
+
+		assertNull(serviceInstanceBindingRepository.remove(binding.getId()));
+	}
+
+	@Test
+	public void warmPoolClaimRemovesTheEntryAndInsertsTheInstanceInOneTransaction() throws Exception {
+		brokerProperties.getWarmPool().setEnabled(true);
+		try {
+			String name = "warm-" + UUID.randomUUID();
+			warmPoolEntryRepository.save(new WarmPoolEntry(name, "key", "secret", System.currentTimeMillis()));
+
+			// A claim for an existing instance is rolled back and leaves the entry in the pool
+			ServiceInstance existing = newServiceInstance();
+			serviceInstanceRepository.insertIfAbsent(existing);
+			try {
+				warmPool.claim(newServiceInstance(existing.getServiceInstanceId()));
+				fail("The claim should have failed");
+			} catch (ServiceInstanceExistsException ex) {
+				assertTrue(warmPoolEntryRepository.exists(name));
+			}
+
+			// The oldest entries, the removal of one, and the instance with its credential
+			ServiceInstance serviceInstance = newServiceInstance();
+			statistics.clear();
+			assertNotNull(warmPool.claim(serviceInstance));
+			assertEquals(4, statistics.getPrepareStatementCount());
+
+			assertFalse(warmPoolEntryRepository.exists(name));
+			ServiceInstance claimed = serviceInstanceRepository.findOne(serviceInstance.getServiceInstanceId());
+			assertEquals(OperationState.SUCCEEDED, claimed.getLastOperationState());
+			assertEquals(name, claimed.getCredential().getUserName());
+		} finally {
+			brokerProperties.getWarmPool().setEnabled(false);
+		}
+	}
+
+	private static ServiceInstance newServiceInstance() {
+		return newServiceInstance(UUID.randomUUID().toString());
+	}
+
+	private static ServiceInstance newServiceInstance(String serviceInstanceId) {
+		return new ServiceInstance(new CreateServiceInstanceRequest("service-one-id", "plan-one-id", "org-guid",
+				"space-guid").withServiceInstanceId(serviceInstanceId));
+	}
+}
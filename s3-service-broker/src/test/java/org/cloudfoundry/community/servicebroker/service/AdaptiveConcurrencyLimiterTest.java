@@ -0,0 +1,139 @@
+package org.cloudfoundry.community.servicebroker.service;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.identitymanagement.AmazonIdentityManagement;
+import com.amazonaws.services.identitymanagement.model.GetUserResult;
+import com.amazonaws.services.identitymanagement.model.NoSuchEntityException;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+	@Test
+	public void limitGrowsByAboutOnePerWindowOfSuccessfulCalls() {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("iam", 4, 1, 16, 100);
+
+		for (int i = 0; i < 4; i++) {
+			limiter.succeeded();
+		}
+		assertEquals(4, limiter.getLimit());
+
+		limiter.succeeded();
+		assertEquals(5, limiter.getLimit());
+	}
+
+	@Test
+	public void limitIsHalvedOncePerBurstOfThrottling() {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("iam", 8, 1, 16, 100);
+
+		limiter.throttled(throttlingException());
+		limiter.throttled(throttlingException());
+		limiter.throttled(throttlingException());
+
+		assertEquals(4, limiter.getLimit());
+	}
+
+	@Test
+	public void limitStaysWithinItsBounds() {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("iam", 2, 2, 3, 100);
+
+		limiter.throttled(throttlingException());
+		assertEquals(2, limiter.getLimit());
+
+		for (int i = 0; i < 100; i++) {
+			limiter.succeeded();
+		}
+		assertEquals(3, limiter.getLimit());
+	}
+
+	@Test
+	public void callersBeyondTheLimitWaitForASlot() throws Exception {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("iam", 1, 1, 1, 5000);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		try {
+			limiter.acquire();
+
+			CountDownLatch acquired = new CountDownLatch(1);
+			Future<?> waiter = executor.submit(() -> {
+				limiter.acquire();
+				acquired.countDown();
+				limiter.release();
+			});
+
+			assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+
+			limiter.release();
+
+			assertTrue(acquired.await(5, TimeUnit.SECONDS));
+			waiter.get();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void callersFailOnceTheirDeadlinePasses() {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("iam", 1, 1, 1, 50);
+		limiter.acquire();
+
+		try {
+			limiter.acquire();
+			fail("The second caller should not have been given a slot");
+		} catch (AmazonClientException ex) {
+			assertTrue(ex.getMessage().contains("Timed out"));
+		}
+
+		assertEquals(1L, limiter.metrics().stream()
+				.filter(metric -> metric.getName().equals("broker.iam-limiter.timeouts"))
+				.findFirst().get().getValue().longValue());
+	}
+
+	@Test
+	public void limitedClientReportsThrottlingAndReleasesItsSlot() {
+		AmazonIdentityManagement identityManagement = mock(AmazonIdentityManagement.class);
+		when(identityManagement.getUser()).thenThrow(throttlingException()).thenReturn(new GetUserResult());
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("iam", 4, 1, 16, 50);
+		AmazonIdentityManagement limited = limiter.limit(AmazonIdentityManagement.class, identityManagement);
+
+		try {
+			limited.getUser();
+			fail("The throttling error should reach the caller");
+		} catch (AmazonServiceException ex) {
+			assertEquals("Throttling", ex.getErrorCode());
+		}
+
+		assertEquals(2, limiter.getLimit());
+		assertNotNull(limited.getUser());
+	}
+
+	@Test
+	public void serviceErrorsOtherThanThrottlingDoNotShrinkTheLimit() {
+		AmazonIdentityManagement identityManagement = mock(AmazonIdentityManagement.class);
+		when(identityManagement.getUser()).thenThrow(new NoSuchEntityException("No such user"));
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("iam", 4, 1, 16, 50);
+
+		try {
+			limiter.limit(AmazonIdentityManagement.class, identityManagement).getUser();
+			fail("The service error should reach the caller");
+		} catch (NoSuchEntityException ex) {
+			assertEquals(4, limiter.getLimit());
+		}
+	}
+
+	private static AmazonServiceException throttlingException() {
+		AmazonServiceException ex = new AmazonServiceException("Rate exceeded");
+		ex.setErrorCode("Throttling");
+		ex.setStatusCode(400);
+		return ex;
+	}
+}
@@ -0,0 +1,96 @@
+package org.cloudfoundry.community.servicebroker.service;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.identitymanagement.AmazonIdentityManagement;
+import com.amazonaws.services.identitymanagement.model.CreateUserRequest;
+import com.amazonaws.services.identitymanagement.model.CreateUserResult;
+import com.amazonaws.services.identitymanagement.model.DeleteUserRequest;
+import com.amazonaws.services.identitymanagement.model.NoSuchEntityException;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class AwsCallMetricsTest {
+
+	private AwsCallMetrics metrics;
+
+	@Before
+	public void setup() {
+		metrics = new AwsCallMetrics();
+	}
+
+	@Test
+	public void callsAreTimedByOperationAndOutcome() {
+		AmazonIdentityManagement iam = mock(AmazonIdentityManagement.class);
+		when(iam.createUser(any(CreateUserRequest.class))).thenReturn(new CreateUserResult());
+		doThrow(new NoSuchEntityException("gone")).when(iam).deleteUser(any(DeleteUserRequest.class));
+
+		AmazonIdentityManagement instrumented = metrics.instrument("iam", AmazonIdentityManagement.class, iam);
+		instrumented.createUser(new CreateUserRequest("one"));
+		instrumented.createUser(new CreateUserRequest("two"));
+		try {
+			instrumented.deleteUser(new DeleteUserRequest("three"));
+			fail();
+		} catch (NoSuchEntityException ex) {
+			// expected
+		}
+
+		assertEquals(2L, metric("timer.aws.iam.createUser.success.count"));
+		assertEquals(1L, metric("timer.aws.iam.deleteUser.error.count"));
+		assertEquals(1L, metric("counter.aws.iam.deleteUser.errors"));
+		assertNull(find("counter.aws.iam.createUser.errors"));
+	}
+
+	@Test
+	public void throttledCallsAreCountedApart() {
+		AmazonIdentityManagement iam = mock(AmazonIdentityManagement.class);
+		AmazonServiceException throttling = new AmazonServiceException("Rate exceeded");
+		throttling.setErrorCode("Throttling");
+		throttling.setStatusCode(400);
+		when(iam.createUser(any(CreateUserRequest.class))).thenThrow(throttling);
+
+		try {
+			metrics.instrument("iam", AmazonIdentityManagement.class, iam).createUser(new CreateUserRequest("one"));
+			fail();
+		} catch (AmazonServiceException ex) {
+			assertSame(throttling, ex);
+		}
+
+		assertEquals(1L, metric("timer.aws.iam.createUser.throttled.count"));
+		assertEquals(1L, metric("counter.aws.iam.createUser.throttles"));
+		assertNull(find("counter.aws.iam.createUser.errors"));
+	}
+
+	@Test
+	public void percentilesAreTheUpperBoundOfTheirBucket() {
+		for (int i = 0; i < 98; i++) {
+			metrics.record("aws.s3.createBucket", AwsCallMetrics.SUCCESS, TimeUnit.MILLISECONDS.toNanos(20));
+		}
+		metrics.record("aws.s3.createBucket", AwsCallMetrics.SUCCESS, TimeUnit.MILLISECONDS.toNanos(400));
+		metrics.record("aws.s3.createBucket", AwsCallMetrics.SUCCESS, TimeUnit.MILLISECONDS.toNanos(70000));
+
+		assertEquals(25L, metric("timer.aws.s3.createBucket.success.p50"));
+		assertEquals(25L, metric("timer.aws.s3.createBucket.success.p90"));
+		assertEquals(500L, metric("timer.aws.s3.createBucket.success.p99"));
+		assertEquals(70000L, metric("timer.aws.s3.createBucket.success.p99.9"));
+		assertEquals(70000L, metric("timer.aws.s3.createBucket.success.max"));
+		assertEquals(98L, metric("timer.aws.s3.createBucket.success.le.25"));
+		assertEquals(99L, metric("timer.aws.s3.createBucket.success.le.60000"));
+	}
+
+	private long metric(String name) {
+		return find(name).getValue().longValue();
+	}
+
+	private Metric<?> find(String name) {
+		return metrics.metrics().stream()
+				.filter(metric -> metric.getName().equals(name))
+				.findFirst().orElse(null);
+	}
+}
@@ -0,0 +1,268 @@
+package org.cloudfoundry.community.servicebroker.service;
+
+import com.amazonaws.services.identitymanagement.model.CreateUserResult;
+import com.amazonaws.services.identitymanagement.model.User;
+import org.cloudfoundry.community.servicebroker.catalog.BrokerOperation;
+import org.cloudfoundry.community.servicebroker.catalog.Credential;
+import org.cloudfoundry.community.servicebroker.catalog.ServiceInstance;
+import org.cloudfoundry.community.servicebroker.config.BrokerProperties;
+import org.cloudfoundry.community.servicebroker.exception.ServiceBrokerException;
+import org.cloudfoundry.community.servicebroker.model.OperationState;
+import org.cloudfoundry.community.servicebroker.model.OperationType;
+import org.cloudfoundry.community.servicebroker.model.S3User;
+import org.cloudfoundry.community.servicebroker.model.fixture.ServiceInstanceFixture;
+import org.cloudfoundry.community.servicebroker.repositories.BrokerOperationRepository;
+import org.cloudfoundry.community.servicebroker.repositories.ServiceInstanceRepository;
+import org.cloudfoundry.community.servicebroker.service.StepExecutor.Checkpoint;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class BrokerOperationServiceTest {
+
+	private static final long NOW = 1_000_000_000L;
+
+	private BrokerOperationRepository brokerOperationRepository;
+
+	private ServiceInstanceRepository serviceInstanceRepository;
+
+	private S3Service s3Service;
+
+	private BrokerProperties.Provisioning properties;
+
+	private BrokerOperationService brokerOperationService;
+
+	@Before
+	public void setup() {
+		brokerOperationRepository = mock(BrokerOperationRepository.class);
+		serviceInstanceRepository = mock(ServiceInstanceRepository.class);
+		s3Service = mock(S3Service.class);
+
+		ThreadPoolTaskExecutor provisioningExecutor = mock(ThreadPoolTaskExecutor.class);
+		when(provisioningExecutor.getMaxPoolSize()).thenReturn(2);
+		when(provisioningExecutor.getThreadPoolExecutor()).thenReturn(
+				new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>()));
+		doAnswer(invocation -> {
+			((Runnable) invocation.getArguments()[0]).run();
+			return null;
+		}).when(provisioningExecutor).execute(any(Runnable.class));
+
+		properties = new BrokerProperties.Provisioning();
+		properties.setPollInterval(1000);
+		properties.setLeaseDuration(60000);
+		properties.setMaxAttempts(2);
+
+		brokerOperationService = new BrokerOperationService(brokerOperationRepository, serviceInstanceRepository,
+				s3Service, provisioningExecutor, properties, Clock.fixed(Instant.ofEpochMilli(NOW), ZoneOffset.UTC));
+
+		doAnswer(invocation -> persisted(invocation.getArguments()[0]))
+				.when(brokerOperationRepository).save(any(BrokerOperation.class));
+		when(brokerOperationRepository.saveOutcome(anyString(), anyLong(), any(OperationState.class), anyString(),
+				anyString(), anyLong())).thenReturn(1);
+	}
+
+	@Test
+	public void pollSkipsOperationsClaimedByAnotherBroker() {
+		BrokerOperation taken = new BrokerOperation(OperationType.DELETE, "taken", 0);
+		BrokerOperation free = new BrokerOperation(OperationType.DELETE, "free", 0);
+		persisted(taken);
+		persisted(free);
+		when(brokerOperationRepository.findFirst20ByStateAndLeaseExpiresAtLessThanOrderByCreatedAtAsc(
+				OperationState.IN_PROGRESS, NOW)).thenReturn(Arrays.asList(taken, free));
+		when(brokerOperationRepository.claim(eq(taken.getId()), anyString(), anyLong(), any(OperationState.class),
+				anyLong())).thenReturn(0);
+		when(brokerOperationRepository.claim(eq(free.getId()), anyString(), eq(NOW + 60000),
+				eq(OperationState.IN_PROGRESS), eq(NOW))).thenReturn(1);
+
+		brokerOperationService.poll();
+
+		assertEquals(OperationState.IN_PROGRESS, taken.getState());
+		assertEquals(0, taken.getAttempts());
+		assertEquals(OperationState.SUCCEEDED, free.getState());
+		assertEquals(1, free.getAttempts());
+		verify(serviceInstanceRepository, never()).findOne("taken");
+	}
+
+	@Test
+	public void createRecordsEachCompletedStep() throws Exception {
+		ServiceInstance serviceInstance = ServiceInstanceFixture.getServiceInstance();
+		String serviceInstanceId = serviceInstance.getServiceInstanceId();
+		when(serviceInstanceRepository.findOne(serviceInstanceId)).thenReturn(serviceInstance);
+		when(s3Service.createUserResult(eq(serviceInstanceId), anyMap(), any(Checkpoint.class))).then(invocation -> {
+			@SuppressWarnings("unchecked")
+			Map<String, String> context = (Map<String, String>) invocation.getArguments()[1];
+			Checkpoint checkpoint = (Checkpoint) invocation.getArguments()[2];
+
+			context.put(S3Service.ACCESS_KEY_ID, "key");
+			checkpoint.completed(S3Service.CREATE_ACCESS_KEY);
+			assertTrue(checkpoint.isCompleted(S3Service.CREATE_ACCESS_KEY));
+
+			S3User user = new S3User(serviceInstanceId);
+			user.setCreateUserResult(new CreateUserResult().withUser(new User().withUserName(serviceInstanceId)));
+			user.setAccessKeyId("key");
+			user.setAccessKeySecret("secret");
+			return user;
+		});
+
+		BrokerOperation operation = brokerOperationService.run(OperationType.CREATE, serviceInstanceId,
+				Collections.emptyMap());
+
+		assertEquals(OperationState.SUCCEEDED, operation.getState());
+		assertEquals(Collections.singleton(S3Service.CREATE_ACCESS_KEY), operation.getCompletedSteps());
+		assertEquals("key", operation.getContext().get(S3Service.ACCESS_KEY_ID));
+		assertEquals(OperationState.SUCCEEDED, serviceInstance.getLastOperationState());
+		assertEquals("key", serviceInstance.getCredential().getAccessKeyId());
+	}
+
+	@Test
+	public void failedDeleteIsRetriedWithBackoffUntilItRunsOutOfAttempts() {
+		ServiceInstance serviceInstance = ServiceInstanceFixture.getServiceInstance();
+		serviceInstance.setCredential(new Credential("user", "key", "secret"));
+		String serviceInstanceId = serviceInstance.getServiceInstanceId();
+		when(serviceInstanceRepository.findOne(serviceInstanceId)).thenReturn(serviceInstance);
+		when(s3Service.deleteServiceInstanceBucket("user", "key", "user")).thenReturn(false);
+
+		BrokerOperation operation = brokerOperationService.run(OperationType.DELETE, serviceInstanceId,
+				Collections.emptyMap());
+
+		assertEquals(OperationState.IN_PROGRESS, operation.getState());
+		assertNull(operation.getOwner());
+		assertEquals(NOW + 2000, operation.getLeaseExpiresAt());
+
+		operation.claimed("worker", NOW + 60000);
+		brokerOperationService.execute(operation);
+
+		assertEquals(OperationState.FAILED, operation.getState());
+		assertEquals(OperationState.FAILED, serviceInstance.getLastOperationState());
+		verify(serviceInstanceRepository, never()).remove(any(ServiceInstance.class));
+	}
+
+	@Test
+	public void failedCreateResumesFromItsCheckpointAndIsCleanedUpOnceAbandoned() throws Exception {
+		ServiceInstance serviceInstance = ServiceInstanceFixture.getServiceInstance();
+		String serviceInstanceId = serviceInstance.getServiceInstanceId();
+		when(serviceInstanceRepository.findOne(serviceInstanceId)).thenReturn(serviceInstance);
+		when(s3Service.createUserResult(eq(serviceInstanceId), anyMap(), any(Checkpoint.class))).then(invocation -> {
+			@SuppressWarnings("unchecked")
+			Map<String, String> context = (Map<String, String>) invocation.getArguments()[1];
+			Checkpoint checkpoint = (Checkpoint) invocation.getArguments()[2];
+
+			assertTrue(checkpoint.isResumable());
+			if (!checkpoint.isCompleted(S3Service.CREATE_ACCESS_KEY)) {
+				context.put(S3Service.ACCESS_KEY_ID, "key");
+				checkpoint.completed(S3Service.CREATE_ACCESS_KEY);
+			}
+			throw new ServiceBrokerException("Provision failed at step createBucket");
+		});
+
+		BrokerOperation operation = brokerOperationService.run(OperationType.CREATE, serviceInstanceId,
+				Collections.emptyMap());
+
+		assertEquals(OperationState.IN_PROGRESS, operation.getState());
+		assertNull(operation.getOwner());
+		assertEquals(Collections.singleton(S3Service.CREATE_ACCESS_KEY), operation.getCompletedSteps());
+		verify(s3Service, never()).deleteServiceInstanceBucket(anyString(), anyString(), anyString());
+
+		operation.claimed("worker", NOW + 60000);
+		brokerOperationService.execute(operation);
+
+		assertEquals(OperationState.FAILED, operation.getState());
+		assertEquals(OperationState.FAILED, serviceInstance.getLastOperationState());
+		verify(s3Service).deleteServiceInstanceBucket(serviceInstanceId, "key", serviceInstanceId);
+	}
+
+	@Test
+	public void createThatIsRunOnceIsAbandonedAsSoonAsItFails() throws Exception {
+		ServiceInstance serviceInstance = ServiceInstanceFixture.getServiceInstance();
+		String serviceInstanceId = serviceInstance.getServiceInstanceId();
+		when(serviceInstanceRepository.findOne(serviceInstanceId)).thenReturn(serviceInstance);
+		when(s3Service.createUserResult(eq(serviceInstanceId), anyMap(), any(Checkpoint.class)))
+				.thenThrow(new ServiceBrokerException("Provision failed at step createUser"));
+
+		BrokerOperation operation = brokerOperationService.runOnce(OperationType.CREATE, serviceInstanceId,
+				Collections.emptyMap());
+
+		assertEquals(OperationState.FAILED, operation.getState());
+		assertEquals(1, operation.getAttempts());
+		verify(s3Service).deleteServiceInstanceBucket(serviceInstanceId, null, serviceInstanceId);
+	}
+
+	@Test
+	public void leaseIsRenewedWhileAStepRuns() throws Exception {
+		ServiceInstance serviceInstance = ServiceInstanceFixture.getServiceInstance();
+		serviceInstance.setCredential(new Credential("user", "key", "secret"));
+		String serviceInstanceId = serviceInstance.getServiceInstanceId();
+		when(serviceInstanceRepository.findOne(serviceInstanceId)).thenReturn(serviceInstance);
+		when(brokerOperationRepository.renewLease(anyString(), anyString(), eq(0L), eq(NOW + 60000))).thenReturn(1);
+		when(s3Service.deleteServiceInstanceBucket("user", "key", "user")).then(invocation -> {
+			// The scheduled renewal while the deletion outlasts the lease
+			brokerOperationService.renewLeases();
+			return true;
+		});
+
+		BrokerOperation operation = brokerOperationService.run(OperationType.DELETE, serviceInstanceId,
+				Collections.emptyMap());
+
+		assertEquals(OperationState.SUCCEEDED, operation.getState());
+		verify(brokerOperationRepository).renewLease(eq(operation.getId()), eq(operation.getOwner()), eq(0L),
+				eq(NOW + 60000));
+
+		// A finished operation is no longer renewed
+		brokerOperationService.renewLeases();
+		verify(brokerOperationRepository, times(1)).renewLease(anyString(), anyString(), anyLong(), anyLong());
+	}
+
+	@Test
+	public void operationTakenOverDuringAStepStopsWithoutSavingOrUndoingAnything() throws Exception {
+		ServiceInstance serviceInstance = ServiceInstanceFixture.getServiceInstance();
+		String serviceInstanceId = serviceInstance.getServiceInstanceId();
+		when(serviceInstanceRepository.findOne(serviceInstanceId)).thenReturn(serviceInstance);
+		when(s3Service.createUserResult(eq(serviceInstanceId), anyMap(), any(Checkpoint.class))).then(invocation -> {
+			((Checkpoint) invocation.getArguments()[2]).completed(S3Service.CREATE_USER);
+			fail("The checkpoint should have found that the operation was taken over");
+			return null;
+		});
+
+		// Another worker claimed the operation after its lease expired, so the checkpoint's save is stale
+		doAnswer(invocation -> persisted(invocation.getArguments()[0]))
+				.doThrow(new OptimisticLockingFailureException("Row was updated by another transaction"))
+				.when(brokerOperationRepository).save(any(BrokerOperation.class));
+
+		BrokerOperation operation = brokerOperationService.run(OperationType.CREATE, serviceInstanceId,
+				Collections.emptyMap());
+
+		assertEquals(OperationState.IN_PROGRESS, operation.getState());
+		verify(brokerOperationRepository, times(2)).save(any(BrokerOperation.class));
+		verify(serviceInstanceRepository, never()).save(any(ServiceInstance.class));
+		verify(s3Service, never()).deleteServiceInstanceBucket(anyString(), anyString(), anyString());
+	}
+
+	/**
+	 * A first save gives an operation its version, as the repository would
+	 */
+	private static BrokerOperation persisted(Object saved) {
+		BrokerOperation operation = (BrokerOperation) saved;
+		if (operation.getVersion() == null)
+			operation.setVersion(0L);
+		return operation;
+	}
+}
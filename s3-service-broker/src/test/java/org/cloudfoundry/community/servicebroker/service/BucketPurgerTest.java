@@ -0,0 +1,102 @@
+package org.cloudfoundry.community.servicebroker.service;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsResult;
+import com.amazonaws.services.s3.model.ListVersionsRequest;
+import com.amazonaws.services.s3.model.S3VersionSummary;
+import com.amazonaws.services.s3.model.VersionListing;
+import org.cloudfoundry.community.servicebroker.exception.ServiceBrokerException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class BucketPurgerTest {
+
+	private AmazonS3 amazonS3;
+
+	private BucketPurger purger;
+
+	@Before
+	public void setup() {
+		amazonS3 = mock(AmazonS3.class);
+		purger = new BucketPurger(amazonS3, 4);
+	}
+
+	@After
+	public void teardown() {
+		purger.shutdown();
+	}
+
+	@Test
+	public void everyPageOfVersionsIsDeleted() throws Exception {
+		VersionListing first = page(0, 1000, true);
+		VersionListing second = page(1000, 1000, true);
+		VersionListing last = page(2000, 500, false);
+
+		when(amazonS3.listVersions(any(ListVersionsRequest.class))).thenReturn(first);
+		when(amazonS3.listNextBatchOfVersions(first)).thenReturn(second);
+		when(amazonS3.listNextBatchOfVersions(second)).thenReturn(last);
+
+		List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+		when(amazonS3.deleteObjects(any(DeleteObjectsRequest.class))).thenAnswer(invocation -> {
+			DeleteObjectsRequest request = (DeleteObjectsRequest) invocation.getArguments()[0];
+			batchSizes.add(request.getKeys().size());
+			return new DeleteObjectsResult(Collections.emptyList());
+		});
+
+		assertEquals(2500, purger.purge("bucket"));
+		assertEquals(3, batchSizes.size());
+		assertTrue(batchSizes.stream().allMatch(size -> size <= BucketPurger.MAX_KEYS_PER_DELETE));
+	}
+
+	@Test
+	public void emptyBucketIsNotDeletedFrom() throws Exception {
+		when(amazonS3.listVersions(any(ListVersionsRequest.class))).thenReturn(page(0, 0, false));
+
+		assertEquals(0, purger.purge("bucket"));
+		verify(amazonS3, never()).deleteObjects(any(DeleteObjectsRequest.class));
+	}
+
+	@Test(expected = ServiceBrokerException.class)
+	public void failedBatchFailsThePurge() throws Exception {
+		VersionListing first = page(0, 1000, true);
+		when(amazonS3.listVersions(any(ListVersionsRequest.class))).thenReturn(first);
+		when(amazonS3.listNextBatchOfVersions(first)).thenReturn(page(1000, 10, false));
+
+		AtomicInteger calls = new AtomicInteger();
+		when(amazonS3.deleteObjects(any(DeleteObjectsRequest.class))).thenAnswer(invocation -> {
+			if (calls.incrementAndGet() == 1)
+				throw new AmazonServiceException("SlowDown");
+			return new DeleteObjectsResult(Collections.emptyList());
+		});
+
+		purger.purge("bucket");
+	}
+
+	private static VersionListing page(int offset, int size, boolean truncated) {
+		VersionListing listing = new VersionListing();
+		List<S3VersionSummary> summaries = new ArrayList<>();
+		for (int i = offset; i < offset + size; i++) {
+			S3VersionSummary summary = new S3VersionSummary();
+			summary.setKey("key-" + i);
+			summary.setVersionId("version-" + i);
+			summary.setIsDeleteMarker(i % 10 == 0);
+			summaries.add(summary);
+		}
+		listing.setVersionSummaries(summaries);
+		listing.setTruncated(truncated);
+		return listing;
+	}
+}
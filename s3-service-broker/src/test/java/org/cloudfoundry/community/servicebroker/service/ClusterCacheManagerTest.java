@@ -0,0 +1,143 @@
+package org.cloudfoundry.community.servicebroker.service;
+
+import org.cloudfoundry.community.servicebroker.catalog.CacheInvalidation;
+import org.cloudfoundry.community.servicebroker.catalog.Credential;
+import org.cloudfoundry.community.servicebroker.catalog.ServiceInstance;
+import org.cloudfoundry.community.servicebroker.config.BrokerProperties;
+import org.cloudfoundry.community.servicebroker.model.OperationState;
+import org.cloudfoundry.community.servicebroker.model.fixture.ServiceInstanceFixture;
+import org.cloudfoundry.community.servicebroker.repositories.CacheInvalidationRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.cache.Cache;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.*;
+
+public class ClusterCacheManagerTest {
+
+	private static final long NOW = 1_000_000_000L;
+
+	private CacheInvalidationRepository cacheInvalidationRepository;
+
+	private ClusterCacheManager cacheManager;
+
+	@Before
+	public void setup() {
+		cacheInvalidationRepository = mock(CacheInvalidationRepository.class);
+		cacheManager = new ClusterCacheManager(cacheInvalidationRepository, new BrokerProperties.Cache(),
+				Clock.fixed(Instant.ofEpochMilli(NOW), ZoneOffset.UTC), "serviceInstances");
+	}
+
+	@Test
+	public void evictionIsPublishedToOtherBrokers() {
+		Cache cache = cacheManager.getCache("serviceInstances");
+		cache.put("one", "instance");
+
+		cache.evict("one");
+
+		assertNull(cache.get("one"));
+		ArgumentCaptor<CacheInvalidation> invalidation = ArgumentCaptor.forClass(CacheInvalidation.class);
+		verify(cacheInvalidationRepository).save(invalidation.capture());
+		assertEquals("serviceInstances", invalidation.getValue().getCacheName());
+		assertEquals("one", invalidation.getValue().getCacheKey());
+		assertEquals(NOW, invalidation.getValue().getCreatedAt());
+	}
+
+	@Test
+	public void pollAppliesInvalidationsFromOtherBrokersOnce() {
+		Cache cache = cacheManager.getCache("serviceInstances");
+		cache.put("one", "instance");
+		cache.put("two", "instance");
+
+		CacheInvalidation remote = invalidation(1L, "one", "other-broker");
+		when(cacheInvalidationRepository.findByCreatedAtGreaterThanOrderByIdAsc(
+				NOW - ClusterCacheManager.LOOKBACK_MILLIS)).thenReturn(Collections.singletonList(remote));
+
+		cacheManager.poll();
+
+		assertNull(cache.get("one"));
+		assertNotNull(cache.get("two"));
+
+		// The same invalidation is read again within the lookback, but the entry cached since is kept
+		cache.put("one", "reloaded");
+		cacheManager.poll();
+
+		assertEquals("reloaded", cache.get("one").get());
+		assertEquals(1L, metric("cache.invalidations.applied"));
+	}
+
+	@Test
+	public void pollSkipsInvalidationsThisBrokerPublished() {
+		Cache cache = cacheManager.getCache("serviceInstances");
+		cache.put("one", "instance");
+
+		String origin = (String) ReflectionTestUtils.getField(cacheManager, "origin");
+		when(cacheInvalidationRepository.findByCreatedAtGreaterThanOrderByIdAsc(anyLong()))
+				.thenReturn(Arrays.asList(invalidation(1L, "one", origin)));
+
+		cacheManager.poll();
+
+		assertNotNull(cache.get("one"));
+	}
+
+	@Test
+	public void hitRatioIsReported() {
+		Cache cache = cacheManager.getCache("serviceInstances");
+		cache.put("one", "instance");
+
+		cache.get("one");
+		cache.get("one");
+		cache.get("one");
+		cache.get("missing");
+
+		assertEquals(0.75, cacheManager.metrics().stream()
+				.filter(metric -> metric.getName().equals("cache.serviceInstances.hit.ratio"))
+				.findFirst().get().getValue().doubleValue(), 0.001);
+	}
+
+	@Test
+	public void changesToCopiedValuesDoNotReachTheCache() {
+		cacheManager.copyValues("serviceInstances", ServiceInstance.class, ServiceInstance::copy);
+		Cache cache = cacheManager.getCache("serviceInstances");
+		ServiceInstance loaded = ServiceInstanceFixture.getServiceInstance();
+		loaded.setCredential(new Credential("user", "key", "secret"));
+		cache.put("one", loaded);
+
+		// The caller that loaded the instance and a caller that read it both change their own
+		loaded.setLastOperation(OperationState.IN_PROGRESS, "Deleting S3 bucket and IAM user");
+		ServiceInstance read = cache.get("one", ServiceInstance.class);
+		read.setPlanId("other-plan");
+		read.getCredential().setAccessKeyId("other-key");
+
+		ServiceInstance cached = (ServiceInstance) cache.get("one").get();
+		assertNotSame(read, cached);
+		assertEquals(OperationState.SUCCEEDED, cached.getLastOperationState());
+		assertEquals("plan-one-id", cached.getPlanId());
+		assertEquals("key", cached.getCredential().getAccessKeyId());
+		assertEquals(loaded.getCredential().getId(), cached.getCredential().getId());
+	}
+
+	private long metric(String name) {
+		return cacheManager.metrics().stream()
+				.filter(metric -> metric.getName().equals(name))
+				.map(Metric::getValue)
+				.findFirst().get().longValue();
+	}
+
+	private static CacheInvalidation invalidation(long id, String key, String origin) {
+		CacheInvalidation invalidation = new CacheInvalidation("serviceInstances", key, origin, NOW - 1);
+		ReflectionTestUtils.setField(invalidation, "id", id);
+		return invalidation;
+	}
+}
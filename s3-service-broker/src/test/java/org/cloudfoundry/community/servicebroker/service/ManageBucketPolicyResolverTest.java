@@ -0,0 +1,135 @@
+package org.cloudfoundry.community.servicebroker.service;
+
+import com.amazonaws.services.identitymanagement.AmazonIdentityManagement;
+import com.amazonaws.services.identitymanagement.model.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class ManageBucketPolicyResolverTest {
+
+	private static final String POLICY_ARN = "arn:aws:iam::123456789012:policy/manage-bucket";
+
+	private AmazonIdentityManagement identityManagement;
+
+	private MutableClock clock;
+
+	private ManageBucketPolicyResolver resolver;
+
+	@Before
+	public void setup() {
+		identityManagement = mock(AmazonIdentityManagement.class);
+		clock = new MutableClock();
+		resolver = new ManageBucketPolicyResolver(identityManagement, 60, clock);
+
+		when(identityManagement.getUser()).thenReturn(new GetUserResult()
+				.withUser(new User().withArn("arn:aws:iam::123456789012:user/broker")));
+		when(identityManagement.getPolicy(any(GetPolicyRequest.class))).thenReturn(new GetPolicyResult()
+				.withPolicy(new Policy().withArn(POLICY_ARN)));
+	}
+
+	@Test
+	public void policyArnIsCachedUntilTheTtlExpires() throws Exception {
+		assertEquals(POLICY_ARN, resolver.resolve());
+		assertEquals(POLICY_ARN, resolver.resolve());
+		verify(identityManagement, times(1)).getPolicy(any(GetPolicyRequest.class));
+
+		clock.advance(TimeUnit.SECONDS.toMillis(61));
+
+		assertEquals(POLICY_ARN, resolver.resolve());
+		verify(identityManagement, times(2)).getPolicy(any(GetPolicyRequest.class));
+		verify(identityManagement, times(1)).getUser();
+	}
+
+	@Test
+	public void invalidatedPolicyIsResolvedAgain() throws Exception {
+		resolver.resolve();
+		resolver.invalidate();
+		resolver.resolve();
+
+		verify(identityManagement, times(2)).getPolicy(any(GetPolicyRequest.class));
+	}
+
+	@Test
+	public void missingPolicyIsCreated() throws Exception {
+		when(identityManagement.getPolicy(any(GetPolicyRequest.class)))
+				.thenThrow(new NoSuchEntityException("manage-bucket"));
+		when(identityManagement.createPolicy(any(CreatePolicyRequest.class))).thenReturn(new CreatePolicyResult()
+				.withPolicy(new Policy().withArn(POLICY_ARN)));
+
+		assertEquals(POLICY_ARN, resolver.resolve());
+		assertEquals(POLICY_ARN, resolver.resolve());
+		verify(identityManagement, times(1)).createPolicy(any(CreatePolicyRequest.class));
+	}
+
+	@Test
+	public void concurrentLookupsAreCollapsedIntoOneCall() throws Exception {
+		CountDownLatch lookupStarted = new CountDownLatch(1);
+		CountDownLatch releaseLookup = new CountDownLatch(1);
+
+		when(identityManagement.getPolicy(any(GetPolicyRequest.class))).thenAnswer(invocation -> {
+			lookupStarted.countDown();
+			releaseLookup.await();
+			return new GetPolicyResult().withPolicy(new Policy().withArn(POLICY_ARN));
+		});
+
+		ExecutorService executor = Executors.newFixedThreadPool(200);
+		List<Future<String>> results = new ArrayList<>();
+		try {
+			for (int i = 0; i < 200; i++) {
+				results.add(executor.submit(resolver::resolve));
+			}
+
+			lookupStarted.await(5, TimeUnit.SECONDS);
+			releaseLookup.countDown();
+
+			for (Future<String> result : results) {
+				assertEquals(POLICY_ARN, result.get(5, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		verify(identityManagement, times(1)).getPolicy(any(GetPolicyRequest.class));
+	}
+
+	private static class MutableClock extends Clock {
+
+		private volatile long millis = 0;
+
+		void advance(long delta) {
+			millis += delta;
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+
+		@Override
+		public long millis() {
+			return millis;
+		}
+
+		@Override
+		public Instant instant() {
+			return Instant.ofEpochMilli(millis);
+		}
+	}
+}
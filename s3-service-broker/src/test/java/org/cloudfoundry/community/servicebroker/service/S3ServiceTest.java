@@ -0,0 +1,109 @@
+package org.cloudfoundry.community.servicebroker.service;
+
+import com.amazonaws.services.identitymanagement.AmazonIdentityManagement;
+import com.amazonaws.services.identitymanagement.model.*;
+import com.amazonaws.services.s3.AmazonS3;
+import org.cloudfoundry.community.servicebroker.model.S3User;
+import org.cloudfoundry.community.servicebroker.service.StepExecutor.Checkpoint;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class S3ServiceTest {
+
+	private static final String USER_NAME = "service-instance";
+
+	private AmazonIdentityManagement identityManagement;
+
+	private StepExecutor stepExecutor;
+
+	private S3Service s3Service;
+
+	@Before
+	public void setup() throws Exception {
+		identityManagement = mock(AmazonIdentityManagement.class);
+		ManageBucketPolicyResolver manageBucketPolicyResolver = mock(ManageBucketPolicyResolver.class);
+		when(manageBucketPolicyResolver.resolve()).thenReturn("arn:aws:iam::123456789012:policy/manage-bucket");
+		when(identityManagement.createAccessKey(any(CreateAccessKeyRequest.class))).thenReturn(
+				new CreateAccessKeyResult().withAccessKey(new AccessKey()
+						.withUserName(USER_NAME)
+						.withAccessKeyId("new-key")
+						.withSecretAccessKey("new-secret")));
+
+		stepExecutor = new StepExecutor(Executors.newFixedThreadPool(4));
+		s3Service = new S3Service(identityManagement, mock(AmazonS3.class), manageBucketPolicyResolver,
+				mock(BucketPurger.class), stepExecutor);
+	}
+
+	@After
+	public void tearDown() {
+		stepExecutor.shutdown();
+	}
+
+	@Test
+	public void newUserGetsAnAccessKeyWithoutListingItsKeys() throws Exception {
+		when(identityManagement.createUser(any(CreateUserRequest.class)))
+				.thenReturn(new CreateUserResult().withUser(new User().withUserName(USER_NAME)));
+
+		S3User user = s3Service.createUserResult(USER_NAME, new ConcurrentHashMap<>(), Checkpoint.NONE);
+
+		assertEquals("new-key", user.getAccessKeyId());
+		verify(identityManagement, never()).listAccessKeys(any(ListAccessKeysRequest.class));
+	}
+
+	@Test
+	public void resumedAttemptDeletesTheAccessKeysItDidNotRecord() throws Exception {
+		when(identityManagement.createUser(any(CreateUserRequest.class)))
+				.thenThrow(new EntityAlreadyExistsException("User already exists"));
+		when(identityManagement.listAccessKeys(any(ListAccessKeysRequest.class)))
+				.thenReturn(accessKeys("orphan-one", "orphan-two"));
+
+		S3User user = s3Service.createUserResult(USER_NAME, new ConcurrentHashMap<>(), Checkpoint.NONE);
+
+		verify(identityManagement).deleteAccessKey(new DeleteAccessKeyRequest(USER_NAME, "orphan-one"));
+		verify(identityManagement).deleteAccessKey(new DeleteAccessKeyRequest(USER_NAME, "orphan-two"));
+		verify(identityManagement).createAccessKey(any(CreateAccessKeyRequest.class));
+		assertEquals("new-key", user.getAccessKeyId());
+		assertEquals("new-secret", user.getAccessKeySecret());
+	}
+
+	@Test
+	public void resumedAttemptKeepsTheAccessKeyItRecorded() throws Exception {
+		when(identityManagement.createUser(any(CreateUserRequest.class)))
+				.thenThrow(new EntityAlreadyExistsException("User already exists"));
+		when(identityManagement.listAccessKeys(any(ListAccessKeysRequest.class)))
+				.thenReturn(accessKeys("recorded-key", "orphan"));
+
+		Map<String, String> context = new ConcurrentHashMap<>();
+		context.put(S3Service.ACCESS_KEY_ID, "recorded-key");
+		context.put(S3Service.SECRET_ACCESS_KEY, "recorded-secret");
+
+		S3User user = s3Service.createUserResult(USER_NAME, context, Checkpoint.NONE);
+
+		verify(identityManagement).deleteAccessKey(new DeleteAccessKeyRequest(USER_NAME, "orphan"));
+		verify(identityManagement, never()).deleteAccessKey(new DeleteAccessKeyRequest(USER_NAME, "recorded-key"));
+		verify(identityManagement, never()).createAccessKey(any(CreateAccessKeyRequest.class));
+		assertEquals("recorded-key", user.getAccessKeyId());
+		assertEquals("recorded-secret", user.getAccessKeySecret());
+	}
+
+	private static ListAccessKeysResult accessKeys(String... accessKeyIds) {
+		List<AccessKeyMetadata> accessKeys = new ArrayList<>();
+		for (String accessKeyId : accessKeyIds) {
+			accessKeys.add(new AccessKeyMetadata()
+					.withUserName(USER_NAME)
+					.withAccessKeyId(accessKeyId));
+		}
+		return new ListAccessKeysResult().withAccessKeyMetadata(accessKeys);
+	}
+}
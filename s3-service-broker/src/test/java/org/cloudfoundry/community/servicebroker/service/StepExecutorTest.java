@@ -0,0 +1,231 @@
+package org.cloudfoundry.community.servicebroker.service;
+
+import org.cloudfoundry.community.servicebroker.exception.ServiceBrokerException;
+import org.cloudfoundry.community.servicebroker.service.StepExecutor.Step;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StepExecutorTest {
+
+	private StepExecutor stepExecutor;
+
+	private List<String> events;
+
+	@Before
+	public void setup() {
+		stepExecutor = new StepExecutor(Executors.newFixedThreadPool(4));
+		events = new CopyOnWriteArrayList<>();
+	}
+
+	@After
+	public void tearDown() {
+		stepExecutor.shutdown();
+	}
+
+	@Test
+	public void independentStepsRunConcurrently() throws Exception {
+		CountDownLatch bothStarted = new CountDownLatch(2);
+
+		StepExecutor.Report report = stepExecutor.run("concurrent", Arrays.asList(
+				Step.of("one", () -> awaitTogether(bothStarted)),
+				Step.of("two", () -> awaitTogether(bothStarted))));
+
+		assertEquals(Arrays.asList("one", "two"), Arrays.asList(report.getStepMillis().keySet().toArray()));
+	}
+
+	@Test
+	public void stepStartsAfterItsDependencies() throws Exception {
+		stepExecutor.run("ordered", Arrays.asList(
+				Step.of("last", () -> events.add("last")).after("first", "second"),
+				Step.of("first", () -> {
+					Thread.sleep(50);
+					events.add("first");
+				}),
+				Step.of("second", () -> events.add("second"))));
+
+		assertEquals(3, events.size());
+		assertEquals("last", events.get(2));
+	}
+
+	@Test
+	public void failureCompensatesCompletedStepsInReverseOrder() throws Exception {
+		try {
+			stepExecutor.run("failing", Arrays.asList(
+					Step.of("createUser", () -> events.add("createUser"))
+							.compensatedBy(() -> events.add("deleteUser")),
+					Step.of("createAccessKey", () -> events.add("createAccessKey"))
+							.after("createUser")
+							.compensatedBy(() -> events.add("deleteAccessKey")),
+					Step.of("createBucket", () -> {
+						throw new IllegalStateException("BucketAlreadyExists");
+					}).compensatedBy(() -> events.add("deleteBucket")),
+					Step.of("tagBucket", () -> events.add("tagBucket"))
+							.after("createBucket")
+							.compensatedBy(() -> events.add("untagBucket"))));
+			fail("The failing step should have failed the run");
+		} catch (ServiceBrokerException ex) {
+			assertTrue(ex.getMessage().contains("createBucket"));
+			assertTrue(ex.getCause() instanceof IllegalStateException);
+		}
+
+		assertFalse("A step after a failed step must not run", events.contains("tagBucket"));
+		assertFalse("A failed step must not be compensated", events.contains("deleteBucket"));
+		assertTrue(events.indexOf("deleteAccessKey") < events.indexOf("deleteUser"));
+		assertTrue(events.indexOf("createAccessKey") < events.indexOf("deleteAccessKey"));
+	}
+
+	@Test
+	public void failedCompensationDoesNotStopTheOthers() throws Exception {
+		try {
+			stepExecutor.run("failing", Arrays.asList(
+					Step.of("one", () -> events.add("one"))
+							.compensatedBy(() -> events.add("undo one")),
+					Step.of("two", () -> events.add("two"))
+							.after("one")
+							.compensatedBy(() -> {
+								throw new IllegalStateException("Could not undo two");
+							}),
+					Step.of("three", () -> {
+						throw new IllegalStateException("Failed");
+					}).after("two")));
+			fail("The failing step should have failed the run");
+		} catch (ServiceBrokerException ex) {
+			assertTrue(events.contains("undo one"));
+		}
+	}
+
+	@Test
+	public void checkpointedStepsAreSkippedButStillCompensated() throws Exception {
+		Set<String> checkpointed = ConcurrentHashMap.newKeySet();
+		checkpointed.add("createUser");
+
+		StepExecutor.Checkpoint checkpoint = new StepExecutor.Checkpoint() {
+
+			@Override
+			public boolean isCompleted(String step) {
+				return checkpointed.contains(step);
+			}
+
+			@Override
+			public void completed(String step) {
+				checkpointed.add(step);
+			}
+		};
+
+		try {
+			stepExecutor.run("resumed", Arrays.asList(
+					Step.of("createUser", () -> events.add("createUser"))
+							.compensatedBy(() -> events.add("deleteUser")),
+					Step.of("createAccessKey", () -> events.add("createAccessKey"))
+							.after("createUser"),
+					Step.of("attachPolicy", () -> {
+						throw new IllegalStateException("Failed");
+					}).after("createAccessKey")), checkpoint);
+			fail("The failing step should have failed the run");
+		} catch (ServiceBrokerException ex) {
+			assertEquals(Arrays.asList("createAccessKey", "deleteUser"), events);
+			assertTrue(checkpointed.contains("createAccessKey"));
+			assertFalse(checkpointed.contains("attachPolicy"));
+		}
+	}
+
+	@Test
+	public void resumableCheckpointLeavesCompletedStepsInPlace() throws Exception {
+		Set<String> checkpointed = ConcurrentHashMap.newKeySet();
+
+		try {
+			stepExecutor.run("resumable", Arrays.asList(
+					Step.of("createUser", () -> events.add("createUser"))
+							.compensatedBy(() -> events.add("deleteUser")),
+					Step.of("attachPolicy", () -> {
+						throw new IllegalStateException("Failed");
+					}).after("createUser")), resumable(checkpointed));
+			fail("The failing step should have failed the run");
+		} catch (ServiceBrokerException ex) {
+			assertEquals(Arrays.asList("createUser"), events);
+			assertTrue(checkpointed.contains("createUser"));
+		}
+	}
+
+	@Test
+	public void supersededCheckpointStopsTheRunWithoutCompensating() throws Exception {
+		StepExecutor.Checkpoint checkpoint = new StepExecutor.Checkpoint() {
+
+			@Override
+			public boolean isCompleted(String step) {
+				return false;
+			}
+
+			@Override
+			public void completed(String step) {
+				if (step.equals("createAccessKey"))
+					throw new StepExecutor.SupersededException("Taken over", null);
+			}
+		};
+
+		try {
+			stepExecutor.run("superseded", Arrays.asList(
+					Step.of("createUser", () -> events.add("createUser"))
+							.compensatedBy(() -> events.add("deleteUser")),
+					Step.of("createAccessKey", () -> events.add("createAccessKey"))
+							.after("createUser")
+							.compensatedBy(() -> events.add("deleteAccessKey")),
+					Step.of("attachPolicy", () -> events.add("attachPolicy"))
+							.after("createAccessKey")), checkpoint);
+			fail("The superseded checkpoint should have stopped the run");
+		} catch (StepExecutor.SupersededException ex) {
+			assertEquals(Arrays.asList("createUser", "createAccessKey"), events);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void cyclesAreRejected() throws Exception {
+		stepExecutor.run("cycle", Arrays.asList(
+				Step.of("one", () -> events.add("one")).after("two"),
+				Step.of("two", () -> events.add("two")).after("one")));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownDependenciesAreRejected() throws Exception {
+		stepExecutor.run("unknown", Arrays.asList(
+				Step.of("one", () -> events.add("one")).after("missing")));
+	}
+
+	private static StepExecutor.Checkpoint resumable(Set<String> checkpointed) {
+		return new StepExecutor.Checkpoint() {
+
+			@Override
+			public boolean isCompleted(String step) {
+				return checkpointed.contains(step);
+			}
+
+			@Override
+			public void completed(String step) {
+				checkpointed.add(step);
+			}
+
+			@Override
+			public boolean isResumable() {
+				return true;
+			}
+		};
+	}
+
+	private static void awaitTogether(CountDownLatch latch) throws InterruptedException {
+		latch.countDown();
+		if (!latch.await(5, TimeUnit.SECONDS))
+			throw new IllegalStateException("The other step did not run concurrently");
+	}
+}
@@ -0,0 +1,240 @@
+package org.cloudfoundry.community.servicebroker.service;
+
+import org.cloudfoundry.community.servicebroker.catalog.ServiceInstance;
+import org.cloudfoundry.community.servicebroker.catalog.WarmPoolEntry;
+import org.cloudfoundry.community.servicebroker.config.BrokerProperties;
+import org.cloudfoundry.community.servicebroker.exception.ServiceInstanceExistsException;
+import org.cloudfoundry.community.servicebroker.model.OperationState;
+import org.cloudfoundry.community.servicebroker.model.S3User;
+import org.cloudfoundry.community.servicebroker.model.fixture.ServiceInstanceFixture;
+import org.cloudfoundry.community.servicebroker.repositories.ServiceInstanceRepository;
+import org.cloudfoundry.community.servicebroker.repositories.WarmPoolEntryRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.*;
+
+public class WarmPoolTest {
+
+	private static final long NOW = 1_000_000_000L;
+
+	private WarmPoolEntryRepository warmPoolEntryRepository;
+
+	private ServiceInstanceRepository serviceInstanceRepository;
+
+	private S3Service s3Service;
+
+	private BrokerProperties.WarmPool properties;
+
+	private SimpleTransactionStatus transaction;
+
+	private WarmPool warmPool;
+
+	@Before
+	public void setup() {
+		warmPoolEntryRepository = mock(WarmPoolEntryRepository.class);
+		serviceInstanceRepository = mock(ServiceInstanceRepository.class);
+		s3Service = mock(S3Service.class);
+
+		properties = new BrokerProperties.WarmPool();
+		properties.setEnabled(true);
+		properties.setSize(5);
+		properties.setRefillRate(2);
+		properties.setMaxAge(1000);
+
+		transaction = new SimpleTransactionStatus();
+
+		warmPool = new WarmPool(warmPoolEntryRepository, serviceInstanceRepository, s3Service, properties,
+				new TransactionOperations() {
+					@Override
+					public <T> T execute(TransactionCallback<T> action) {
+						return action.doInTransaction(transaction);
+					}
+				}, Clock.fixed(Instant.ofEpochMilli(NOW), ZoneOffset.UTC));
+
+		when(serviceInstanceRepository.insert(any(ServiceInstance.class))).thenReturn(true);
+	}
+
+	@Test
+	public void claimGivesTheInstanceTheEntrysCredential() throws Exception {
+		when(warmPoolEntryRepository.findFirst5ByCreatedAtGreaterThanOrderByCreatedAtAsc(NOW - 1000))
+				.thenReturn(Collections.singletonList(new WarmPoolEntry("warm-one", "key-one", "secret-one", NOW)));
+		when(warmPoolEntryRepository.claim("warm-one", NOW - 1000)).thenReturn(1);
+
+		ServiceInstance serviceInstance = warmPool.claim(ServiceInstanceFixture.getServiceInstance());
+
+		assertNotNull(serviceInstance);
+		assertEquals("warm-one", serviceInstance.getCredential().getUserName());
+		assertEquals("key-one", serviceInstance.getCredential().getAccessKeyId());
+		assertEquals("secret-one", serviceInstance.getCredential().getSecretAccessKey());
+		assertEquals(OperationState.SUCCEEDED, serviceInstance.getLastOperationState());
+		assertFalse(transaction.isRollbackOnly());
+		verify(serviceInstanceRepository).insert(serviceInstance);
+		verifyZeroInteractions(s3Service);
+	}
+
+	@Test
+	public void claimForAnExistingInstanceFailsSoThatTheClaimIsRolledBack() throws Exception {
+		when(warmPoolEntryRepository.findFirst5ByCreatedAtGreaterThanOrderByCreatedAtAsc(anyLong()))
+				.thenReturn(Collections.singletonList(new WarmPoolEntry("warm-one", "key-one", "secret-one", NOW)));
+		when(warmPoolEntryRepository.claim(eq("warm-one"), anyLong())).thenReturn(1);
+		when(serviceInstanceRepository.insert(any(ServiceInstance.class))).thenReturn(false);
+
+		try {
+			warmPool.claim(ServiceInstanceFixture.getServiceInstance());
+			fail("The claim should have failed");
+		} catch (ServiceInstanceExistsException ex) {
+			assertTrue(transaction.isRollbackOnly());
+			assertEquals(0L, metric("broker.warm-pool.claims"));
+		}
+	}
+
+	@Test
+	public void claimSkipsEntriesClaimedByAnotherBroker() throws Exception {
+		when(warmPoolEntryRepository.findFirst5ByCreatedAtGreaterThanOrderByCreatedAtAsc(anyLong()))
+				.thenReturn(Arrays.asList(
+						new WarmPoolEntry("warm-one", "key-one", "secret-one", NOW),
+						new WarmPoolEntry("warm-two", "key-two", "secret-two", NOW)));
+		when(warmPoolEntryRepository.claim(eq("warm-one"), anyLong())).thenReturn(0);
+		when(warmPoolEntryRepository.claim(eq("warm-two"), anyLong())).thenReturn(1);
+
+		ServiceInstance serviceInstance = warmPool.claim(ServiceInstanceFixture.getServiceInstance());
+
+		assertEquals("warm-two", serviceInstance.getCredential().getUserName());
+	}
+
+	@Test
+	public void claimReturnsNullWhenThePoolIsEmptyOrDisabled() throws Exception {
+		when(warmPoolEntryRepository.findFirst5ByCreatedAtGreaterThanOrderByCreatedAtAsc(anyLong()))
+				.thenReturn(Collections.emptyList());
+
+		assertNull(warmPool.claim(ServiceInstanceFixture.getServiceInstance()));
+
+		properties.setEnabled(false);
+		assertNull(warmPool.claim(ServiceInstanceFixture.getServiceInstance()));
+		verify(warmPoolEntryRepository, times(1)).findFirst5ByCreatedAtGreaterThanOrderByCreatedAtAsc(anyLong());
+		verify(serviceInstanceRepository, never()).insert(any(ServiceInstance.class));
+	}
+
+	@Test
+	public void refillCreatesNoMoreThanTheRefillRate() throws Exception {
+		when(warmPoolEntryRepository.findByCreatedAtLessThanEqual(anyLong())).thenReturn(Collections.emptyList());
+		when(warmPoolEntryRepository.countByCreatedAtGreaterThan(anyLong())).thenReturn(1L);
+		when(s3Service.createUserResult(anyString())).then(invocation -> {
+			S3User user = new S3User((String) invocation.getArguments()[0]);
+			user.setAccessKeyId("key");
+			user.setAccessKeySecret("secret");
+			return user;
+		});
+
+		warmPool.refill();
+
+		verify(s3Service, times(2)).createUserResult(startsWith(WarmPool.NAME_PREFIX));
+		verify(warmPoolEntryRepository, times(2)).save(any(WarmPoolEntry.class));
+	}
+
+	@Test
+	public void refillStopsWhenThePoolIsFull() throws Exception {
+		when(warmPoolEntryRepository.findByCreatedAtLessThanEqual(anyLong())).thenReturn(Collections.emptyList());
+		when(warmPoolEntryRepository.countByCreatedAtGreaterThan(anyLong())).thenReturn(5L);
+
+		warmPool.refill();
+
+		verify(s3Service, never()).createUserResult(anyString());
+	}
+
+	@Test
+	public void refillRetiresExpiredEntriesOnceTheirResourcesAreDeleted() throws Exception {
+		when(warmPoolEntryRepository.findByCreatedAtLessThanEqual(NOW - 1000))
+				.thenReturn(Collections.singletonList(new WarmPoolEntry("warm-old", "key-old", "secret-old", 0)));
+		when(warmPoolEntryRepository.retire("warm-old", NOW - 1000, WarmPoolEntry.RETIRING)).thenReturn(1);
+		when(warmPoolEntryRepository.countByCreatedAtGreaterThan(anyLong())).thenReturn(5L);
+		when(s3Service.deleteServiceInstanceBucket("warm-old", "key-old", "warm-old")).thenReturn(true);
+
+		warmPool.refill();
+
+		verify(warmPoolEntryRepository, never()).claim(anyString(), anyLong());
+		verify(s3Service).deleteServiceInstanceBucket("warm-old", "key-old", "warm-old");
+		verify(warmPoolEntryRepository).removeRetired("warm-old", WarmPoolEntry.RETIRING);
+		assertEquals(1L, metric("broker.warm-pool.retired"));
+	}
+
+	@Test
+	public void failedRetirementKeepsTheEntryAndIsRetriedByTheNextRefill() throws Exception {
+		when(warmPoolEntryRepository.findByCreatedAtLessThanEqual(NOW - 1000))
+				.thenReturn(Collections.singletonList(new WarmPoolEntry("warm-old", "key-old", "secret-old", 0)))
+				.thenReturn(Collections.singletonList(
+						new WarmPoolEntry("warm-old", "key-old", "secret-old", WarmPoolEntry.RETIRING)));
+		when(warmPoolEntryRepository.retire("warm-old", NOW - 1000, WarmPoolEntry.RETIRING)).thenReturn(1);
+		when(warmPoolEntryRepository.countByCreatedAtGreaterThan(anyLong())).thenReturn(5L);
+		when(s3Service.deleteServiceInstanceBucket("warm-old", "key-old", "warm-old"))
+				.thenReturn(false)
+				.thenReturn(true);
+
+		warmPool.refill();
+
+		verify(warmPoolEntryRepository, never()).removeRetired(anyString(), anyLong());
+		assertEquals(0L, metric("broker.warm-pool.retired"));
+
+		// The entry is already retiring, so it is not marked again
+		warmPool.refill();
+
+		verify(warmPoolEntryRepository, times(1)).retire(anyString(), anyLong(), anyLong());
+		verify(warmPoolEntryRepository).removeRetired("warm-old", WarmPoolEntry.RETIRING);
+		assertEquals(1L, metric("broker.warm-pool.retired"));
+	}
+
+	@Test
+	public void expiredEntryThatWasClaimedMeanwhileIsNotRetired() throws Exception {
+		when(warmPoolEntryRepository.findByCreatedAtLessThanEqual(NOW - 1000))
+				.thenReturn(Collections.singletonList(new WarmPoolEntry("warm-old", "key-old", "secret-old", 0)));
+		when(warmPoolEntryRepository.retire("warm-old", NOW - 1000, WarmPoolEntry.RETIRING)).thenReturn(0);
+		when(warmPoolEntryRepository.countByCreatedAtGreaterThan(anyLong())).thenReturn(5L);
+
+		warmPool.refill();
+
+		verify(s3Service, never()).deleteServiceInstanceBucket(anyString(), anyString(), anyString());
+	}
+
+	@Test
+	public void resourcesOfAnEntryThatCouldNotBeSavedAreDeleted() throws Exception {
+		when(warmPoolEntryRepository.findByCreatedAtLessThanEqual(anyLong())).thenReturn(Collections.emptyList());
+		when(warmPoolEntryRepository.countByCreatedAtGreaterThan(anyLong())).thenReturn(0L);
+		when(s3Service.createUserResult(anyString())).then(invocation -> {
+			S3User user = new S3User((String) invocation.getArguments()[0]);
+			user.setAccessKeyId("key");
+			user.setAccessKeySecret("secret");
+			return user;
+		});
+		when(warmPoolEntryRepository.save(any(WarmPoolEntry.class))).thenThrow(new IllegalStateException("down"));
+
+		warmPool.refill();
+
+		verify(s3Service, times(1)).createUserResult(startsWith(WarmPool.NAME_PREFIX));
+		verify(s3Service).deleteServiceInstanceBucket(startsWith(WarmPool.NAME_PREFIX), eq("key"),
+				startsWith(WarmPool.NAME_PREFIX));
+		assertEquals(1L, metric("broker.warm-pool.refill-failures"));
+	}
+
+	private long metric(String name) {
+		return warmPool.metrics().stream()
+				.filter(metric -> metric.getName().equals(name))
+				.findFirst().map(Metric::getValue).orElseThrow(AssertionError::new).longValue();
+	}
+}
@@ -2,6 +2,7 @@ package org.cloudfoundry.community.servicebroker.service.impl;
 
 import org.cloudfoundry.community.servicebroker.ServiceBrokerApplication;
 import org.cloudfoundry.community.servicebroker.catalog.Catalog;
+import org.cloudfoundry.community.servicebroker.catalog.Plan;
 import org.cloudfoundry.community.servicebroker.catalog.ServiceDefinition;
 import org.cloudfoundry.community.servicebroker.repositories.ServiceDefinitionRepository;
 import org.cloudfoundry.community.servicebroker.service.BeanCatalogService;
@@ -15,6 +16,7 @@ import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
@@ -44,6 +46,7 @@ public class BeanCatalogServiceTest {
 		defs.add(serviceDefinition);
 		catalog = new Catalog(defs);
         serviceDefinitionRepository.save(serviceDefinition);
+        service.reload();
 	}
 	
 	@Test
@@ -60,5 +63,24 @@ public class BeanCatalogServiceTest {
 	public void itDoesNotFindServiceDefinition() {
 		assertNull(service.getServiceDefinition("NOT_THERE"));
 	}
+
+	@Test
+	public void itFindsPlan() {
+		Plan plan = new Plan("plan-id", "Plan", "Description");
+		serviceDefinitionRepository.save(new ServiceDefinition("svc-def-with-plan-id", "Name", "Description", true,
+				Collections.singleton(plan)));
+
+		try {
+			// The snapshot only changes when it is reloaded
+			assertNull(service.getPlan("plan-id"));
+
+			service.reload();
+
+			assertEquals(plan, service.getPlan("plan-id"));
+			assertNull(service.getPlan("NOT_THERE"));
+		} finally {
+			serviceDefinitionRepository.delete("svc-def-with-plan-id");
+		}
+	}
 	
 }
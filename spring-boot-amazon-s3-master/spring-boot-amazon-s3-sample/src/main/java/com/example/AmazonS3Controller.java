@@ -2,68 +2,155 @@ package com.example;
 
 import amazon.s3.AmazonS3Template;
 import com.amazonaws.services.s3.model.*;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.apache.commons.fileupload.util.Streams;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.hateoas.Link;
-import org.springframework.hateoas.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.view.RedirectView;
 
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.util.List;
-import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/s3")
 public class AmazonS3Controller {
 
+    private static final int MAX_PAGE_SIZE = 1000;
+
     private AmazonS3Template amazonS3Template;
+    private ObjectMapper objectMapper;
     private String bucketName;
 
     @Autowired
-    public AmazonS3Controller(AmazonS3Template amazonS3Template,
+    public AmazonS3Controller(AmazonS3Template amazonS3Template, ObjectMapper objectMapper,
                               @Value("${amazon.s3.default-bucket}") String bucketName) {
         this.amazonS3Template = amazonS3Template;
+        this.objectMapper = objectMapper;
         this.bucketName = bucketName;
     }
 
+    /**
+     * List one page of the default bucket. A page holds at most {@code limit} objects, and the response carries the
+     * cursor of the next page until the last page has been returned. The page is written with a JSON generator as
+     * it is read from the listing, so no view of the page is built before it is serialized. Each object keeps the
+     * shape it had as a resource, with its public URL as the first link.
+     *
+     * @param limit  is the maximum number of objects in the page, from 1 up to the S3 limit of 1,000
+     * @param cursor is the cursor returned with the previous page, or absent for the first page
+     */
     @RequestMapping(method = RequestMethod.GET, path = "/resources")
-    public List<Resource<S3ObjectSummary>> getBucketResources() {
+    public ResponseEntity<StreamingResponseBody> getBucketResources(
+            @RequestParam(name = "limit", defaultValue = "100") int limit,
+            @RequestParam(name = "cursor", required = false) String cursor) {
 
+        // List before the response is committed, so that a failure is still reported with an error status
         ObjectListing objectListing = amazonS3Template.getAmazonS3Client()
                 .listObjects(new ListObjectsRequest()
-                        .withBucketName(bucketName));
-
-        return objectListing.getObjectSummaries()
-                .stream()
-                .map(a -> new Resource<>(a,
-                        new Link(String.format("https://s3.amazonaws.com/%s/%s",
-                                a.getBucketName(), a.getKey())).withRel("url")))
-                .collect(Collectors.toList());
+                        .withBucketName(bucketName)
+                        .withMarker(cursor)
+                        .withMaxKeys(Math.max(1, Math.min(limit, MAX_PAGE_SIZE))));
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(out -> writePage(objectListing, out));
+    }
+
+    private void writePage(ObjectListing objectListing, OutputStream out) throws IOException {
+        List<S3ObjectSummary> summaries = objectListing.getObjectSummaries();
+
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("content");
+            for (S3ObjectSummary summary : summaries) {
+                generator.writeStartObject();
+                generator.writeStringField("bucketName", summary.getBucketName());
+                generator.writeStringField("key", summary.getKey());
+                generator.writeStringField("eTag", summary.getETag());
+                generator.writeNumberField("size", summary.getSize());
+                if (summary.getLastModified() != null)
+                    generator.writeNumberField("lastModified", summary.getLastModified().getTime());
+                generator.writeStringField("storageClass", summary.getStorageClass());
+                generator.writeArrayFieldStart("links");
+                generator.writeStartObject();
+                generator.writeStringField("rel", "url");
+                generator.writeStringField("href", String.format("https://s3.amazonaws.com/%s/%s",
+                        summary.getBucketName(), summary.getKey()));
+                generator.writeEndObject();
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+
+            // S3 only returns the next marker for delimited listings, otherwise the last key is the marker
+            String next = null;
+            if (objectListing.isTruncated() && !summaries.isEmpty())
+                next = objectListing.getNextMarker() != null ? objectListing.getNextMarker()
+                        : summaries.get(summaries.size() - 1).getKey();
+            generator.writeStringField("cursor", next);
+            generator.writeEndObject();
+        }
     }
 
+    /**
+     * Stream an uploaded file into the default bucket without holding it in memory or on disk. The request is read
+     * with the streaming API of commons-fileupload, so the file part is passed straight on to a multipart upload
+     * whose part buffers bound the heap used by the upload, however large the file is. The form sends its name field
+     * ahead of the file, if it does not the file is stored under its own file name.
+     */
     @RequestMapping(value = "/resources", method = RequestMethod.POST)
     public
     @ResponseBody
-    Object handleFileUpload(@RequestParam("name") String name,
-                            @RequestParam("file") MultipartFile file) {
-        if (!file.isEmpty()) {
-            try {
-                ObjectMetadata objectMetadata = new ObjectMetadata();
-                objectMetadata.setContentType(file.getContentType());
-
-                // Upload the file for public read
-                amazonS3Template.getAmazonS3Client().putObject(
-                        new PutObjectRequest(bucketName, name,
-                                file.getInputStream(), objectMetadata)
-                                .withCannedAcl(CannedAccessControlList.PublicRead));
-
-                return new RedirectView("/");
-            } catch (Exception e) {
-                return "You failed to upload " + name + " => " + e.getMessage();
+    Object handleFileUpload(HttpServletRequest request) {
+        String name = null;
+
+        try {
+            FileItemIterator items = new ServletFileUpload().getItemIterator(request);
+
+            while (items.hasNext()) {
+                FileItemStream item = items.next();
+
+                if (item.isFormField()) {
+                    try (InputStream in = item.openStream()) {
+                        if ("name".equals(item.getFieldName()))
+                            name = Streams.asString(in, "UTF-8");
+                    }
+                } else if ("file".equals(item.getFieldName())) {
+                    if (name == null || name.isEmpty())
+                        name = item.getName();
+
+                    ObjectMetadata objectMetadata = new ObjectMetadata();
+                    objectMetadata.setContentType(item.getContentType());
+
+                    try (PushbackInputStream in = new PushbackInputStream(item.openStream())) {
+                        int first = in.read();
+                        if (first == -1)
+                            return "You failed to upload " + name + " because the file was empty.";
+                        in.unread(first);
+
+                        // Upload the file for public read
+                        amazonS3Template.save(name, in, objectMetadata, CannedAccessControlList.PublicRead);
+                    }
+
+                    return new RedirectView("/");
+                }
             }
-        } else {
+
             return "You failed to upload " + name + " because the file was empty.";
+        } catch (Exception e) {
+            return "You failed to upload " + name + " => " + e.getMessage();
         }
     }
 }
@@ -1,11 +1,16 @@
 $(document).ready(function() {
+    var pageSize = 60;
+    var cursor = null;
+    var loading = false;
+    var finished = false;
+
     $("input:file").change(function() {
         var fileName = $(this).val();
         $("#fileName").val(fileName.split("\\").pop())
             .attr("disabled", null);
     });
 
-    $.getJSON("/s3/resources", function(data) {
+    function renderItems(data) {
         var items = [];
         $.each(data, function(key, val) {
             var fileName = val.links[0].href;
@@ -30,5 +35,42 @@ $(document).ready(function() {
             "class": "my-new-list",
             html: items.join("")
         }).appendTo("#images");
+    }
+
+    // Load the next page once the bottom of the list is within a screen of the viewport
+    function nearBottom() {
+        return $(window).scrollTop() + 2 * $(window).height() >= $(document).height();
+    }
+
+    function loadPage() {
+        if (loading || finished) {
+            return;
+        }
+        loading = true;
+
+        var params = {limit: pageSize};
+        if (cursor) {
+            params.cursor = cursor;
+        }
+
+        $.getJSON("/s3/resources", params, function(page) {
+            renderItems(page.content);
+            cursor = page.cursor;
+            finished = !cursor;
+        }).always(function() {
+            loading = false;
+            // Keep loading until the page can scroll, otherwise no scroll event would load the rest
+            if (!finished && nearBottom()) {
+                loadPage();
+            }
+        });
+    }
+
+    $(window).scroll(function() {
+        if (nearBottom()) {
+            loadPage();
+        }
     });
+
+    loadPage();
 });
@@ -0,0 +1,153 @@
+package com.example;
+
+import amazon.s3.AmazonS3Template;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.internal.StaticCredentialsProvider;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.*;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.boot.test.WebIntegrationTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Streams a multipart request through the embedded server into the upload endpoint, with a stand-in for Amazon S3
+ * that counts and discards what it receives. The tests run with a heap smaller than the uploaded file (see the
+ * surefire argLine), so buffering the file in the server, the controller or the template fails the test.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = {DemoApplication.class, AmazonS3ControllerTest.StandInConfiguration.class})
+@WebIntegrationTest(randomPort = true)
+public class AmazonS3ControllerTest {
+
+	private static final long ONE_GIGABYTE = 1024L * 1024 * 1024;
+	private static final long PART_SIZE = 8 * 1024 * 1024;
+	private static final String BOUNDARY = "upload-boundary";
+
+	@Value("${local.server.port}")
+	private int port;
+
+	@Autowired
+	private StandInConfiguration standIn;
+
+	@Test
+	public void oneGigabyteFileIsStreamedIntoAMultipartUpload() throws IOException {
+		assumeTrue("The heap must be smaller than the file", Runtime.getRuntime().maxMemory() < ONE_GIGABYTE);
+
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/s3/resources")
+				.openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setInstanceFollowRedirects(false);
+		connection.setChunkedStreamingMode(64 * 1024);
+		connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + BOUNDARY);
+
+		try (OutputStream out = connection.getOutputStream()) {
+			write(out, "--" + BOUNDARY + "\r\n"
+					+ "Content-Disposition: form-data; name=\"name\"\r\n\r\n"
+					+ "large.bin\r\n"
+					+ "--" + BOUNDARY + "\r\n"
+					+ "Content-Disposition: form-data; name=\"file\"; filename=\"large.bin\"\r\n"
+					+ "Content-Type: application/octet-stream\r\n\r\n");
+			byte[] chunk = new byte[64 * 1024];
+			Arrays.fill(chunk, (byte) 'x');
+			for (long written = 0; written < ONE_GIGABYTE; written += chunk.length) {
+				out.write(chunk);
+			}
+			write(out, "\r\n--" + BOUNDARY + "--\r\n");
+		}
+
+		// The controller redirects to the form once the upload has completed
+		assertEquals(302, connection.getResponseCode());
+		assertEquals(ONE_GIGABYTE, standIn.bytesReceived.get());
+		assertEquals(1, standIn.completedUploads.get());
+		assertEquals(ONE_GIGABYTE / PART_SIZE, standIn.parts.get());
+	}
+
+	private static void write(OutputStream out, String text) throws IOException {
+		out.write(text.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Replaces the template of the auto-configuration with one whose client is a stand-in for Amazon S3
+	 */
+	static class StandInConfiguration {
+
+		final AtomicLong bytesReceived = new AtomicLong();
+		final AtomicInteger parts = new AtomicInteger();
+		final AtomicInteger completedUploads = new AtomicInteger();
+
+		@Bean
+		AmazonS3Template amazonS3Template() {
+			AmazonS3 client = (AmazonS3) Proxy.newProxyInstance(AmazonS3.class.getClassLoader(),
+					new Class<?>[]{AmazonS3.class}, (proxy, method, args) -> {
+						switch (method.getName()) {
+							case "initiateMultipartUpload": {
+								InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+								result.setUploadId(UUID.randomUUID().toString());
+								return result;
+							}
+							case "uploadPart": {
+								UploadPartRequest request = (UploadPartRequest) args[0];
+								bytesReceived.addAndGet(drain(request.getInputStream()));
+								parts.incrementAndGet();
+								UploadPartResult result = new UploadPartResult();
+								result.setPartNumber(request.getPartNumber());
+								result.setETag(UUID.randomUUID().toString());
+								return result;
+							}
+							case "completeMultipartUpload":
+								completedUploads.incrementAndGet();
+								return new CompleteMultipartUploadResult();
+							case "putObject": {
+								bytesReceived.addAndGet(drain(((PutObjectRequest) args[0]).getInputStream()));
+								return new PutObjectResult();
+							}
+							case "abortMultipartUpload":
+								return null;
+							default:
+								throw new UnsupportedOperationException(method.getName());
+						}
+					});
+
+			AmazonS3Template template = new AmazonS3Template("bucket",
+					new StaticCredentialsProvider(new BasicAWSCredentials("access-key-id", "access-key-secret"))) {
+				@Override
+				public AmazonS3 getAmazonS3Client() {
+					return client;
+				}
+			};
+			template.setPartSize(PART_SIZE);
+			return template;
+		}
+
+		private static long drain(InputStream in) throws IOException {
+			byte[] buffer = new byte[8192];
+			long total = 0;
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				total += read;
+			}
+			return total;
+		}
+	}
+}
@@ -62,6 +62,8 @@ public class AmazonProperties {
 
         private String accessKeyId;
         private String accessKeySecret;
+        private int sessionDuration = AmazonS3Template.DEFAULT_SESSION_DURATION_SECONDS;
+        private int refreshMargin = AmazonS3Template.DEFAULT_REFRESH_MARGIN_SECONDS;
 
         /**
          * A valid AWS account's access key id.
@@ -99,11 +101,49 @@ public class AmazonProperties {
             this.accessKeySecret = accessKeySecret;
         }
 
+        /**
+         * The lifetime in seconds of the STS sessions used to access S3.
+         *
+         * @return the STS session duration in seconds
+         */
+        public int getSessionDuration() {
+            return sessionDuration;
+        }
+
+        /**
+         * The lifetime in seconds of the STS sessions used to access S3.
+         *
+         * @param sessionDuration is the STS session duration in seconds
+         */
+        public void setSessionDuration(int sessionDuration) {
+            this.sessionDuration = sessionDuration;
+        }
+
+        /**
+         * How many seconds before its expiration an STS session is renewed in the background.
+         *
+         * @return the refresh margin in seconds
+         */
+        public int getRefreshMargin() {
+            return refreshMargin;
+        }
+
+        /**
+         * How many seconds before its expiration an STS session is renewed in the background.
+         *
+         * @param refreshMargin is the refresh margin in seconds
+         */
+        public void setRefreshMargin(int refreshMargin) {
+            this.refreshMargin = refreshMargin;
+        }
+
         @Override
         public String toString() {
             return "Aws{" +
                     "accessKeyId='" + accessKeyId + '\'' +
                     ", accessKeySecret='" + accessKeySecret + '\'' +
+                    ", sessionDuration=" + sessionDuration +
+                    ", refreshMargin=" + refreshMargin +
                     '}';
         }
     }
@@ -114,6 +154,9 @@ public class AmazonProperties {
     public static class S3 {
 
         private String defaultBucket;
+        private long partSize = AmazonS3Template.DEFAULT_PART_SIZE;
+        private long multipartThreshold = AmazonS3Template.DEFAULT_MULTIPART_THRESHOLD;
+        private int transferConcurrency = AmazonS3Template.DEFAULT_TRANSFER_CONCURRENCY;
 
         /**
          * The Amazon S3 bucket name for this application.
@@ -133,10 +176,67 @@ public class AmazonProperties {
             this.defaultBucket = defaultBucket;
         }
 
+        /**
+         * The size in bytes of each part of a multipart transfer.
+         *
+         * @return the part size in bytes
+         */
+        public long getPartSize() {
+            return partSize;
+        }
+
+        /**
+         * The size in bytes of each part of a multipart transfer.
+         *
+         * @param partSize is the part size in bytes
+         */
+        public void setPartSize(long partSize) {
+            this.partSize = partSize;
+        }
+
+        /**
+         * The object size in bytes from which transfers are split into parts.
+         *
+         * @return the multipart threshold in bytes
+         */
+        public long getMultipartThreshold() {
+            return multipartThreshold;
+        }
+
+        /**
+         * The object size in bytes from which transfers are split into parts.
+         *
+         * @param multipartThreshold is the multipart threshold in bytes
+         */
+        public void setMultipartThreshold(long multipartThreshold) {
+            this.multipartThreshold = multipartThreshold;
+        }
+
+        /**
+         * The number of parts that are transferred concurrently.
+         *
+         * @return the number of concurrent part transfers
+         */
+        public int getTransferConcurrency() {
+            return transferConcurrency;
+        }
+
+        /**
+         * The number of parts that are transferred concurrently.
+         *
+         * @param transferConcurrency is the number of concurrent part transfers
+         */
+        public void setTransferConcurrency(int transferConcurrency) {
+            this.transferConcurrency = transferConcurrency;
+        }
+
         @Override
         public String toString() {
             return "S3{" +
                     "defaultBucket='" + defaultBucket + '\'' +
+                    ", partSize=" + partSize +
+                    ", multipartThreshold=" + multipartThreshold +
+                    ", transferConcurrency=" + transferConcurrency +
                     '}';
         }
     }
@@ -1,19 +1,24 @@
 package amazon.s3;
 
+import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
-import com.amazonaws.auth.BasicSessionCredentials;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3Client;
-import com.amazonaws.services.s3.model.PutObjectRequest;
-import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.CannedAccessControlList;
+import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.transfer.model.UploadResult;
 import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClient;
-import com.amazonaws.services.securitytoken.model.Credentials;
-import com.amazonaws.services.securitytoken.model.GetSessionTokenRequest;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.stereotype.Component;
 
 import java.io.File;
-import java.util.Date;
+import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class is a client for interacting with Amazon S3 bucket resources.
@@ -21,12 +26,24 @@ import java.util.Date;
  * @author kbastani
  */
 @Component
-public class AmazonS3Template {
+public class AmazonS3Template implements DisposableBean {
+
+    static final int DEFAULT_SESSION_DURATION_SECONDS = 43200;
+    static final int DEFAULT_REFRESH_MARGIN_SECONDS = 600;
+    static final long DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+    static final long DEFAULT_MULTIPART_THRESHOLD = 16 * 1024 * 1024;
+    static final int DEFAULT_TRANSFER_CONCURRENCY = 4;
 
     private String defaultBucket;
-    private String accessKeyId;
-    private String accessKeySecret;
-    private Credentials sessionCredentials;
+    private final AWSCredentialsProvider credentialsProvider;
+    private SessionCredentialsRefresher ownedRefresher;
+    private volatile AmazonS3Client amazonS3Client;
+    private long partSize = DEFAULT_PART_SIZE;
+    private long multipartThreshold = DEFAULT_MULTIPART_THRESHOLD;
+    private int transferConcurrency = DEFAULT_TRANSFER_CONCURRENCY;
+    private ExecutorService transferExecutor;
+    private MultipartUploader multipartUploader;
+    private RangedDownloader rangedDownloader;
 
     /**
      * Create a new instance of the {@link AmazonS3Template} with the bucket name and access credentials
@@ -37,78 +54,199 @@ public class AmazonS3Template {
      */
     public AmazonS3Template(String defaultBucket, String accessKeyId,
                             String accessKeySecret) {
+        this(defaultBucket, new SessionCredentialsRefresher(
+                new AWSSecurityTokenServiceClient(new BasicAWSCredentials(accessKeyId, accessKeySecret)),
+                DEFAULT_SESSION_DURATION_SECONDS, TimeUnit.SECONDS.toMillis(DEFAULT_REFRESH_MARGIN_SECONDS)));
+        this.ownedRefresher = (SessionCredentialsRefresher) credentialsProvider;
+    }
+
+    /**
+     * Create a new instance of the {@link AmazonS3Template} with the bucket name and a provider of the credentials
+     * used to sign requests
+     *
+     * @param defaultBucket       is the name of a default bucket from the Amazon S3 provider
+     * @param credentialsProvider provides the credentials for the specified bucket name
+     */
+    public AmazonS3Template(String defaultBucket, AWSCredentialsProvider credentialsProvider) {
         this.defaultBucket = defaultBucket;
-        this.accessKeyId = accessKeyId;
-        this.accessKeySecret = accessKeySecret;
+        this.credentialsProvider = credentialsProvider;
     }
 
     /**
-     * Save a file using authenticated session credentials
+     * Save a file using authenticated session credentials. Files larger than the multipart threshold are uploaded
+     * in parts concurrently.
      *
      * @param key  is the name of the file to save in the bucket
      * @param file is the file that will be saved
-     * @return an instance of {@link PutObjectResult} containing the result of the save operation
+     * @return an instance of {@link UploadResult} containing the result of the save operation
+     */
+    public UploadResult save(String key, File file) {
+        return save(key, file, UploadProgressListener.NONE);
+    }
+
+    /**
+     * Save a file using authenticated session credentials, reporting the progress of each uploaded part
+     *
+     * @param key      is the name of the file to save in the bucket
+     * @param file     is the file that will be saved
+     * @param listener receives the progress of the upload
+     * @return an instance of {@link UploadResult} containing the result of the save operation
      */
-    public PutObjectResult save(String key, File file) {
-        return getAmazonS3Client().putObject(new PutObjectRequest(defaultBucket, key, file));
+    public UploadResult save(String key, File file, UploadProgressListener listener) {
+        return getMultipartUploader().upload(defaultBucket, key, file, new ObjectMetadata(), listener);
     }
 
     /**
-     * Get a file using the authenticated session credentials
+     * Save the content of a stream of unknown length using authenticated session credentials. The stream is
+     * uploaded in parts through a fixed pool of part buffers, so memory use does not grow with the content length.
+     *
+     * @param key      is the name of the file to save in the bucket
+     * @param in       is the content of the file, it is read to its end but not closed
+     * @param metadata is the metadata of the file
+     * @param acl      is the canned access control list of the file, or null for the bucket default
+     * @return an instance of {@link UploadResult} containing the result of the save operation
+     */
+    public UploadResult save(String key, InputStream in, ObjectMetadata metadata, CannedAccessControlList acl) {
+        return getMultipartUploader().upload(defaultBucket, key, in, metadata, acl, UploadProgressListener.NONE);
+    }
+
+    /**
+     * Get a file using the authenticated session credentials. The returned object holds an open connection until
+     * it is closed, prefer {@link #download(String, File)} or {@link #download(String, WritableByteChannel)}.
      *
      * @param key is the key of the file in the bucket that should be retrieved
-     * @return an instance of {@link S3Object} containing the file from S3
+     * @return an instance of {@link S3Object} containing the file from S3, which the caller must close
      */
     public S3Object get(String key) {
         return getAmazonS3Client().getObject(defaultBucket, key);
     }
 
     /**
-     * Gets an Amazon S3 client from basic session credentials
+     * Download a file into a local file using the authenticated session credentials. Files larger than the
+     * multipart threshold are fetched in byte ranges concurrently.
+     *
+     * @param key    is the key of the file in the bucket that should be retrieved
+     * @param target is the local file to write
+     * @return the metadata of the downloaded file
+     */
+    public ObjectMetadata download(String key, File target) {
+        return getRangedDownloader().download(defaultBucket, key, target);
+    }
+
+    /**
+     * Download a file into a channel using the authenticated session credentials. Files larger than the multipart
+     * threshold are fetched in byte ranges concurrently and written to the channel in order.
+     *
+     * @param key    is the key of the file in the bucket that should be retrieved
+     * @param target is the channel to write the file's content to, it is not closed
+     * @return the metadata of the downloaded file
+     */
+    public ObjectMetadata download(String key, WritableByteChannel target) {
+        return getRangedDownloader().download(defaultBucket, key, target);
+    }
+
+    /**
+     * Gets the Amazon S3 client of this template. The client is created once and signs every request with the
+     * current session credentials, so rotating the session token does not require a new client and requests that
+     * are in flight during a rotation complete with the credentials they were signed with.
      *
      * @return an authenticated Amazon S3 client
      */
     public AmazonS3 getAmazonS3Client() {
-        BasicSessionCredentials basicSessionCredentials = getBasicSessionCredentials();
-
-        // Create a new S3 client using the basic session credentials of the service instance
-        return new AmazonS3Client(basicSessionCredentials);
+        AmazonS3Client client = amazonS3Client;
+
+        if (client == null) {
+            synchronized (this) {
+                client = amazonS3Client;
+                if (client == null) {
+                    // Create the S3 client once, using a provider of the service instance's session credentials
+                    client = new AmazonS3Client(credentialsProvider);
+                    amazonS3Client = client;
+                }
+            }
+        }
+
+        return client;
     }
 
     /**
-     * Get the basic session credentials for the template's configured IAM authentication keys
+     * Gets the multipart uploader of this template, which shares the template's client and transfer threads
      *
-     * @return a {@link BasicSessionCredentials} instance with a valid authenticated session token
+     * @return a multipart uploader for this template's bucket
      */
-    private BasicSessionCredentials getBasicSessionCredentials() {
+    public synchronized MultipartUploader getMultipartUploader() {
+        if (multipartUploader == null)
+            multipartUploader = new MultipartUploader(getAmazonS3Client(), getTransferExecutor(),
+                    transferConcurrency, partSize, multipartThreshold);
+        return multipartUploader;
+    }
 
-        // Create a new session token if the session is expired or not initialized
-        if (sessionCredentials == null || sessionCredentials.getExpiration().before(new Date()))
-            sessionCredentials = getSessionCredentials();
+    /**
+     * Gets the ranged downloader of this template, which shares the template's client and transfer threads
+     *
+     * @return a ranged downloader for this template's bucket
+     */
+    public synchronized RangedDownloader getRangedDownloader() {
+        if (rangedDownloader == null)
+            rangedDownloader = new RangedDownloader(getAmazonS3Client(), getTransferExecutor(), transferConcurrency,
+                    partSize, multipartThreshold);
+        return rangedDownloader;
+    }
 
-        // Create basic session credentials using the generated session token
-        return new BasicSessionCredentials(sessionCredentials.getAccessKeyId(),
-                sessionCredentials.getSecretAccessKey(),
-                sessionCredentials.getSessionToken());
+    private synchronized ExecutorService getTransferExecutor() {
+        if (transferExecutor == null) {
+            AtomicInteger threadCount = new AtomicInteger();
+            transferExecutor = Executors.newFixedThreadPool(transferConcurrency, runnable -> {
+                Thread thread = new Thread(runnable, "s3-transfer-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return transferExecutor;
     }
 
     /**
-     * Creates a new session credential that is valid for 12 hours
+     * The size of each part of a multipart transfer.
      *
-     * @return an authenticated {@link Credentials} for the new session token
+     * @param partSize is the part size in bytes
      */
-    private Credentials getSessionCredentials() {
-        // Create a new session with the user credentials for the service instance
-        AWSSecurityTokenServiceClient stsClient =
-                new AWSSecurityTokenServiceClient(new BasicAWSCredentials(accessKeyId, accessKeySecret));
+    public void setPartSize(long partSize) {
+        this.partSize = partSize;
+    }
 
-        // Start a new session for managing a service instance's bucket
-        GetSessionTokenRequest getSessionTokenRequest =
-                new GetSessionTokenRequest().withDurationSeconds(43200);
+    /**
+     * The object size from which transfers are split into parts.
+     *
+     * @param multipartThreshold is the multipart threshold in bytes
+     */
+    public void setMultipartThreshold(long multipartThreshold) {
+        this.multipartThreshold = multipartThreshold;
+    }
 
-        // Get the session token for the service instance's bucket
-        sessionCredentials = stsClient.getSessionToken(getSessionTokenRequest).getCredentials();
+    /**
+     * The number of parts that are transferred concurrently.
+     *
+     * @param transferConcurrency is the number of concurrent part transfers
+     */
+    public void setTransferConcurrency(int transferConcurrency) {
+        this.transferConcurrency = transferConcurrency;
+    }
 
-        return sessionCredentials;
+    /**
+     * Release the connection pool of the template's Amazon S3 client
+     */
+    @Override
+    public void destroy() {
+        synchronized (this) {
+            if (transferExecutor != null)
+                transferExecutor.shutdownNow();
+        }
+
+        AmazonS3Client client = amazonS3Client;
+        if (client != null)
+            client.shutdown();
+
+        if (ownedRefresher != null)
+            ownedRefresher.close();
     }
 }
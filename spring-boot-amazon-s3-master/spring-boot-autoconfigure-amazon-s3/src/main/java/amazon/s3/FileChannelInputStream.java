@@ -0,0 +1,92 @@
+package amazon.s3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An input stream over a range of a file that reads through {@link FileChannel} positional reads. Positional reads
+ * do not move the channel's position, so any number of these streams can read different ranges of the same channel
+ * concurrently. The stream supports mark and reset, which lets the AWS SDK replay a part when it retries a request,
+ * without buffering the part on the heap.
+ */
+class FileChannelInputStream extends InputStream {
+
+    private final FileChannel channel;
+    private final long start;
+    private final long end;
+    private long position;
+    private long mark;
+
+    /**
+     * @param channel is the channel of the file to read
+     * @param start   is the offset of the first byte of the range
+     * @param length  is the number of bytes in the range
+     */
+    FileChannelInputStream(FileChannel channel, long start, long length) {
+        this.channel = channel;
+        this.start = start;
+        this.end = start + length;
+        this.position = start;
+        this.mark = start;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int read = read(single, 0, 1);
+        return read == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0)
+            return 0;
+
+        long remaining = end - position;
+        if (remaining <= 0)
+            return -1;
+
+        ByteBuffer target = ByteBuffer.wrap(buffer, offset, (int) Math.min(length, remaining));
+        int read = channel.read(target, position);
+        if (read > 0)
+            position += read;
+
+        return read;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = Math.max(0, Math.min(n, end - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, end - position);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        mark = position;
+    }
+
+    @Override
+    public synchronized void reset() {
+        position = mark;
+    }
+
+    /**
+     * The channel is shared by every part of an upload and is closed by its owner
+     */
+    @Override
+    public void close() {
+    }
+}
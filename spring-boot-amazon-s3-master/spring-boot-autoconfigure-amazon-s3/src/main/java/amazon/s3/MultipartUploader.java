@@ -0,0 +1,387 @@
+package amazon.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.*;
+import com.amazonaws.services.s3.transfer.model.UploadResult;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Uploads files and streams to Amazon S3, splitting uploads above a size threshold into parts that are uploaded
+ * concurrently. Parts of a file are streamed from the file with positional reads. Parts of a stream of unknown
+ * length are read into a fixed pool of part buffers, so the heap used by stream uploads is bounded by the pool
+ * regardless of their size. A multipart upload that fails is aborted, once its parts in flight have finished, so that
+ * its parts do not linger in the bucket.
+ */
+public class MultipartUploader {
+
+    /**
+     * The maximum number of parts Amazon S3 accepts in one multipart upload
+     */
+    static final int MAX_PARTS = 10000;
+
+    private final Log log = LogFactory.getLog(MultipartUploader.class);
+
+    private final AmazonS3 amazonS3;
+    private final ExecutorService executor;
+    private final long partSize;
+    private final long multipartThreshold;
+    private final PartBufferPool partBuffers;
+
+    /**
+     * Create a new uploader
+     *
+     * @param amazonS3           is the client used to upload parts
+     * @param executor           runs the part uploads, its size bounds the number of concurrent part uploads
+     * @param concurrency        is the number of part buffers shared by all stream uploads
+     * @param partSize           is the size of each part, the last part of an upload may be smaller
+     * @param multipartThreshold is the file size from which files are uploaded in parts
+     */
+    public MultipartUploader(AmazonS3 amazonS3, ExecutorService executor, int concurrency, long partSize,
+                             long multipartThreshold) {
+        this.amazonS3 = amazonS3;
+        this.executor = executor;
+        this.partSize = partSize;
+        this.multipartThreshold = multipartThreshold;
+        this.partBuffers = new PartBufferPool(concurrency, (int) partSize);
+    }
+
+    /**
+     * Upload a file, in parts if it is larger than the multipart threshold
+     *
+     * @param bucketName is the name of the destination bucket
+     * @param key        is the key of the uploaded object
+     * @param file       is the file to upload
+     * @param metadata   is the metadata of the uploaded object
+     * @param listener   receives the progress of the upload
+     * @return the result of the upload
+     */
+    public UploadResult upload(String bucketName, String key, File file, ObjectMetadata metadata,
+                               UploadProgressListener listener) {
+        long contentLength = file.length();
+
+        if (contentLength < multipartThreshold) {
+            PutObjectResult result = amazonS3.putObject(new PutObjectRequest(bucketName, key, file)
+                    .withMetadata(metadata));
+            listener.partCompleted(1, contentLength, contentLength, contentLength);
+            return uploadResult(bucketName, key, result.getETag(), result.getVersionId());
+        }
+
+        String uploadId = amazonS3.initiateMultipartUpload(
+                new InitiateMultipartUploadRequest(bucketName, key, metadata)).getUploadId();
+        List<Future<PartETag>> parts = new ArrayList<>();
+        AtomicBoolean aborted = new AtomicBoolean();
+
+        // The channel stays open until an aborted upload's parts have finished reading from it
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            try {
+                // Grow the parts of very large files so that the upload stays within the part limit
+                long size = Math.max(partSize, (contentLength + MAX_PARTS - 1) / MAX_PARTS);
+                int partCount = (int) ((contentLength + size - 1) / size);
+                AtomicLong bytesTransferred = new AtomicLong();
+
+                for (int i = 0; i < partCount; i++) {
+                    int partNumber = i + 1;
+                    long offset = i * size;
+                    long length = Math.min(size, contentLength - offset);
+
+                    parts.add(executor.submit(() -> {
+                        if (aborted.get())
+                            return null;
+                        UploadPartResult result = amazonS3.uploadPart(new UploadPartRequest()
+                                .withBucketName(bucketName)
+                                .withKey(key)
+                                .withUploadId(uploadId)
+                                .withPartNumber(partNumber)
+                                .withPartSize(length)
+                                .withInputStream(new FileChannelInputStream(channel, offset, length)));
+                        listener.partCompleted(partNumber, length, bytesTransferred.addAndGet(length),
+                                contentLength);
+                        return result.getPartETag();
+                    }));
+                }
+
+                List<PartETag> partETags = new ArrayList<>(partCount);
+                for (Future<PartETag> part : parts) {
+                    partETags.add(part.get());
+                }
+
+                CompleteMultipartUploadResult result = amazonS3.completeMultipartUpload(
+                        new CompleteMultipartUploadRequest(bucketName, key, uploadId, partETags));
+                return uploadResult(bucketName, key, result.getETag(), result.getVersionId());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw abort(bucketName, key, uploadId, parts, aborted, ex);
+            } catch (ExecutionException ex) {
+                throw abort(bucketName, key, uploadId, parts, aborted, ex.getCause());
+            } catch (RuntimeException ex) {
+                throw abort(bucketName, key, uploadId, parts, aborted, ex);
+            }
+        } catch (IOException ex) {
+            throw abort(bucketName, key, uploadId, parts, aborted, ex);
+        }
+    }
+
+    /**
+     * Upload a stream of unknown length. The stream is read one part at a time into a buffer from the shared pool,
+     * and reading waits for a free buffer while all of them are being uploaded, so the upload holds at most the
+     * pool's buffers on the heap however long the stream is. A stream that ends within the first part is uploaded
+     * with a single PUT. A stream can have at most {@link #MAX_PARTS} parts, and a stream whose metadata gives a
+     * longer content length is refused before anything is read.
+     *
+     * @param bucketName is the name of the destination bucket
+     * @param key        is the key of the uploaded object
+     * @param in         is the stream to upload, it is read to its end but not closed
+     * @param metadata   is the metadata of the uploaded object
+     * @param acl        is the canned access control list of the uploaded object, or null for the bucket default
+     * @param listener   receives the progress of the upload, with a total size of -1 as the length is unknown
+     * @return the result of the upload
+     */
+    public UploadResult upload(String bucketName, String key, InputStream in, ObjectMetadata metadata,
+                               CannedAccessControlList acl, UploadProgressListener listener) {
+        if (metadata.getContentLength() > MAX_PARTS * partSize)
+            throw tooManyParts(bucketName, key);
+
+        byte[] buffer = acquireBuffer();
+        int length;
+
+        try {
+            length = fill(in, buffer);
+        } catch (IOException ex) {
+            partBuffers.release(buffer);
+            throw new AmazonClientException(String.format("Could not read the content of %s/%s", bucketName, key), ex);
+        }
+
+        if (length < buffer.length) {
+            try {
+                metadata.setContentLength(length);
+                PutObjectRequest request = new PutObjectRequest(bucketName, key,
+                        new ByteArrayInputStream(buffer, 0, length), metadata);
+                if (acl != null)
+                    request.setCannedAcl(acl);
+                PutObjectResult result = amazonS3.putObject(request);
+                listener.partCompleted(1, length, length, -1);
+                return uploadResult(bucketName, key, result.getETag(), result.getVersionId());
+            } finally {
+                partBuffers.release(buffer);
+            }
+        }
+
+        InitiateMultipartUploadRequest initiateRequest = new InitiateMultipartUploadRequest(bucketName, key, metadata);
+        if (acl != null)
+            initiateRequest.setCannedACL(acl);
+
+        String uploadId;
+        try {
+            uploadId = amazonS3.initiateMultipartUpload(initiateRequest).getUploadId();
+        } catch (RuntimeException ex) {
+            partBuffers.release(buffer);
+            throw ex;
+        }
+
+        List<Future<PartETag>> parts = new ArrayList<>();
+        AtomicBoolean aborted = new AtomicBoolean();
+        AtomicLong bytesTransferred = new AtomicLong();
+
+        try {
+            int partNumber = 0;
+
+            while (buffer != null) {
+                byte[] part = buffer;
+                int partLength = length;
+                int number = ++partNumber;
+                if (number > MAX_PARTS)
+                    throw tooManyParts(bucketName, key);
+                buffer = null;
+
+                parts.add(executor.submit(() -> {
+                    try {
+                        if (aborted.get())
+                            return null;
+                        UploadPartResult result = amazonS3.uploadPart(new UploadPartRequest()
+                                .withBucketName(bucketName)
+                                .withKey(key)
+                                .withUploadId(uploadId)
+                                .withPartNumber(number)
+                                .withPartSize(partLength)
+                                .withInputStream(new ByteArrayInputStream(part, 0, partLength)));
+                        listener.partCompleted(number, partLength, bytesTransferred.addAndGet(partLength), -1);
+                        return result.getPartETag();
+                    } finally {
+                        partBuffers.release(part);
+                    }
+                }));
+
+                // Stop reading once the stream has ended or a part has already failed
+                if (partLength < part.length || failed(parts))
+                    break;
+
+                buffer = partBuffers.acquire();
+                length = fill(in, buffer);
+                if (length == 0) {
+                    partBuffers.release(buffer);
+                    buffer = null;
+                }
+            }
+
+            List<PartETag> partETags = new ArrayList<>(parts.size());
+            for (Future<PartETag> part : parts) {
+                partETags.add(part.get());
+            }
+
+            CompleteMultipartUploadResult result = amazonS3.completeMultipartUpload(
+                    new CompleteMultipartUploadRequest(bucketName, key, uploadId, partETags));
+            return uploadResult(bucketName, key, result.getETag(), result.getVersionId());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw abort(bucketName, key, uploadId, parts, aborted, ex);
+        } catch (ExecutionException ex) {
+            throw abort(bucketName, key, uploadId, parts, aborted, ex.getCause());
+        } catch (IOException | RuntimeException ex) {
+            throw abort(bucketName, key, uploadId, parts, aborted, ex);
+        } finally {
+            // A buffer that was read into but not handed to a part, because reading failed, goes back to the pool
+            if (buffer != null)
+                partBuffers.release(buffer);
+        }
+    }
+
+    private AmazonClientException tooManyParts(String bucketName, String key) {
+        return new AmazonClientException(String.format("%s/%s is longer than %d parts of %d bytes", bucketName, key,
+                MAX_PARTS, partSize));
+    }
+
+    private byte[] acquireBuffer() {
+        try {
+            return partBuffers.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new AmazonClientException("Interrupted while waiting for a part buffer", ex);
+        }
+    }
+
+    private static boolean failed(List<Future<PartETag>> parts) throws InterruptedException {
+        for (Future<PartETag> part : parts) {
+            if (part.isDone()) {
+                try {
+                    part.get();
+                } catch (ExecutionException ex) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read from a stream until the buffer is full or the stream has ended
+     *
+     * @return the number of bytes read into the buffer
+     */
+    private static int fill(InputStream in, byte[] buffer) throws IOException {
+        int offset = 0;
+        int read;
+        while (offset < buffer.length && (read = in.read(buffer, offset, buffer.length - offset)) != -1) {
+            offset += read;
+        }
+        return offset;
+    }
+
+    /**
+     * Abort a multipart upload once none of its parts is uploading any more. Parts that have not started are skipped
+     * and parts in flight are left to finish rather than interrupted, as they run on the shared transfer threads and
+     * a part that completed after the abort would be stored again under the aborted upload.
+     */
+    private AmazonClientException abort(String bucketName, String key, String uploadId, List<Future<PartETag>> parts,
+                                        AtomicBoolean aborted, Throwable cause) {
+        aborted.set(true);
+        awaitParts(parts);
+
+        try {
+            amazonS3.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId));
+        } catch (Exception ex) {
+            log.warn(String.format("Could not abort multipart upload %s of %s/%s", uploadId, bucketName, key), ex);
+        }
+
+        return cause instanceof AmazonClientException ? (AmazonClientException) cause
+                : new AmazonClientException(String.format("Multipart upload of %s/%s failed", bucketName, key), cause);
+    }
+
+    /**
+     * Wait for every part to finish, whatever its outcome. An interrupt of the caller does not cut the wait short,
+     * it is restored once the parts are done.
+     */
+    private static void awaitParts(List<Future<PartETag>> parts) {
+        boolean interrupted = Thread.interrupted();
+
+        for (Future<PartETag> part : parts) {
+            while (true) {
+                try {
+                    part.get();
+                    break;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                } catch (ExecutionException | CancellationException ex) {
+                    break;
+                }
+            }
+        }
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private static UploadResult uploadResult(String bucketName, String key, String eTag, String versionId) {
+        UploadResult result = new UploadResult();
+        result.setBucketName(bucketName);
+        result.setKey(key);
+        result.setETag(eTag);
+        result.setVersionId(versionId);
+        return result;
+    }
+
+    /**
+     * A fixed number of part buffers that are allocated on first use and then reused
+     */
+    private static class PartBufferPool {
+
+        private final int bufferSize;
+        private final Semaphore permits;
+        private final Queue<byte[]> free = new ConcurrentLinkedQueue<>();
+
+        PartBufferPool(int buffers, int bufferSize) {
+            this.bufferSize = bufferSize;
+            this.permits = new Semaphore(buffers);
+        }
+
+        byte[] acquire() throws InterruptedException {
+            permits.acquire();
+            byte[] buffer = free.poll();
+            return buffer != null ? buffer : new byte[bufferSize];
+        }
+
+        void release(byte[] buffer) {
+            free.offer(buffer);
+            permits.release();
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package amazon.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Downloads objects from Amazon S3, splitting objects above a size threshold into byte ranges that are fetched
+ * concurrently. The first request is a ranged GET for up to the threshold, whose Content-Range gives the size of the
+ * object, so an object below the threshold is downloaded with that single request and the ranges of a larger one are
+ * requested while the first is being read. Every following range is requested with the ETag of the first response,
+ * so an object that is overwritten during the download fails the download instead of producing a mix of two versions.
+ * Every object stream is closed before its range completes, whether or not it was read successfully. A download that
+ * fails waits for its ranges in flight before it returns, so that none of them writes to the target afterwards.
+ */
+public class RangedDownloader {
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private static final int INVALID_RANGE = 416;
+
+    private final AmazonS3 amazonS3;
+    private final ExecutorService executor;
+    private final int concurrency;
+    private final long partSize;
+    private final long firstRangeSize;
+
+    /**
+     * Create a new downloader
+     *
+     * @param amazonS3           is the client used to fetch ranges
+     * @param executor           runs the range downloads
+     * @param concurrency        is the number of ranges that are buffered at once when writing to a channel
+     * @param partSize           is the size of each range, the last range of an object may be smaller
+     * @param multipartThreshold is the object size from which objects are downloaded in ranges
+     */
+    public RangedDownloader(AmazonS3 amazonS3, ExecutorService executor, int concurrency, long partSize,
+                            long multipartThreshold) {
+        this.amazonS3 = amazonS3;
+        this.executor = executor;
+        this.concurrency = concurrency;
+        this.partSize = partSize;
+        this.firstRangeSize = Math.max(partSize, multipartThreshold);
+    }
+
+    /**
+     * Download an object into a file. Ranges are written at their offset in the file as they arrive, so no range
+     * is held on the heap.
+     *
+     * @param bucketName is the name of the bucket containing the object
+     * @param key        is the key of the object
+     * @param file       is the file to write, it is created or truncated
+     * @return the metadata of the downloaded object
+     */
+    public ObjectMetadata download(String bucketName, String key, File file) {
+        // The channel stays open until a failed download's ranges have finished writing to it
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            List<Future<Void>> ranges = new ArrayList<>();
+            AtomicBoolean aborted = new AtomicBoolean();
+
+            try (S3Object initial = fetchFirstRange(bucketName, key)) {
+                ObjectMetadata metadata = initial.getObjectMetadata();
+                long contentLength = objectLength(metadata);
+                String eTag = metadata.getETag();
+
+                for (long start = Math.min(firstRangeSize, contentLength); start < contentLength; start += partSize) {
+                    long first = start;
+                    long last = Math.min(start + partSize, contentLength) - 1;
+
+                    ranges.add(executor.submit(() -> {
+                        if (aborted.get())
+                            return null;
+                        fetch(bucketName, key, eTag, new long[]{first, last}, in -> copy(in, channel, first));
+                        return null;
+                    }));
+                }
+
+                copy(initial.getObjectContent(), channel, 0);
+                for (Future<Void> range : ranges) {
+                    range.get();
+                }
+
+                metadata.setContentLength(contentLength);
+                return metadata;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw abort(bucketName, key, ranges, aborted, ex);
+            } catch (ExecutionException ex) {
+                throw abort(bucketName, key, ranges, aborted, ex.getCause());
+            } catch (IOException | RuntimeException ex) {
+                throw abort(bucketName, key, ranges, aborted, ex);
+            }
+        } catch (IOException ex) {
+            throw new AmazonClientException(String.format("Could not write %s/%s to %s", bucketName, key, file), ex);
+        }
+    }
+
+    /**
+     * Download an object into a channel. Ranges are fetched concurrently and written to the channel in order, with
+     * no more than the configured concurrency of ranges buffered at once.
+     *
+     * @param bucketName is the name of the bucket containing the object
+     * @param key        is the key of the object
+     * @param channel    is the channel to write the object's content to, it is not closed
+     * @return the metadata of the downloaded object
+     */
+    public ObjectMetadata download(String bucketName, String key, WritableByteChannel channel) {
+        Deque<Future<ByteBuffer>> window = new ArrayDeque<>();
+        AtomicBoolean aborted = new AtomicBoolean();
+
+        try (S3Object initial = fetchFirstRange(bucketName, key)) {
+            ObjectMetadata metadata = initial.getObjectMetadata();
+            long contentLength = objectLength(metadata);
+            String eTag = metadata.getETag();
+
+            // Fetch the next ranges while the first is written out, then write out the oldest range once it has
+            // arrived and keep the window full
+            long next = fillWindow(window, bucketName, key, eTag, Math.min(firstRangeSize, contentLength),
+                    contentLength, aborted);
+            copy(initial.getObjectContent(), channel);
+
+            while (!window.isEmpty()) {
+                ByteBuffer range = window.poll().get();
+                while (range.hasRemaining()) {
+                    channel.write(range);
+                }
+                next = fillWindow(window, bucketName, key, eTag, next, contentLength, aborted);
+            }
+
+            metadata.setContentLength(contentLength);
+            return metadata;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw abort(bucketName, key, window, aborted, ex);
+        } catch (ExecutionException ex) {
+            throw abort(bucketName, key, window, aborted, ex.getCause());
+        } catch (IOException | RuntimeException ex) {
+            throw abort(bucketName, key, window, aborted, ex);
+        }
+    }
+
+    /**
+     * Submit ranges from the given offset until the window is full or the object has been requested
+     *
+     * @return the offset of the first range that has not been requested
+     */
+    private long fillWindow(Deque<Future<ByteBuffer>> window, String bucketName, String key, String eTag, long next,
+                            long contentLength, AtomicBoolean aborted) {
+        while (next < contentLength && window.size() < concurrency) {
+            long first = next;
+            long last = Math.min(next + partSize, contentLength) - 1;
+            window.add(executor.submit(bufferRange(bucketName, key, eTag, first, last, aborted)));
+            next = last + 1;
+        }
+        return next;
+    }
+
+    /**
+     * Get the first range of an object. An empty object has no range to get, so it is got whole.
+     */
+    private S3Object fetchFirstRange(String bucketName, String key) {
+        try {
+            return amazonS3.getObject(new GetObjectRequest(bucketName, key).withRange(0, firstRangeSize - 1));
+        } catch (AmazonS3Exception ex) {
+            if (ex.getStatusCode() != INVALID_RANGE)
+                throw ex;
+            return amazonS3.getObject(new GetObjectRequest(bucketName, key));
+        }
+    }
+
+    /**
+     * @return the size of the whole object, from the Content-Range of a ranged response, or the length of a response
+     * that has none because it holds the whole object
+     */
+    private static long objectLength(ObjectMetadata metadata) {
+        Object contentRange = metadata.getRawMetadataValue(Headers.CONTENT_RANGE);
+        if (contentRange == null)
+            return metadata.getContentLength();
+
+        String value = contentRange.toString();
+        return Long.parseLong(value.substring(value.lastIndexOf('/') + 1).trim());
+    }
+
+    private Callable<ByteBuffer> bufferRange(String bucketName, String key, String eTag, long first, long last,
+                                             AtomicBoolean aborted) {
+        return () -> {
+            if (aborted.get())
+                return null;
+            byte[] buffer = new byte[(int) (last - first + 1)];
+            fetch(bucketName, key, eTag, new long[]{first, last}, in -> {
+                int offset = 0;
+                int read;
+                while (offset < buffer.length && (read = in.read(buffer, offset, buffer.length - offset)) != -1) {
+                    offset += read;
+                }
+                if (offset != buffer.length)
+                    throw new IOException(String.format("Range %d-%d of %s/%s ended after %d bytes",
+                            first, last, bucketName, key, offset));
+            });
+            return ByteBuffer.wrap(buffer);
+        };
+    }
+
+    /**
+     * Get a range of an object as long as its ETag has not changed, and always close its stream
+     */
+    private void fetch(String bucketName, String key, String eTag, long[] range, ContentConsumer consumer) {
+        S3Object object = amazonS3.getObject(new GetObjectRequest(bucketName, key)
+                .withMatchingETagConstraint(eTag)
+                .withRange(range[0], range[1]));
+
+        // The SDK returns null when the ETag constraint is not met
+        if (object == null)
+            throw new AmazonClientException(String.format("%s/%s changed during the download", bucketName, key));
+
+        try (S3Object content = object; InputStream in = content.getObjectContent()) {
+            consumer.accept(in);
+        } catch (IOException ex) {
+            throw new AmazonClientException(String.format("Could not read %s/%s", bucketName, key), ex);
+        }
+    }
+
+    private static void copy(InputStream in, WritableByteChannel channel) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            ByteBuffer source = ByteBuffer.wrap(buffer, 0, read);
+            while (source.hasRemaining()) {
+                channel.write(source);
+            }
+        }
+    }
+
+    private static void copy(InputStream in, FileChannel channel, long position) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            ByteBuffer source = ByteBuffer.wrap(buffer, 0, read);
+            while (source.hasRemaining()) {
+                position += channel.write(source, position);
+            }
+        }
+    }
+
+    /**
+     * Fail a download once none of its ranges is fetching any more. Ranges that have not started are skipped and
+     * ranges in flight are left to finish rather than interrupted, as they run on the shared transfer threads and an
+     * interrupt would close a file channel under every other range.
+     */
+    private static AmazonClientException abort(String bucketName, String key, Collection<? extends Future<?>> ranges,
+                                               AtomicBoolean aborted, Throwable cause) {
+        aborted.set(true);
+        awaitRanges(ranges);
+
+        return cause instanceof AmazonClientException ? (AmazonClientException) cause
+                : new AmazonClientException(String.format("Ranged download of %s/%s failed", bucketName, key), cause);
+    }
+
+    /**
+     * Wait for every range to finish, whatever its outcome. An interrupt of the caller does not cut the wait short,
+     * it is restored once the ranges are done.
+     */
+    private static void awaitRanges(Collection<? extends Future<?>> ranges) {
+        boolean interrupted = Thread.interrupted();
+
+        for (Future<?> range : ranges) {
+            while (true) {
+                try {
+                    range.get();
+                    break;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                } catch (ExecutionException | CancellationException ex) {
+                    break;
+                }
+            }
+        }
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private interface ContentConsumer {
+
+        void accept(InputStream in) throws IOException;
+    }
+}
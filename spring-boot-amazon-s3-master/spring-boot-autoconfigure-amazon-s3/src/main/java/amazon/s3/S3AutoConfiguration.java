@@ -1,11 +1,15 @@
 package amazon.s3;
 
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClient;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * This class auto-configures a {@link AmazonS3Template} bean.
  *
@@ -20,9 +24,21 @@ public class S3AutoConfiguration {
     private AmazonProperties amazonProperties;
 
     @Bean
-    AmazonS3Template amazonS3Template() {
-        return new AmazonS3Template(amazonProperties.getS3().getDefaultBucket(),
-                amazonProperties.getAws().getAccessKeyId(),
-                amazonProperties.getAws().getAccessKeySecret());
+    SessionCredentialsRefresher sessionCredentialsRefresher() {
+        AmazonProperties.Aws aws = amazonProperties.getAws();
+        return new SessionCredentialsRefresher(
+                new AWSSecurityTokenServiceClient(new BasicAWSCredentials(aws.getAccessKeyId(),
+                        aws.getAccessKeySecret())),
+                aws.getSessionDuration(), TimeUnit.SECONDS.toMillis(aws.getRefreshMargin()));
+    }
+
+    @Bean
+    AmazonS3Template amazonS3Template(SessionCredentialsRefresher sessionCredentialsRefresher) {
+        AmazonProperties.S3 s3 = amazonProperties.getS3();
+        AmazonS3Template template = new AmazonS3Template(s3.getDefaultBucket(), sessionCredentialsRefresher);
+        template.setPartSize(s3.getPartSize());
+        template.setMultipartThreshold(s3.getMultipartThreshold());
+        template.setTransferConcurrency(s3.getTransferConcurrency());
+        return template;
     }
 }
@@ -0,0 +1,184 @@
+package amazon.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.BasicSessionCredentials;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
+import com.amazonaws.services.securitytoken.model.Credentials;
+import com.amazonaws.services.securitytoken.model.GetSessionTokenRequest;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Closeable;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Provides STS session credentials that are renewed on a background thread ahead of their expiration. Request
+ * threads only read the current credentials and never wait on STS, except for the very first request which has
+ * nothing to sign with yet. Each session is renewed its refresh margin ahead of its expiration, or halfway through
+ * its lifetime if the margin is longer than that, and never sooner than a second after it was fetched. If a renewal
+ * fails, the current credentials keep being served while they are valid and the renewal is retried with an
+ * exponential backoff. Once they have expired, every request fails until a renewal succeeds.
+ */
+public class SessionCredentialsRefresher implements AWSCredentialsProvider, Closeable {
+
+    private static final long MIN_RETRY_DELAY = TimeUnit.SECONDS.toMillis(1);
+    private static final long MAX_RETRY_DELAY = TimeUnit.MINUTES.toMillis(1);
+
+    private final Log log = LogFactory.getLog(SessionCredentialsRefresher.class);
+
+    private final AWSSecurityTokenService stsClient;
+    private final int sessionDurationSeconds;
+    private final long refreshMarginMillis;
+    private final AtomicReference<SessionCredentials> current = new AtomicReference<>();
+    private final ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> pendingRefresh;
+    private volatile Exception lastFailure;
+    private int consecutiveFailures;
+
+    /**
+     * Create a new refresher of session credentials
+     *
+     * @param stsClient              is the security token service client authenticated with the IAM user's keys
+     * @param sessionDurationSeconds is the requested lifetime of each session
+     * @param refreshMarginMillis    is how long before the expiration of a session it is renewed
+     */
+    public SessionCredentialsRefresher(AWSSecurityTokenService stsClient, int sessionDurationSeconds,
+                                       long refreshMarginMillis) {
+        this.stsClient = stsClient;
+        this.sessionDurationSeconds = sessionDurationSeconds;
+        this.refreshMarginMillis = refreshMarginMillis;
+
+        if (refreshMarginMillis >= TimeUnit.SECONDS.toMillis(sessionDurationSeconds))
+            log.warn(String.format("The refresh margin of %d ms is not shorter than the session duration of %d s, " +
+                    "sessions will be renewed halfway through their lifetime", refreshMarginMillis,
+                    sessionDurationSeconds));
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sts-session-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public AWSCredentials getCredentials() {
+        SessionCredentials credentials = current.get();
+
+        // Only the first request waits for STS, later ones are served while renewals run in the background
+        if (credentials == null)
+            credentials = fetchInitialCredentials();
+
+        if (credentials.remainingMillis() <= 0)
+            throw new AmazonClientException(String.format(
+                    "The STS session credentials expired at %s and could not be renewed",
+                    new Date(credentials.expiration)), lastFailure);
+
+        return credentials.credentials;
+    }
+
+    /**
+     * Renew the session credentials on the background thread as soon as possible
+     */
+    @Override
+    public void refresh() {
+        scheduleRefresh(0);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private synchronized SessionCredentials fetchInitialCredentials() {
+        SessionCredentials credentials = current.get();
+
+        if (credentials == null) {
+            credentials = fetchCredentials();
+            current.set(credentials);
+            scheduleRefresh(credentials.refreshDelay());
+        }
+
+        return credentials;
+    }
+
+    /**
+     * Replace the pending renewal, so that there is never more than one renewal scheduled
+     */
+    private synchronized void scheduleRefresh(long delayMillis) {
+        if (scheduler.isShutdown())
+            return;
+
+        if (pendingRefresh != null)
+            pendingRefresh.cancel(false);
+
+        pendingRefresh = scheduler.schedule(this::renew, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void renew() {
+        SessionCredentials previous = current.get();
+
+        try {
+            SessionCredentials credentials = fetchCredentials();
+            current.set(credentials);
+            consecutiveFailures = 0;
+            lastFailure = null;
+            scheduleRefresh(credentials.refreshDelay());
+        } catch (Exception ex) {
+            lastFailure = ex;
+            consecutiveFailures++;
+
+            long retryDelay = Math.min(MAX_RETRY_DELAY, MIN_RETRY_DELAY << Math.min(consecutiveFailures - 1, 16));
+
+            if (previous != null && previous.remainingMillis() > 0) {
+                // Keep serving the current credentials, and retry at least twice before they expire
+                retryDelay = Math.min(retryDelay, Math.max(MIN_RETRY_DELAY, previous.remainingMillis() / 2));
+                log.warn(String.format("Could not renew STS session credentials, retrying in %d ms", retryDelay), ex);
+            } else {
+                log.error(String.format("Could not renew expired STS session credentials, every AWS request " +
+                        "fails until a renewal succeeds, retrying in %d ms", retryDelay), ex);
+            }
+
+            scheduleRefresh(retryDelay);
+        }
+    }
+
+    private SessionCredentials fetchCredentials() {
+        Credentials credentials = stsClient.getSessionToken(new GetSessionTokenRequest()
+                .withDurationSeconds(sessionDurationSeconds)).getCredentials();
+
+        return new SessionCredentials(new BasicSessionCredentials(credentials.getAccessKeyId(),
+                credentials.getSecretAccessKey(), credentials.getSessionToken()),
+                credentials.getExpiration().getTime());
+    }
+
+    private class SessionCredentials {
+
+        private final BasicSessionCredentials credentials;
+        private final long expiration;
+
+        SessionCredentials(BasicSessionCredentials credentials, long expiration) {
+            this.credentials = credentials;
+            this.expiration = expiration;
+        }
+
+        long remainingMillis() {
+            return expiration - System.currentTimeMillis();
+        }
+
+        /**
+         * The delay before renewing, which is at least a second so that a margin longer than the session never
+         * renews it in a loop
+         */
+        long refreshDelay() {
+            long remaining = remainingMillis();
+            return Math.max(MIN_RETRY_DELAY, Math.max(remaining - refreshMarginMillis, remaining / 2));
+        }
+    }
+}
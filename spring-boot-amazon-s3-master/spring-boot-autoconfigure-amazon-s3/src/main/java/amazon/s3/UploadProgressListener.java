@@ -0,0 +1,21 @@
+package amazon.s3;
+
+/**
+ * Receives the progress of an upload as each of its parts completes. Parts of a multipart upload complete
+ * concurrently, so implementations must be thread safe.
+ */
+public interface UploadProgressListener {
+
+    UploadProgressListener NONE = (partNumber, partBytes, bytesTransferred, totalBytes) -> {
+    };
+
+    /**
+     * Called after a part has been uploaded
+     *
+     * @param partNumber       is the number of the completed part, starting at 1
+     * @param partBytes        is the size of the completed part
+     * @param bytesTransferred is the number of bytes of every part completed so far
+     * @param totalBytes       is the size of the whole upload
+     */
+    void partCompleted(int partNumber, long partBytes, long bytesTransferred, long totalBytes);
+}
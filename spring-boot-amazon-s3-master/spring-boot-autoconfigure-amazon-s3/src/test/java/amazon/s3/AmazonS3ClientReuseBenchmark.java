@@ -0,0 +1,78 @@
+package amazon.s3;
+
+import com.amazonaws.auth.BasicSessionCredentials;
+import com.amazonaws.auth.StaticCredentialsProvider;
+import com.amazonaws.services.s3.AmazonS3Client;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.URL;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares building a new {@link AmazonS3Client} for every call with the client cached by {@link AmazonS3Template}.
+ * Each operation signs a presigned GET URL, which exercises the client and its credentials without touching the
+ * network, so the results are a lower bound: a per-call client also pays for a new TLS handshake on its first
+ * request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class AmazonS3ClientReuseBenchmark {
+
+    private StaticCredentialsProvider credentialsProvider;
+    private AmazonS3Template template;
+    private Date expiration;
+
+    @Setup
+    public void setup() {
+        credentialsProvider = new StaticCredentialsProvider(
+                new BasicSessionCredentials("AKIDEXAMPLE", "wJalrXUtnFEMI/K7MDENG", "session-token"));
+        template = new AmazonS3Template("benchmark", credentialsProvider);
+        expiration = new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1));
+    }
+
+    @TearDown
+    public void tearDown() {
+        template.destroy();
+    }
+
+    @Benchmark
+    public URL clientPerCall() {
+        AmazonS3Client client = new AmazonS3Client(credentialsProvider);
+        try {
+            return client.generatePresignedUrl("benchmark", "key", expiration);
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    @Benchmark
+    @Threads(8)
+    public URL clientPerCallConcurrent() {
+        return clientPerCall();
+    }
+
+    @Benchmark
+    public URL cachedClient() {
+        return template.getAmazonS3Client().generatePresignedUrl("benchmark", "key", expiration);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public URL cachedClientConcurrent() {
+        return cachedClient();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(AmazonS3ClientReuseBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
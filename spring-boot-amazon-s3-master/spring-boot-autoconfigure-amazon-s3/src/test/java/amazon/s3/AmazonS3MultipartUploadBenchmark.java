@@ -0,0 +1,82 @@
+package amazon.s3;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.transfer.model.UploadResult;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time to upload a 256MB file to a {@link LocalS3StandIn} with a single PUT and with multipart uploads
+ * of varying part size and concurrency. The stand-in limits each connection to 64MB/s with 20ms of latency per
+ * request, so the multipart results show how much of that per-connection limit concurrent parts recover.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AmazonS3MultipartUploadBenchmark {
+
+    private static final long FILE_SIZE = 256L * 1024 * 1024;
+
+    @Param({"8", "16"})
+    public int partSizeMb;
+
+    @Param({"1", "4", "8"})
+    public int concurrency;
+
+    private File file;
+    private LocalS3StandIn standIn;
+    private ExecutorService executor;
+    private MultipartUploader multipartUploader;
+    private MultipartUploader singlePutUploader;
+
+    @Setup
+    public void setup() throws IOException {
+        file = Files.createTempFile("multipart-benchmark", ".bin").toFile();
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(FILE_SIZE);
+        }
+
+        standIn = new LocalS3StandIn(20, 64L * 1024 * 1024);
+        executor = Executors.newFixedThreadPool(concurrency);
+        long partSize = partSizeMb * 1024L * 1024;
+        multipartUploader = new MultipartUploader(standIn.client(), executor, concurrency, partSize, partSize);
+        singlePutUploader = new MultipartUploader(standIn.client(), executor, concurrency, partSize, Long.MAX_VALUE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+        file.delete();
+    }
+
+    @Benchmark
+    public UploadResult singlePut() {
+        return singlePutUploader.upload("benchmark", "key", file, new ObjectMetadata(),
+                UploadProgressListener.NONE);
+    }
+
+    @Benchmark
+    public UploadResult multipart() {
+        return multipartUploader.upload("benchmark", "key", file, new ObjectMetadata(),
+                UploadProgressListener.NONE);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(AmazonS3MultipartUploadBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
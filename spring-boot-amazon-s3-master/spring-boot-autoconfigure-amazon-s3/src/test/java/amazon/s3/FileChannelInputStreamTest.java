@@ -0,0 +1,114 @@
+package amazon.s3;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class FileChannelInputStreamTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private byte[] content;
+    private FileChannel channel;
+
+    @Before
+    public void setup() throws IOException {
+        content = new byte[10000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i % 251);
+        }
+        File file = folder.newFile();
+        Files.write(file.toPath(), content);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        channel.close();
+    }
+
+    @Test
+    public void streamsReadTheirOwnRangeOfASharedChannel() throws IOException {
+        InputStream first = new FileChannelInputStream(channel, 0, 4000);
+        InputStream second = new FileChannelInputStream(channel, 4000, 6000);
+        ByteArrayOutputStream firstRead = new ByteArrayOutputStream();
+        ByteArrayOutputStream secondRead = new ByteArrayOutputStream();
+        byte[] buffer = new byte[700];
+
+        // Interleave the reads, positional reads must not disturb each other
+        int read;
+        boolean more = true;
+        while (more) {
+            more = false;
+            if ((read = first.read(buffer)) != -1) {
+                firstRead.write(buffer, 0, read);
+                more = true;
+            }
+            if ((read = second.read(buffer)) != -1) {
+                secondRead.write(buffer, 0, read);
+                more = true;
+            }
+        }
+
+        assertArrayEquals(Arrays.copyOfRange(content, 0, 4000), firstRead.toByteArray());
+        assertArrayEquals(Arrays.copyOfRange(content, 4000, 10000), secondRead.toByteArray());
+        assertEquals(0, channel.position());
+    }
+
+    @Test
+    public void readingStopsAtTheEndOfTheRange() throws IOException {
+        InputStream in = new FileChannelInputStream(channel, 9990, 5);
+        byte[] buffer = new byte[100];
+
+        assertEquals(5, in.available());
+        assertEquals(5, in.read(buffer));
+        assertEquals(-1, in.read(buffer));
+        assertEquals(-1, in.read());
+        assertEquals(0, in.available());
+    }
+
+    @Test
+    public void resetReplaysFromTheMark() throws IOException {
+        InputStream in = new FileChannelInputStream(channel, 1000, 3000);
+        assertTrue(in.markSupported());
+
+        // The SDK marks the body before sending it and resets it to retry the request
+        in.mark(Integer.MAX_VALUE);
+        assertEquals(content[1000] & 0xff, in.read());
+        assertEquals(500, in.skip(500));
+        in.reset();
+
+        assertArrayEquals(Arrays.copyOfRange(content, 1000, 4000), readFully(in));
+    }
+
+    @Test
+    public void closingAStreamLeavesTheChannelOpen() throws IOException {
+        new FileChannelInputStream(channel, 0, 10).close();
+
+        assertTrue(channel.isOpen());
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,177 @@
+package amazon.s3;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local stand-in for Amazon S3 that accepts uploads and serves downloads without a network. Each request pays a
+ * fixed latency and its body is consumed at a bounded per-connection bandwidth, which models the cost of a single
+ * HTTP connection to S3. Uploaded bytes are counted and discarded, downloads are served from objects stored with
+ * {@link #putContent(String, byte[])}.
+ */
+class LocalS3StandIn {
+
+    private final long latencyMillis;
+    private final long bytesPerSecond;
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final Map<String, byte[]> contents = new ConcurrentHashMap<>();
+
+    LocalS3StandIn(long latencyMillis, long bytesPerSecond) {
+        this.latencyMillis = latencyMillis;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    AmazonS3 client() {
+        return (AmazonS3) Proxy.newProxyInstance(AmazonS3.class.getClassLoader(), new Class<?>[]{AmazonS3.class},
+                (proxy, method, args) -> handle(method, args));
+    }
+
+    void putContent(String key, byte[] content) {
+        contents.put(key, content);
+    }
+
+    long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    int getRequests() {
+        return requests.get();
+    }
+
+    private Object handle(Method method, Object[] args) throws Exception {
+        requests.incrementAndGet();
+
+        switch (method.getName()) {
+            case "putObject": {
+                PutObjectRequest request = (PutObjectRequest) args[0];
+                InputStream body = request.getFile() != null
+                        ? new FileInputStream(request.getFile()) : request.getInputStream();
+                receive(body);
+                PutObjectResult result = new PutObjectResult();
+                result.setETag(UUID.randomUUID().toString());
+                return result;
+            }
+            case "initiateMultipartUpload": {
+                pause(latencyMillis);
+                InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+                result.setUploadId(UUID.randomUUID().toString());
+                return result;
+            }
+            case "uploadPart": {
+                UploadPartRequest request = (UploadPartRequest) args[0];
+                receive(request.getInputStream());
+                UploadPartResult result = new UploadPartResult();
+                result.setPartNumber(request.getPartNumber());
+                result.setETag(UUID.randomUUID().toString());
+                return result;
+            }
+            case "completeMultipartUpload": {
+                pause(latencyMillis);
+                CompleteMultipartUploadResult result = new CompleteMultipartUploadResult();
+                result.setETag(UUID.randomUUID().toString() + "-"
+                        + ((CompleteMultipartUploadRequest) args[0]).getPartETags().size());
+                return result;
+            }
+            case "getObjectMetadata":
+                pause(latencyMillis);
+                return metadata(content((String) args[1]), 0, content((String) args[1]).length);
+            case "getObject": {
+                GetObjectRequest request = (GetObjectRequest) args[0];
+                byte[] content = content(request.getKey());
+                List<String> eTags = request.getMatchingETagConstraints();
+                if (eTags != null && !eTags.isEmpty() && !eTags.contains(eTag(content))) {
+                    pause(latencyMillis);
+                    return null;
+                }
+                long[] range = request.getRange();
+                if (range != null && range[0] >= content.length) {
+                    pause(latencyMillis);
+                    AmazonS3Exception ex = new AmazonS3Exception("InvalidRange: " + request.getKey());
+                    ex.setStatusCode(416);
+                    throw ex;
+                }
+                int first = range == null ? 0 : (int) range[0];
+                int last = range == null ? content.length - 1 : (int) Math.min(range[1], content.length - 1);
+                int length = last - first + 1;
+                pause(latencyMillis + TimeUnit.SECONDS.toMillis(length) / bytesPerSecond);
+                S3Object object = new S3Object();
+                object.setKey(request.getKey());
+                object.setObjectMetadata(metadata(content, first, length));
+                if (range != null)
+                    object.getObjectMetadata().setHeader(Headers.CONTENT_RANGE,
+                            String.format("bytes %d-%d/%d", first, last, content.length));
+                object.setObjectContent(new ByteArrayInputStream(content, first, length));
+                return object;
+            }
+            case "abortMultipartUpload":
+                pause(latencyMillis);
+                return null;
+            case "shutdown":
+                return null;
+            default:
+                throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    private byte[] content(String key) {
+        byte[] content = contents.get(key);
+        if (content == null)
+            throw new AmazonS3Exception("NoSuchKey: " + key);
+        return content;
+    }
+
+    private static ObjectMetadata metadata(byte[] content, int first, int length) {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(length);
+        metadata.setHeader(Headers.ETAG, eTag(content));
+        return metadata;
+    }
+
+    private static String eTag(byte[] content) {
+        return Integer.toHexString(Arrays.hashCode(content));
+    }
+
+    /**
+     * Consume a request body at the stand-in's per-connection bandwidth
+     */
+    private void receive(InputStream body) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        byte[] buffer = new byte[64 * 1024];
+        long received = 0;
+
+        try (InputStream in = body) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                received += read;
+            }
+        }
+
+        bytesReceived.addAndGet(received);
+
+        long transferMillis = TimeUnit.SECONDS.toMillis(received) / bytesPerSecond;
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        pause(latencyMillis + Math.max(0, transferMillis - elapsedMillis));
+    }
+
+    private static void pause(long millis) throws InterruptedException {
+        if (millis > 0)
+            Thread.sleep(millis);
+    }
+}
@@ -0,0 +1,326 @@
+package amazon.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class MultipartUploaderTest {
+
+    private static final long ONE_GIGABYTE = 1024L * 1024 * 1024;
+    private static final int PART_SIZE = 8 * 1024 * 1024;
+    private static final int CONCURRENCY = 4;
+
+    private static final int FILE_PART_SIZE = 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        executor = Executors.newFixedThreadPool(CONCURRENCY);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * The tests run with a heap smaller than the stream (see the surefire argLine), so an upload that held the
+     * stream, or more than a bounded part of it, on the heap would fail with an OutOfMemoryError
+     */
+    @Test
+    public void oneGigabyteStreamIsUploadedWithinAHeapSmallerThanTheStream() {
+        assumeTrue("The heap must be smaller than the stream", Runtime.getRuntime().maxMemory() < ONE_GIGABYTE);
+
+        LocalS3StandIn standIn = new LocalS3StandIn(0, Long.MAX_VALUE / 1000);
+        MultipartUploader uploader = new MultipartUploader(standIn.client(), executor, CONCURRENCY, PART_SIZE,
+                PART_SIZE);
+        AtomicLong reported = new AtomicLong();
+
+        uploader.upload("bucket", "large", new GeneratedInputStream(ONE_GIGABYTE), new ObjectMetadata(), null,
+                (partNumber, partBytes, bytesTransferred, totalBytes) ->
+                        reported.accumulateAndGet(bytesTransferred, Math::max));
+
+        assertEquals(ONE_GIGABYTE, standIn.getBytesReceived());
+        assertEquals(ONE_GIGABYTE, reported.get());
+    }
+
+    @Test
+    public void shortStreamIsUploadedWithASinglePut() {
+        LocalS3StandIn standIn = new LocalS3StandIn(0, Long.MAX_VALUE / 1000);
+        MultipartUploader uploader = new MultipartUploader(standIn.client(), executor, CONCURRENCY, PART_SIZE,
+                PART_SIZE);
+
+        uploader.upload("bucket", "small", new GeneratedInputStream(1024), new ObjectMetadata(),
+                CannedAccessControlList.PublicRead, UploadProgressListener.NONE);
+
+        assertEquals(1024, standIn.getBytesReceived());
+        assertEquals(1, standIn.getRequests());
+    }
+
+    @Test
+    public void failedPartAbortsTheUpload() {
+        AmazonS3 amazonS3 = mock(AmazonS3.class);
+        InitiateMultipartUploadResult initiated = new InitiateMultipartUploadResult();
+        initiated.setUploadId("upload-id");
+        when(amazonS3.initiateMultipartUpload(any(InitiateMultipartUploadRequest.class))).thenReturn(initiated);
+        when(amazonS3.uploadPart(any(UploadPartRequest.class))).thenThrow(new AmazonServiceException("InternalError"));
+
+        MultipartUploader uploader = new MultipartUploader(amazonS3, executor, CONCURRENCY, PART_SIZE, PART_SIZE);
+
+        try {
+            uploader.upload("bucket", "failed", new GeneratedInputStream(3L * PART_SIZE), new ObjectMetadata(), null,
+                    UploadProgressListener.NONE);
+            fail("The upload should have failed");
+        } catch (AmazonClientException ex) {
+            verify(amazonS3).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+            verify(amazonS3, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void streamThatFailsMidUploadGivesItsBuffersBack() {
+        LocalS3StandIn standIn = new LocalS3StandIn(0, Long.MAX_VALUE / 1000);
+        MultipartUploader uploader = new MultipartUploader(standIn.client(), executor, CONCURRENCY, FILE_PART_SIZE,
+                FILE_PART_SIZE);
+
+        // Each failure happens while reading into a second buffer, more failures than there are buffers
+        for (int i = 0; i <= CONCURRENCY; i++) {
+            try {
+                uploader.upload("bucket", "disconnected", new DisconnectedInputStream(FILE_PART_SIZE + 100),
+                        new ObjectMetadata(), null, UploadProgressListener.NONE);
+                fail("The upload should have failed");
+            } catch (AmazonClientException ex) {
+                assertTrue(ex.getCause() instanceof IOException);
+            }
+        }
+
+        uploader.upload("bucket", "complete", new GeneratedInputStream(3 * FILE_PART_SIZE + 100),
+                new ObjectMetadata(), null, UploadProgressListener.NONE);
+    }
+
+    @Test
+    public void streamLongerThanThePartLimitIsRefusedBeforeItIsRead() {
+        AmazonS3 amazonS3 = multipartClient();
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(MultipartUploader.MAX_PARTS * (long) FILE_PART_SIZE + 1);
+        GeneratedInputStream in = new GeneratedInputStream(FILE_PART_SIZE);
+
+        try {
+            new MultipartUploader(amazonS3, executor, CONCURRENCY, FILE_PART_SIZE, FILE_PART_SIZE)
+                    .upload("bucket", "huge", in, metadata, null, UploadProgressListener.NONE);
+            fail("The upload should have been refused");
+        } catch (AmazonClientException ex) {
+            assertEquals(FILE_PART_SIZE, in.remaining);
+            verifyZeroInteractions(amazonS3);
+        }
+    }
+
+    @Test
+    public void largeFileIsUploadedInParts() throws IOException {
+        LocalS3StandIn standIn = new LocalS3StandIn(0, Long.MAX_VALUE / 1000);
+        MultipartUploader uploader = new MultipartUploader(standIn.client(), executor, CONCURRENCY, FILE_PART_SIZE,
+                FILE_PART_SIZE);
+        File file = file(3 * FILE_PART_SIZE + 100);
+
+        uploader.upload("bucket", "file", file, new ObjectMetadata(), UploadProgressListener.NONE);
+
+        assertEquals(file.length(), standIn.getBytesReceived());
+        // initiate, four parts and complete
+        assertEquals(6, standIn.getRequests());
+    }
+
+    @Test
+    public void retriedPartsAreReplayedFromTheFile() throws IOException {
+        AmazonS3 amazonS3 = multipartClient();
+        Map<Integer, byte[]> received = new TreeMap<>();
+        when(amazonS3.uploadPart(any(UploadPartRequest.class))).thenAnswer(invocation -> {
+            UploadPartRequest request = (UploadPartRequest) invocation.getArguments()[0];
+            InputStream in = request.getInputStream();
+
+            // Send part of the body, then fail and retry the request as the SDK does
+            in.mark(Integer.MAX_VALUE);
+            assertEquals(100, in.read(new byte[100]));
+            in.reset();
+
+            byte[] body = readFully(in);
+            synchronized (received) {
+                received.put(request.getPartNumber(), body);
+            }
+            UploadPartResult result = new UploadPartResult();
+            result.setPartNumber(request.getPartNumber());
+            result.setETag("etag-" + request.getPartNumber());
+            return result;
+        });
+        File file = file(2 * FILE_PART_SIZE + 300);
+
+        new MultipartUploader(amazonS3, executor, CONCURRENCY, FILE_PART_SIZE, FILE_PART_SIZE)
+                .upload("bucket", "file", file, new ObjectMetadata(), UploadProgressListener.NONE);
+
+        ByteArrayOutputStream uploaded = new ByteArrayOutputStream();
+        for (byte[] body : received.values()) {
+            uploaded.write(body);
+        }
+        assertEquals(3, received.size());
+        assertArrayEquals(Files.readAllBytes(file.toPath()), uploaded.toByteArray());
+        verify(amazonS3).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+
+    @Test
+    public void failedFileUploadIsAbortedOnceItsPartsInFlightHaveFinished() throws IOException {
+        AmazonS3 amazonS3 = multipartClient();
+        AtomicInteger partsInFlight = new AtomicInteger();
+        AtomicBoolean partInterrupted = new AtomicBoolean();
+        AtomicBoolean abortedWhilePartInFlight = new AtomicBoolean();
+        when(amazonS3.uploadPart(any(UploadPartRequest.class))).thenAnswer(invocation -> {
+            UploadPartRequest request = (UploadPartRequest) invocation.getArguments()[0];
+            if (request.getPartNumber() == 1)
+                throw new AmazonServiceException("InternalError");
+
+            partsInFlight.incrementAndGet();
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException ex) {
+                partInterrupted.set(true);
+            } finally {
+                partsInFlight.decrementAndGet();
+            }
+            UploadPartResult result = new UploadPartResult();
+            result.setPartNumber(request.getPartNumber());
+            return result;
+        });
+        doAnswer(invocation -> {
+            abortedWhilePartInFlight.set(partsInFlight.get() > 0);
+            return null;
+        }).when(amazonS3).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+
+        MultipartUploader uploader = new MultipartUploader(amazonS3, executor, CONCURRENCY, FILE_PART_SIZE,
+                FILE_PART_SIZE);
+
+        try {
+            uploader.upload("bucket", "failed", file(4 * FILE_PART_SIZE), new ObjectMetadata(),
+                    UploadProgressListener.NONE);
+            fail("The upload should have failed");
+        } catch (AmazonServiceException ex) {
+            verify(amazonS3).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+            verify(amazonS3, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+            assertFalse("The upload was aborted while a part was uploading", abortedWhilePartInFlight.get());
+            assertFalse("A part was interrupted on a transfer thread", partInterrupted.get());
+        }
+    }
+
+    private AmazonS3 multipartClient() {
+        AmazonS3 amazonS3 = mock(AmazonS3.class);
+        InitiateMultipartUploadResult initiated = new InitiateMultipartUploadResult();
+        initiated.setUploadId("upload-id");
+        when(amazonS3.initiateMultipartUpload(any(InitiateMultipartUploadRequest.class))).thenReturn(initiated);
+        when(amazonS3.completeMultipartUpload(any(CompleteMultipartUploadRequest.class)))
+                .thenReturn(new CompleteMultipartUploadResult());
+        return amazonS3;
+    }
+
+    private File file(int length) throws IOException {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (i % 251);
+        }
+        File file = folder.newFile();
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[512];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * A stream whose client disconnects after the given number of bytes
+     */
+    private static class DisconnectedInputStream extends InputStream {
+
+        private long remaining;
+
+        DisconnectedInputStream(long length) {
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0)
+                throw new IOException("Connection reset");
+            remaining--;
+            return 'x';
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0)
+                throw new IOException("Connection reset");
+            int read = (int) Math.min(length, remaining);
+            remaining -= read;
+            return read;
+        }
+    }
+
+    /**
+     * A stream of the given length that is generated as it is read rather than held in memory
+     */
+    private static class GeneratedInputStream extends InputStream {
+
+        private long remaining;
+
+        GeneratedInputStream(long length) {
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() {
+            if (remaining <= 0)
+                return -1;
+            remaining--;
+            return 'x';
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (remaining <= 0)
+                return -1;
+            int read = (int) Math.min(length, remaining);
+            remaining -= read;
+            return read;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package amazon.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class RangedDownloaderTest {
+
+    private static final int PART_SIZE = 256 * 1024;
+
+    private ExecutorService executor;
+
+    private LocalS3StandIn standIn;
+
+    private RangedDownloader downloader;
+
+    @Before
+    public void setup() {
+        executor = Executors.newFixedThreadPool(4);
+        standIn = new LocalS3StandIn(0, Long.MAX_VALUE / 1000);
+        downloader = new RangedDownloader(standIn.client(), executor, 4, PART_SIZE, 2 * PART_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void largeObjectIsDownloadedInRangesToAFile() throws Exception {
+        byte[] content = randomContent(10 * PART_SIZE + 123);
+        standIn.putContent("large", content);
+
+        File file = Files.createTempFile("ranged-download", ".bin").toFile();
+        try {
+            ObjectMetadata metadata = downloader.download("bucket", "large", file);
+            assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+            assertEquals(content.length, metadata.getContentLength());
+        } finally {
+            file.delete();
+        }
+
+        // The first request covers the threshold of two parts, nine ranges follow and no metadata is requested
+        assertEquals(10, standIn.getRequests());
+    }
+
+    @Test
+    public void largeObjectIsWrittenToAChannelInOrder() throws Exception {
+        byte[] content = randomContent(7 * PART_SIZE + 1);
+        standIn.putContent("large", content);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        downloader.download("bucket", "large", Channels.newChannel(out));
+
+        assertArrayEquals(content, out.toByteArray());
+    }
+
+    @Test
+    public void smallObjectIsDownloadedWithASingleGet() throws Exception {
+        byte[] content = randomContent(PART_SIZE);
+        standIn.putContent("small", content);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        downloader.download("bucket", "small", Channels.newChannel(out));
+
+        assertArrayEquals(content, out.toByteArray());
+        assertEquals(1, standIn.getRequests());
+    }
+
+    @Test
+    public void emptyObjectIsDownloaded() throws Exception {
+        standIn.putContent("empty", new byte[0]);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ObjectMetadata metadata = downloader.download("bucket", "empty", Channels.newChannel(out));
+
+        assertEquals(0, out.size());
+        assertEquals(0, metadata.getContentLength());
+    }
+
+    @Test(expected = AmazonClientException.class)
+    public void objectChangedDuringTheDownloadFailsIt() throws Exception {
+        AmazonS3 amazonS3 = mock(AmazonS3.class);
+
+        // The SDK returns no object when the ETag constraint of a following range is not met
+        when(amazonS3.getObject(any(GetObjectRequest.class)))
+                .thenReturn(firstRange("changed", 4 * PART_SIZE))
+                .thenReturn(null);
+
+        new RangedDownloader(amazonS3, executor, 4, PART_SIZE, 2 * PART_SIZE)
+                .download("bucket", "changed", Channels.newChannel(new ByteArrayOutputStream()));
+    }
+
+    @Test
+    public void failedFileDownloadReturnsOnceItsRangesInFlightHaveFinished() throws Exception {
+        AmazonS3 amazonS3 = mock(AmazonS3.class);
+        AtomicInteger rangesInFlight = new AtomicInteger();
+        AtomicBoolean rangeInterrupted = new AtomicBoolean();
+        when(amazonS3.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> {
+            long[] range = ((GetObjectRequest) invocation.getArguments()[0]).getRange();
+            if (range[0] == 0)
+                return firstRange("failed", 6 * PART_SIZE);
+            if (range[0] == 2 * PART_SIZE)
+                throw new AmazonServiceException("InternalError");
+
+            rangesInFlight.incrementAndGet();
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException ex) {
+                rangeInterrupted.set(true);
+            } finally {
+                rangesInFlight.decrementAndGet();
+            }
+            S3Object object = new S3Object();
+            object.setObjectContent(new ByteArrayInputStream(new byte[(int) (range[1] - range[0] + 1)]));
+            return object;
+        });
+
+        File file = Files.createTempFile("ranged-download", ".bin").toFile();
+        try {
+            new RangedDownloader(amazonS3, executor, 4, PART_SIZE, 2 * PART_SIZE).download("bucket", "failed", file);
+            fail("The download should have failed");
+        } catch (AmazonServiceException ex) {
+            assertEquals("A range was still in flight when the download failed", 0, rangesInFlight.get());
+            assertFalse("A range was interrupted on a transfer thread", rangeInterrupted.get());
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * @return the response to the first range of an object, which gives the size of the whole object
+     */
+    private static S3Object firstRange(String key, int contentLength) {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(2 * PART_SIZE);
+        metadata.setHeader(Headers.ETAG, "original");
+        metadata.setHeader(Headers.CONTENT_RANGE, String.format("bytes 0-%d/%d", 2 * PART_SIZE - 1, contentLength));
+
+        S3Object object = new S3Object();
+        object.setKey(key);
+        object.setObjectMetadata(metadata);
+        object.setObjectContent(new ByteArrayInputStream(new byte[2 * PART_SIZE]));
+        return object;
+    }
+
+    private static byte[] randomContent(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+}
@@ -0,0 +1,126 @@
+package amazon.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
+import com.amazonaws.services.securitytoken.model.Credentials;
+import com.amazonaws.services.securitytoken.model.GetSessionTokenRequest;
+import com.amazonaws.services.securitytoken.model.GetSessionTokenResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class SessionCredentialsRefresherTest {
+
+    private AWSSecurityTokenService stsClient;
+
+    private SessionCredentialsRefresher refresher;
+
+    @Before
+    public void setup() {
+        stsClient = mock(AWSSecurityTokenService.class);
+    }
+
+    @After
+    public void tearDown() {
+        if (refresher != null) {
+            refresher.close();
+        }
+    }
+
+    @Test
+    public void concurrentFirstRequestsShareOneSession() throws Exception {
+        when(stsClient.getSessionToken(any(GetSessionTokenRequest.class))).thenReturn(session("first", 3600000));
+        refresher = new SessionCredentialsRefresher(stsClient, 3600, 600000);
+
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        List<Future<AWSCredentials>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < 64; i++) {
+                results.add(executor.submit(refresher::getCredentials));
+            }
+            for (Future<AWSCredentials> result : results) {
+                assertEquals("first", result.get(5, TimeUnit.SECONDS).getAWSAccessKeyId());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        verify(stsClient, times(1)).getSessionToken(any(GetSessionTokenRequest.class));
+    }
+
+    @Test
+    public void sessionIsRenewedAheadOfExpiration() throws Exception {
+        when(stsClient.getSessionToken(any(GetSessionTokenRequest.class)))
+                .thenReturn(session("first", 1500))
+                .thenReturn(session("second", 3600000));
+        refresher = new SessionCredentialsRefresher(stsClient, 3600, 1000);
+
+        assertEquals("first", refresher.getCredentials().getAWSAccessKeyId());
+
+        verify(stsClient, timeout(3000).times(2)).getSessionToken(any(GetSessionTokenRequest.class));
+        assertEquals("second", refresher.getCredentials().getAWSAccessKeyId());
+    }
+
+    @Test
+    public void currentSessionIsServedWhenRenewalFails() throws Exception {
+        when(stsClient.getSessionToken(any(GetSessionTokenRequest.class)))
+                .thenReturn(session("first", 3000))
+                .thenThrow(new AmazonServiceException("Throttling"));
+        refresher = new SessionCredentialsRefresher(stsClient, 3600, 2500);
+
+        assertEquals("first", refresher.getCredentials().getAWSAccessKeyId());
+
+        verify(stsClient, timeout(3000).times(2)).getSessionToken(any(GetSessionTokenRequest.class));
+        assertEquals("first", refresher.getCredentials().getAWSAccessKeyId());
+    }
+
+    @Test
+    public void marginLongerThanTheSessionDoesNotRenewInALoop() throws Exception {
+        when(stsClient.getSessionToken(any(GetSessionTokenRequest.class))).thenReturn(session("first", 2000));
+        refresher = new SessionCredentialsRefresher(stsClient, 900, 3600000);
+
+        assertEquals("first", refresher.getCredentials().getAWSAccessKeyId());
+
+        verify(stsClient, after(1500).atMost(2)).getSessionToken(any(GetSessionTokenRequest.class));
+    }
+
+    @Test
+    public void expiredSessionFailsRequestsWhileRenewalsBackOff() throws Exception {
+        AmazonServiceException unavailable = new AmazonServiceException("Service unavailable");
+        when(stsClient.getSessionToken(any(GetSessionTokenRequest.class)))
+                .thenReturn(session("first", 500))
+                .thenThrow(unavailable);
+        refresher = new SessionCredentialsRefresher(stsClient, 3600, 0);
+
+        assertEquals("first", refresher.getCredentials().getAWSAccessKeyId());
+
+        verify(stsClient, timeout(3000).times(2)).getSessionToken(any(GetSessionTokenRequest.class));
+        try {
+            refresher.getCredentials();
+            fail();
+        } catch (AmazonClientException ex) {
+            assertSame(unavailable, ex.getCause());
+        }
+
+        // Retried after one and then two seconds, rather than every second
+        verify(stsClient, after(2500).atMost(3)).getSessionToken(any(GetSessionTokenRequest.class));
+    }
+
+    private static GetSessionTokenResult session(String accessKeyId, long validForMillis) {
+        return new GetSessionTokenResult().withCredentials(new Credentials(accessKeyId, "secret", "token",
+                new Date(System.currentTimeMillis() + validForMillis)));
+    }
+}
@@ -1,11 +1,12 @@
 package io.pivotal.services.s3.service;
 
+import amazon.client.AmazonClientFactory;
+import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.auth.StaticCredentialsProvider;
 import com.amazonaws.services.identitymanagement.AmazonIdentityManagement;
-import com.amazonaws.services.identitymanagement.AmazonIdentityManagementClient;
 import com.amazonaws.services.identitymanagement.model.*;
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.CreateBucketRequest;
 import com.amazonaws.services.s3.model.DeleteObjectsRequest;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
@@ -41,15 +42,17 @@ public class S3Service {
     private AmazonS3 amazonS3;
 
     @Autowired
-    public S3Service(@Value("${aws.access-key-id}") String awsAccessKeyId,
+    public S3Service(AmazonClientFactory amazonClientFactory,
+                     @Value("${aws.access-key-id}") String awsAccessKeyId,
                      @Value("${aws.secret-access-key}") String awsSecretAccessKey) {
+        AWSCredentialsProvider credentialsProvider =
+                new StaticCredentialsProvider(new BasicAWSCredentials(awsAccessKeyId, awsSecretAccessKey));
+
         // Create identity management client
-        this.identityManagement =
-                new AmazonIdentityManagementClient(
-                        new BasicAWSCredentials(awsAccessKeyId, awsSecretAccessKey));
+        this.identityManagement = amazonClientFactory.createIdentityManagement(credentialsProvider);
 
         // Create S3 client
-        this.amazonS3 = new AmazonS3Client(new BasicAWSCredentials(awsAccessKeyId, awsSecretAccessKey));
+        this.amazonS3 = amazonClientFactory.createS3(credentialsProvider);
     }
 
     /**